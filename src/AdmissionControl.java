@@ -0,0 +1,235 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The AdmissionControl class holds the limits that keep the server responsive under overload,
+ * whichever engine serves the connections.
+ * * <p>Three limits protect it: connections beyond {@code maxConnections} are closed as soon
+ * as they are accepted; each connection may send {@code rateLimit} orders per second, with
+ * bursts of up to {@code rateBurst}; and at most {@code maxInFlight} orders are applied at
+ * the same time across all connections. An order refused by either of the last two is
+ * answered with {@link OrderSession#BUSY} and not applied, so the client can back off and
+ * resend it later. Connections without input for {@code idleTimeout} seconds are closed.</p>
+ * * <p>All limits are plain volatile fields read on every check, so changing them through
+ * JMX takes effect at once without a restart.</p>
+ */
+class AdmissionControl implements AdmissionControlMBean {
+    private volatile int maxConnections = Integer.MAX_VALUE;
+    private volatile int maxInFlight = Integer.MAX_VALUE;
+    private volatile int rateLimit;
+    private volatile int rateBurst = 1;
+    private volatile int idleTimeout;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder busy = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+
+    /**
+     * Applies the limits from the command line and registers with the platform MBean server.
+     * Until then nothing is limited.
+     * @param config The server configuration.
+     */
+    public void start(ServerConfig config) {
+        setMaxConnections(config.maxConnections);
+        setMaxInFlight(config.maxInFlight);
+        setRateLimit(config.rateLimit);
+        setRateBurst(config.rateBurst);
+        setIdleTimeout(config.idleTimeout);
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("OrderServer:type=AdmissionControl"));
+        } catch (JMException e) {
+            System.err.println("Could not register admission control with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Counts a newly accepted connection, unless the connection limit is reached.
+     * @return {@code true} if the connection may be served; it must then be ended with
+     *         {@link #connectionClosed}. {@code false} if it must be shed.
+     */
+    public boolean connectionOpened() {
+        while (true) {
+            int current = connections.get();
+            if (current >= maxConnections) {
+                shed.increment();
+                return false;
+            }
+            if (connections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Ends a connection admitted by {@link #connectionOpened}. */
+    public void connectionClosed() {
+        connections.decrementAndGet();
+    }
+
+    /**
+     * Admits orders for applying, unless too many are in flight already.
+     * A group larger than the limit is still admitted when nothing else is in flight,
+     * so a big batch is slow rather than refused forever.
+     * @param orders The number of orders, at least 1.
+     * @return       {@code true} if they may be applied; they must then be ended with {@link #exit}.
+     */
+    public boolean enter(int orders) {
+        while (true) {
+            int current = inFlight.get();
+            if (current > 0 && current + orders > maxInFlight) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + orders)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends orders admitted by {@link #enter}.
+     * @param orders The number passed to {@link #enter}.
+     */
+    public void exit(int orders) {
+        inFlight.addAndGet(-orders);
+    }
+
+    /**
+     * Counts orders answered with {@link OrderSession#BUSY}.
+     * @param orders The number of refused orders.
+     */
+    public void refused(int orders) {
+        busy.add(orders);
+    }
+
+    /**
+     * Creates the rate limiter of one connection.
+     * @return A bucket that starts full.
+     */
+    public TokenBucket newBucket() {
+        return new TokenBucket(this);
+    }
+
+    /**
+     * Formats the admission counters as {@code key=value} pairs, for the STATS command.
+     * @return The formatted counters.
+     */
+    public String format() {
+        return "in_flight=" + getInFlight() + " busy=" + getBusyResponses() + " shed=" + getShedConnections();
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @Override
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = atLeast("maxConnections", maxConnections, 1);
+    }
+
+    @Override
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = atLeast("maxInFlight", maxInFlight, 1);
+    }
+
+    @Override
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    @Override
+    public void setRateLimit(int rateLimit) {
+        this.rateLimit = atLeast("rateLimit", rateLimit, 0);
+    }
+
+    @Override
+    public int getRateBurst() {
+        return rateBurst;
+    }
+
+    @Override
+    public void setRateBurst(int rateBurst) {
+        this.rateBurst = atLeast("rateBurst", rateBurst, 1);
+    }
+
+    @Override
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @Override
+    public void setIdleTimeout(int idleTimeout) {
+        this.idleTimeout = atLeast("idleTimeout", idleTimeout, 0);
+    }
+
+    @Override
+    public int getConnections() {
+        return connections.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getBusyResponses() {
+        return busy.sum();
+    }
+
+    @Override
+    public long getShedConnections() {
+        return shed.sum();
+    }
+
+    private static int atLeast(String name, int value, int min) {
+        if (value < min) {
+            throw new IllegalArgumentException(name + " must be at least " + min);
+        }
+        return value;
+    }
+
+    /**
+     * The rate limiter of one connection. Tokens refill continuously at the current rate
+     * limit, up to the current burst size, and each order takes one.
+     * Only the connection's own thread uses it, so it needs no synchronization.
+     */
+    static final class TokenBucket {
+        private final AdmissionControl control;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        private TokenBucket(AdmissionControl control) {
+            this.control = control;
+            this.tokens = control.rateBurst;
+        }
+
+        /**
+         * Takes a token for one order if there is one.
+         * @param now The current {@link System#nanoTime()}.
+         * @return    {@code true} if the order is within the rate limit.
+         */
+        boolean tryTake(long now) {
+            int rate = control.rateLimit;
+            if (rate == 0) {
+                return true;
+            }
+            tokens = Math.min(control.rateBurst, tokens + (now - last) * 1e-9 * rate);
+            last = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
\ No newline at end of file
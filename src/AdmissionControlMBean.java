@@ -0,0 +1,47 @@
+/**
+ * JMX view of {@link AdmissionControl}.
+ * The limits can be changed while the server runs; changes apply to the next order or connection.
+ */
+public interface AdmissionControlMBean {
+    /** @return Open connections allowed before new ones are shed. */
+    int getMaxConnections();
+
+    /** @param maxConnections Open connections allowed before new ones are shed, at least 1. */
+    void setMaxConnections(int maxConnections);
+
+    /** @return Orders allowed to be applied at the same time across all connections. */
+    int getMaxInFlight();
+
+    /** @param maxInFlight Orders allowed to be applied at the same time, at least 1. */
+    void setMaxInFlight(int maxInFlight);
+
+    /** @return Orders per second allowed on one connection, 0 for no limit. */
+    int getRateLimit();
+
+    /** @param rateLimit Orders per second allowed on one connection, 0 for no limit. */
+    void setRateLimit(int rateLimit);
+
+    /** @return Orders a connection may send at once above its rate. */
+    int getRateBurst();
+
+    /** @param rateBurst Orders a connection may send at once above its rate, at least 1. */
+    void setRateBurst(int rateBurst);
+
+    /** @return Seconds without input after which a connection is closed, 0 for never. */
+    int getIdleTimeout();
+
+    /** @param idleTimeout Seconds without input after which a connection is closed, 0 for never. */
+    void setIdleTimeout(int idleTimeout);
+
+    /** @return Connections currently counted against the limit. */
+    int getConnections();
+
+    /** @return Orders being applied right now. */
+    int getInFlight();
+
+    /** @return Orders answered with {@link OrderSession#BUSY} since startup. */
+    long getBusyResponses();
+
+    /** @return Connections shed at the connection limit since startup. */
+    long getShedConnections();
+}
\ No newline at end of file
@@ -0,0 +1,358 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The AsyncOrderConnection class is the client side of the order protocol, off the caller's thread.
+ * {@link #send(String)} only queues a line and returns a future. A writer thread sends
+ * queued lines back to back without waiting for responses, and a reader thread matches
+ * each response to the oldest unanswered line (the server answers in order).
+ * * <p>Orders queued with {@link #sendOrder} carry a random request ID. If the connection
+ * drops before they are answered, they are sent again on the next connection with the same
+ * ID, and the server answers a copy it already applied with the original code instead of
+ * applying it twice, see {@link DedupCache}. Plain lines have no ID, so the client cannot
+ * know whether the server applied them and they fail with the error. The next queued
+ * request reconnects, retrying a few times with a growing delay.</p>
+ * * <p>In binary mode orders travel as {@link BinaryOrderCodec} frames and only
+ * {@link #sendOrder} can be used; responses are still reported as code strings such as "100".</p>
+ */
+class AsyncOrderConnection {
+    private static final int CONNECT_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MS = 250;
+    private static final int CONNECT_TIMEOUT_MS = 3000;
+    /** Times an order is sent again after its connection dropped before it fails. */
+    private static final int MAX_RESENDS = 3;
+    /** Charset of text lines, matching the server's reader and writer. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final String host;
+    private final int port;
+    private final boolean binary;
+    /** Lines waiting to be written; orders to resend are put back at the front. */
+    private final BlockingDeque<Request> outgoing = new LinkedBlockingDeque<>();
+    /** Lines written on the current socket and still waiting for a response, oldest first. */
+    private final ConcurrentLinkedQueue<Request> inFlight = new ConcurrentLinkedQueue<>();
+    private final Thread writer;
+
+    private volatile Socket socket;
+    private DataOutputStream out;
+    /** Frame encoder of the current socket; the server forgets sent names when a connection ends. */
+    private BinaryOrderCodec codec;
+    private volatile boolean closed;
+
+    /** A queued request and the future of its response. */
+    private static final class Request {
+        /** The text line, or {@code null} for an order given as fields. */
+        final String line;
+        final String name;
+        final int id;
+        final int itemType;
+        final int quantity;
+        /** Request ID of an order, or 0 for a plain line, which is never resent. */
+        final long requestId;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+        /** Times this request was put back after a dropped connection; only used under the connection's lock. */
+        int resends;
+
+        Request(String line) {
+            this(line, null, 0, 0, 0, 0);
+        }
+
+        Request(String line, String name, int id, int itemType, int quantity, long requestId) {
+            this.line = line;
+            this.name = name;
+            this.id = id;
+            this.itemType = itemType;
+            this.quantity = quantity;
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * Constructs a new text-protocol AsyncOrderConnection. Nothing is connected until the first line is sent.
+     * @param host The server host.
+     * @param port The server port.
+     */
+    public AsyncOrderConnection(String host, int port) {
+        this(host, port, false);
+    }
+
+    /**
+     * Constructs a new AsyncOrderConnection. Nothing is connected until the first request is sent.
+     * @param host   The server host.
+     * @param port   The server port.
+     * @param binary Whether to use the binary protocol instead of text lines.
+     */
+    public AsyncOrderConnection(String host, int port, boolean binary) {
+        this.host = host;
+        this.port = port;
+        this.binary = binary;
+        this.writer = new Thread(this::writeLoop, "order-connection-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues a line for sending.
+     * @param line The request line, without terminator.
+     * @return     A future completed with the server's response line, or exceptionally
+     *             if the line could not be sent or the connection dropped before the answer.
+     */
+    public CompletableFuture<String> send(String line) {
+        Request request = new Request(line);
+        if (binary) {
+            request.response.completeExceptionally(
+                    new UnsupportedOperationException("Text lines cannot be sent in binary mode"));
+            return request.response;
+        }
+        return enqueue(request);
+    }
+
+    /**
+     * Queues an order for sending, in whichever protocol this connection uses.
+     * @param name     The business name.
+     * @param id       The business ID.
+     * @param itemType The item type.
+     * @param quantity The quantity.
+     * @return         A future completed with the server's response code, as with {@link #send};
+     *                  a dropped connection only fails it after {@link #MAX_RESENDS} resends.
+     */
+    public CompletableFuture<String> sendOrder(String name, int id, int itemType, int quantity) {
+        long requestId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+        String line = binary ? null : name + "," + id + "," + itemType + "," + quantity + "," + requestId;
+        return enqueue(new Request(line, name, id, itemType, quantity, requestId));
+    }
+
+    private CompletableFuture<String> enqueue(Request request) {
+        if (closed) {
+            request.response.completeExceptionally(new IOException("Connection is closed"));
+        } else {
+            outgoing.add(request);
+        }
+        return request.response;
+    }
+
+    /**
+     * Returns how many lines are queued or waiting for a response.
+     * @return The number of pending requests.
+     */
+    public int pending() {
+        return outgoing.size() + inFlight.size();
+    }
+
+    /**
+     * Sends DISCONNECT if connected, closes the socket and fails anything still pending.
+     */
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        Socket current = socket;
+        if (current != null) {
+            synchronized (this) {
+                if (out != null) {
+                    try {
+                        if (binary) {
+                            codec.writeDisconnect(out);
+                        } else {
+                            out.write(("DISCONNECT\n").getBytes(CHARSET));
+                        }
+                        out.flush();
+                    } catch (IOException ignored) {
+                        // closing anyway
+                    }
+                }
+            }
+            closeQuietly(current);
+        }
+        IOException error = new IOException("Connection is closed");
+        // under the lock, so a connection dropping right now cannot put orders back afterwards
+        synchronized (this) {
+            failAll(inFlight, error);
+            failAll(outgoing, error);
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed) {
+            Request request;
+            try {
+                request = outgoing.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            boolean written = false;
+            try {
+                ensureConnected();
+                synchronized (this) {
+                    if (out == null) {
+                        // the reader dropped the socket since it was checked: this request was
+                        // never written, so it goes first on the next socket, within the resend limit
+                        if (!closed && request.resends++ < MAX_RESENDS) {
+                            outgoing.addFirst(request);
+                        } else {
+                            request.response.completeExceptionally(new IOException("Server closed the connection"));
+                        }
+                        continue;
+                    }
+                    inFlight.add(request);
+                    written = true;
+                    if (binary) {
+                        codec.writeOrder(out, request.name, request.id, request.itemType, request.quantity,
+                                request.requestId);
+                    } else {
+                        out.write((request.line + "\n").getBytes(CHARSET));
+                    }
+                    // a burst of queued lines goes out in one write
+                    if (outgoing.isEmpty()) {
+                        out.flush();
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // not encodable, for example a name longer than a frame; the socket is still fine
+                inFlight.remove(request);
+                request.response.completeExceptionally(e);
+            } catch (IOException e) {
+                // once in flight, the request is failed or resent with the others of the socket
+                if (!written) {
+                    request.response.completeExceptionally(e);
+                }
+                dropConnection(socket, e);
+            } catch (InterruptedException e) {
+                request.response.completeExceptionally(new IOException("Connection is closed"));
+                return;
+            } catch (RuntimeException e) {
+                // the writer must survive anything, or every later request would wait forever
+                if (!written) {
+                    request.response.completeExceptionally(e);
+                }
+                dropConnection(socket, new IOException("Writing failed", e));
+            }
+        }
+    }
+
+    /**
+     * Opens a socket if there is none, retrying with a growing delay.
+     */
+    private void ensureConnected() throws IOException, InterruptedException {
+        if (socket != null && !socket.isClosed()) {
+            return;
+        }
+        IOException last = null;
+        for (int attempt = 0; attempt < CONNECT_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(RETRY_DELAY_MS << (attempt - 1));
+            }
+            try {
+                Socket fresh = new Socket();
+                fresh.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                fresh.setTcpNoDelay(true);
+                synchronized (this) {
+                    out = new DataOutputStream(new BufferedOutputStream(fresh.getOutputStream()));
+                    if (binary) {
+                        codec = new BinaryOrderCodec();
+                        out.write(BinaryOrderCodec.MAGIC);
+                    }
+                    socket = fresh;
+                }
+                InputStream in = new BufferedInputStream(fresh.getInputStream());
+                Thread reader = new Thread(() -> readLoop(fresh, in), "order-connection-reader");
+                reader.setDaemon(true);
+                reader.start();
+                return;
+            } catch (IOException e) {
+                last = e;
+            }
+        }
+        throw last;
+    }
+
+    private void readLoop(Socket owner, InputStream in) {
+        BufferedReader lines = binary ? null : new BufferedReader(new InputStreamReader(in, CHARSET));
+        try {
+            String line;
+            while ((line = binary ? readCode(in) : lines.readLine()) != null) {
+                Request request;
+                synchronized (this) {
+                    if (socket != owner) {
+                        // leftovers of a socket that was already dropped
+                        return;
+                    }
+                    request = inFlight.poll();
+                }
+                if (request != null) {
+                    request.response.complete(line);
+                }
+            }
+            dropConnection(owner, new IOException("Server closed the connection"));
+        } catch (IOException e) {
+            dropConnection(owner, e);
+        }
+    }
+
+    /**
+     * Reads one single-byte binary response as its code string, or {@code null} at end of stream.
+     */
+    private static String readCode(InputStream in) throws IOException {
+        int code = in.read();
+        return code < 0 ? null : Integer.toString(code);
+    }
+
+    /**
+     * Closes the current socket, queues the orders that were waiting on it to be sent again
+     * ahead of everything else, and fails the rest.
+     * Does nothing if {@code owner} has already been replaced by a newer socket.
+     */
+    private synchronized void dropConnection(Socket owner, IOException cause) {
+        if (owner != socket) {
+            return;
+        }
+        if (socket != null) {
+            closeQuietly(socket);
+            socket = null;
+            out = null;
+        }
+        ArrayDeque<Request> resend = new ArrayDeque<>();
+        Request request;
+        while ((request = inFlight.poll()) != null) {
+            if (!closed && request.requestId != 0 && request.resends < MAX_RESENDS) {
+                request.resends++;
+                resend.push(request);
+            } else {
+                request.response.completeExceptionally(cause);
+            }
+        }
+        // pushed newest first, so adding each to the front restores the original order
+        for (Request r : resend) {
+            outgoing.addFirst(r);
+        }
+    }
+
+    private static void failAll(Queue<Request> requests, IOException cause) {
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.response.completeExceptionally(cause);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,277 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The BinaryOrderCodec class encodes and decodes the compact binary form of the order protocol.
+ * A client selects it by sending {@link #MAGIC} as the very first byte of the connection;
+ * a text line can never start with that byte, so the server tells the two apart without a round trip.
+ * * <p>After the magic byte the client sends frames, each an unsigned 16-bit big-endian length
+ * followed by that many bytes:</p>
+ * <pre>
+ *   byte    type        1 = order, 2 = order with name, 3 = disconnect,
+ *                       4 and 5 = like 1 and 2 with a request ID
+ *   int     id          big-endian (orders only)
+ *   byte    itemType    unsigned (orders only)
+ *   varint  quantity    zigzag-encoded, so zero and negative values survive (orders only)
+ *   long    requestId   big-endian, positive, see {@link DedupCache} (types 4 and 5 only)
+ *   bytes   name        UTF-8, the rest of the frame (types 2 and 5 only)
+ * </pre>
+ * <p>The name is sent only the first time an ID is used on a connection, or when it changes;
+ * both ends remember the last name per ID. Every order frame is answered with a single byte
+ * holding the same response code the text protocol would send, in request order.</p>
+ * * <p>One instance holds the name table of one connection, so each side of a connection
+ * needs its own.</p>
+ */
+class BinaryOrderCodec {
+    /** First byte sent by a binary client. Never the first byte of a text line, which is ASCII or UTF-8 text. */
+    public static final int MAGIC = 0xB1;
+    /** Largest frame body, limited by the 16-bit length prefix. */
+    public static final int MAX_FRAME_LENGTH = 0xFFFF;
+    /** Returned by {@link #decode} for a disconnect frame. */
+    public static final int DISCONNECT = -1;
+
+    private static final int TYPE_ORDER = 1;
+    private static final int TYPE_ORDER_WITH_NAME = 2;
+    private static final int TYPE_DISCONNECT = 3;
+    /** Added to an order type when a request ID follows the quantity. */
+    private static final int WITH_REQUEST_ID = 3;
+    /** Fixed part of an order frame: type, id and item type. */
+    private static final int ORDER_HEADER = 6;
+
+    /** Marker stored for a received name that the text protocol could not carry. Compared by identity. */
+    private static final String REFUSED = new String("");
+
+    /** Last name sent or received for each ID on this connection. */
+    private final NameTable names = new NameTable();
+
+    /**
+     * Writes one order frame, including the name only if this connection has not sent it for the ID yet.
+     * @param out      Destination, usually a buffered socket stream.
+     * @param name     The business name.
+     * @param id       The business ID.
+     * @param itemType The item type, 0..255.
+     * @param quantity The quantity; any value, the server validates it.
+     * @throws IOException If writing fails.
+     */
+    public void writeOrder(DataOutput out, String name, int id, int itemType, int quantity) throws IOException {
+        writeOrder(out, name, id, itemType, quantity, 0);
+    }
+
+    /**
+     * Writes one order frame with a request ID, so that the server can recognize a resend.
+     * @param out       Destination, usually a buffered socket stream.
+     * @param name      The business name.
+     * @param id        The business ID.
+     * @param itemType  The item type, 0..255.
+     * @param quantity  The quantity; any value, the server validates it.
+     * @param requestId A positive request ID, or 0 for none.
+     * @throws IOException If writing fails.
+     */
+    public void writeOrder(DataOutput out, String name, int id, int itemType, int quantity, long requestId)
+            throws IOException {
+        if (itemType < 0 || itemType > 255) {
+            throw new IllegalArgumentException("Item type does not fit in a byte: " + itemType);
+        }
+        boolean withName = !name.equals(names.get(id));
+        byte[] nameBytes = withName ? name.getBytes(StandardCharsets.UTF_8) : null;
+        int zigzag = (quantity << 1) ^ (quantity >> 31);
+        int length = ORDER_HEADER + varintSize(zigzag) + (requestId != 0 ? 8 : 0) + (withName ? nameBytes.length : 0);
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Name is too long for a frame: " + nameBytes.length + " bytes");
+        }
+        out.writeShort(length);
+        out.writeByte((withName ? TYPE_ORDER_WITH_NAME : TYPE_ORDER) + (requestId != 0 ? WITH_REQUEST_ID : 0));
+        out.writeInt(id);
+        out.writeByte(itemType);
+        while ((zigzag & ~0x7F) != 0) {
+            out.writeByte((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        out.writeByte(zigzag);
+        if (requestId != 0) {
+            out.writeLong(requestId);
+        }
+        if (withName) {
+            out.write(nameBytes);
+            remember(id, name);
+        }
+    }
+
+    /**
+     * Writes a disconnect frame.
+     * @param out Destination.
+     * @throws IOException If writing fails.
+     */
+    public void writeDisconnect(DataOutput out) throws IOException {
+        out.writeShort(1);
+        out.writeByte(TYPE_DISCONNECT);
+    }
+
+    /**
+     * Decodes one frame body.
+     * Only absolute reads are used, so the buffer's position and limit are left untouched
+     * and direct buffers are read in place.
+     * @param buf   Buffer holding the frame.
+     * @param off   Index of the first byte after the length prefix.
+     * @param len   Frame length.
+     * @param order Receives the fields of a valid order.
+     * @return      0 for a valid order, {@link #DISCONNECT}, or the response code: 200 or 202.
+     */
+    public int decode(ByteBuffer buf, int off, int len, Order order) {
+        if (len < 1) {
+            return OrderSession.INVALID;
+        }
+        int type = buf.get(off);
+        if (type == TYPE_DISCONNECT) {
+            return len == 1 ? DISCONNECT : OrderSession.INVALID;
+        }
+        boolean hasRequestId = type > TYPE_DISCONNECT;
+        if (hasRequestId) {
+            type -= WITH_REQUEST_ID;
+        }
+        if ((type != TYPE_ORDER && type != TYPE_ORDER_WITH_NAME) || len < ORDER_HEADER + 1) {
+            return OrderSession.INVALID;
+        }
+        int id = buf.getInt(off + 1);
+        int itemType = buf.get(off + 5) & 0xFF;
+        int end = off + len;
+        int pos = off + ORDER_HEADER;
+        int zigzag = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (pos == end || shift > 28) {
+                return OrderSession.INVALID;
+            }
+            byte b = buf.get(pos++);
+            zigzag |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        int quantity = (zigzag >>> 1) ^ -(zigzag & 1);
+        long requestId = 0;
+        if (hasRequestId) {
+            if (end - pos < 8) {
+                return OrderSession.INVALID;
+            }
+            requestId = buf.getLong(pos);
+            pos += 8;
+        }
+        String name;
+        if (type == TYPE_ORDER_WITH_NAME) {
+            byte[] bytes = new byte[end - pos];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = buf.get(pos + i);
+            }
+            name = new String(bytes, StandardCharsets.UTF_8);
+            // the client now treats this name as sent, so a refused one must be remembered as refused
+            remember(id, expressibleAsText(name) ? name : REFUSED);
+            name = names.get(id);
+        } else {
+            if (pos != end) {
+                return OrderSession.INVALID;
+            }
+            name = names.get(id);
+        }
+        if (id < 10000 || id > 99999 || name == null || name == REFUSED || requestId < 0) {
+            return OrderSession.INVALID;
+        }
+        if (quantity <= 0) {
+            return OrderSession.BAD_QUANTITY;
+        }
+        order.set(name, id, itemType, quantity);
+        order.requestId = requestId;
+        return 0;
+    }
+
+    /**
+     * Remembers the name of a valid ID. Other IDs always carry their name,
+     * which keeps the table bounded by the ID range.
+     */
+    private void remember(int id, String name) {
+        if (id >= 10000 && id <= 99999) {
+            names.put(id, name);
+        }
+    }
+
+    /**
+     * Returns whether a text order line could carry the name, which is then trimmed the same way.
+     * Names outside that set are refused, so both protocols create the same businesses
+     * and binary orders can be forwarded to other shards as text.
+     */
+    private static boolean expressibleAsText(String name) {
+        if (!name.equals(name.trim())) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * An open-addressing map from int to String, so name lookups do not box the ID.
+     */
+    private static final class NameTable {
+        private int[] keys = new int[64];
+        private String[] values = new String[64];
+        private int size;
+
+        String get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int key, String value) {
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+            if (size * 2 > keys.length) {
+                grow();
+            }
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new String[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
\ No newline at end of file
@@ -1,16 +1,32 @@
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 /**
  * Represents a business client in the order management system.
  * This class stores the business details and tracks the quantities of items ordered.
- * It is designed to be thread-safe for inventory updates.
+ * It is designed to be thread-safe for inventory updates without locks: the totals of all
+ * item types live in one array that is never modified once published. An order publishes
+ * a changed copy with a compare-and-set and retries if another order got there first, so
+ * no thread ever waits for another one, and every read sees the totals of all item types
+ * at one moment.
  */
 
 public class BusinessClient{
     private String name;
     private int BusinessId;
-    private int sunglasssesCount = 0;
-    private int beltsCount = 0;
-    private int scarvesCount = 0;
+    /** Item type code for sunglasses. */
+    public static final int SUNGLASSES = 1;
+    /** Item type code for belts. */
+    public static final int BELTS = 2;
+    /** Item type code for scarves. */
+    public static final int SCARVES = 3;
+    /** Number of item types; valid codes are 1..ITEM_TYPES. */
+    public static final int ITEM_TYPES = 3;
+
+    /** Running totals indexed by {@code itemType - 1}; the array is replaced, never modified. */
+    private final AtomicReference<long[]> totals = new AtomicReference<>(new long[ITEM_TYPES]);
+    /** Whether the client waits in the change queue of the {@link TotalsIndex}. */
+    private final AtomicBoolean queued = new AtomicBoolean();
 
     /**
      * Constructs a new BusinessClient with a name and a unique ID.
@@ -39,31 +55,85 @@ public int getBusinessId(){
 }
     /**
      * Updates the inventory for a specific item type.
-     * This method is synchronized to ensure thread safety when multiple clients
-     * update the same business record simultaneously.
+     * The update is lock-free; unknown item types are ignored.
      * * @param itemType The type of item (1: Sunglasses, 2: Belts, 3: Scarves).
      * @param amount   The quantity to be added to the current stock.
      */
-public synchronized void updateItems(int itemType, int amount){
-    switch (itemType){
-        case 1:
-            sunglasssesCount += amount;
-            break;
-            case 2:
-                beltsCount += amount;
-                break;
-                case 3:
-                    scarvesCount += amount;
-                    break;
+public void updateItems(int itemType, long amount){
+    if (itemType < 1 || itemType > ITEM_TYPES) {
+        return;
+    }
+    long[] current;
+    long[] updated;
+    do {
+        current = totals.get();
+        updated = current.clone();
+        updated[itemType - 1] += amount;
+    } while (!totals.compareAndSet(current, updated));
+}
+
+    /**
+     * Adds a whole set of quantities at once, as produced by a batch of orders.
+     * All amounts are published together, so readers see either none or all of them.
+     * @param amounts Quantities to add, indexed by {@code itemType - 1}.
+     */
+    public void updateItems(long[] amounts) {
+        long[] current;
+        long[] updated;
+        do {
+            current = totals.get();
+            updated = current.clone();
+            for (int i = 0; i < ITEM_TYPES; i++) {
+                updated[i] += amounts[i];
+            }
+        } while (!totals.compareAndSet(current, updated));
+    }
+
+    /**
+     * Returns the current total for one item type.
+     * @param itemType The type of item (1: Sunglasses, 2: Belts, 3: Scarves).
+     * @return The total ordered so far, or 0 for an unknown item type.
+     */
+    public long getCount(int itemType) {
+        if (itemType < 1 || itemType > ITEM_TYPES) {
+            return 0;
+        }
+        return totals.get()[itemType - 1];
+    }
+
+    /**
+     * Returns the totals of all item types at one moment, without blocking writers.
+     * Every order is either fully included or not at all.
+     * @return A new array indexed by {@code itemType - 1}.
+     */
+    public long[] snapshot() {
+        return totals.get().clone();
     }
+
+    /**
+     * Marks the client as changed for the {@link TotalsIndex}.
+     * A hot client that is already marked costs a single read.
+     * @return {@code true} if it was not marked yet, so the caller must queue it.
+     */
+boolean markQueued(){
+    return !queued.get() && queued.compareAndSet(false, true);
 }
+
+    /**
+     * Clears the mark once the {@link TotalsIndex} has taken the client off its queue.
+     */
+void clearQueued(){
+    queued.set(false);
+}
+
     /**
      * Provides a string representation of the business client and their current order totals.
      * @return A formatted string with business info and item counts.
      */
 @Override
     public String toString(){
+    long[] totals = snapshot();
     return "Business: " + name + " (ID: " + BusinessId + ") - Items: " +
-            "Sunglasses: " + sunglasssesCount + ", Belts: " + beltsCount + ", Scarves: " + scarvesCount;
+            "Sunglasses: " + totals[SUNGLASSES - 1] + ", Belts: " + totals[BELTS - 1] + ", Scarves: " + totals[SCARVES - 1];
 }
 }
\ No newline at end of file
@@ -1,61 +1,240 @@
 import java.io.*;
 import java.net.*;
-import java.util.*;
+import java.nio.file.Paths;
 
 /**
  * The CentralServer class acts as the main hub of the Order Management System.
- * It listens for incoming client connections and manages a synchronized database
+ * It listens for incoming client connections and manages a concurrent database
  * of business clients and their orders.
  */
 public class CentralServer {
-    /** The port number on which the server listens for connections. */
-    private static final int PORT = 9999;
-    /** A list acting as an in-memory database of all business clients. */
-    private static final  List<BusinessClient> clientDatabase = new ArrayList<>();
+    /** Expected number of businesses, used to size the client database. */
+    private static final int EXPECTED_CLIENTS = 1 << 16;
+    /** The in-memory database of all business clients, indexed by business ID. */
+    private static final ClientRegistry clientDatabase = new ClientRegistry(EXPECTED_CLIENTS);
+    /** Counters and latency histograms of the running server. */
+    private static final ServerMetrics metrics = new ServerMetrics();
+    /** Connection, rate and in-flight limits shared by all connections. */
+    private static final AdmissionControl admission = new AdmissionControl();
+    /** Drains the connections and flushes the journal when the server stops. */
+    private static final ShutdownCoordinator shutdown = new ShutdownCoordinator();
+    /** Totals and rankings kept up to date by every order, for the read commands. */
+    private static final TotalsIndex totalsIndex = new TotalsIndex();
+    /** Streams changed totals to subscribers, or {@code null} before the server starts. */
+    private static volatile ChangeFeed changeFeed;
+    /** Routing between shards, or {@code null} when this process owns every business ID. */
+    private static volatile ShardRouter router;
+    /** Response codes of recent orders by request ID, so that resent orders are applied once. */
+    private static volatile DedupCache dedupCache =
+            new DedupCache(ServerConfig.DEFAULT_DEDUP_CAPACITY, ServerConfig.DEFAULT_DEDUP_TTL);
 
     /**
      * The main method that starts the server.
-     * It creates a ServerSocket and enters an infinite loop to accept new clients,
-     * spinning off a new {@link ClientHandler} thread for each connection.
-     * * @param args Command line arguments (not used).
+     * The engine is chosen with {@code --mode}: the default thread mode accepts clients
+     * in an infinite loop and spins off a new {@link ClientHandler} thread for each connection,
+     * nio mode serves all connections from a few {@link NioServer} selector threads,
+     * and virtual mode runs each handler on a virtual thread through a bounded {@link HandlerExecutor}.
+     * The server runs until the process is stopped or an admin sends SHUTDOWN; the
+     * {@link ShutdownCoordinator} then drains the connections and flushes the journal.
+     * * @param args Command line options, see {@link ServerConfig}.
      */
     public static void main(String[] args) {
-    try(ServerSocket serverSocket = new ServerSocket(PORT)){
-        System.out.print("Server listening on port " + PORT + "\n");
+    ServerConfig config;
+    try {
+        config = ServerConfig.parse(args);
+    } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.exit(1);
+        return;
+    }
+    metrics.start();
+    admission.start(config);
+    shutdown.start(config.shutdownTimeout);
+    dedupCache = new DedupCache(config.dedupCapacity, config.dedupTtl);
+    try {
+        if (config.shardMap != null) {
+            ShardMap map = ShardMap.load(Paths.get(config.shardMap));
+            int self = map.indexOf(config.shardId);
+            if (self < 0) {
+                System.err.println("Shard " + config.shardId + " is not in " + config.shardMap);
+                System.exit(1);
+            }
+            router = new ShardRouter(map, self, config.shardForwarding);
+            System.out.println("Serving shard " + config.shardId + " of " + map.size()
+                    + (config.shardForwarding ? ", forwarding" : ", redirecting") + " orders for other shards");
+        }
+        if (config.journalDir != null) {
+            shutdown.setJournal(OrderJournal.open(Paths.get(config.journalDir), clientDatabase, config.compactInterval));
+            System.out.println("Recovered " + clientDatabase.size() + " businesses from " + config.journalDir);
+        }
+        clientDatabase.setTotalsIndex(totalsIndex);
+        changeFeed = new ChangeFeed(clientDatabase, config.feedWindow, config.feedQueue);
+        totalsIndex.setFeed(changeFeed);
+        totalsIndex.start();
+        if (config.mode == ServerConfig.Mode.NIO) {
+            new NioServer(config).run();
+        } else if (config.mode == ServerConfig.Mode.VIRTUAL) {
+            runVirtualThreads(config);
+        } else {
+            runThreadPerConnection(config);
+        }
+    } catch (IOException | IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+    }
+}
+
+    /**
+     * Accepts clients until shutdown, starting a new {@link ClientHandler} thread for each one.
+     * Connections beyond the connection limit are closed straight away, so a flood of
+     * clients cannot exhaust the threads of the JVM.
+     * @param config The server configuration.
+     * @throws IOException If the server socket cannot be opened or fails.
+     */
+private static void runThreadPerConnection(ServerConfig config) throws IOException {
+    try(ServerSocket serverSocket = new ServerSocket(config.port, config.backlog)){
+        shutdown.addListener(serverSocket);
+        System.out.print("Server listening on port " + config.port + "\n");
         while(true){
-            Socket clientSocket = serverSocket.accept();
+            Socket clientSocket = accept(serverSocket);
+            if (clientSocket == null) {
+                return;
+            }
+            if (!admission.connectionOpened()) {
+                System.out.println("Client rejected, connection limit reached:" + clientSocket.getInetAddress());
+                clientSocket.close();
+                continue;
+            }
             System.out.println("Client connected:" + clientSocket.getInetAddress());
-            new Thread(new ClientHandler(clientSocket)).start();
+            ClientHandler handler = new ClientHandler(clientSocket);
+            new Thread(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    admission.connectionClosed();
+                }
+            }).start();
         }
-    }catch (IOException e){
-        System.err.println(e.getMessage());
     }
 }
+
+    /**
+     * Accepts clients until shutdown, running each {@link ClientHandler} through a {@link HandlerExecutor}.
+     * Connections beyond {@code --max-connections} are closed straight away.
+     * @param config The server configuration.
+     * @throws IOException If the server socket cannot be opened or fails.
+     */
+private static void runVirtualThreads(ServerConfig config) throws IOException {
+    HandlerExecutor executor = new HandlerExecutor(admission, config.maxConcurrency);
+    try(ServerSocket serverSocket = new ServerSocket(config.port, config.backlog)){
+        System.out.print("Server listening on port " + config.port
+                + (executor.isVirtual() ? " (virtual threads)" : " (virtual threads unavailable, using a thread pool)") + "\n");
+        shutdown.addListener(serverSocket);
+        while(true){
+            Socket clientSocket = accept(serverSocket);
+            if (clientSocket == null) {
+                return;
+            }
+            if (executor.submit(clientSocket)) {
+                System.out.println("Client connected:" + clientSocket.getInetAddress());
+            } else {
+                System.out.println("Client rejected, connection limit reached:" + clientSocket.getInetAddress());
+            }
+        }
+    }
+}
+    /**
+     * Accepts the next client.
+     * @return The client socket, or {@code null} once the server socket was closed for shutdown.
+     * @throws IOException If accepting fails for another reason.
+     */
+private static Socket accept(ServerSocket serverSocket) throws IOException {
+    try {
+        return serverSocket.accept();
+    } catch (SocketException e) {
+        if (shutdown.isShuttingDown()) {
+            return null;
+        }
+        throw e;
+    }
+}
+
     /**
      * Processes an incoming order by either updating an existing client
      * or creating a new one.
-     * * <p>This method is <b>synchronized</b> to prevent race conditions,
-     * ensuring that only one thread can modify the client database at a time.</p>
+     * * <p>The client database is indexed by ID and safe for concurrent use,
+     * so orders for different businesses are processed in parallel.
+     * No monitor is held on this path, so a handler on a virtual thread never pins its carrier.</p>
      * * @param name     The business name provided by the client.
      * @param id       The unique business ID.
      * @param itemType The category of the item being ordered.
      * @param quantity The amount of items to add.
      * @return         Response code: 100 (Success), 201 (Name mismatch for existing ID).
      */
-public static synchronized int processOrder(String name , int id, int itemType ,int quantity){
-    for(int i =0; i<clientDatabase.size(); i++){
-        BusinessClient client = clientDatabase.get(i);
-        if(client.getBusinessId() == id){
-            if(!client.getName().equals(name)){
-                return 201;
-            }
-            client.updateItems(itemType,quantity);
-            return 100;
-        }
-    }
-    BusinessClient newClient = new BusinessClient(name , id);
-    newClient.updateItems(itemType,quantity);
-    clientDatabase.add(newClient);
-    return 100;
+public static int processOrder(String name , int id, int itemType ,int quantity){
+    return clientDatabase.processOrder(name, id, itemType, quantity);
+}
+
+    /**
+     * Returns the shard router.
+     * @return The router, or {@code null} if this server is not sharded.
+     */
+public static ShardRouter getRouter(){
+    return router;
+}
+
+    /**
+     * Returns the shutdown coordinator.
+     * @return The coordinator that connections register with.
+     */
+public static ShutdownCoordinator getShutdownCoordinator(){
+    return shutdown;
+}
+
+    /**
+     * Returns the admission limits.
+     * @return The admission control shared by all connections.
+     */
+public static AdmissionControl getAdmissionControl(){
+    return admission;
+}
+
+    /**
+     * Returns the cache of recent request IDs.
+     * @return The dedup cache shared by all connections.
+     */
+public static DedupCache getDedupCache(){
+    return dedupCache;
+}
+
+    /**
+     * Returns the change feed behind the SUBSCRIBE command.
+     * @return The feed, or {@code null} if the server has not started.
+     */
+public static ChangeFeed getChangeFeed(){
+    return changeFeed;
+}
+
+    /**
+     * Returns the index behind the TOP and TOTALS commands.
+     * @return The totals index.
+     */
+public static TotalsIndex getTotalsIndex(){
+    return totalsIndex;
+}
+
+    /**
+     * Returns the server metrics.
+     * @return The metrics shared by all connections.
+     */
+public static ServerMetrics getMetrics(){
+    return metrics;
+}
+
+    /**
+     * Returns the shared client database.
+     * @return The registry holding all business clients.
+     */
+public static ClientRegistry getClientDatabase(){
+    return clientDatabase;
 }
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ChangeFeed class streams the totals of changed businesses to subscribed connections.
+ * It runs on the {@link TotalsIndex} refresh thread, so the order path does no extra work:
+ * the index already hands over every business that changed since its last refresh.
+ * * <p>The feed keeps only the latest totals of each changed business, and once per window
+ * encodes them into a single frame that all subscribers share:</p>
+ * <pre>
+ *   UPDATE id=12345 sunglasses=5 belts=0 scarves=2
+ *   ...
+ *   SYNC seq=42
+ * </pre>
+ * <p>A frame is published every window even if nothing changed, so subscribers see the feed
+ * is alive. Totals are absolute, never deltas, so missing a frame only delays a value.</p>
+ * * <p>Each subscriber has a bounded queue of frames. Publishing never blocks: a subscriber
+ * whose queue is full gets its queue cleared and then a fresh snapshot of every business,
+ * which starts with a {@code SNAPSHOT} line and ends with {@code SYNC}. New subscribers start
+ * with a snapshot too. A subscriber that is still behind when the next snapshot is due is dropped.</p>
+ * * <p>Reading every business takes long on a big database, so snapshots are built on a
+ * thread of their own while the feed thread goes on publishing frames. One snapshot is
+ * shared by every subscriber that asked for one before it was done. Such a subscriber gets
+ * no frames while it waits; the snapshot is followed by a catch-up frame with the current
+ * totals of every business that changed since the snapshot was started. The catch-up frame
+ * is read after the snapshot and after the frames published meanwhile, and the next frames
+ * come from later refreshes, so a subscriber never sees a total go down.</p>
+ */
+class ChangeFeed {
+    private final ClientRegistry registry;
+    private final long windowNanos;
+    private final int queueCapacity;
+    private final Set<Subscription> subscribers = ConcurrentHashMap.newKeySet();
+    /** Latest totals of the businesses changed in the current window; only used by the feed thread. */
+    private final Map<Integer, long[]> pending = new LinkedHashMap<>();
+    private long windowStart = System.nanoTime();
+    private long sequence;
+    /** Builds snapshots, so that the feed thread keeps publishing meanwhile. */
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "feed-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /** The snapshot being built, or {@code null}; only used by the feed thread. */
+    private CompletableFuture<byte[]> building;
+    /** Businesses in the frames published since {@link #building} was started; only used by the feed thread. */
+    private final Set<Integer> sinceSnapshot = new LinkedHashSet<>();
+
+    private final LongAdder snapshots = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Constructs a new ChangeFeed.
+     * @param registry      The database that snapshots are read from.
+     * @param windowMillis  Time over which changes are coalesced; rounded up to the index refresh interval.
+     * @param queueCapacity Frames a subscriber may fall behind before it is resynchronized.
+     */
+    public ChangeFeed(ClientRegistry registry, int windowMillis, int queueCapacity) {
+        this.registry = registry;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Adds a subscriber. Its first frame is a snapshot.
+     * @return The subscription, to be passed to {@link #unsubscribe} when the connection ends.
+     */
+    public Subscription subscribe() {
+        Subscription subscription = new Subscription(queueCapacity);
+        subscribers.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Removes a subscriber.
+     * @param subscription The subscription returned by {@link #subscribe}.
+     */
+    public void unsubscribe(Subscription subscription) {
+        subscription.closed = true;
+        subscribers.remove(subscription);
+    }
+
+    /**
+     * Records the current totals of a changed business. Called by the feed thread.
+     * @param id     The business ID.
+     * @param counts Its totals, indexed by {@code itemType - 1}; not modified afterwards.
+     */
+    void changed(int id, long[] counts) {
+        if (!subscribers.isEmpty()) {
+            pending.put(id, counts);
+        }
+    }
+
+    /**
+     * Publishes a frame if the window is over. Called by the feed thread after every refresh.
+     */
+    void tick() {
+        long now = System.nanoTime();
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        windowStart = now;
+        if (subscribers.isEmpty()) {
+            pending.clear();
+            return;
+        }
+        sequence++;
+        StringBuilder text = new StringBuilder(pending.size() * 56 + 16);
+        for (Map.Entry<Integer, long[]> entry : pending.entrySet()) {
+            appendUpdate(text, entry.getKey(), entry.getValue());
+        }
+        if (building != null) {
+            sinceSnapshot.addAll(pending.keySet());
+        }
+        pending.clear();
+        byte[] frame = sync(text, sequence).getBytes(StandardCharsets.UTF_8);
+        byte[] snapshot = null;
+        byte[] catchUp = null;
+        if (building != null && building.isDone()) {
+            snapshot = building.join();
+            building = null;
+            catchUp = catchUp();
+        }
+        boolean waiting = false;
+        for (Subscription subscription : subscribers) {
+            int state = subscription.state;
+            if (state == Subscription.LIVE) {
+                subscription.offer(frame);
+                continue;
+            }
+            if (state == Subscription.QUEUED) {
+                if (subscription.unreadSnapshot != null) {
+                    // still behind since its last snapshot: resending would not help
+                    dropped.increment();
+                    unsubscribe(subscription);
+                    subscription.wake();
+                    continue;
+                }
+                subscription.queue.clear();
+                subscription.state = Subscription.WAITING;
+            }
+            if (snapshot == null) {
+                waiting = true;
+                continue;
+            }
+            subscription.state = Subscription.LIVE;
+            subscription.unreadSnapshot = snapshot;
+            subscription.offer(snapshot);
+            subscription.offer(catchUp);
+            snapshots.increment();
+        }
+        if (waiting && building == null) {
+            long seq = sequence;
+            building = CompletableFuture.supplyAsync(() -> snapshot(seq), snapshotter);
+        }
+    }
+
+    /**
+     * Encodes the totals of every business. Runs on the snapshot thread.
+     * @param seq The sequence number of the last frame published before the snapshot was started.
+     */
+    private byte[] snapshot(long seq) {
+        StringBuilder text = new StringBuilder("SNAPSHOT").append(OrderSession.NEWLINE);
+        registry.forEachTotals((id, counts) -> appendUpdate(text, id, counts));
+        return sync(text, seq).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes the current totals of the businesses that changed since the last snapshot was started.
+     */
+    private byte[] catchUp() {
+        StringBuilder text = new StringBuilder(sinceSnapshot.size() * 56 + 16);
+        for (int id : sinceSnapshot) {
+            long[] counts = registry.totals(id);
+            if (counts != null) {
+                appendUpdate(text, id, counts);
+            }
+        }
+        sinceSnapshot.clear();
+        return sync(text, sequence).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String sync(StringBuilder text, long seq) {
+        return text.append("SYNC seq=").append(seq).append(OrderSession.NEWLINE).toString();
+    }
+
+    private static void appendUpdate(StringBuilder text, int id, long[] counts) {
+        text.append("UPDATE id=").append(id);
+        for (int i = 0; i < counts.length; i++) {
+            text.append(' ').append(OrderSession.itemKey(i + 1)).append('=').append(counts[i]);
+        }
+        text.append(OrderSession.NEWLINE);
+    }
+
+    /**
+     * Formats the feed counters as {@code key=value} pairs, for the STATS command.
+     * @return The formatted counters.
+     */
+    public String format() {
+        return "subscribers=" + subscribers.size() + " feed_snapshots=" + snapshots.sum()
+                + " feed_dropped=" + dropped.sum();
+    }
+
+    /**
+     * The frames waiting for one subscriber. The feed thread fills the queue;
+     * the subscriber's connection empties it.
+     */
+    static final class Subscription {
+        /** State: frames are queued as they are published. */
+        private static final int LIVE = 0;
+        /** State: the queue overflowed, or nothing was sent yet; the next frame is a snapshot. */
+        private static final int QUEUED = 1;
+        /** State: waiting for the snapshot being built; no frames are queued meanwhile. */
+        private static final int WAITING = 2;
+
+        private final ArrayBlockingQueue<byte[]> queue;
+        /** One of {@link #LIVE}, {@link #QUEUED} and {@link #WAITING}; only changed by the feed thread. */
+        private volatile int state = QUEUED;
+        /** The last snapshot queued, until the subscriber takes it. */
+        private volatile byte[] unreadSnapshot;
+        private volatile boolean closed;
+        /** Called after a frame is queued, for connections that do not block on {@link #take}. */
+        private volatile Runnable listener;
+
+        private Subscription(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void offer(byte[] frame) {
+            if (!queue.offer(frame)) {
+                state = QUEUED;
+            }
+            wake();
+        }
+
+        private void wake() {
+            Runnable wakeup = listener;
+            if (wakeup != null) {
+                wakeup.run();
+            }
+        }
+
+        /**
+         * Sets a callback run on the feed thread whenever a frame is queued or the subscription is dropped.
+         * It must not block.
+         * @param listener The callback.
+         */
+        void setListener(Runnable listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Returns whether the feed dropped this subscriber; the connection should then be closed.
+         * @return {@code true} once dropped or unsubscribed.
+         */
+        boolean isClosed() {
+            return closed;
+        }
+
+        /**
+         * Takes the next frame without waiting.
+         * @return The encoded frame, or {@code null} if none is queued.
+         */
+        byte[] poll() {
+            return taken(queue.poll());
+        }
+
+        /**
+         * Takes the next frame, waiting for one up to a timeout.
+         * @param timeoutMillis Longest wait.
+         * @return The encoded frame, or {@code null} if none arrived in time.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        byte[] take(long timeoutMillis) throws InterruptedException {
+            return taken(queue.poll(timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+
+        private byte[] taken(byte[] frame) {
+            if (frame != null && frame == unreadSnapshot) {
+                unreadSnapshot = null;
+            }
+            return frame;
+        }
+    }
+}
\ No newline at end of file
@@ -1,5 +1,10 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The ClientHandler class is responsible for managing the communication
@@ -7,8 +12,27 @@ import java.net.*;
  * It implements Runnable to allow the server to handle multiple clients
  * concurrently using threads.
  */
-class ClientHandler implements Runnable {
+class ClientHandler implements Runnable, ShutdownCoordinator.Drainable {
+    /** Longest wait for a feed frame before checking whether the connection is draining. */
+    private static final long FEED_POLL_MS = 250;
+    /** Most response bytes or characters collected before they are sent, even if more input is waiting. */
+    private static final int MAX_UNSENT = 8 * 1024;
+    /** Closes subscribers that do not take a feed frame within the idle timeout. */
+    private static final ScheduledExecutorService WRITE_DEADLINES = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "feed-write-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private Socket socket;
+    /** Protocol state for this connection. */
+    private final OrderSession session = new OrderSession();
+    /** Set on shutdown: no further request is started. */
+    private volatile boolean draining;
+    /** Set once a subscriber sent DISCONNECT or closed its side of the connection. */
+    private volatile boolean left;
+    /** Set once a subscriber missed the write deadline and its connection was closed. */
+    private volatile boolean stalled;
     /**
      * Constructs a new ClientHandler.
      * * @param socket The client socket accepted by the ServerSocket.
@@ -18,71 +42,230 @@ class ClientHandler implements Runnable {
     }
     /**
      * The main execution loop of the thread.
-     * It handles reading input from the client, parsing the order protocol,
-     * validating data, and returning response codes until the client disconnects.
+     * It reads lines from the client and hands them to an {@link OrderSession},
+     * writing back its response codes until the client disconnects.
+     * Responses are flushed only when no further input is waiting, so pipelined
+     * orders and batches are answered with a single write, after a single wait
+     * for the journal to make them durable.
      * * <p>Protocol format: Name,ID,ItemType,Quantity</p>
      * <p>Special command: "DISCONNECT" to close the session.</p>
+     * <p>If the first byte is {@link BinaryOrderCodec#MAGIC}, the connection uses
+     * binary frames instead, see {@link #serveBinary}.</p>
+     * <p>A client that sends nothing for the idle timeout of the {@link AdmissionControl}
+     * is disconnected, so silent connections do not hold a thread forever.</p>
      */
     @Override
     public void run() {
+        CentralServer.getMetrics().connectionOpened();
+        ShutdownCoordinator shutdown = CentralServer.getShutdownCoordinator();
+        shutdown.register(this);
+        session.allowAdmin(socket.getInetAddress().isLoopbackAddress());
+        try {
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+                    CentralServer.getAdmissionControl().getIdleTimeout() * 1000L));
+            InputStream input = new BufferedInputStream(socket.getInputStream());
+            input.mark(1);
+            int first = input.read();
+            if (first == BinaryOrderCodec.MAGIC) {
+                serveBinary(input);
+            } else if (first >= 0) {
+                input.reset();
+                serveText(input);
+            }
+        } catch (SocketTimeoutException e) {
+            System.out.println("Closing idle client:" + socket.getInetAddress());
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error handling client: " + e.getMessage());
+        } finally {
+            session.close();
+            shutdown.unregister(this);
+            CentralServer.getMetrics().connectionClosed();
+            try {
+                socket.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void serveText(InputStream input) throws IOException {
         // פתיחת ערוצי תקשורת
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+        try (Reader reader = new InputStreamReader(input);
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())))) {
 
-            String inputLine;
+            LineReader in = new LineReader(reader);
+            StringBuilder response = new StringBuilder();
+            int length;
             // לולאה שקוראת הודעות עד שהלקוח מתנתק
-            while ((inputLine = in.readLine()) != null) {
-
-                // בדיקה אם הלקוח ביקש להתנתק
-                if (inputLine.equalsIgnoreCase("DISCONNECT")) {
-                    System.out.println("Client requested disconnect.");
+            // a line read after the drain started may be cut short, so it is never handled
+            while ((length = in.readLine()) >= 0 && !draining) {
+                if (!session.handleLine(in.buffer(), in.lineStart(), length, response)) {
                     break;
                 }
-
-                // פירוק ההודעה לפי הפרוטוקול: שם,ID,סוג פריט,כמות
-                String[] data = inputLine.split(",");
-
-                // בדיקה האם הגיעו כל השדות הנדרשים
-                if (data.length < 4) {
-                    out.println("200"); // שגיאה: נתונים חסרים
-                    continue;
+                if (session.subscription() != null) {
+                    send(response, out);
+                    stream(session.subscription(), in);
+                    break;
                 }
-                try {
-                    String name = data[0].trim();
-                    int id = Integer.parseInt(data[1].trim());
-                    int itemType = Integer.parseInt(data[2].trim());
-                    int quantity = Integer.parseInt(data[3].trim());
+                // a pipelining client already sent more lines: answer them all in one flush
+                if (!in.ready() || response.length() >= MAX_UNSENT) {
+                    send(response, out);
+                }
+            }
+            send(response, out);
+        }
+    }
 
-                    // בדיקה: וידוא שמספר העסק הוא בן 5 ספרות
-                    if (id < 10000 || id > 99999) {
-                        out.println("200"); // נתייחס לזה כנתונים חסרים/לא תקינים
-                        continue;
-                    }
+    /**
+     * Sends the collected responses once the orders they answer are on disk.
+     */
+    private void send(StringBuilder response, PrintWriter out) {
+        if (response.length() > 0) {
+            CentralServer.getClientDatabase().awaitDurable(session.durableMark());
+            // החזרת התשובה ללקוח
+            out.print(response);
+            response.setLength(0);
+        }
+        out.flush();
+    }
 
-                    // בדיקה : כמות שלילית או אפס
-                    if (quantity <= 0) {
-                        out.println("202");
-                        continue;
+    /**
+     * Writes change feed frames until the client disconnects, the feed drops it, or the server shuts down.
+     * A reader thread keeps reading the connection, so DISCONNECT or a client closing it ends the
+     * stream within {@link #FEED_POLL_MS}. A frame the client does not take within the idle timeout
+     * closes the connection, so a stalled subscriber cannot hold this thread in a blocking write.
+     */
+    private void stream(ChangeFeed.Subscription subscription, LineReader in) throws IOException {
+        // only the write deadline decides whether a subscriber is still there
+        socket.setSoTimeout(0);
+        Thread reader = new Thread(() -> readUntilDisconnect(in), "feed-reader");
+        reader.setDaemon(true);
+        reader.start();
+        long deadline = CentralServer.getAdmissionControl().getIdleTimeout() * 1000L;
+        OutputStream out = socket.getOutputStream();
+        try {
+            while (!draining && !left && !subscription.isClosed()) {
+                byte[] frame = subscription.take(FEED_POLL_MS);
+                if (frame != null) {
+                    ScheduledFuture<?> timeout = WRITE_DEADLINES.schedule(this::closeStalled, deadline, TimeUnit.MILLISECONDS);
+                    try {
+                        out.write(frame);
+                    } finally {
+                        timeout.cancel(false);
                     }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!stalled) {
+                throw e;
+            }
+        }
+    }
 
-                    // שליחה לעיבוד במחלקה המרכזית (שם נמצאת הנעילה)
-                    int result = CentralServer.processOrder(name, id, itemType, quantity);
-                    // החזרת התשובה ללקוח
-                    out.println(result);
-
-                } catch (NumberFormatException e) {
-                    // אם המספרים לא נשלחו בפורמט תקין
-                    out.println("200");
+    /**
+     * Reads a subscriber's lines, which are all ignored but DISCONNECT, until it disconnects
+     * or the connection is closed. Runs on its own thread while {@link #stream} writes.
+     */
+    private void readUntilDisconnect(LineReader in) {
+        StringBuilder ignored = new StringBuilder();
+        try {
+            int length;
+            while ((length = in.readLine()) >= 0) {
+                if (!session.handleLine(in.buffer(), in.lineStart(), length, ignored)) {
+                    break;
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error handling client: " + e.getMessage());
-        } finally {
-            try {
-                socket.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+            // closed by the other side or by this handler; either way the subscriber is gone
+        }
+        left = true;
+    }
+
+    /**
+     * Closes the connection of a subscriber whose frame has been waiting to be written for the idle timeout.
+     */
+    private void closeStalled() {
+        stalled = true;
+        System.out.println("Closing stalled subscriber:" + socket.getInetAddress());
+        forceClose();
+    }
+
+    /**
+     * Reads length-prefixed frames and answers each with a single response byte,
+     * flushing, like the text loop, only when no further input is waiting.
+     */
+    private void serveBinary(InputStream input) throws IOException {
+        try (DataInputStream in = new DataInputStream(input);
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+
+            ByteBuffer frame = ByteBuffer.allocate(64);
+            byte[] codes = new byte[MAX_UNSENT];
+            int unsent = 0;
+            while (true) {
+                int length;
+                try {
+                    length = in.readUnsignedShort();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (frame.capacity() < length) {
+                    frame = ByteBuffer.allocate(Math.max(length, frame.capacity() * 2));
+                }
+                try {
+                    in.readFully(frame.array(), 0, length);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (draining) {
+                    break;
+                }
+                int code = session.handleFrame(frame, 0, length);
+                if (code == BinaryOrderCodec.DISCONNECT) {
+                    break;
+                }
+                codes[unsent++] = (byte) code;
+                if (in.available() == 0 || unsent == codes.length) {
+                    send(codes, unsent, out);
+                    unsent = 0;
+                }
             }
+            send(codes, unsent, out);
+        }
+    }
+
+    /**
+     * Sends the collected response bytes once the orders they answer are on disk.
+     */
+    private void send(byte[] codes, int count, OutputStream out) throws IOException {
+        if (count > 0) {
+            CentralServer.getClientDatabase().awaitDurable(session.durableMark());
+            out.write(codes, 0, count);
+        }
+        out.flush();
+    }
+
+    /**
+     * Stops reading: the request being handled is finished and answered, and the
+     * blocked or next read sees the end of the stream, which ends the loop.
+     */
+    @Override
+    public void drain() {
+        draining = true;
+        try {
+            socket.shutdownInput();
+        } catch (IOException ignored) {
+            // already closed
+        }
+    }
+
+    @Override
+    public void forceClose() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // already closed
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,385 @@
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ClientRegistry class is the in-memory database of business clients,
+ * indexed by business ID.
+ * Lookups are O(1) and orders for different IDs never wait on each other:
+ * the map is concurrent and each {@link BusinessClient} guards its own counters.
+ * After a restart, businesses can also live in a {@link MappedSnapshot}; each one is
+ * copied onto the heap the first time it is looked up.
+ */
+public class ClientRegistry {
+    /** Response code: the order was applied. */
+    public static final int OK = 100;
+    /** Response code: the ID already belongs to a business with another name. */
+    public static final int NAME_MISMATCH = 201;
+
+    /** All known clients, keyed by business ID. */
+    private final ConcurrentHashMap<Integer, BusinessClient> clients;
+    /** Durable log of creations and orders, or {@code null} when running purely in memory. */
+    private volatile OrderJournal journal;
+    /** Businesses recovered from disk and not necessarily on the heap yet, or {@code null}. */
+    private volatile MappedSnapshot snapshot;
+    /** Aggregates kept up to date by every order, or {@code null}. */
+    private volatile TotalsIndex index;
+    /** How many snapshot businesses have been copied into {@link #clients}. */
+    private final AtomicInteger materialized = new AtomicInteger();
+
+    /**
+     * Constructs an empty registry.
+     * @param expectedClients Expected number of businesses, used to size the table up front.
+     */
+    public ClientRegistry(int expectedClients) {
+        this.clients = new ConcurrentHashMap<>(expectedClients);
+    }
+
+    /**
+     * Applies an order, creating the business on its first order.
+     * Two first orders for the same new ID race on {@code putIfAbsent};
+     * the loser is then checked against the winner's name like any other order.
+     * With a journal attached, the call returns only once the order is on disk.
+     * @param name     The business name provided by the client.
+     * @param id       The unique business ID.
+     * @param itemType The category of the item being ordered.
+     * @param quantity The amount of items to add.
+     * @return         Response code: 100 (Success), 201 (Name mismatch for existing ID).
+     */
+    public int processOrder(String name, int id, int itemType, int quantity) {
+        int code = applyOrder(name, id, itemType, quantity);
+        awaitDurable(logPosition());
+        return code;
+    }
+
+    /**
+     * Applies an order like {@link #processOrder}, but without waiting for the journal.
+     * The caller must not acknowledge the order before {@link #isDurable} is true for
+     * the {@link #logPosition()} read after this call.
+     * <p>The record is appended before the counters change, so a journal that can no longer
+     * write rejects the order before it is applied. The counters are then updated before the
+     * record reaches the disk: a reader may see an order shortly before it is acknowledged,
+     * and an order lost in a crash at that moment was never acknowledged to its client.</p>
+     * @param name     The business name provided by the client.
+     * @param id       The unique business ID.
+     * @param itemType The category of the item being ordered.
+     * @param quantity The amount of items to add.
+     * @return         Response code: 100 (Success), 201 (Name mismatch for existing ID).
+     */
+    public int applyOrder(String name, int id, int itemType, int quantity) {
+        BusinessClient client = getOrCreate(name, id);
+        if (!client.getName().equals(name)) {
+            return NAME_MISMATCH;
+        }
+        OrderJournal log = journal;
+        if (log != null && itemType >= 1 && itemType <= BusinessClient.ITEM_TYPES) {
+            log.appendOrder(id, itemType, quantity);
+        }
+        client.updateItems(itemType, quantity);
+        TotalsIndex totals = index;
+        if (totals != null) {
+            totals.ordered(client, itemType, quantity);
+        }
+        return OK;
+    }
+
+    /**
+     * Applies a batch of orders with one registry lookup and one counter update
+     * per business and item type, instead of one per order.
+     * The result is the same as applying the orders one by one in array order:
+     * the first order for a new ID creates the business, and later orders
+     * with another name for that ID are rejected with 201.
+     * With a journal attached, one wait for the disk covers the whole batch.
+     * @param orders The valid orders to apply.
+     * @param count  Number of orders used from the start of the array.
+     * @param codes  Receives the response code of each order, by index.
+     */
+    public void processBatch(Order[] orders, int count, int[] codes) {
+        applyBatch(orders, count, codes);
+        awaitDurable(logPosition());
+    }
+
+    /**
+     * Applies a batch like {@link #processBatch}, but without waiting for the journal,
+     * with the same obligations as {@link #applyOrder}.
+     * @param orders The valid orders to apply.
+     * @param count  Number of orders used from the start of the array.
+     * @param codes  Receives the response code of each order, by index.
+     */
+    public void applyBatch(Order[] orders, int count, int[] codes) {
+        Map<Integer, BusinessClient> seen = new HashMap<>();
+        Map<BusinessClient, long[]> deltas = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            Order order = orders[i];
+            BusinessClient client = seen.get(order.id);
+            if (client == null) {
+                client = getOrCreate(order.name, order.id);
+                seen.put(order.id, client);
+            }
+            if (!client.getName().equals(order.name)) {
+                codes[i] = NAME_MISMATCH;
+                continue;
+            }
+            codes[i] = OK;
+            if (order.itemType >= 1 && order.itemType <= BusinessClient.ITEM_TYPES) {
+                long[] delta = deltas.get(client);
+                if (delta == null) {
+                    delta = new long[BusinessClient.ITEM_TYPES];
+                    deltas.put(client, delta);
+                }
+                delta[order.itemType - 1] += order.quantity;
+            }
+        }
+        OrderJournal log = journal;
+        if (log != null) {
+            for (Map.Entry<BusinessClient, long[]> entry : deltas.entrySet()) {
+                long[] delta = entry.getValue();
+                for (int t = 0; t < delta.length; t++) {
+                    if (delta[t] != 0) {
+                        log.appendOrder(entry.getKey().getBusinessId(), t + 1, delta[t]);
+                    }
+                }
+            }
+        }
+        TotalsIndex totals = index;
+        for (Map.Entry<BusinessClient, long[]> entry : deltas.entrySet()) {
+            entry.getKey().updateItems(entry.getValue());
+            if (totals != null) {
+                totals.ordered(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns the journal position that covers every creation and order applied so far.
+     * @return The position, or 0 without a journal.
+     */
+    public long logPosition() {
+        OrderJournal log = journal;
+        return log == null ? 0 : log.position();
+    }
+
+    /**
+     * Returns whether everything up to a journal position is on disk, without blocking.
+     * @param position A position returned by {@link #logPosition()}.
+     * @return         {@code true} if it is durable, or if there is no journal.
+     * @throws java.io.UncheckedIOException If the journal can no longer write; it never will be.
+     */
+    public boolean isDurable(long position) {
+        OrderJournal log = journal;
+        return log == null || log.isDurable(position);
+    }
+
+    /**
+     * Blocks until everything up to a journal position is on disk.
+     * @param position A position returned by {@link #logPosition()}.
+     * @throws java.io.UncheckedIOException If the journal can no longer write.
+     */
+    public void awaitDurable(long position) {
+        OrderJournal log = journal;
+        if (log != null) {
+            log.awaitDurable(position);
+        }
+    }
+
+    /**
+     * Runs a task on the journal's flusher thread each time more of the log reaches the disk.
+     * Does nothing without a journal. The task must be quick and must not block.
+     * @param listener The task, typically one that wakes a thread holding back responses.
+     */
+    public void addDurableListener(Runnable listener) {
+        OrderJournal log = journal;
+        if (log != null) {
+            log.addDurableListener(listener);
+        }
+    }
+
+    /**
+     * Returns the client registered under the given ID, registering a new one
+     * with the given name if the ID is unknown.
+     * @param name The business name to use if the ID is new.
+     * @param id   The unique business ID.
+     * @return     The client that owns the ID (not necessarily with the given name).
+     */
+    public BusinessClient getOrCreate(String name, int id) {
+        Integer key = id;
+        BusinessClient client = get(id);
+        if (client == null) {
+            BusinessClient created = new BusinessClient(name, id);
+            OrderJournal log = journal;
+            client = log == null ? clients.putIfAbsent(key, created) : log.putIfAbsent(clients, created);
+            if (client == null) {
+                client = created;
+            }
+        }
+        return client;
+    }
+
+    /**
+     * Puts back a business recovered from disk, without logging it again.
+     * @param name   The business name.
+     * @param id     The business ID.
+     * @param counts The recovered totals, indexed by {@code itemType - 1}.
+     */
+    void restore(String name, int id, long[] counts) {
+        BusinessClient client = new BusinessClient(name, id);
+        client.updateItems(counts);
+        if (clients.put(id, client) == null && snapshot != null && snapshot.find(id) >= 0) {
+            materialized.incrementAndGet();
+        }
+    }
+
+    /**
+     * Places a snapshot under the registry. Must be called before the registry is used.
+     * @param snapshot The mapped snapshot, or {@code null}.
+     */
+    void setSnapshot(MappedSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Attaches the journal that every later creation and order is logged to.
+     * @param journal The open journal.
+     */
+    void setJournal(OrderJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Seeds an index with every business and attaches it, so that every later order updates it.
+     * Businesses still only in the snapshot are read from the mapping, not copied onto the heap.
+     * Must be called after recovery and before the registry serves orders.
+     * @param index The index, not started yet.
+     */
+    void setTotalsIndex(TotalsIndex index) {
+        forEachTotals(index::seed);
+        this.index = index;
+    }
+
+    /**
+     * Receives the totals of one business.
+     */
+    interface TotalsVisitor {
+        /**
+         * @param id     The business ID.
+         * @param counts Its totals, indexed by {@code itemType - 1}; a copy the visitor may keep.
+         */
+        void visit(int id, long[] counts);
+    }
+
+    /**
+     * Visits the current totals of every business, without locking and without copying
+     * businesses that are still only in the snapshot onto the heap.
+     * Concurrent orders may or may not be included.
+     * @param visitor Receives each business at least once. A business copied onto the heap
+     *                during the visit may come twice, the second time with its newer totals.
+     */
+    void forEachTotals(TotalsVisitor visitor) {
+        // the snapshot first: a business that moves to the heap meanwhile is then still seen there
+        MappedSnapshot base = snapshot;
+        if (base != null) {
+            for (int i = 0; i < base.size(); i++) {
+                if (!clients.containsKey(base.id(i))) {
+                    visitor.visit(base.id(i), base.counts(i));
+                }
+            }
+        }
+        for (BusinessClient client : clients.values()) {
+            visitor.visit(client.getBusinessId(), client.snapshot());
+        }
+    }
+
+    /**
+     * Returns the client registered under the given ID.
+     * @param id The unique business ID.
+     * @return   The client, or {@code null} if the ID is unknown.
+     */
+    public BusinessClient get(int id) {
+        BusinessClient client = clients.get(id);
+        if (client == null && snapshot != null) {
+            client = materialize(id);
+        }
+        return client;
+    }
+
+    /**
+     * Returns the name registered for an ID without copying a snapshot business onto the heap.
+     * @param id The unique business ID.
+     * @return   The name, or {@code null} if the ID is unknown.
+     */
+    public String nameOf(int id) {
+        BusinessClient client = clients.get(id);
+        if (client != null) {
+            return client.getName();
+        }
+        MappedSnapshot base = snapshot;
+        int index = base == null ? -1 : base.find(id);
+        return index < 0 ? null : base.name(index);
+    }
+
+    /**
+     * Returns the current totals of one business without copying a snapshot business onto the heap.
+     * @param id The unique business ID.
+     * @return   A copy of its totals, indexed by {@code itemType - 1}, or {@code null} if the ID is unknown.
+     */
+    long[] totals(int id) {
+        BusinessClient client = clients.get(id);
+        if (client != null) {
+            return client.snapshot();
+        }
+        MappedSnapshot base = snapshot;
+        int index = base == null ? -1 : base.find(id);
+        if (index < 0) {
+            return null;
+        }
+        long[] counts = base.counts(index);
+        // copied onto the heap meanwhile: orders may already have been applied there
+        client = clients.get(id);
+        return client != null ? client.snapshot() : counts;
+    }
+
+    /**
+     * Copies a business from the snapshot onto the heap, once.
+     * @return The client, or {@code null} if the snapshot does not have the ID either.
+     */
+    private BusinessClient materialize(int id) {
+        int index = snapshot.find(id);
+        if (index < 0) {
+            return null;
+        }
+        BusinessClient loaded = snapshot.materialize(index);
+        BusinessClient existing = clients.putIfAbsent(id, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        materialized.incrementAndGet();
+        return loaded;
+    }
+
+    /**
+     * Returns the number of registered businesses.
+     * @return Number of clients.
+     */
+    public int size() {
+        MappedSnapshot base = snapshot;
+        return clients.size() + (base == null ? 0 : base.size() - materialized.get());
+    }
+
+    /**
+     * Returns a live, read-only view of all registered clients.
+     * Any business still only in the snapshot is copied onto the heap first.
+     * @return Unmodifiable view over the clients.
+     */
+    public Collection<BusinessClient> clients() {
+        MappedSnapshot base = snapshot;
+        if (base != null && materialized.get() < base.size()) {
+            for (int i = 0; i < base.size(); i++) {
+                get(base.id(i));
+            }
+        }
+        return Collections.unmodifiableCollection(clients.values());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmark of the cost of request IDs on the order path.
+ * It first times {@link OrderSession#handleLine} on the same order without a request ID,
+ * with a fresh ID per line (every line claims an entry, and once the cache is full evicts one),
+ * and with IDs that were already answered (every line is a replay).
+ * Then it reports the throughput of {@link DedupCache} alone with several threads,
+ * to show how the stripes behave under contention.
+ * <p>Usage: {@code java DedupBenchmark [iterations]}</p>
+ */
+public class DedupBenchmark {
+    private static final String PREFIX = "Acme Ltd,12345,1,5";
+
+    public static void main(String[] args) throws InterruptedException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        OrderSession session = new OrderSession();
+        StringBuilder out = new StringBuilder();
+        char[] line = new char[64];
+        PREFIX.getChars(0, PREFIX.length(), line, 0);
+
+        // the same ID twice must be applied once
+        long before = CentralServer.getClientDatabase().get(12345) == null
+                ? 0 : CentralServer.getClientDatabase().get(12345).snapshot()[0];
+        for (int i = 0; i < 2; i++) {
+            session.handleLine(line, 0, withRequestId(line, 1), out);
+        }
+        long after = CentralServer.getClientDatabase().get(12345).snapshot()[0];
+        if (after - before != 5 || !out.toString().equals("100" + OrderSession.NEWLINE + "100" + OrderSession.NEWLINE)) {
+            throw new IllegalStateException("Resent order was applied twice or answered differently: " + out);
+        }
+
+        long nextId = 2;
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+            long bytes = allocatedBytes();
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                // the ID is written for every variant, so only handling it differs
+                withRequestId(line, nextId + i);
+                out.setLength(0);
+                session.handleLine(line, 0, PREFIX.length(), out);
+                sink += out.length();
+            }
+            report("no id    ", iterations, System.nanoTime() - begin, allocatedBytes() - bytes, sink);
+
+            sink = 0;
+            bytes = allocatedBytes();
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int len = withRequestId(line, nextId + i);
+                out.setLength(0);
+                session.handleLine(line, 0, len, out);
+                sink += out.length();
+            }
+            report("unique id", iterations, System.nanoTime() - begin, allocatedBytes() - bytes, sink);
+
+            // the newest IDs are still remembered, so resending them only reads the cache
+            int replays = Math.min(iterations, ServerConfig.DEFAULT_DEDUP_CAPACITY / 2);
+            long firstReplay = nextId + iterations - replays;
+            sink = 0;
+            bytes = allocatedBytes();
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int len = withRequestId(line, firstReplay + i % replays);
+                out.setLength(0);
+                session.handleLine(line, 0, len, out);
+                sink += out.length();
+            }
+            report("replay   ", iterations, System.nanoTime() - begin, allocatedBytes() - bytes, sink);
+            nextId += iterations;
+        }
+
+        int cpus = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= Math.max(4, cpus); threads *= 2) {
+            contention(threads, iterations);
+        }
+    }
+
+    /**
+     * Claims and completes unique request IDs from several threads at once.
+     */
+    private static void contention(int threads, int iterations) throws InterruptedException {
+        DedupCache cache = new DedupCache(ServerConfig.DEFAULT_DEDUP_CAPACITY, ServerConfig.DEFAULT_DEDUP_TTL);
+        AtomicLong sink = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            long base = (long) t * iterations + 1;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long local = 0;
+                for (int i = 0; i < iterations; i++) {
+                    local += cache.begin(10001, base + i);
+                    cache.complete(10001, base + i, OrderSession.OK);
+                }
+                sink.addAndGet(local);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long nanos = System.nanoTime() - begin;
+        System.out.printf("cache %2d threads %7.1f M requests/s (checksum %d)%n",
+                threads, (double) threads * iterations * 1000 / nanos, sink.get());
+    }
+
+    /**
+     * Appends ",requestId" to the order in {@code line}.
+     * @return The length of the line with the ID.
+     */
+    private static int withRequestId(char[] line, long requestId) {
+        int end = PREFIX.length();
+        line[end++] = ',';
+        int digits = 1;
+        for (long rest = requestId / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = end + digits - 1; i >= end; i--) {
+            line[i] = (char) ('0' + requestId % 10);
+            requestId /= 10;
+        }
+        return end + digits;
+    }
+
+    private static void report(String label, int iterations, long nanos, long bytes, long sink) {
+        System.out.printf("%s %6.1f ns/line %7.1f bytes/line (checksum %d)%n",
+                label, (double) nanos / iterations, (double) bytes / iterations, sink);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
\ No newline at end of file
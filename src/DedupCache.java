@@ -0,0 +1,225 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The DedupCache class remembers the response code of recently applied orders by business ID
+ * and request ID, so an order that a client resends after a timeout or reconnect is answered
+ * with the original code instead of being applied twice. Request IDs are chosen by the clients,
+ * so the same ID sent for two different businesses is two different requests.
+ * * <p>The cache is split into stripes chosen by request ID, each with its own lock, so
+ * orders only contend when their IDs land in the same stripe. Each stripe keeps its entries
+ * in arrival order and drops the oldest once it is full or once they are older than the
+ * time to live, so memory stays bounded. A resend that arrives after its entry was dropped
+ * is applied again; the limits should cover the client's retry window. Entries still being
+ * applied are skipped rather than dropped, so their waiters wake; there are never more of them
+ * than orders being applied at that moment.</p>
+ * * <p>A second copy of a request that arrives while the first is still being applied
+ * waits for the first one's code in {@link #begin}, or is told so by {@link #tryBegin} on
+ * threads that must not wait. The locks are {@link ReentrantLock}s, so a waiting
+ * handler on a virtual thread does not pin its carrier.</p>
+ */
+class DedupCache {
+    /** Result of {@link #tryBegin} when another handler is applying the same request. */
+    public static final int IN_PROGRESS = -1;
+    /** Code of an entry whose request is still being applied. */
+    private static final int PENDING = 0;
+    /** Code set on an entry that was given up, so that waiters try again. */
+    private static final int ABANDONED = -2;
+
+    private final Stripe[] stripes;
+    private final long ttlNanos;
+
+    /**
+     * Constructs a new DedupCache.
+     * @param capacity   Largest number of remembered requests, spread over the stripes.
+     * @param ttlSeconds How long a request is remembered.
+     */
+    public DedupCache(int capacity, int ttlSeconds) {
+        int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())) * 4;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe(Math.max(1, capacity / count));
+        }
+        ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    /**
+     * Claims a request, or returns the code it was already answered with.
+     * If another handler is applying the same request right now, waits for its code.
+     * @param businessId The business ID of the order.
+     * @param requestId  The client's request ID.
+     * @return           The original response code, or 0 if the caller now owns the request
+     *                   and must call {@link #complete} or {@link #abandon}.
+     */
+    public int begin(int businessId, long requestId) {
+        Key key = new Key(businessId, requestId);
+        Stripe stripe = stripe(requestId);
+        stripe.lock.lock();
+        try {
+            while (true) {
+                Entry entry = stripe.claim(key, System.nanoTime(), ttlNanos);
+                if (entry == null) {
+                    return 0;
+                }
+                while (entry.code == PENDING) {
+                    stripe.done.awaitUninterruptibly();
+                }
+                if (entry.code != ABANDONED) {
+                    return entry.code;
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #begin}, but returns {@link #IN_PROGRESS} instead of waiting.
+     * Used for batches, which may contain the same request twice, and on threads that
+     * serve many connections.
+     * @param businessId The business ID of the order.
+     * @param requestId  The client's request ID.
+     * @return           The original response code, {@link #IN_PROGRESS}, or 0 if the caller now owns the request.
+     */
+    public int tryBegin(int businessId, long requestId) {
+        Key key = new Key(businessId, requestId);
+        Stripe stripe = stripe(requestId);
+        stripe.lock.lock();
+        try {
+            while (true) {
+                Entry entry = stripe.claim(key, System.nanoTime(), ttlNanos);
+                if (entry == null) {
+                    return 0;
+                }
+                if (entry.code == PENDING) {
+                    return IN_PROGRESS;
+                }
+                if (entry.code != ABANDONED) {
+                    return entry.code;
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Records the response code of a claimed request and wakes anyone waiting for it.
+     * @param businessId The business ID passed to {@link #begin}.
+     * @param requestId  The request ID passed to {@link #begin}.
+     * @param code       The response code sent to the client.
+     */
+    public void complete(int businessId, long requestId, int code) {
+        finish(businessId, requestId, code);
+    }
+
+    /**
+     * Releases a claimed request without remembering it, for example because applying it failed.
+     * A resend is then applied as if it were new.
+     * @param businessId The business ID passed to {@link #begin}.
+     * @param requestId  The request ID passed to {@link #begin}.
+     */
+    public void abandon(int businessId, long requestId) {
+        finish(businessId, requestId, ABANDONED);
+    }
+
+    private void finish(int businessId, long requestId, int code) {
+        Key key = new Key(businessId, requestId);
+        Stripe stripe = stripe(requestId);
+        stripe.lock.lock();
+        try {
+            Entry entry = stripe.entries.get(key);
+            if (entry != null && entry.code == PENDING) {
+                entry.code = code;
+                if (code == ABANDONED) {
+                    stripe.entries.remove(key);
+                }
+                stripe.done.signalAll();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private Stripe stripe(long requestId) {
+        long h = requestId * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 40) & (stripes.length - 1)];
+    }
+
+    /**
+     * Identifies a request: its business ID and the client's request ID.
+     */
+    private static final class Key {
+        final int businessId;
+        final long requestId;
+
+        Key(int businessId, long requestId) {
+            this.businessId = businessId;
+            this.requestId = requestId;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && key.businessId == businessId && key.requestId == requestId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(requestId) * 31 + businessId;
+        }
+    }
+
+    /**
+     * A remembered request. The code is only read and written under the stripe's lock.
+     */
+    private static final class Entry {
+        final long created;
+        int code = PENDING;
+
+        Entry(long created) {
+            this.created = created;
+        }
+    }
+
+    /**
+     * One lock and the entries it guards, oldest first.
+     */
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition done = lock.newCondition();
+        final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+        final int capacity;
+
+        Stripe(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Returns the live entry of a request, or registers a pending one and returns {@code null}.
+         * Expired and surplus entries are dropped first, oldest first. Must hold the lock.
+         */
+        Entry claim(Key key, long now, long ttlNanos) {
+            Iterator<Entry> oldest = entries.values().iterator();
+            while (oldest.hasNext()) {
+                Entry entry = oldest.next();
+                if (entry.code == PENDING) {
+                    // kept however old, or its waiters would never wake; the ones behind it may still go
+                    continue;
+                }
+                if (now - entry.created < ttlNanos && entries.size() < capacity) {
+                    break;
+                }
+                oldest.remove();
+            }
+            Entry existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            entries.put(key, new Entry(now));
+            return null;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Benchmark of the cost per frame of {@link MyAnim} as the number of letters grows.
+ * For each count it times, into an offscreen image of the window size {@link MyAnim#windowSize}
+ * picks:
+ * <ul>
+ *   <li>one {@link EntitySystem#step()} on all cores and on one thread;</li>
+ *   <li>{@link MyAnim#render}, the path the animation uses;</li>
+ *   <li>drawing every letter with a Java2D fill of its cached outline, and with a transform
+ *       of its exact outline, the way the animation drew its two letters before.</li>
+ * </ul>
+ * <p>At 60 fps a frame has 16.7 ms and runs one or two steps, since a step is 15 ms of animation.</p>
+ * <p>Usage: {@code java EntityBenchmark [count...]} (default: 100 1000 10000 50000)</p>
+ */
+public class EntityBenchmark {
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        int[] counts = args.length > 0 ? new int[args.length] : new int[] {100, 1000, 10000, 50000};
+        for (int i = 0; i < args.length; i++) {
+            counts[i] = Integer.parseInt(args[i]);
+        }
+        System.out.printf("%d cores; median / 99th percentile in ms per frame%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %17s %17s %17s %17s %17s%n",
+                "letters", "step parallel", "step 1 thread", "render", "render fill", "render transform");
+        for (int count : counts) {
+            run(count);
+        }
+    }
+
+    private static void run(int count) {
+        Dimension size = MyAnim.windowSize(count);
+        MyAnim animation = new MyAnim(count, size.width, size.height, false);
+        EntitySystem letters = animation.letters();
+        BufferedImage image = new BufferedImage(size.width, size.height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        int frames = Math.max(30, Math.min(300, 1_000_000 / count));
+
+        // warm up every path
+        for (int i = 0; i < frames; i++) {
+            letters.step();
+            animation.render(g, size.width, size.height);
+            clear(g, size);
+            letters.render(g);
+            letters.renderTransformed(g);
+        }
+
+        LatencyHistogram parallel = new LatencyHistogram();
+        LatencyHistogram serial = new LatencyHistogram();
+        LatencyHistogram render = new LatencyHistogram();
+        LatencyHistogram fill = new LatencyHistogram();
+        LatencyHistogram transform = new LatencyHistogram();
+        long checksum = 0;
+        for (int i = 0; i < frames; i++) {
+            letters.setParallel(true);
+            long start = System.nanoTime();
+            letters.step();
+            parallel.record(System.nanoTime() - start);
+
+            letters.setParallel(false);
+            start = System.nanoTime();
+            letters.step();
+            serial.record(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            animation.render(g, size.width, size.height);
+            render.record(System.nanoTime() - start);
+            checksum += image.getRGB(size.width / 2, size.height / 2);
+
+            start = System.nanoTime();
+            clear(g, size);
+            letters.render(g);
+            fill.record(System.nanoTime() - start);
+
+            start = System.nanoTime();
+            clear(g, size);
+            letters.renderTransformed(g);
+            transform.record(System.nanoTime() - start);
+            checksum += image.getRGB(size.width / 2, size.height / 2);
+        }
+        g.dispose();
+        System.out.printf("%8d %17s %17s %17s %17s %17s (checksum %d)%n", count, format(parallel), format(serial),
+                format(render), format(fill), format(transform), checksum);
+    }
+
+    private static void clear(Graphics2D g, Dimension size) {
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, size.width, size.height);
+    }
+
+    private static String format(LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        return String.format("%.2f / %.2f", snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6);
+    }
+}
\ No newline at end of file
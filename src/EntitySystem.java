@@ -0,0 +1,458 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * The EntitySystem class animates any number of letters for {@link MyAnim}. Each letter moves,
+ * spins, pulses in size and bounces off the walls of the arena and off the other letters.
+ * * <p>The state is kept as a structure of arrays, one primitive array per property indexed by
+ * letter, so a step walks memory sequentially and allocates nothing. A step has three phases:</p>
+ * <ol>
+ *   <li>Every letter moves, spins and pulses, bounces off the walls, taking a new colour when it
+ *       does, and has its grid cell computed. Letters are split into chunks of {@link #CHUNK}
+ *       that run in parallel on the common fork-join pool.</li>
+ *   <li>The letters are counting-sorted into a uniform grid whose cells are as wide as the largest
+ *       letter, so letters that touch are always in the same or neighbouring cells.</li>
+ *   <li>Every letter checks the letters in its own and the eight neighbouring cells, in parallel
+ *       again. Letters collide as circles around their centres and bounce off each other like
+ *       equal masses, except that each keeps its own speed, as the letters of the original
+ *       animation did. Each letter only writes its own new velocity, computed from the old
+ *       velocities of both, so the chunks need no locking.</li>
+ * </ol>
+ * <p>Letters are drawn from the outline cache of their {@link Glyph}, straight into the pixels
+ * of an image when all glyphs are small enough to have rasterized spans. A glyph of several
+ * parts draws them in consecutive colours of the palette; it bounces off the walls at the
+ * extent of its parts along each axis, and off other letters at the circle around it.</p>
+ */
+class EntitySystem {
+    /** Letters per parallel task; a system with fewer letters steps on the calling thread. */
+    private static final int CHUNK = 2048;
+    /** Share of the arena that letters sized by {@link #fitScale} cover. */
+    private static final double FILL = 0.25;
+    /** Rotation and size change per step, as in the original animation. */
+    private static final double SPIN = 0.04, PULSE = 0.01;
+    private static final double TWO_PI = 2 * Math.PI;
+
+    private final Glyph[] glyphs;
+    private final double[] glyphRadius, glyphExtentX, glyphExtentY;
+    private final Color[] palette;
+    private final int[] paletteRgb;
+    private final int count;
+    private final int left, top, right, bottom;
+
+    private final double[] x, y;
+    private double[] vx, vy;
+    /** Velocities after collisions, written by the third phase and then swapped with {@code vx, vy}. */
+    private double[] nextVx, nextVy;
+    private final double[] angle, spin, scale, scaleStep;
+    private final int[] glyph, color;
+
+    private final double cellSize;
+    private final int columns, rows;
+    private final int[] cell;
+    /** Index into {@code cellEntities} of the first letter of each cell, plus the total at the end. */
+    private final int[] cellStart;
+    private final int[] cellCursor;
+    /** Letters sorted by cell. */
+    private final int[] cellEntities;
+
+    private final long seed;
+    private long tick;
+    private volatile boolean parallel = true;
+    private final boolean drawsPixels;
+
+    // only used by the drawing thread
+    private final int[] scratchX, scratchY;
+
+    /**
+     * A part of a step, run over a range of letters.
+     */
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Creates letters at random positions, with random speeds, rotations, sizes and colours.
+     * @param glyphs  The letter shapes, used in turn.
+     * @param palette Colours the letters take.
+     * @param count   Number of letters.
+     * @param boxX    Left edge of the arena.
+     * @param boxY    Top edge of the arena.
+     * @param width   Width of the arena.
+     * @param height  Height of the arena.
+     * @param seed    Seed of the random start state and colour changes, so runs can be repeated.
+     */
+    EntitySystem(Glyph[] glyphs, Color[] palette, int count, int boxX, int boxY, int width, int height, long seed) {
+        if (glyphs.length == 0 || palette.length == 0) {
+            throw new IllegalArgumentException("At least one glyph and one colour are needed");
+        }
+        this.glyphs = glyphs;
+        this.palette = palette;
+        paletteRgb = new int[palette.length];
+        for (int c = 0; c < palette.length; c++) {
+            paletteRgb[c] = palette[c].getRGB();
+        }
+        this.count = count;
+        this.left = boxX;
+        this.top = boxY;
+        this.right = boxX + width;
+        this.bottom = boxY + height;
+        this.seed = seed;
+
+        glyphRadius = new double[glyphs.length];
+        glyphExtentX = new double[glyphs.length];
+        glyphExtentY = new double[glyphs.length];
+        double maxRadius = 0;
+        int maxPoints = 0;
+        boolean spans = true;
+        for (int g = 0; g < glyphs.length; g++) {
+            glyphRadius[g] = glyphs[g].radius();
+            glyphExtentX[g] = glyphs[g].extentX();
+            glyphExtentY[g] = glyphs[g].extentY();
+            maxRadius = Math.max(maxRadius, glyphRadius[g]);
+            maxPoints = Math.max(maxPoints, glyphs[g].largestPart());
+            spans &= glyphs[g].hasSpans();
+        }
+        drawsPixels = spans;
+        scratchX = new int[maxPoints];
+        scratchY = new int[maxPoints];
+
+        cellSize = Math.max(1, 2 * maxRadius * Glyph.MAX_SCALE);
+        columns = Math.max(1, (int) Math.ceil(width / cellSize));
+        rows = Math.max(1, (int) Math.ceil(height / cellSize));
+        cellStart = new int[columns * rows + 1];
+        cellCursor = new int[columns * rows];
+        cellEntities = new int[count];
+        cell = new int[count];
+
+        x = new double[count];
+        y = new double[count];
+        vx = new double[count];
+        vy = new double[count];
+        nextVx = new double[count];
+        nextVy = new double[count];
+        angle = new double[count];
+        spin = new double[count];
+        scale = new double[count];
+        scaleStep = new double[count];
+        glyph = new int[count];
+        color = new int[count];
+
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            glyph[i] = i % glyphs.length;
+            scale[i] = Glyph.MIN_SCALE + random.nextDouble() * (Glyph.MAX_SCALE - Glyph.MIN_SCALE);
+            double rx = glyphExtentX[glyph[i]] * scale[i], ry = glyphExtentY[glyph[i]] * scale[i];
+            x[i] = left + rx + random.nextDouble() * Math.max(0, width - 2 * rx);
+            y[i] = top + ry + random.nextDouble() * Math.max(0, height - 2 * ry);
+            double speed = 1 + random.nextDouble() * 2, heading = random.nextDouble() * TWO_PI;
+            vx[i] = speed * Math.cos(heading);
+            vy[i] = speed * Math.sin(heading);
+            angle[i] = random.nextDouble() * TWO_PI;
+            spin[i] = random.nextBoolean() ? SPIN : -SPIN;
+            scaleStep[i] = random.nextBoolean() ? PULSE : -PULSE;
+            color[i] = random.nextInt(palette.length);
+        }
+    }
+
+    /**
+     * Returns the base scale that makes {@code count} letters of the given shapes cover about
+     * a quarter of the arena, but no larger than the shapes themselves.
+     * @param radius Radius of the largest shape at a scale of 1, see {@link Glyph#radiusOf}.
+     * @param count  Number of letters.
+     * @param width  Width of the arena.
+     * @param height Height of the arena.
+     * @return       The base scale, at most 1.
+     */
+    static double fitScale(double radius, int count, int width, int height) {
+        if (radius <= 0 || count == 0) {
+            return 1;
+        }
+        return Math.min(1, Math.sqrt(FILL * width * height / (count * Math.PI * radius * radius)));
+    }
+
+    /**
+     * Places a letter unrotated at its base size, growing.
+     * @param i     The letter.
+     * @param cx    X of its centre.
+     * @param cy    Y of its centre.
+     * @param dx    Horizontal speed, in pixels per step.
+     * @param dy    Vertical speed, in pixels per step.
+     * @param shade Index of its colour in the palette.
+     */
+    void place(int i, double cx, double cy, double dx, double dy, int shade) {
+        x[i] = cx;
+        y[i] = cy;
+        vx[i] = dx;
+        vy[i] = dy;
+        angle[i] = 0;
+        spin[i] = SPIN;
+        scale[i] = 1;
+        scaleStep[i] = PULSE;
+        color[i] = shade;
+    }
+
+    /**
+     * Returns the number of letters.
+     * @return The count.
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns the X of a letter's centre.
+     * @param i The letter.
+     * @return  The position, in pixels.
+     */
+    double x(int i) {
+        return x[i];
+    }
+
+    /**
+     * Returns the Y of a letter's centre.
+     * @param i The letter.
+     * @return  The position, in pixels.
+     */
+    double y(int i) {
+        return y[i];
+    }
+
+    /**
+     * Returns a letter's horizontal speed.
+     * @param i The letter.
+     * @return  The speed, in pixels per step.
+     */
+    double vx(int i) {
+        return vx[i];
+    }
+
+    /**
+     * Returns a letter's vertical speed.
+     * @param i The letter.
+     * @return  The speed, in pixels per step.
+     */
+    double vy(int i) {
+        return vy[i];
+    }
+
+    /**
+     * Returns the index of a letter's colour in the palette.
+     * @param i The letter.
+     * @return  The palette index.
+     */
+    int color(int i) {
+        return color[i];
+    }
+
+    /**
+     * Chooses whether steps use all cores, for comparing against a single thread.
+     * @param parallel {@code false} to run every phase on the calling thread.
+     */
+    void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Advances every letter by one step. Must not run at the same time as drawing.
+     */
+    void step() {
+        tick++;
+        run(this::move);
+        sortIntoGrid();
+        run(this::collide);
+        double[] swap = vx;
+        vx = nextVx;
+        nextVx = swap;
+        swap = vy;
+        vy = nextVy;
+        nextVy = swap;
+    }
+
+    private void run(RangeTask task) {
+        int chunks = (count + CHUNK - 1) / CHUNK;
+        if (!parallel || chunks <= 1) {
+            task.run(0, count);
+            return;
+        }
+        IntStream.range(0, chunks).parallel().forEach(c -> task.run(c * CHUNK, Math.min(count, (c + 1) * CHUNK)));
+    }
+
+    /**
+     * First phase: movement, rotation, size, walls and grid cell.
+     */
+    private void move(int from, int to) {
+        for (int i = from; i < to; i++) {
+            double a = angle[i] + spin[i];
+            angle[i] = a >= TWO_PI ? a - TWO_PI : a < 0 ? a + TWO_PI : a;
+            double s = scale[i] + scaleStep[i];
+            scale[i] = s;
+            if (s > Glyph.MAX_SCALE || s < Glyph.MIN_SCALE) {
+                scaleStep[i] = -scaleStep[i];
+            }
+            double rx = glyphExtentX[glyph[i]] * s, ry = glyphExtentY[glyph[i]] * s;
+            boolean bounced = false;
+            double px = x[i] + vx[i];
+            if (px - rx < left) {
+                px = left + rx;
+                vx[i] = Math.abs(vx[i]);
+                bounced = true;
+            } else if (px + rx > right) {
+                px = right - rx;
+                vx[i] = -Math.abs(vx[i]);
+                bounced = true;
+            }
+            double py = y[i] + vy[i];
+            if (py - ry < top) {
+                py = top + ry;
+                vy[i] = Math.abs(vy[i]);
+                bounced = true;
+            } else if (py + ry > bottom) {
+                py = bottom - ry;
+                vy[i] = -Math.abs(vy[i]);
+                bounced = true;
+            }
+            x[i] = px;
+            y[i] = py;
+            if (bounced) {
+                color[i] = randomColor(i);
+            }
+            int column = Math.min(columns - 1, Math.max(0, (int) ((px - left) / cellSize)));
+            int row = Math.min(rows - 1, Math.max(0, (int) ((py - top) / cellSize)));
+            cell[i] = row * columns + column;
+        }
+    }
+
+    /**
+     * Second phase: counting sort of the letters by cell.
+     */
+    private void sortIntoGrid() {
+        Arrays.fill(cellStart, 0);
+        for (int i = 0; i < count; i++) {
+            cellStart[cell[i] + 1]++;
+        }
+        for (int c = 0; c < cellCursor.length; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        System.arraycopy(cellStart, 0, cellCursor, 0, cellCursor.length);
+        for (int i = 0; i < count; i++) {
+            cellEntities[cellCursor[cell[i]]++] = i;
+        }
+    }
+
+    /**
+     * Third phase: collisions between letters, written to {@code nextVx, nextVy}.
+     */
+    private void collide(int from, int to) {
+        for (int i = from; i < to; i++) {
+            double xi = x[i], yi = y[i], ri = glyphRadius[glyph[i]] * scale[i];
+            double vxi = vx[i], vyi = vy[i];
+            double newVx = vxi, newVy = vyi;
+            int column = cell[i] % columns, row = cell[i] / columns;
+            for (int r = Math.max(0, row - 1); r <= Math.min(rows - 1, row + 1); r++) {
+                for (int c = Math.max(0, column - 1); c <= Math.min(columns - 1, column + 1); c++) {
+                    int neighbours = r * columns + c;
+                    for (int k = cellStart[neighbours]; k < cellStart[neighbours + 1]; k++) {
+                        int j = cellEntities[k];
+                        double dx = xi - x[j], dy = yi - y[j];
+                        double reach = ri + glyphRadius[glyph[j]] * scale[j];
+                        double d2 = dx * dx + dy * dy;
+                        if (j == i || d2 >= reach * reach || d2 == 0) {
+                            continue;
+                        }
+                        // only letters moving towards each other bounce; overlapping ones drift apart
+                        double closing = (vxi - vx[j]) * dx + (vyi - vy[j]) * dy;
+                        if (closing < 0) {
+                            newVx -= closing / d2 * dx;
+                            newVy -= closing / d2 * dy;
+                        }
+                    }
+                }
+            }
+            // keep the speed and take only the new direction: responses to several contacts
+            // in one step add up, and would otherwise pump energy into crowded letters
+            double speed2 = vxi * vxi + vyi * vyi, newSpeed2 = newVx * newVx + newVy * newVy;
+            if (newSpeed2 > 0 && newSpeed2 != speed2) {
+                double ratio = Math.sqrt(speed2 / newSpeed2);
+                newVx *= ratio;
+                newVy *= ratio;
+            }
+            nextVx[i] = newVx;
+            nextVy[i] = newVy;
+        }
+    }
+
+    /**
+     * Picks a colour from the step number and the letter, so parallel chunks share no random generator.
+     */
+    private int randomColor(int i) {
+        long h = (seed + tick * 0x9E3779B97F4A7C15L) ^ (i * 0xC2B2AE3D27D4EB4FL);
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (int) ((h >>> 1) % palette.length);
+    }
+
+    /**
+     * Draws every letter from the outline caches. {@code g} must have an identity or
+     * integer-translation transform.
+     * @param g The graphics to draw on.
+     */
+    void render(Graphics2D g) {
+        int current = -1;
+        for (int i = 0; i < count; i++) {
+            Glyph shape = glyphs[glyph[i]];
+            int cx = (int) Math.round(x[i]), cy = (int) Math.round(y[i]);
+            for (int part = 0; part < shape.parts(); part++) {
+                int shade = (color[i] + part) % palette.length;
+                if (shade != current) {
+                    current = shade;
+                    g.setColor(palette[current]);
+                }
+                shape.fill(g, part, angle[i], scale[i], cx, cy, scratchX, scratchY);
+            }
+        }
+    }
+
+    /**
+     * Returns whether the letters are small enough to be drawn with {@link #render(int[], int, int)}.
+     * @return {@code true} if every glyph has rasterized spans.
+     */
+    boolean drawsPixels() {
+        return drawsPixels;
+    }
+
+    /**
+     * Draws every letter by writing pixels directly, see {@link Glyph#fill(int[], int, int, int, double, double, int, int, int)}.
+     * Only valid if {@link #drawsPixels()}.
+     * @param pixels The pixels of an image with one int per pixel in RGB order, row by row.
+     * @param width  Width of the image.
+     * @param height Height of the image.
+     */
+    void render(int[] pixels, int width, int height) {
+        for (int i = 0; i < count; i++) {
+            Glyph shape = glyphs[glyph[i]];
+            int cx = (int) Math.round(x[i]), cy = (int) Math.round(y[i]);
+            for (int part = 0; part < shape.parts(); part++) {
+                shape.fill(pixels, width, height, part, angle[i], scale[i], cx, cy,
+                        paletteRgb[(color[i] + part) % palette.length]);
+            }
+        }
+    }
+
+    /**
+     * Draws every letter by transforming its exact outline, without the caches.
+     * Slower; kept to compare against {@link #render}.
+     * @param g The graphics to draw on.
+     */
+    void renderTransformed(Graphics2D g) {
+        for (int i = 0; i < count; i++) {
+            Glyph shape = glyphs[glyph[i]];
+            for (int part = 0; part < shape.parts(); part++) {
+                g.setColor(palette[(color[i] + part) % palette.length]);
+                shape.fillTransformed(g, part, angle[i], scale[i], x[i], y[i]);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,59 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FrameStats class collects frame times of a {@link RenderLoop} in a {@link LatencyHistogram},
+ * so pacing problems show up as percentiles instead of being hidden in an average frame rate.
+ * * <p>A frame is counted as dropped when it took more than one and a half frame budgets:
+ * on a display that refreshes at the frame rate, such a frame missed at least one refresh
+ * and the previous image was shown twice.</p>
+ */
+class FrameStats {
+    private final long budgetNanos;
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private long frames;
+    private long dropped;
+    private long totalNanos;
+
+    /**
+     * Constructs empty statistics.
+     * @param budgetNanos Time available for one frame at the target frame rate.
+     */
+    public FrameStats(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    /**
+     * Records one frame. Called by the render thread only.
+     * @param frameNanos The time the frame took.
+     */
+    public void record(long frameNanos) {
+        frameTimes.record(frameNanos);
+        frames++;
+        totalNanos += frameNanos;
+        if (frameNanos > budgetNanos + budgetNanos / 2) {
+            dropped++;
+        }
+    }
+
+    /**
+     * Formats the statistics on one line.
+     * @return The frame count, average rate, frame-time percentiles and dropped frames.
+     */
+    public String format() {
+        LatencyHistogram.Snapshot snapshot = frameTimes.snapshot();
+        double fps = totalNanos == 0 ? 0 : frames * 1e9 / totalNanos;
+        return String.format("frames=%d fps=%.1f p50=%.2f ms p99=%.2f ms p999=%.2f ms max=%.2f ms dropped=%d (budget %.2f ms)",
+                frames, fps, snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6,
+                snapshot.percentile(99.9) / 1e6, snapshot.percentile(100) / 1e6, dropped,
+                budgetNanos / 1e6);
+    }
+
+    /**
+     * Returns the frame budget for a frame rate.
+     * @param fps Frames per second.
+     * @return    The budget in nanoseconds.
+     */
+    static long budget(int fps) {
+        return TimeUnit.SECONDS.toNanos(1) / fps;
+    }
+}
\ No newline at end of file
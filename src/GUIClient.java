@@ -1,12 +1,11 @@
 import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
-import java.io.*;
-import java.net.*;
 /**
  * The GUIClient class provides a graphical user interface for the Order Management System.
  * It allows users to input order details, validates the input locally,
- * and communicates with the CentralServer via TCP sockets.
+ * and communicates with the CentralServer through an {@link AsyncOrderConnection},
+ * so the window stays responsive and several orders can be in flight at once.
  */
 public class GUIClient extends JFrame {
     // רכיבי ממשק
@@ -19,18 +18,27 @@ public class GUIClient extends JFrame {
     private JButton sendButton = new JButton("Send");
     private JButton disconnectButton = new JButton("Disconnect");
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private JLabel statusLabel = new JLabel("No orders pending");
+
+    private final AsyncOrderConnection connection;
+
+    /**
+     * Constructs the GUIClient frame using the text protocol.
+     */
+    public GUIClient() {
+        this(false);
+    }
 
     /**
      * Constructs the GUIClient frame, initializes all UI components,
      * and sets up event listeners for the buttons.
+     * @param binary Whether to talk to the server with the binary protocol, see {@link BinaryOrderCodec}.
      */
-    public GUIClient() {
+    public GUIClient(boolean binary) {
+        connection = new AsyncOrderConnection("localhost", 9999, binary);
 
         setTitle("Order Management System");
-        setSize(450, 480);
+        setSize(450, 510);
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
         setResizable(false);
@@ -78,7 +86,15 @@ public class GUIClient extends JFrame {
 
         southPanel.add(sendButton);
         southPanel.add(disconnectButton);
-        add(southPanel, BorderLayout.SOUTH);
+
+        // שורת סטטוס: כמה הזמנות עדיין מחכות לתשובה
+        JPanel bottomPanel = new JPanel(new BorderLayout());
+        bottomPanel.setBackground(Color.WHITE);
+        statusLabel.setHorizontalAlignment(SwingConstants.CENTER);
+        statusLabel.setBorder(new EmptyBorder(0, 0, 10, 0));
+        bottomPanel.add(southPanel, BorderLayout.CENTER);
+        bottomPanel.add(statusLabel, BorderLayout.SOUTH);
+        add(bottomPanel, BorderLayout.SOUTH);
 
         // אירועים
         sendButton.addActionListener(e -> sendData());
@@ -89,7 +105,8 @@ public class GUIClient extends JFrame {
     }
     /**
      * Gathers data from the text fields, performs local validation,
-     * and sends the order message to the server if validation passes.
+     * and queues the order message for the server if validation passes.
+     * Returns at once; the response is shown when it arrives.
      * Displays an error dialog if input is invalid.
      */
     private void sendData() {
@@ -104,30 +121,34 @@ public class GUIClient extends JFrame {
         }
 
         //  בדיקה שה-ID והכמות הם מספרים בלבד
+        int id;
+        int quantity;
         try {
-            Integer.parseInt(idStr);
-            Integer.parseInt(qtyStr);
+            id = Integer.parseInt(idStr);
+            quantity = Integer.parseInt(qtyStr);
         } catch (NumberFormatException nfe) {
             JOptionPane.showMessageDialog(this, "Error 200: ID and Quantity must be numerical numbers!", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
-        //  אם הכל תקין - שולחים לשרת
-        try {
-            if (socket == null || socket.isClosed()) {
-                socket = new Socket("localhost", 9999);
-                out = new PrintWriter(socket.getOutputStream(), true);
-                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        //  אם הכל תקין - שולחים לשרת, התשובה תגיע ברקע
+        connection.sendOrder(name, id, itemPicker.getSelectedIndex() + 1, quantity).whenComplete((response, error) -> SwingUtilities.invokeLater(() -> {
+            updateStatus();
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                JOptionPane.showMessageDialog(this, "Connection Error: " + cause.getMessage());
+            } else {
+                handleResponse(response);
             }
+        }));
+        updateStatus();
+    }
 
-            String message = name + "," + idStr + "," + (itemPicker.getSelectedIndex() + 1) + "," + qtyStr;
-            out.println(message);
-
-            String response = in.readLine();
-            handleResponse(response);
-
-        } catch (IOException ex) {
-            JOptionPane.showMessageDialog(this, "Connection Error: " + ex.getMessage());
-        }
+    /**
+     * Shows how many orders are still waiting for the server.
+     */
+    private void updateStatus() {
+        int pending = connection.pending();
+        statusLabel.setText(pending == 0 ? "No orders pending" : "Orders pending: " + pending);
     }
 
     /**
@@ -151,6 +172,9 @@ public class GUIClient extends JFrame {
             case "202":
                 JOptionPane.showMessageDialog(this, "Error 202: Invalid quantity!", "Error", JOptionPane.ERROR_MESSAGE);
                 break;
+            case "204":
+                JOptionPane.showMessageDialog(this, "Error 204: Server is busy, please try again shortly.", "Error", JOptionPane.ERROR_MESSAGE);
+                break;
             default:
                 JOptionPane.showMessageDialog(this, "Server Response: " + response);
         }
@@ -158,19 +182,17 @@ public class GUIClient extends JFrame {
 
     /**
      * Sends a DISCONNECT command to the server, closes the network resources,
-     * and exits the application.
+     * and closes the window.
      */
     private void disconnectFromServer() {
-        try {
-            if (out != null) out.println("DISCONNECT");
-            if (socket != null) socket.close();
-            dispose();
-        } catch (IOException ex) {
-            ex.printStackTrace();
-        }
+        connection.close();
+        dispose();
     }
 
+    /**
+     * Opens the order window. Pass {@code --binary} to use the binary protocol.
+     */
     public static void main(String[] args) {
-        new GUIClient();
+        new GUIClient(args.length > 0 && args[0].equals("--binary"));
     }
 }
\ No newline at end of file
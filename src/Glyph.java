@@ -0,0 +1,333 @@
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+
+/**
+ * The Glyph class holds the outline of one letter for the {@link EntitySystem}, centred on the
+ * middle of its bounding box, together with every rotated and scaled version of it that the
+ * animation can show.
+ * * <p>A glyph can also be made of several parts, such as the two letters of the original logo.
+ * Each part spins around its own centre, and the parts keep their places relative to each other
+ * as the glyph moves and pulses, the way the original animation drew its letters.</p>
+ * * <p>Angles are rounded to {@link #ANGLE_STEPS} steps per turn and scales to {@link #SCALE_STEPS}
+ * steps between {@link #MIN_SCALE} and {@link #MAX_SCALE}, and the outline is transformed for all
+ * of them up front. Drawing a letter then only adds its position to the cached points and fills
+ * an integer polygon with an identity transform, instead of building a transform and
+ * rasterizing a transformed shape for every letter in every frame.</p>
+ * * <p>The cache takes 64 KB per point of the outline, so only outlines of up to
+ * {@link #MAX_CACHED_POINTS} points are cached. Larger ones are drawn with a transform,
+ * the way the animation always drew its letters.</p>
+ * * <p>Small glyphs, a few pixels across when thousands of letters share the screen, also cache
+ * every outline rasterized into horizontal spans. They can then be
+ * drawn by writing pixels straight into an image, which avoids the fixed cost of a Java2D fill
+ * call; for letters that small, that cost is most of the time spent drawing them.</p>
+ */
+class Glyph {
+    /** Rotations cached per full turn. */
+    static final int ANGLE_STEPS = 256;
+    /** Scales cached between {@link #MIN_SCALE} and {@link #MAX_SCALE}. */
+    static final int SCALE_STEPS = 32;
+    /** Smallest and largest scale a letter pulses between, relative to its base size. */
+    static final double MIN_SCALE = 0.7, MAX_SCALE = 1.2;
+    /** Largest radius, at the largest scale, for which rasterized spans are cached. */
+    static final double SPAN_RADIUS = 24;
+    /** Largest outline that is cached, which then takes 32 MB. */
+    static final int MAX_CACHED_POINTS = 512;
+
+    private static final double TWO_PI = 2 * Math.PI;
+
+    /** Each part, centred on the middle of its own bounding box. */
+    private final Polygon[] centered;
+    /** Centre of each part relative to the centre of the glyph, at the size of the polygons. */
+    private final double[] offsetX, offsetY;
+    /** Index of the first point of each part in a cached outline, plus the total at the end. */
+    private final int[] partStart;
+    private final int points;
+    private final int largestPart;
+    private final double baseScale;
+    private final double radius, extentX, extentY;
+    /** Cached outlines, {@code points} values per angle and scale step, angle-major; {@code null} for large outlines. */
+    private final int[] outlineX, outlineY;
+    /**
+     * Rasterized parts by angle and scale step, then part, {@code null} for large glyphs:
+     * {@code dy, fromX, toX} triples relative to the centre, with {@code toX} exclusive.
+     */
+    private final int[][] spans;
+
+    /**
+     * Builds a glyph of one part and its outline cache, if the outline is small enough.
+     * @param polygon   The outline, in any position; it is not modified.
+     * @param baseScale Size of the glyph relative to the polygon at a scale of 1.
+     */
+    Glyph(Polygon polygon, double baseScale) {
+        this(new Polygon[] {polygon}, baseScale);
+    }
+
+    /**
+     * Builds a glyph of several parts and its outline cache, if the outlines are small enough.
+     * @param parts     The outlines, in their places relative to each other; they are not modified.
+     * @param baseScale Size of the glyph relative to the polygons at a scale of 1.
+     */
+    Glyph(Polygon[] parts, double baseScale) {
+        Rectangle bounds = parts[0].getBounds();
+        for (Polygon part : parts) {
+            bounds = bounds.union(part.getBounds());
+        }
+        centered = new Polygon[parts.length];
+        offsetX = new double[parts.length];
+        offsetY = new double[parts.length];
+        partStart = new int[parts.length + 1];
+        double[] partX = new double[parts.length], partY = new double[parts.length];
+        double reach = 0, reachX = 0, reachY = 0;
+        int largest = 0;
+        for (int p = 0; p < parts.length; p++) {
+            Rectangle own = parts[p].getBounds();
+            partX[p] = own.getCenterX();
+            partY[p] = own.getCenterY();
+            offsetX[p] = partX[p] - bounds.getCenterX();
+            offsetY[p] = partY[p] - bounds.getCenterY();
+            centered[p] = new Polygon(parts[p].xpoints, parts[p].ypoints, parts[p].npoints);
+            centered[p].translate((int) -Math.round(partX[p]), (int) -Math.round(partY[p]));
+            partStart[p + 1] = partStart[p] + parts[p].npoints;
+            largest = Math.max(largest, parts[p].npoints);
+
+            double r = radiusOf(parts[p]);
+            reach = Math.max(reach, Math.hypot(offsetX[p], offsetY[p]) + r);
+            reachX = Math.max(reachX, Math.abs(offsetX[p]) + r);
+            reachY = Math.max(reachY, Math.abs(offsetY[p]) + r);
+        }
+        points = partStart[parts.length];
+        largestPart = largest;
+
+        this.baseScale = baseScale;
+        radius = reach * baseScale;
+        extentX = reachX * baseScale;
+        extentY = reachY * baseScale;
+
+        if (points > MAX_CACHED_POINTS) {
+            outlineX = null;
+            outlineY = null;
+            spans = null;
+            return;
+        }
+        outlineX = new int[ANGLE_STEPS * SCALE_STEPS * points];
+        outlineY = new int[outlineX.length];
+        int at = 0;
+        for (int a = 0; a < ANGLE_STEPS; a++) {
+            double cos = Math.cos(a * TWO_PI / ANGLE_STEPS), sin = Math.sin(a * TWO_PI / ANGLE_STEPS);
+            for (int s = 0; s < SCALE_STEPS; s++) {
+                double scale = scaleOf(s) * baseScale;
+                for (int p = 0; p < parts.length; p++) {
+                    Polygon polygon = parts[p];
+                    double ox = offsetX[p] * scale, oy = offsetY[p] * scale;
+                    for (int k = 0; k < polygon.npoints; k++) {
+                        double px = (polygon.xpoints[k] - partX[p]) * scale, py = (polygon.ypoints[k] - partY[p]) * scale;
+                        outlineX[at] = (int) Math.round(ox + px * cos - py * sin);
+                        outlineY[at] = (int) Math.round(oy + px * sin + py * cos);
+                        at++;
+                    }
+                }
+            }
+        }
+        if (radius * MAX_SCALE <= SPAN_RADIUS) {
+            spans = new int[ANGLE_STEPS * SCALE_STEPS * parts.length][];
+            for (int step = 0; step < ANGLE_STEPS * SCALE_STEPS; step++) {
+                for (int p = 0; p < parts.length; p++) {
+                    spans[step * parts.length + p] = rasterize(step, p);
+                }
+            }
+        } else {
+            spans = null;
+        }
+    }
+
+    /**
+     * Returns the radius of the circle around the centre that holds the whole glyph, at any
+     * rotation, at a relative scale of 1.
+     * @return The radius, in pixels.
+     */
+    double radius() {
+        return radius;
+    }
+
+    /**
+     * Returns how far the glyph can reach left and right of its centre, at any rotation of its
+     * parts, at a relative scale of 1. The same as {@link #radius()} for a glyph of one part.
+     * @return The distance, in pixels.
+     */
+    double extentX() {
+        return extentX;
+    }
+
+    /**
+     * Returns how far the glyph can reach above and below its centre, see {@link #extentX()}.
+     * @return The distance, in pixels.
+     */
+    double extentY() {
+        return extentY;
+    }
+
+    /**
+     * Returns the number of parts.
+     * @return The number of parts, 1 for a single letter.
+     */
+    int parts() {
+        return centered.length;
+    }
+
+    /**
+     * Returns the number of points of the largest part, the length the scratch arrays passed to
+     * {@link #fill} need at least.
+     * @return The number of points.
+     */
+    int largestPart() {
+        return largestPart;
+    }
+
+    /**
+     * Fills one part of the glyph from the cache in the current colour of {@code g}, which must
+     * have an identity or integer-translation transform. An outline too large to be cached is
+     * transformed and filled instead.
+     * @param g        The graphics to draw on.
+     * @param part     The part, from 0 to {@link #parts()}.
+     * @param angle    Rotation in radians, in {@code [0, 2π)}.
+     * @param scale    Relative scale between {@link #MIN_SCALE} and {@link #MAX_SCALE}.
+     * @param x        X of the centre.
+     * @param y        Y of the centre.
+     * @param scratchX Scratch array for the X coordinates, reused between calls.
+     * @param scratchY Scratch array for the Y coordinates, reused between calls.
+     */
+    void fill(Graphics2D g, int part, double angle, double scale, int x, int y, int[] scratchX, int[] scratchY) {
+        int size = partStart[part + 1] - partStart[part];
+        if (size == 0) {
+            return;
+        }
+        if (outlineX == null) {
+            fillTransformed(g, part, angle, scale, x, y);
+            return;
+        }
+        int from = step(angle, scale) * points + partStart[part];
+        for (int k = 0; k < size; k++) {
+            scratchX[k] = outlineX[from + k] + x;
+            scratchY[k] = outlineY[from + k] + y;
+        }
+        g.fillPolygon(scratchX, scratchY, size);
+    }
+
+    /**
+     * Fills one part of the glyph by transforming its exact outline, without the cache, in the
+     * current colour of {@code g}.
+     * @param g     The graphics to draw on.
+     * @param part  The part, from 0 to {@link #parts()}.
+     * @param angle Rotation in radians.
+     * @param scale Relative scale.
+     * @param x     X of the centre.
+     * @param y     Y of the centre.
+     */
+    void fillTransformed(Graphics2D g, int part, double angle, double scale, double x, double y) {
+        double size = scale * baseScale;
+        AffineTransform saved = g.getTransform();
+        g.translate(x + offsetX[part] * size, y + offsetY[part] * size);
+        g.rotate(angle);
+        g.scale(size, size);
+        g.fillPolygon(centered[part]);
+        g.setTransform(saved);
+    }
+
+    /**
+     * Returns whether the glyph is small enough to be drawn with {@link #fill(int[], int, int, int, double, double, int, int, int)}.
+     * @return {@code true} if rasterized spans are cached.
+     */
+    boolean hasSpans() {
+        return spans != null;
+    }
+
+    /**
+     * Fills one part of the glyph from the cached spans by writing pixels directly, clipped to
+     * the image. Covers the same pixels as {@link #fill(Graphics2D, int, double, double, int, int, int[], int[])},
+     * but for some that an edge passes exactly through.
+     * Only valid if {@link #hasSpans()}.
+     * @param pixels The pixels of an image, row by row.
+     * @param width  Width of the image.
+     * @param height Height of the image.
+     * @param part   The part, from 0 to {@link #parts()}.
+     * @param angle  Rotation in radians, in {@code [0, 2π)}.
+     * @param scale  Relative scale between {@link #MIN_SCALE} and {@link #MAX_SCALE}.
+     * @param x      X of the centre.
+     * @param y      Y of the centre.
+     * @param rgb    The colour, in the pixel format of the image.
+     */
+    void fill(int[] pixels, int width, int height, int part, double angle, double scale, int x, int y, int rgb) {
+        int[] runs = spans[step(angle, scale) * centered.length + part];
+        for (int k = 0; k < runs.length; k += 3) {
+            int row = y + runs[k];
+            if (row < 0 || row >= height) {
+                continue;
+            }
+            int from = Math.max(0, x + runs[k + 1]), to = Math.min(width, x + runs[k + 2]);
+            if (from < to) {
+                Arrays.fill(pixels, row * width + from, row * width + to, rgb);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache index of the angle and scale step closest to the given ones.
+     */
+    private static int step(double angle, double scale) {
+        int a = (int) Math.round(angle * (ANGLE_STEPS / TWO_PI)) & (ANGLE_STEPS - 1);
+        int s = (int) Math.round((scale - MIN_SCALE) * ((SCALE_STEPS - 1) / (MAX_SCALE - MIN_SCALE)));
+        return a * SCALE_STEPS + Math.max(0, Math.min(SCALE_STEPS - 1, s));
+    }
+
+    /**
+     * Rasterizes one part of a cached outline into spans. Like Java2D filling without
+     * antialiasing, it covers the pixels whose centres are inside once the outline is moved by
+     * the quarter pixel that stroke normalization adds.
+     */
+    private int[] rasterize(int step, int part) {
+        int from = step * points + partStart[part], to = step * points + partStart[part + 1];
+        Polygon outline = new Polygon(Arrays.copyOfRange(outlineX, from, to),
+                Arrays.copyOfRange(outlineY, from, to), to - from);
+        Rectangle bounds = outline.getBounds();
+        int[] runs = new int[3 * bounds.height * (bounds.width / 2 + 1)];
+        int size = 0;
+        for (int dy = bounds.y; dy < bounds.y + bounds.height; dy++) {
+            int start = Integer.MIN_VALUE;
+            for (int dx = bounds.x; dx <= bounds.x + bounds.width; dx++) {
+                boolean inside = dx < bounds.x + bounds.width && outline.contains(dx + 0.25, dy + 0.25);
+                if (inside && start == Integer.MIN_VALUE) {
+                    start = dx;
+                } else if (!inside && start != Integer.MIN_VALUE) {
+                    runs[size++] = dy;
+                    runs[size++] = start;
+                    runs[size++] = dx;
+                    start = Integer.MIN_VALUE;
+                }
+            }
+        }
+        return Arrays.copyOf(runs, size);
+    }
+
+    /**
+     * Returns the radius of the circle around the centre of the bounding box of a polygon
+     * that holds the whole polygon.
+     * @param polygon The outline.
+     * @return        The radius, 0 for an empty polygon.
+     */
+    static double radiusOf(Polygon polygon) {
+        Rectangle bounds = polygon.getBounds();
+        double r2 = 0;
+        for (int k = 0; k < polygon.npoints; k++) {
+            double dx = polygon.xpoints[k] - bounds.getCenterX(), dy = polygon.ypoints[k] - bounds.getCenterY();
+            r2 = Math.max(r2, dx * dx + dy * dy);
+        }
+        return Math.sqrt(r2);
+    }
+
+    private static double scaleOf(int step) {
+        return MIN_SCALE + (MAX_SCALE - MIN_SCALE) * step / (SCALE_STEPS - 1);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,99 @@
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * The HandlerExecutor class runs {@link ClientHandler}s on virtual threads with two limits:
+ * connections beyond the limit of the {@link AdmissionControl} are shed,
+ * and at most {@code maxConcurrency} handlers run at once (the rest wait their turn).
+ * * <p>On a JDK without virtual threads it falls back to a cached pool of platform threads.</p>
+ */
+class HandlerExecutor {
+    private final ExecutorService executor;
+    private final AdmissionControl admission;
+    private final Semaphore concurrency;
+    private final boolean virtual;
+
+    /**
+     * Constructs a new HandlerExecutor.
+     * @param admission      The limits that decide which connections are accepted.
+     * @param maxConcurrency Maximum number of handlers running at the same time.
+     */
+    public HandlerExecutor(AdmissionControl admission, int maxConcurrency) {
+        ExecutorService virtualExecutor = newVirtualThreadExecutor();
+        this.virtual = virtualExecutor != null;
+        this.executor = virtual ? virtualExecutor : Executors.newCachedThreadPool();
+        this.admission = admission;
+        this.concurrency = new Semaphore(maxConcurrency, true);
+    }
+
+    /**
+     * Returns whether handlers run on virtual threads.
+     * @return {@code true} for virtual threads, {@code false} for the platform-thread fallback.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Starts a handler for the socket, or closes the socket at once if the connection limit is reached.
+     * @param socket The accepted client socket.
+     * @return       {@code true} if the connection was accepted, {@code false} if it was shed.
+     */
+    public boolean submit(Socket socket) {
+        if (!admission.connectionOpened()) {
+            shed(socket);
+            return false;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    concurrency.acquire();
+                    try {
+                        new ClientHandler(socket).run();
+                    } finally {
+                        concurrency.release();
+                    }
+                } catch (InterruptedException e) {
+                    shed(socket);
+                } finally {
+                    admission.connectionClosed();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            admission.connectionClosed();
+            shed(socket);
+            return false;
+        }
+    }
+
+    /**
+     * Closes a connection the server will not serve.
+     * The client sees the stream end before any response, as if the server had gone away.
+     */
+    private static void shed(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Looks up {@code Executors.newVirtualThreadPerTaskExecutor()}, which only exists from JDK 21.
+     * @return The executor, or {@code null} if the running JDK has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
\ No newline at end of file
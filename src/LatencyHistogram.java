@@ -0,0 +1,116 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class records durations in log-linear buckets, in the style of HdrHistogram.
+ * Every power of two is split into 32 sub-buckets, so any recorded value is reported
+ * within about 3% of its true value, from nanoseconds up to hours, in a fixed ~15 KB per stripe.
+ * * <p>Recording is a single atomic increment on one of several stripes chosen by thread,
+ * so concurrent writers rarely touch the same cache line and never take a lock.
+ * Reading merges the stripes.</p>
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Enough buckets for any non-negative long. */
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS) * SUB_BUCKETS + 2 * SUB_BUCKETS;
+    /** Number of stripes, a power of two of at least the core count. */
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors()) * 2;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    /**
+     * Constructs an empty histogram.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records one value.
+     * @param value The value, usually nanoseconds; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        stripes[stripe].incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    /**
+     * Returns a merged copy of all stripes, for reading.
+     * @return A point-in-time copy.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = stripe.get(i);
+                counts[i] += c;
+                total += c;
+            }
+        }
+        return new Snapshot(counts, total);
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (int) (SUB_BUCKETS * shift + (value >>> shift));
+    }
+
+    /**
+     * Returns the largest value that falls into a bucket.
+     */
+    private static long highestValue(int bucket) {
+        if (bucket < 2 * SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long top = bucket - (long) SUB_BUCKETS * shift;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * A merged, immutable copy of a histogram.
+     */
+    static final class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        private Snapshot(long[] counts, long total) {
+            this.counts = counts;
+            this.total = total;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         * @return The count.
+         */
+        public long count() {
+            return total;
+        }
+
+        /**
+         * Returns the value below which the given share of recorded values falls.
+         * @param percentile Percentile between 0 and 100, for example 99.9.
+         * @return           The upper bound of the matching bucket, or 0 if nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return highestValue(counts.length - 1);
+        }
+    }
+}
\ No newline at end of file
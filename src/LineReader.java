@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The LineReader class splits a character stream into lines inside a reusable buffer,
+ * so that reading a line does not allocate a String.
+ * Lines end at "\n", "\r" or "\r\n", like {@link java.io.BufferedReader#readLine()}.
+ * After {@link #readLine()} returns a length, the line is at
+ * {@code buffer()[lineStart() .. lineStart() + length)} until the next call.
+ */
+class LineReader {
+    private final Reader in;
+    private char[] buf = new char[8192];
+    /** Index of the next unread character. */
+    private int pos;
+    /** Number of valid characters in the buffer. */
+    private int limit;
+    /** Start of the line returned by the last call. */
+    private int lineStart;
+    /** Whether a '\n' right after a '\r' must be skipped. */
+    private boolean skipLF;
+
+    /**
+     * Constructs a new LineReader.
+     * @param in The character stream to read from.
+     */
+    public LineReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads the next line.
+     * @return The length of the line, or -1 at end of stream.
+     * @throws IOException If reading fails.
+     */
+    public int readLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            for (; scan < limit; scan++) {
+                char c = buf[scan];
+                if (skipLF) {
+                    skipLF = false;
+                    if (c == '\n') {
+                        pos++;
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    lineStart = pos;
+                    pos = scan + 1;
+                    skipLF = c == '\r';
+                    return scan - lineStart;
+                }
+            }
+            int scanned = scan - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return -1;
+                }
+                // the last line has no terminator
+                lineStart = pos;
+                int length = limit - pos;
+                pos = limit;
+                return length;
+            }
+            scan = pos + scanned;
+        }
+    }
+
+    /**
+     * Returns the buffer that holds the last line.
+     * @return The internal buffer.
+     */
+    public char[] buffer() {
+        return buf;
+    }
+
+    /**
+     * Returns where the last line starts in {@link #buffer()}.
+     * @return Index of the first character of the line.
+     */
+    public int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * Tells whether another line can be started without blocking.
+     * @return {@code true} if buffered or already received input is waiting.
+     * @throws IOException If the stream is closed.
+     */
+    public boolean ready() throws IOException {
+        return pos < limit || in.ready();
+    }
+
+    /**
+     * Tells whether part of a line has been read but not yet returned.
+     * @return {@code true} if unread characters are buffered.
+     */
+    public boolean hasBufferedInput() {
+        return pos < limit;
+    }
+
+    /**
+     * Moves the unread part of the buffer to the front, growing it if full,
+     * and reads more characters behind it.
+     * @return {@code false} at end of stream.
+     */
+    private boolean fill() throws IOException {
+        int unread = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, unread);
+        } else if (unread == buf.length) {
+            char[] grown = new char[buf.length * 2];
+            System.arraycopy(buf, 0, grown, 0, unread);
+            buf = grown;
+        }
+        pos = 0;
+        limit = unread;
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n <= 0) {
+            return false;
+        }
+        limit += n;
+        return true;
+    }
+}
\ No newline at end of file
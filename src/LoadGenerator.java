@@ -0,0 +1,409 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadGenerator class is a headless, multi-connection load tool for the {@link CentralServer}.
+ * Each connection streams order lines in the {@code Name,ID,ItemType,Quantity} protocol on a
+ * fixed schedule and matches the in-order responses on a second thread.
+ * Latency is measured from when a line was <i>scheduled</i> to be sent, so a stalled
+ * server shows up in the percentiles instead of silently lowering the send rate.
+ * * <p>Options ({@code --name=value}):</p>
+ * <ul>
+ *   <li>{@code --host}, {@code --port} - server address (default: localhost:9999).</li>
+ *   <li>{@code --connections=N} - parallel connections (default: 8).</li>
+ *   <li>{@code --rate=N} - total orders per second across all connections (default: 10000).</li>
+ *   <li>{@code --duration=SECONDS} - how long to send (default: 10).</li>
+ *   <li>{@code --pipeline=N} - unanswered lines allowed per connection (default: 64).</li>
+ *   <li>{@code --businesses=N} - distinct business IDs used (default: 1000).</li>
+ *   <li>{@code --distribution=uniform|zipf} - how IDs are picked (default: uniform).</li>
+ *   <li>{@code --zipf-exponent=S} - skew of the zipf distribution (default: 1.0).</li>
+ *   <li>{@code --invalid=FRACTION} - share of deliberately malformed lines (default: 0).</li>
+ *   <li>{@code --protocol=text|binary} - wire format, see {@link BinaryOrderCodec} (default: text).
+ *       Binary invalid orders use an out-of-range ID or a zero quantity.</li>
+ * </ul>
+ * <p>A connection the server closes or stops answering is reported as failed with the number of
+ * orders it left unanswered, and the tool then exits with status 1 after the report.</p>
+ */
+public class LoadGenerator {
+    private String host = "localhost";
+    private int port = 9999;
+    private int connections = 8;
+    private double rate = 10000;
+    private int duration = 10;
+    private int pipeline = 64;
+    private int businesses = 1000;
+    private boolean zipf;
+    private double zipfExponent = 1.0;
+    private double invalid;
+    private boolean binary;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    /** Response counts for codes 0..999; anything else is counted in slot 0. */
+    private final LongAdder[] codes = new LongAdder[1000];
+    /** Cumulative probabilities of picking each business rank, when zipf is used. */
+    private double[] zipfCdf;
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator generator = new LoadGenerator();
+        try {
+            for (String arg : args) {
+                int eq = arg.indexOf('=');
+                if (!arg.startsWith("--") || eq < 0) {
+                    throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+                }
+                generator.set(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Not a number: " + e.getMessage());
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        if (generator.run() > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Sets one option, as given on the command line without its leading dashes.
+     * @param name  The option name, for example {@code rate}.
+     * @param value The option value.
+     * @throws IllegalArgumentException If the option is unknown or out of range.
+     */
+    void set(String name, String value) {
+        switch (name) {
+            case "host":
+                host = value;
+                break;
+            case "port":
+                port = Integer.parseInt(value);
+                break;
+            case "connections":
+                connections = Integer.parseInt(value);
+                break;
+            case "rate":
+                rate = Double.parseDouble(value);
+                break;
+            case "duration":
+                duration = Integer.parseInt(value);
+                break;
+            case "pipeline":
+                pipeline = Integer.parseInt(value);
+                break;
+            case "businesses":
+                businesses = Integer.parseInt(value);
+                break;
+            case "distribution":
+                if (!value.equals("uniform") && !value.equals("zipf")) {
+                    throw new IllegalArgumentException("Unknown distribution: " + value);
+                }
+                zipf = value.equals("zipf");
+                break;
+            case "zipf-exponent":
+                zipfExponent = Double.parseDouble(value);
+                break;
+            case "invalid":
+                invalid = Double.parseDouble(value);
+                break;
+            case "protocol":
+                if (!value.equals("text") && !value.equals("binary")) {
+                    throw new IllegalArgumentException("Unknown protocol: " + value);
+                }
+                binary = value.equals("binary");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+        if (connections < 1 || rate <= 0 || duration < 1 || pipeline < 1
+                || businesses < 1 || businesses > 90000 || invalid < 0 || invalid > 1) {
+            throw new IllegalArgumentException("Option out of range: --" + name + "=" + value);
+        }
+    }
+
+    /**
+     * Runs the load and prints the report.
+     * @return The number of connections that failed.
+     */
+    int run() throws InterruptedException {
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = new LongAdder();
+        }
+        if (zipf) {
+            zipfCdf = zipfCdf(businesses, zipfExponent);
+        }
+        System.out.printf("Sending %.0f %s orders/s over %d connections to %s:%d for %d s (%s IDs over %d businesses, %.1f%% invalid)%n",
+                rate, binary ? "binary" : "text", connections, host, port, duration,
+                zipf ? "zipf " + zipfExponent : "uniform", businesses, invalid * 100);
+
+        CountDownLatch done = new CountDownLatch(connections);
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            int index = c;
+            Thread thread = new Thread(() -> {
+                try {
+                    runConnection(index, start);
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Connection " + index + " failed: " + e.getMessage());
+                    errors.increment();
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + c);
+            thread.start();
+        }
+        done.await();
+        report(System.nanoTime() - start);
+        return (int) errors.sum();
+    }
+
+    /**
+     * Sends this connection's share of the load, then waits for the remaining responses.
+     */
+    private void runConnection(int index, long start) throws IOException, InterruptedException {
+        double interval = 1e9 * connections / rate;
+        long end = start + TimeUnit.SECONDS.toNanos(duration);
+        Random random = new Random(index * 7919L + 1);
+        Semaphore window = new Semaphore(pipeline);
+        BlockingQueue<Long> scheduled = new ArrayBlockingQueue<>(pipeline);
+        // set when the reader stops, with the cause if it stopped on an error
+        AtomicBoolean readerDone = new AtomicBoolean();
+        AtomicReference<IOException> readFailure = new AtomicReference<>();
+
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            BinaryOrderCodec codec = binary ? new BinaryOrderCodec() : null;
+            if (binary) {
+                out.write(BinaryOrderCodec.MAGIC);
+            }
+            Thread reader = new Thread(() -> {
+                BufferedReader lines = binary ? null : new BufferedReader(new InputStreamReader(in));
+                try {
+                    while (true) {
+                        int code = binary ? in.read() : parseCode(lines.readLine());
+                        if (code < 0) {
+                            break;
+                        }
+                        Long intended = scheduled.poll();
+                        if (intended == null) {
+                            break;
+                        }
+                        latency.record(System.nanoTime() - intended);
+                        codes[code < codes.length ? code : 0].increment();
+                        window.release();
+                    }
+                } catch (IOException e) {
+                    readFailure.set(e);
+                } finally {
+                    readerDone.set(true);
+                    // wake the writer if it waits for responses that will never come
+                    window.release(pipeline);
+                }
+            }, "load-reader-" + index);
+            reader.start();
+
+            long sentHere = 0;
+            StringBuilder line = new StringBuilder(64);
+            while (true) {
+                // spread connections across the first interval so they do not send in lockstep
+                long intended = start + (long) (interval * (sentHere + (double) index / connections));
+                if (intended >= end) {
+                    break;
+                }
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    out.flush();
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                if (!window.tryAcquire()) {
+                    // the responses we wait for may belong to lines still in our buffer
+                    out.flush();
+                    window.acquire();
+                }
+                if (readerDone.get()) {
+                    throw connectionLost(scheduled, readFailure.get());
+                }
+                scheduled.add(intended);
+                if (binary) {
+                    writeFrame(codec, out, random);
+                } else {
+                    line.setLength(0);
+                    appendOrder(line, random);
+                    out.write(line.toString().getBytes(StandardCharsets.US_ASCII));
+                }
+                sentHere++;
+                sent.increment();
+            }
+            if (binary) {
+                codec.writeDisconnect(out);
+            } else {
+                out.write("DISCONNECT\n".getBytes(StandardCharsets.US_ASCII));
+            }
+            out.flush();
+            // every sent line is answered before the server acts on DISCONNECT
+            window.acquire(pipeline);
+            if (!scheduled.isEmpty()) {
+                throw connectionLost(scheduled, readFailure.get());
+            }
+            socket.shutdownOutput();
+            reader.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    /**
+     * Describes a connection the server stopped answering, with the number of orders left unanswered.
+     */
+    private static IOException connectionLost(BlockingQueue<Long> scheduled, IOException cause) {
+        String reason = cause != null ? cause.getMessage() : "server closed the connection";
+        return new IOException(reason + " with " + scheduled.size() + " orders unanswered", cause);
+    }
+
+    /**
+     * Appends one order line, deliberately malformed for a share of {@code --invalid}.
+     */
+    private void appendOrder(StringBuilder line, Random random) {
+        int rank = zipf ? zipfRank(zipfCdf, random.nextDouble()) : random.nextInt(businesses);
+        int id = 10000 + rank;
+        int itemType = 1 + random.nextInt(BusinessClient.ITEM_TYPES);
+        int quantity = 1 + random.nextInt(10);
+        if (invalid > 0 && random.nextDouble() < invalid) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    line.append("Load").append(id).append(',').append(id).append(',').append(itemType).append('\n');
+                    return;
+                case 1:
+                    line.append("Load").append(id).append(',').append(id % 1000).append(',').append(itemType)
+                            .append(',').append(quantity).append('\n');
+                    return;
+                case 2:
+                    line.append("Load").append(id).append(',').append(id).append(',').append(itemType).append(",0\n");
+                    return;
+                default:
+                    line.append("Load").append(id).append(",x").append(id).append(',').append(itemType)
+                            .append(',').append(quantity).append('\n');
+                    return;
+            }
+        }
+        line.append("Load").append(id).append(',').append(id).append(',').append(itemType)
+                .append(',').append(quantity).append('\n');
+    }
+
+    /**
+     * Writes one binary order frame, with an out-of-range ID or a zero quantity for a share of {@code --invalid}.
+     */
+    private void writeFrame(BinaryOrderCodec codec, DataOutputStream out, Random random) throws IOException {
+        int rank = zipf ? zipfRank(zipfCdf, random.nextDouble()) : random.nextInt(businesses);
+        int id = 10000 + rank;
+        int itemType = 1 + random.nextInt(BusinessClient.ITEM_TYPES);
+        int quantity = 1 + random.nextInt(10);
+        if (invalid > 0 && random.nextDouble() < invalid) {
+            if (random.nextBoolean()) {
+                codec.writeOrder(out, "Load" + id, id % 1000, itemType, quantity);
+            } else {
+                codec.writeOrder(out, "Load" + id, id, itemType, 0);
+            }
+            return;
+        }
+        codec.writeOrder(out, "Load" + id, id, itemType, quantity);
+    }
+
+    /**
+     * Returns the cumulative probabilities of a zipf distribution over ranks 0..n-1,
+     * where rank r is picked with weight {@code 1 / (r + 1)^exponent}.
+     * @param n        Number of ranks.
+     * @param exponent Skew; 0 is uniform.
+     * @return         The probabilities; the last one is 1.
+     */
+    static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int rank = 0; rank < n; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, exponent);
+            cdf[rank] = sum;
+        }
+        for (int rank = 0; rank < n; rank++) {
+            cdf[rank] /= sum;
+        }
+        return cdf;
+    }
+
+    /**
+     * Picks a rank by binary search in a distribution from {@link #zipfCdf}.
+     * @param cdf The cumulative probabilities.
+     * @param u   A uniform value in [0, 1).
+     * @return    The first rank whose cumulative probability reaches {@code u}.
+     */
+    static int zipfRank(double[] cdf, double u) {
+        int low = 0;
+        int high = cdf.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cdf[mid] < u) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the code of a text response, 0 if it does not start with a number, or -1 at end of stream.
+     * Only the first word is read, so a redirect such as "205 host:port" counts as 205.
+     * @param line The response line, or {@code null} at end of stream.
+     * @return     The code.
+     */
+    static int parseCode(String line) {
+        if (line == null) {
+            return -1;
+        }
+        String text = line.trim();
+        int space = text.indexOf(' ');
+        try {
+            int code = Integer.parseInt(space < 0 ? text : text.substring(0, space));
+            return code >= 0 ? code : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void report(long elapsedNanos) {
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("sent=%d answered=%d in %.2f s -> %.0f orders/s, connection errors=%d%n",
+                sent.sum(), snapshot.count(), seconds, snapshot.count() / seconds, errors.sum());
+        System.out.printf("latency p50=%.3f ms p99=%.3f ms p999=%.3f ms%n",
+                snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6, snapshot.percentile(99.9) / 1e6);
+        StringBuilder breakdown = new StringBuilder("responses:");
+        for (int code = 1; code < codes.length; code++) {
+            long count = codes[code].sum();
+            if (count > 0) {
+                breakdown.append(' ').append(code).append('=').append(count);
+            }
+        }
+        if (codes[0].sum() > 0) {
+            breakdown.append(" unparsable=").append(codes[0].sum());
+        }
+        System.out.println(breakdown);
+    }
+}
\ No newline at end of file
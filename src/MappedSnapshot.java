@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The MappedSnapshot class is a read-only snapshot of all business totals,
+ * stored in a compact fixed-width format and accessed through a {@link MappedByteBuffer}.
+ * Opening it maps the file and checks the fixed-width records; a business is decoded when it
+ * is looked up, so the server can start serving without first building every object on the heap.
+ * A snapshot that is only read once, as by compaction, can be {@link #read} onto the heap
+ * instead, which leaves no mapping behind.
+ * * <p>File layout (big-endian):</p>
+ * <ul>
+ *   <li>header: {@code int magic, int version, long coveredSegment, int count, long namePoolOffset}</li>
+ *   <li>{@code count} records sorted by ID: {@code int id, int nameOffset, int nameLength, long[3] counts}</li>
+ *   <li>name pool: the UTF-8 names, back to back</li>
+ * </ul>
+ */
+class MappedSnapshot {
+    private static final int MAGIC = 0x4F534E4D; // "OSNM"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 8 * BusinessClient.ITEM_TYPES;
+
+    private final ByteBuffer buf;
+    private final long coveredSegment;
+    private final int count;
+    private final long namePool;
+
+    private MappedSnapshot(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a snapshot file");
+        }
+        this.coveredSegment = buf.getLong(8);
+        this.count = buf.getInt(16);
+        this.namePool = buf.getLong(20);
+        if (count < 0 || namePool != HEADER_SIZE + (long) count * RECORD_SIZE || namePool > buf.capacity()) {
+            throw new IOException("Snapshot file is truncated");
+        }
+        // check every record once, so that lookups can trust the file without checking again
+        long poolSize = buf.capacity() - namePool;
+        for (int i = 0; i < count; i++) {
+            int record = offset(i);
+            int nameOffset = buf.getInt(record + 4);
+            int nameLength = buf.getInt(record + 8);
+            if ((i > 0 && buf.getInt(record) <= buf.getInt(record - RECORD_SIZE))
+                    || nameOffset < 0 || nameLength < 0 || (long) nameOffset + nameLength > poolSize) {
+                throw new IOException("Snapshot file is corrupt at record " + i);
+            }
+        }
+    }
+
+    /**
+     * Maps a snapshot file.
+     * @param file The snapshot file.
+     * @return     The snapshot, or {@code null} if the file does not exist.
+     * @throws IOException If the file cannot be mapped or is not a valid snapshot.
+     */
+    public static MappedSnapshot open(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            try {
+                return new MappedSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                throw new IOException(e.getMessage() + ": " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Reads a whole snapshot file onto the heap. Unlike a mapping, which Java only releases when
+     * it is garbage collected, this keeps no hold on the file, which may then be deleted or replaced.
+     * @param file The snapshot file.
+     * @return     The snapshot, or {@code null} if the file does not exist.
+     * @throws IOException If the file cannot be read or is not a valid snapshot.
+     */
+    public static MappedSnapshot read(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try {
+            return new MappedSnapshot(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (IOException e) {
+            throw new IOException(e.getMessage() + ": " + file, e);
+        }
+    }
+
+    /**
+     * Returns the number of the last journal segment folded into this snapshot.
+     * @return The segment number.
+     */
+    public long coveredSegment() {
+        return coveredSegment;
+    }
+
+    /**
+     * Returns the number of businesses in the snapshot.
+     * @return The number of records.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Finds a business by binary search over the sorted records.
+     * @param id The business ID.
+     * @return   The record index, or -1 if the ID is not in the snapshot.
+     */
+    public int find(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = id(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ID of a record.
+     * @param index The record index.
+     * @return      The business ID.
+     */
+    public int id(int index) {
+        return buf.getInt(offset(index));
+    }
+
+    /**
+     * Decodes the name of a record.
+     * @param index The record index.
+     * @return      The business name.
+     */
+    public String name(int index) {
+        int record = offset(index);
+        long start = namePool + buf.getInt(record + 4);
+        byte[] bytes = new byte[buf.getInt(record + 8)];
+        buf.get((int) start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the total of one item type in a record.
+     * @param index    The record index.
+     * @param itemType The item type, 1..{@link BusinessClient#ITEM_TYPES}.
+     * @return         The total.
+     */
+    public long count(int index, int itemType) {
+        return buf.getLong(offset(index) + 12 + 8 * (itemType - 1));
+    }
+
+    /**
+     * Returns all totals of a record.
+     * @param index The record index.
+     * @return      A new array indexed by {@code itemType - 1}.
+     */
+    public long[] counts(int index) {
+        long[] counts = new long[BusinessClient.ITEM_TYPES];
+        for (int t = 0; t < counts.length; t++) {
+            counts[t] = count(index, t + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Builds a client object from a record.
+     * @param index The record index.
+     * @return      A new client holding the recorded name and totals.
+     */
+    public BusinessClient materialize(int index) {
+        BusinessClient client = new BusinessClient(name(index), id(index));
+        client.updateItems(counts(index));
+        return client;
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /**
+     * Writes a snapshot to a temporary file, forces it, and moves it to {@code file}.
+     * {@code file} must not be mapped, as some systems cannot replace a mapped file.
+     * @param file           The snapshot file.
+     * @param ids            Business IDs in ascending order.
+     * @param names          Names, by the same index as {@code ids}.
+     * @param counts         Totals, by the same index as {@code ids}, each indexed by {@code itemType - 1}.
+     * @param size           Number of businesses used from the start of the arrays.
+     * @param coveredSegment Number of the last journal segment included.
+     * @throws IOException   If writing fails.
+     */
+    public static void write(Path file, int[] ids, String[] names, long[][] counts, int size, long coveredSegment)
+            throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        byte[][] encoded = new byte[size][];
+        long poolSize = 0;
+        for (int i = 0; i < size; i++) {
+            encoded[i] = names[i].getBytes(StandardCharsets.UTF_8);
+            poolSize += encoded[i].length;
+        }
+        long namePool = HEADER_SIZE + (long) size * RECORD_SIZE;
+        if (namePool + poolSize > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot would exceed 2 GB");
+        }
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(256 * 1024);
+            buf.putInt(MAGIC).putInt(VERSION).putLong(coveredSegment).putInt(size).putLong(namePool);
+            int nameOffset = 0;
+            for (int i = 0; i < size; i++) {
+                if (buf.remaining() < RECORD_SIZE) {
+                    drain(out, buf);
+                }
+                buf.putInt(ids[i]).putInt(nameOffset).putInt(encoded[i].length);
+                for (int t = 0; t < BusinessClient.ITEM_TYPES; t++) {
+                    buf.putLong(counts[i][t]);
+                }
+                nameOffset += encoded[i].length;
+            }
+            for (int i = 0; i < size; i++) {
+                if (buf.remaining() < encoded[i].length) {
+                    drain(out, buf);
+                    if (buf.remaining() < encoded[i].length) {
+                        ByteBuffer large = ByteBuffer.wrap(encoded[i]);
+                        while (large.hasRemaining()) {
+                            out.write(large);
+                        }
+                        continue;
+                    }
+                }
+                buf.put(encoded[i]);
+            }
+            drain(out, buf);
+            out.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            out.write(buf);
+        }
+        buf.clear();
+    }
+}
\ No newline at end of file
@@ -1,156 +1,235 @@
 import java.awt.*;
 import java.awt.event.*;
-import java.io.File;
-import java.util.Scanner;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
 import javax.swing.*;
 
 /**
- * The MyAnim class creates a graphical animation of two dancing letters (Z and C).
- * The letters move across the screen, bounce off boundaries, rotate, and change size.
- * It uses a Swing Timer to handle the animation frames and Graphics2D for rendering.
+ * The MyAnim class creates a graphical animation of dancing letters (Z and C): by default the
+ * two of them moving together as one logo, or as many as thousands moving on their own. The
+ * letters move across the screen, bounce off the boundaries and off each other, rotate, and
+ * change size; their state lives in an {@link EntitySystem}.
+ * The animation advances in fixed steps of {@link #STEP_MILLIS} ({@link #step()}) and is drawn
+ * with Graphics2D ({@link #render}). It can be driven in three ways:
+ * <ul>
+ *   <li>{@code timer} (default): a Swing Timer steps and repaints the panel on the event thread.</li>
+ *   <li>{@code active}: a {@link RenderLoop} thread steps the animation at a fixed rate and draws
+ *       it through a page-flipping BufferStrategy, reporting frame times as it goes.</li>
+ *   <li>{@code headless}: the same loop draws into an offscreen image, for benchmarking.</li>
+ * </ul>
+ * <p>Usage: {@code java MyAnim [timer|active|headless] [letters] [frames] [fps]}</p>
  */
 public class MyAnim extends JPanel implements ActionListener {
+    /** Simulated time covered by one {@link #step()}. */
+    static final int STEP_MILLIS = 15;
+    /** Letters above which the window grows from the original size. */
+    private static final int LARGE_ANIMATION = 100;
+    /** Colours letters can take when they bounce. */
+    private static final int PALETTE_SIZE = 64;
+
     /** Polygons representing the shapes of letters Z and C. */
     private   Polygon polyZ, polyC;
 
     // מיקום התחלתי ומהירות
-    /** Current X and Y position coordinates of the letters. */
-    private int x = 50, y = 50;
-    /** Current velocity (speed and direction) on the X and Y axes. */
-    private int velX = 2, velY = 2;
+    /** Start position of the two letters and their velocity (speed and direction) on the X and Y axes. */
+    private final int x = 50, y = 50, velX = 2, velY = 2;
 
     // הגדרת גבולות של "זירת הריקוד" - כשיגיעו לקצוות האלה הם יזוזו בכיוון אחר
     private final int BOX_X = 20;
     private  final int BOX_Y = 20;
-    private final int BOX_WIDTH = 550;
-    private final int BOX_HEIGHT = 450;
-
-    // משתני אנימציה
-    private double angle = 0;
-    private double scale = 1.0;
-    private double scaleStep = 0.01; //קצב שינוי גודל בכל פריים
+    private final int BOX_WIDTH;
+    private final int BOX_HEIGHT;
 
     //צבעים התחלתים שלנו:)
-    private  Color colorZ = Color.PINK;
-    private Color colorC = Color.BLUE;
+    private final Color[] palette = new Color[PALETTE_SIZE];
+
+    /** Position, motion, size and colour of every letter. */
+    private final EntitySystem letters;
 
-    private  Timer timer = new Timer(15, this);
+    /** Image the letters are drawn into when they are small, only used by the drawing thread. */
+    private BufferedImage frame;
+
+    private  Timer timer = new Timer(STEP_MILLIS, this);
 
     /**
-     * Constructs the animation panel, loads letter shapes from files,
+     * Constructs the animation panel with the two letters, loads letter shapes from files,
      * and starts the animation timer.
      */
     public MyAnim() {
+        this(2, 650, 550, true);
+    }
+
+    /**
+     * Constructs the animation and loads letter shapes from files.
+     * Two letters are the original logo: one entity that draws both, starting where the original
+     * animation did, each letter spinning around its own centre. A single letter starts there too;
+     * more start at random and bounce off each other.
+     * @param count      Number of letters, each a Z or a C.
+     * @param width      Width of the window; the arena leaves a margin inside it.
+     * @param height     Height of the window.
+     * @param startTimer Whether the Swing Timer drives the animation; {@code false} when a
+     *                   {@link RenderLoop} steps and draws it instead.
+     */
+    MyAnim(int count, int width, int height, boolean startTimer) {
         //טעינת אותיות מהקבצים
         polyZ = loadPolygonFromFile("Z.txt");
         polyC = loadPolygonFromFile("C.txt");
-        timer.start();
+        BOX_WIDTH = width - 100;
+        BOX_HEIGHT = height - 100;
+
+        palette[0] = Color.PINK;
+        palette[1] = Color.BLUE;
+        Random random = new Random(count);
+        for (int i = 2; i < PALETTE_SIZE; i++) {
+            palette[i] = new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+        }
+        double radius = Math.max(Glyph.radiusOf(polyZ), Glyph.radiusOf(polyC));
+        double baseScale = EntitySystem.fitScale(radius, count, BOX_WIDTH, BOX_HEIGHT);
+        if (count == 2) {
+            Glyph logo = new Glyph(new Polygon[] {polyZ, polyC}, baseScale);
+            letters = new EntitySystem(new Glyph[] {logo}, palette, 1, BOX_X, BOX_Y, BOX_WIDTH, BOX_HEIGHT, count);
+            Rectangle bounds = polyZ.getBounds().union(polyC.getBounds());
+            letters.place(0, x + bounds.getCenterX(), y + bounds.getCenterY(), velX, velY, 0);
+        } else {
+            Glyph[] glyphs = {new Glyph(polyZ, baseScale), new Glyph(polyC, baseScale)};
+            letters = new EntitySystem(glyphs, palette, count, BOX_X, BOX_Y, BOX_WIDTH, BOX_HEIGHT, count);
+            if (count == 1) {
+                Rectangle bounds = polyZ.getBounds();
+                letters.place(0, x + bounds.getCenterX(), y + bounds.getCenterY(), velX, velY, 0);
+            }
+        }
+        if (startTimer) {
+            timer.start();
+        }
+    }
+
+    /**
+     * Returns the letters, for benchmarking.
+     * @return The entity system.
+     */
+    EntitySystem letters() {
+        return letters;
+    }
+
+    /**
+     * Returns the window size that fits a number of letters: the original size for a few,
+     * larger for many so each letter stays visible.
+     * @param count Number of letters.
+     * @return      The window size.
+     */
+    static Dimension windowSize(int count) {
+        return count <= LARGE_ANIMATION ? new Dimension(650, 550) : new Dimension(1280, 960);
     }
 
     /**
      * Reads coordinates from a text file and builds a Polygon object.
-     * Expected file format: "x,y" per line.
+     * Expected file format: "x,y" per line. The file is parsed once per process and then
+     * served from the memory and binary caches of {@link ShapeLoader#shared()}.
      * @param fileName The name or path of the file to load.
      * @return A Polygon containing the points from the file.
+     * @throws UncheckedIOException If the file cannot be read or a line is not a valid point;
+     *         the message names the file, line and column.
      */
     public Polygon loadPolygonFromFile(String fileName) {
-        Polygon p = new Polygon();
         try {
-            Scanner s = new Scanner(new File(fileName));
-            while (s.hasNextLine()) {
-                String[] parts = s.nextLine().split(",");
-                p.addPoint(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
-            }
-            s.close();
-        } catch (Exception e) {
-            System.err.println("Error loading file: " + fileName);
+            return ShapeLoader.shared().load(Paths.get(fileName)).toPolygon();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error loading file: " + e.getMessage(), e);
         }
-        return p;
     }
+
     /**
-     * Updates the animation state on every timer tick.
-     * Handles movement, rotation increment, scaling, and boundary collision detection.
+     * Steps the animation and repaints on every timer tick.
      * @param e The ActionEvent triggered by the Timer.
      */
     @Override
     public void actionPerformed(ActionEvent e) {
-        // קידום המיקום לפי המהירות הנוכחית
-        x += velX;
-        y += velY;
-
-        // אנימציה
-        angle += 0.04;
-        scale += scaleStep;
-        if (scale > 1.2 || scale < 0.7) // הגענו למקסימום נקטין הגענו למינימום נגדיל
-            scaleStep = -scaleStep;
-
-        // בדיקת גבולות
-        // הרוחב הכולל של Z וC הוא 270PX
-        if (x < BOX_X || x > BOX_X + BOX_WIDTH - 270) {
-            velX = -velX;
-            changeColors(); // שינוי צבע כשנתקרב לגבולות שהגדרנו
-            if (x < BOX_X) x = BOX_X;
-            if (x > BOX_X + BOX_WIDTH - 270) x = BOX_X + BOX_WIDTH - 270;
-        }
-        // גובה של 2 האותיות 200PX
-        if (y < BOX_Y || y > BOX_Y + BOX_HEIGHT - 200) {
-            velY = -velY;
-            changeColors();
-            if (y < BOX_Y) y = BOX_Y;
-            if (y > BOX_Y + BOX_HEIGHT - 200) y = BOX_Y + BOX_HEIGHT - 200;
-        }
+        step();
         repaint(); // קריאה לצייר מחדש את המסך
     }
+
     /**
-     * Changes the colors of both letters to random RGB values upon collision.
+     * Advances the animation by {@link #STEP_MILLIS}: movement, rotation, scaling, and
+     * collisions with the boundaries and between letters, which change their colours.
+     * Must be called by the thread that draws the animation.
      */
-    private void changeColors() {
-        colorZ = new Color((int)(Math.random() * 255), (int)(Math.random() * 255), (int)(Math.random() * 255));
-        colorC = new Color((int)(Math.random() * 255), (int)(Math.random() * 255), (int)(Math.random() * 255));
+    void step() {
+        letters.step();
     }
 
     /**
      * Renders the current state of the animation to the screen.
-     * Uses {@link Graphics2D} to perform transformations like translate, rotate, and scale.
      * @param g The Graphics context to paint on.
      */
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g;
+        render((Graphics2D) g, getWidth(), getHeight());
+    }
+
+    /**
+     * Draws the current state of the animation. The letters come from the outline caches of
+     * their glyphs, already rotated and scaled, so {@code g2} must not be rotated or scaled.
+     * Small letters are drawn pixel by pixel into an image of our own, which is then drawn in
+     * one operation.
+     * @param g2     The Graphics context to draw on.
+     * @param width  Width of the area to clear.
+     * @param height Height of the area to clear.
+     */
+    void render(Graphics2D g2, int width, int height) {
+        if (letters.drawsPixels()) {
+            if (frame == null || frame.getWidth() != width || frame.getHeight() != height) {
+                frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            }
+            int[] pixels = ((DataBufferInt) frame.getRaster().getDataBuffer()).getData();
+            Arrays.fill(pixels, 0); // black
+            letters.render(pixels, width, height);
+            g2.drawImage(frame, 0, 0, null);
+            return;
+        }
         // שיניתי רקע לשחור כי זה נראה לי יותר יפה
         // אם זה מפריע לך נחזור לאפור
         g2.setColor(Color.BLACK);
-        g2.fillRect(0, 0, getWidth(), getHeight());
-
-        // ציור Z
-        Graphics2D gZ = (Graphics2D) g2.create();
-        gZ.translate(x, y);// קביעת מיקום האות במסך
-        gZ.rotate(angle, 100, 125);// סיבוב סביב מרכז האות
-        gZ.scale(scale, scale);
-        gZ.setColor(colorZ);
-        gZ.fillPolygon(polyZ);
-        gZ.dispose();// שחרור העותק וחזרה להגדרות מקוריות
-
-        // ציור C
-        Graphics2D gC = (Graphics2D) g2.create();
-        gC.translate(x, y);
-        gC.rotate(angle, 225, 125); // סיבוב סביב מרכז האות
-        gC.scale(scale, scale);
-        gC.setColor(colorC);
-        gC.fillPolygon(polyC);
-        gC.dispose();
+        g2.fillRect(0, 0, width, height);
+        letters.render(g2);
     }
+
     /**
-     * Main method to set up the JFrame and host the animation panel.
-     * @param args Command line arguments.
+     * Main method to set up the window and start the animation in the requested mode.
+     * @param args Command line arguments: the mode and the number of letters, then for
+     *             {@code headless} the number of frames and the frame rate to simulate.
      */
     public static void main(String[] args) {
-        JFrame f = new JFrame("Z & C Dancing Logo");
-        f.add(new MyAnim());
-        f.setSize(650, 550);
-        f.setResizable(false);// נעילה של גודל חלונית כדי לשמור על הגבולות
-        f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        f.setVisible(true);
+        String mode = args.length > 0 ? args[0] : "timer";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        Dimension size = windowSize(count);
+        switch (mode) {
+            case "timer":
+                JFrame f = new JFrame("Z & C Dancing Logo");
+                f.add(new MyAnim(count, size.width, size.height, true));
+                f.setSize(size);
+                f.setResizable(false);// נעילה של גודל חלונית כדי לשמור על הגבולות
+                f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                f.setVisible(true);
+                break;
+            case "active":
+                new RenderLoop(new MyAnim(count, size.width, size.height, false), RenderLoop.DEFAULT_FPS)
+                        .showWindow("Z & C Dancing Logo", size.width, size.height);
+                break;
+            case "headless":
+                System.setProperty("java.awt.headless", "true");
+                int frames = args.length > 2 ? Integer.parseInt(args[2]) : 3600;
+                int fps = args.length > 3 ? Integer.parseInt(args[3]) : RenderLoop.DEFAULT_FPS;
+                new RenderLoop(new MyAnim(count, size.width, size.height, false), fps)
+                        .runHeadless(size.width, size.height, frames);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,791 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The NioServer class is an alternative server engine built on a {@link Selector}.
+ * The accepting thread hands each connection to one of a small fixed set of I/O threads,
+ * which read from non-blocking channels into direct buffers, cut the bytes into lines
+ * (ending at "\n", "\r" or "\r\n", like {@link java.io.BufferedReader#readLine()})
+ * and pass them to the connection's {@link OrderSession}.
+ * It speaks exactly the same protocol as {@link ClientHandler}, including binary frames
+ * for connections that start with {@link BinaryOrderCodec#MAGIC}.
+ * * <p>Connections are admitted and timed out by the {@link AdmissionControl}: each I/O
+ * thread wakes up at least once a second and closes connections that have neither sent
+ * input nor taken output for the idle timeout.</p>
+ * * <p>A connection that subscribed to the {@link ChangeFeed} gets its frames from the I/O
+ * thread, which is woken whenever one is queued. New frames are only taken once the
+ * previous ones are written, so a slow subscriber backs up in its feed queue, where the
+ * feed resynchronizes or drops it, and not in the server's buffers.</p>
+ * * <p>I/O threads never wait for the {@link OrderJournal}. Responses to orders that are not
+ * on disk yet are held back with everything after them on the same connection, and the
+ * I/O thread goes on serving other connections. The journal's flusher wakes it after each
+ * fsync, and it then sends whatever has become durable. So all orders that the I/O threads
+ * read while one fsync runs share the next one.</p>
+ * * <p>A server that forwards orders to other shards cannot handle input on the I/O threads,
+ * as forwarding waits for the peer, see {@link ShardRouter}. The I/O threads then only read,
+ * and each read is handled on a pool of worker threads. A connection does not read again until
+ * its worker is done, so its lines are still handled one at a time and answered in order.</p>
+ * * <p>On shutdown each I/O thread drains its connections, see {@link ShutdownCoordinator}.
+ * Lines are handled completely within one read, so no order is ever half applied: every
+ * connection just stops reading, sends the responses it owes and closes.</p>
+ */
+class NioServer {
+    /** Initial size of a connection's read buffer. */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    /** Longest accepted line; longer lines are answered with 200 and skipped. */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    /** Longest time a selector waits before checking for idle connections. */
+    private static final long SWEEP_INTERVAL_MS = 1000;
+    /** Worker threads of a server that forwards orders to other shards. */
+    private static final int FORWARD_WORKERS = 64;
+
+    private final ServerConfig config;
+    private final IoLoop[] loops;
+    /** Threads that handle input when it may block, or {@code null} to handle it on the I/O threads. */
+    private final ExecutorService workers;
+
+    /**
+     * Constructs a new NioServer.
+     * @param config The server configuration.
+     */
+    public NioServer(ServerConfig config) {
+        this.config = config;
+        this.loops = new IoLoop[config.ioThreads];
+        ShardRouter router = CentralServer.getRouter();
+        if (router != null && router.isForwarding()) {
+            AtomicInteger count = new AtomicInteger();
+            this.workers = Executors.newFixedThreadPool(FORWARD_WORKERS, r -> {
+                Thread thread = new Thread(r, "nio-worker-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            this.workers = null;
+        }
+    }
+
+    /**
+     * Starts the I/O threads and accepts connections until shutdown or until the server socket fails.
+     * @throws IOException If the server socket or a selector cannot be opened.
+     */
+    public void run() throws IOException {
+        ShutdownCoordinator shutdown = CentralServer.getShutdownCoordinator();
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(workers);
+            shutdown.register(loops[i]);
+            Thread thread = new Thread(loops[i], "nio-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(config.port), config.backlog);
+            shutdown.addListener(serverChannel);
+            System.out.print("Server listening on port " + config.port + " (nio, "
+                    + loops.length + " I/O threads)\n");
+            int next = 0;
+            while (true) {
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    if (shutdown.isShuttingDown()) {
+                        return;
+                    }
+                    throw e;
+                }
+                if (!CentralServer.getAdmissionControl().connectionOpened()) {
+                    System.out.println("Client rejected, connection limit reached:" + channel.socket().getInetAddress());
+                    channel.close();
+                    continue;
+                }
+                System.out.println("Client connected:" + channel.socket().getInetAddress());
+                loops[next].register(channel);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    /**
+     * One selector thread and the connections assigned to it.
+     */
+    private static final class IoLoop implements Runnable, ShutdownCoordinator.Drainable {
+        private final Selector selector;
+        /** Connections accepted but not yet registered with the selector. */
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        /** Subscribed connections that may have feed frames to send. */
+        private final Queue<Connection> feedReady = new ConcurrentLinkedQueue<>();
+        /** Connections holding back responses until the journal is durable; only used by this thread. */
+        private final List<Connection> awaitingLog = new ArrayList<>();
+        /** Whether {@link #awaitingLog} is not empty, read by the journal's flusher. */
+        private volatile boolean waitingForLog;
+        /** Scratch space for the input handled on this thread. */
+        private final Scratch scratch = new Scratch();
+        /** Threads that handle input when that may block, or {@code null} to handle it on this thread. */
+        private final ExecutorService workers;
+        /** Connections whose input a worker has handled, waiting to be taken back. */
+        private final Queue<Connection> worked = new ConcurrentLinkedQueue<>();
+        /** When idle connections were last looked for, in {@link System#nanoTime()} units. */
+        private long lastSweep = System.nanoTime();
+        /** Set on shutdown: connections stop reading and close once their responses are sent. */
+        private volatile boolean draining;
+        /** Set at the shutdown deadline: connections close at once. */
+        private volatile boolean forcing;
+
+        IoLoop(ExecutorService workers) throws IOException {
+            this.selector = Selector.open();
+            this.workers = workers;
+            CentralServer.getClientDatabase().addDurableListener(() -> {
+                if (waitingForLog) {
+                    selector.wakeup();
+                }
+            });
+        }
+
+        /**
+         * Hands a new connection to this loop. Called from the accepting thread.
+         * @param channel The accepted channel.
+         */
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(SWEEP_INTERVAL_MS);
+                    registerPending();
+                    if (draining) {
+                        closeAll();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                                if (connection.subscription != null && connection.out.position() == 0) {
+                                    // caught up: frames queued meanwhile can go now
+                                    feedReady.add(connection);
+                                }
+                            }
+                            if (key.isValid() && key.isReadable() && !connection.closing && !connection.busy) {
+                                read(connection);
+                            }
+                        } catch (IOException | UncheckedIOException e) {
+                            System.err.println("Error handling client: " + e.getMessage());
+                            connection.close();
+                        }
+                    }
+                    finishWorked();
+                    releaseDurable();
+                    deliverFeeds();
+                    closeIdle();
+                } catch (IOException e) {
+                    System.err.println("Selector failure: " + e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Sends the held responses of every connection whose orders are now on disk.
+         * If the journal failed they never will be: those connections are closed unanswered.
+         */
+        private void releaseDurable() {
+            // set before checking, so that an fsync finishing meanwhile wakes the selector
+            waitingForLog = !awaitingLog.isEmpty();
+            Iterator<Connection> waiting = awaitingLog.iterator();
+            while (waiting.hasNext()) {
+                Connection connection = waiting.next();
+                try {
+                    if (connection.key.isValid() && !connection.isDurable()) {
+                        continue;
+                    }
+                    waiting.remove();
+                    connection.awaitingLog = false;
+                    if (connection.key.isValid()) {
+                        connection.release();
+                        if (connection.subscription != null) {
+                            feedReady.add(connection);
+                        }
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("Error handling client: " + e.getMessage());
+                    waiting.remove();
+                    connection.awaitingLog = false;
+                    connection.close();
+                }
+            }
+            waitingForLog = !awaitingLog.isEmpty();
+        }
+
+        /**
+         * Moves queued feed frames into the output of subscribers that have written everything else.
+         */
+        private void deliverFeeds() {
+            Connection connection;
+            while ((connection = feedReady.poll()) != null) {
+                if (!connection.key.isValid() || connection.closing) {
+                    continue;
+                }
+                if (connection.subscription.isClosed()) {
+                    System.out.println("Dropping slow subscriber:" + connection.channel.socket().getInetAddress());
+                    connection.close();
+                    continue;
+                }
+                if (connection.out.position() > 0 || connection.held.position() > 0) {
+                    continue;
+                }
+                byte[] frame;
+                while ((frame = connection.subscription.poll()) != null) {
+                    connection.enqueue(frame);
+                }
+                try {
+                    connection.flush();
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Starts delivering feed frames to a connection that just subscribed.
+         */
+        private void startFeed(Connection connection) {
+            connection.subscription = connection.session.subscription();
+            connection.subscription.setListener(() -> {
+                feedReady.add(connection);
+                selector.wakeup();
+            });
+            feedReady.add(connection);
+        }
+
+        @Override
+        public void drain() {
+            draining = true;
+            selector.wakeup();
+        }
+
+        @Override
+        public void forceClose() {
+            forcing = true;
+            selector.wakeup();
+        }
+
+        /**
+         * Makes every connection close once its output is sent, or at once at the deadline.
+         * Repeated on every wakeup while draining, which also catches connections registered late.
+         */
+        private void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection == null || !key.isValid()) {
+                    continue;
+                }
+                if (forcing) {
+                    connection.close();
+                    continue;
+                }
+                try {
+                    // a connection with a worker is closed once the responses it owes are queued
+                    if (!connection.closing && !connection.busy) {
+                        connection.closeAfterFlush();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Closes the connections that have been idle for longer than the idle timeout, at most once a second.
+         */
+        private void closeIdle() {
+            long now = System.nanoTime();
+            int timeout = CentralServer.getAdmissionControl().getIdleTimeout();
+            if (timeout == 0 || now - lastSweep < TimeUnit.MILLISECONDS.toNanos(SWEEP_INTERVAL_MS)) {
+                return;
+            }
+            lastSweep = now;
+            long limit = TimeUnit.SECONDS.toNanos(timeout);
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && !connection.busy && now - connection.lastActive > limit) {
+                    System.out.println("Closing idle client:" + connection.channel.socket().getInetAddress());
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    Connection connection = new Connection(channel, key);
+                    // an I/O thread serves many connections, so it never waits for another one's order
+                    connection.session.allowWaiting(workers != null);
+                    key.attach(connection);
+                    CentralServer.getMetrics().connectionOpened();
+                } catch (IOException e) {
+                    System.err.println("Error registering client: " + e.getMessage());
+                    CentralServer.getAdmissionControl().connectionClosed();
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // already failing
+                    }
+                }
+            }
+        }
+
+        /**
+         * Reads what is available, handles every complete line and queues the responses.
+         * With a worker pool, the handling runs there, and the connection neither reads nor
+         * writes until {@link #finishWorked} takes it back.
+         */
+        private void read(Connection connection) throws IOException {
+            int n = connection.channel.read(connection.in);
+            boolean eof = n < 0;
+            if (n > 0) {
+                connection.lastActive = System.nanoTime();
+            }
+            if (connection.protocol == Connection.UNKNOWN && connection.in.position() > 0) {
+                connection.detectProtocol();
+            }
+            if (workers == null) {
+                finishInput(connection, connection.handleInput(eof, scratch), eof, scratch);
+                return;
+            }
+            connection.busy = true;
+            connection.key.interestOps(0);
+            workers.execute(() -> {
+                try {
+                    connection.workOpen = connection.handleInput(eof, connection.workScratch());
+                } catch (RuntimeException | Error e) {
+                    connection.workFailure = e;
+                }
+                connection.workEof = eof;
+                worked.add(connection);
+                selector.wakeup();
+            });
+        }
+
+        /**
+         * Takes back the connections whose input a worker has handled and queues their responses.
+         */
+        private void finishWorked() {
+            Connection connection;
+            while ((connection = worked.poll()) != null) {
+                connection.busy = false;
+                Throwable failure = connection.workFailure;
+                if (!connection.key.isValid()) {
+                    continue;
+                }
+                if (failure != null) {
+                    connection.workFailure = null;
+                    System.err.println("Error handling client: " + failure);
+                    connection.close();
+                    continue;
+                }
+                try {
+                    finishInput(connection, connection.workOpen, connection.workEof, connection.workScratch());
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error handling client: " + e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        /**
+         * Queues the responses that handling one read produced, then sends them or closes the connection.
+         * @param open Whether the connection stays open, {@code false} once the client asked to disconnect.
+         * @param eof  Whether the client closed its side.
+         */
+        private void finishInput(Connection connection, boolean open, boolean eof, Scratch done) throws IOException {
+            if (done.response.length() > 0) {
+                connection.enqueue(done.response);
+            }
+            for (int i = 0; i < done.codeCount; i++) {
+                connection.enqueue(done.codes[i]);
+            }
+            if (connection.subscription == null && connection.session.subscription() != null) {
+                startFeed(connection);
+            }
+            if (connection.held.position() > 0 && !connection.awaitingLog) {
+                connection.awaitingLog = true;
+                awaitingLog.add(connection);
+            }
+            if (!open || eof) {
+                connection.closeAfterFlush();
+            } else {
+                connection.flush();
+            }
+        }
+    }
+
+    /**
+     * Scratch space for handling input, owned by one thread at a time.
+     */
+    private static final class Scratch {
+        /** Array a line is decoded into before it is parsed. */
+        char[] lineChars = new char[256];
+        /** Text responses produced by one read. */
+        final StringBuilder response = new StringBuilder();
+        /** Binary response codes produced by one read. */
+        byte[] codes = new byte[64];
+        int codeCount;
+
+        void clear() {
+            response.setLength(0);
+            codeCount = 0;
+        }
+
+        void addCode(int code) {
+            if (codeCount == codes.length) {
+                codes = Arrays.copyOf(codes, codes.length * 2);
+            }
+            codes[codeCount++] = (byte) code;
+        }
+    }
+
+    /**
+     * Per-connection buffers and protocol state.
+     */
+    private static final class Connection {
+        /** Charset for lines and responses, matching the reader and writer of {@link ClientHandler}. */
+        static final Charset CHARSET = Charset.defaultCharset();
+        /** Protocol states: nothing received yet, text lines, or binary frames. */
+        static final int UNKNOWN = 0;
+        static final int TEXT = 1;
+        static final int BINARY = 2;
+
+        final SocketChannel channel;
+        final SelectionKey key;
+        final OrderSession session = new OrderSession();
+        ByteBuffer in = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        ByteBuffer out = ByteBuffer.allocate(256);
+        /**
+         * Responses waiting for the journal, in order after those in {@link #out}. Reading goes on
+         * meanwhile, so that pipelined orders join the next fsync; the output held is at most what
+         * the client sends during one fsync, and once released it stops reading like {@link #out}.
+         */
+        ByteBuffer held = ByteBuffer.allocate(0);
+        /** Journal position that must be durable before {@link #held} is sent. */
+        long heldUntil;
+        /** Whether the connection is in its I/O thread's list of connections awaiting the journal. */
+        boolean awaitingLog;
+        /** Whether a worker is handling the input; the I/O thread then leaves the connection alone. */
+        boolean busy;
+        /** Outcome of the last input a worker handled, published through the I/O thread's queue. */
+        boolean workOpen;
+        boolean workEof;
+        Throwable workFailure;
+        /** Scratch space of the workers handling this connection, one at a time. */
+        private Scratch workScratch;
+        /** Whether the rest of an over-long line is being skipped. */
+        boolean discarding;
+        /** Whether a '\n' right after a '\r' must be skipped, as lines end at "\n", "\r" or "\r\n". */
+        boolean skipLF;
+        /** Whether the connection closes once the output buffer is drained. */
+        boolean closing;
+        /** Which protocol the client speaks, decided by its first byte. */
+        int protocol = UNKNOWN;
+        /** When the client last sent input or took output, in {@link System#nanoTime()} units. */
+        long lastActive = System.nanoTime();
+        /** The change feed subscription once the client sent SUBSCRIBE. */
+        ChangeFeed.Subscription subscription;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            session.allowAdmin(channel.socket().getInetAddress().isLoopbackAddress());
+        }
+
+        /**
+         * Chooses the protocol from the first received byte, consuming it if it is the binary magic byte.
+         */
+        void detectProtocol() {
+            if ((in.get(0) & 0xFF) == BinaryOrderCodec.MAGIC) {
+                protocol = BINARY;
+                in.flip();
+                in.get();
+                in.compact();
+            } else {
+                protocol = TEXT;
+            }
+        }
+
+        /**
+         * Appends encoded responses to the output buffer, or holds them back, see {@link #output}.
+         */
+        void enqueue(CharSequence responses) {
+            byte[] bytes = responses.toString().getBytes(CHARSET);
+            output(bytes.length).put(bytes);
+        }
+
+        /**
+         * Appends an encoded feed frame to the output buffer.
+         * Frames are only taken when nothing is held back, so they never overtake a response.
+         */
+        void enqueue(byte[] frame) {
+            out = ensureCapacity(out, frame.length);
+            out.put(frame);
+        }
+
+        /**
+         * Appends a single-byte binary response to the output buffer, or holds it back, see {@link #output}.
+         */
+        void enqueue(byte response) {
+            output(1).put(response);
+        }
+
+        /**
+         * Returns the buffer the next responses go to, with room for {@code length} bytes:
+         * {@link #held} if the session's orders are not all on disk or earlier responses are held
+         * already, {@link #out} otherwise.
+         */
+        private ByteBuffer output(int length) {
+            long mark = session.durableMark();
+            if (held.position() > 0 || !CentralServer.getClientDatabase().isDurable(mark)) {
+                heldUntil = Math.max(heldUntil, mark);
+                held = ensureCapacity(held, length);
+                return held;
+            }
+            out = ensureCapacity(out, length);
+            return out;
+        }
+
+        Scratch workScratch() {
+            if (workScratch == null) {
+                workScratch = new Scratch();
+            }
+            return workScratch;
+        }
+
+        /**
+         * Returns whether the held responses may be sent.
+         */
+        boolean isDurable() {
+            return CentralServer.getClientDatabase().isDurable(heldUntil);
+        }
+
+        /**
+         * Moves the held responses to the output buffer and sends them.
+         */
+        void release() throws IOException {
+            held.flip();
+            out = ensureCapacity(out, held.remaining());
+            out.put(held);
+            held.clear();
+            flush();
+        }
+
+        private static ByteBuffer ensureCapacity(ByteBuffer buffer, int length) {
+            if (buffer.remaining() >= length) {
+                return buffer;
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            bigger.put(buffer);
+            return bigger;
+        }
+
+        /**
+         * Writes as much pending output as the socket accepts.
+         * While output is pending the connection stops reading, so a client
+         * that does not read its responses cannot make the server buffer without bound.
+         */
+        void flush() throws IOException {
+            out.flip();
+            if (channel.write(out) > 0) {
+                lastActive = System.nanoTime();
+            }
+            boolean drained = !out.hasRemaining();
+            out.compact();
+            if (drained && closing && held.position() == 0) {
+                close();
+            } else if (key.isValid()) {
+                // a closing connection with held responses waits for the journal without reading,
+                // and a busy one waits for its worker
+                key.interestOps(!drained ? SelectionKey.OP_WRITE : closing || busy ? 0 : SelectionKey.OP_READ);
+            }
+        }
+
+        void closeAfterFlush() throws IOException {
+            closing = true;
+            flush();
+        }
+
+        /**
+         * Hands the complete lines or frames in the read buffer to the session and collects the responses.
+         * @param eof     Whether the peer closed its side; a trailing partial line is then handled too.
+         * @param scratch Receives the responses; cleared first.
+         * @return        {@code false} once the session asks to disconnect.
+         */
+        boolean handleInput(boolean eof, Scratch scratch) {
+            scratch.clear();
+            return protocol == BINARY ? drainFrames(scratch) : drainLines(eof, scratch);
+        }
+
+        /**
+         * Cuts the read buffer into lines and feeds them to the session.
+         * @param eof Whether the peer closed its side; a trailing partial line is then handled too.
+         * @return    {@code false} once the session asks to disconnect.
+         */
+        private boolean drainLines(boolean eof, Scratch scratch) {
+            in.flip();
+            int start = in.position();
+            for (int i = start; i < in.limit(); i++) {
+                byte b = in.get(i);
+                if (skipLF) {
+                    skipLF = false;
+                    if (b == '\n') {
+                        start = i + 1;
+                        continue;
+                    }
+                }
+                if (b != '\n' && b != '\r') {
+                    continue;
+                }
+                skipLF = b == '\r';
+                boolean open = handleLine(start, i, scratch);
+                start = i + 1;
+                if (!open) {
+                    return false;
+                }
+            }
+            if (eof && start < in.limit()) {
+                return handleLine(start, in.limit(), scratch);
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                growOrDiscard(scratch);
+            }
+            return true;
+        }
+
+        /**
+         * Hands every complete frame in the read buffer to the session and collects one byte per answer.
+         * A trailing partial frame stays in the buffer, which grows if the frame does not fit.
+         * @return {@code false} once the session asks to disconnect.
+         */
+        private boolean drainFrames(Scratch scratch) {
+            in.flip();
+            int start = in.position();
+            while (in.limit() - start >= 2) {
+                int length = in.getShort(start) & 0xFFFF;
+                if (in.limit() - start - 2 < length) {
+                    break;
+                }
+                int code = session.handleFrame(in, start + 2, length);
+                start += 2 + length;
+                if (code == BinaryOrderCodec.DISCONNECT) {
+                    return false;
+                }
+                scratch.addCode(code);
+            }
+            in.position(start);
+            in.compact();
+            if (!in.hasRemaining()) {
+                // the frame in progress is longer than the buffer; frames are at most 64 KB
+                grow();
+            }
+            return true;
+        }
+
+        /**
+         * Decodes bytes {@code [start, end)} of the read buffer as one line.
+         * ASCII lines, the normal case, are widened in place without allocating;
+         * anything else goes through the charset decoder.
+         */
+        private boolean handleLine(int start, int end, Scratch scratch) {
+            if (discarding) {
+                // the tail of an over-long line: it was already answered
+                discarding = false;
+                return true;
+            }
+            int length = end - start;
+            if (scratch.lineChars.length < length) {
+                scratch.lineChars = new char[Math.max(length, scratch.lineChars.length * 2)];
+            }
+            char[] lineChars = scratch.lineChars;
+            for (int i = 0; i < length; i++) {
+                byte b = in.get(start + i);
+                if (b < 0) {
+                    CharBuffer decoded = CHARSET.decode(in.duplicate().limit(end).position(start));
+                    return session.handleLine(decoded.array(), decoded.arrayOffset() + decoded.position(),
+                            decoded.remaining(), scratch.response);
+                }
+                lineChars[i] = (char) b;
+            }
+            return session.handleLine(lineChars, 0, length, scratch.response);
+        }
+
+        /**
+         * Called when the read buffer is full without a line break.
+         */
+        private void growOrDiscard(Scratch scratch) {
+            if (in.capacity() < MAX_LINE_LENGTH) {
+                grow();
+                return;
+            }
+            if (!discarding) {
+                scratch.response.append(OrderSession.INVALID).append(OrderSession.NEWLINE);
+                discarding = true;
+            }
+            in.clear();
+        }
+
+        /**
+         * Doubles the read buffer, keeping its contents.
+         */
+        void grow() {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(in.capacity() * 2);
+            in.flip();
+            bigger.put(in);
+            in = bigger;
+        }
+
+        void close() {
+            if (!key.isValid()) {
+                return;
+            }
+            CentralServer.getMetrics().connectionClosed();
+            CentralServer.getAdmissionControl().connectionClosed();
+            session.close();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (ClosedChannelException ignored) {
+                // already closed
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
\ No newline at end of file
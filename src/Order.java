@@ -0,0 +1,31 @@
+/**
+ * The Order class holds the fields of one parsed order line.
+ * Instances are mutable so that a session can reuse them from line to line.
+ */
+class Order {
+    /** The business name provided by the client. */
+    String name;
+    /** The unique business ID. */
+    int id;
+    /** The category of the item being ordered. */
+    int itemType;
+    /** The amount of items to add. */
+    int quantity;
+    /** The client's request ID for deduplication, or 0 if the order has none. */
+    long requestId;
+
+    /**
+     * Sets all fields at once, without a request ID.
+     * @param name     The business name.
+     * @param id       The business ID.
+     * @param itemType The item type.
+     * @param quantity The quantity.
+     */
+    void set(String name, int id, int itemType, int quantity) {
+        this.name = name;
+        this.id = id;
+        this.itemType = itemType;
+        this.quantity = quantity;
+        this.requestId = 0;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,670 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The OrderJournal class makes the client database durable with an append-only binary log.
+ * * <p>Every new business and every applied order is appended to an in-memory buffer.
+ * A single flusher thread writes whatever has accumulated and forces it to disk, so
+ * one fsync covers all orders that arrived while the previous one was running
+ * (group commit). An order is acknowledged only once its record is on disk.</p>
+ * * <p>The log is split into numbered segments. Compaction rotates to a new segment,
+ * then folds the previous snapshot and the closed segments into a new {@link MappedSnapshot}
+ * and deletes those segments. It never reads the live database, so it does not slow down
+ * order processing, and it is skipped when nothing was logged since the last snapshot.
+ * On startup the newest snapshot is mapped and only the remaining segments are replayed.</p>
+ * * <p>Each snapshot is a new file, numbered by the last segment it covers, so a file is never
+ * replaced while it is mapped. Compaction reads the previous snapshot onto the heap rather than
+ * mapping it, and deletes every older snapshot except the one mapped at startup.</p>
+ * * <p>Only the newest segment can end in a record torn by a crash; it is truncated there.
+ * Older segments were forced before the next one was started, so an incomplete record in
+ * one of them means the log is damaged, and the start fails rather than lose the orders after it.</p>
+ * * <p>Record layout (big-endian):</p>
+ * <ul>
+ *   <li>new business: {@code 'C', int id, int nameLength, UTF-8 name}</li>
+ *   <li>order: {@code 'O', int id, byte itemType, long quantity}</li>
+ * </ul>
+ */
+class OrderJournal {
+    private static final byte CREATE = 'C';
+    private static final byte ORDER = 'O';
+    private static final int ORDER_RECORD_SIZE = 1 + 4 + 1 + 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+    /** The single, variable-width snapshot file of earlier versions, still read if no numbered one exists. */
+    private static final String LEGACY_SNAPSHOT = "snapshot.bin";
+    private static final int LEGACY_SNAPSHOT_MAGIC = 0x4F534E50; // "OSNP"
+
+    private final Path dir;
+    /** The snapshot file the registry maps, or {@code null}; kept until the next start. */
+    private final Path mappedSnapshot;
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signalled when records are appended or a rotation is requested. */
+    private final Condition workAvailable = lock.newCondition();
+    /** Signalled when the durable position or the segment number advances. */
+    private final Condition progress = lock.newCondition();
+
+    /** Records appended since the last swap; guarded by {@link #lock}. */
+    private ByteBuffer active = ByteBuffer.allocate(64 * 1024);
+    /** Records being written by the flusher; only touched by the flusher thread. */
+    private ByteBuffer flushing = ByteBuffer.allocate(64 * 1024);
+    /** Total bytes appended since startup; guarded by {@link #lock}. */
+    private long appended;
+    /** Total bytes known to be on disk; written under {@link #lock}, read without it by {@link #isDurable}. */
+    private volatile long durable;
+    /** Set when the flusher fails; later appends and waits throw it. */
+    private volatile IOException failure;
+    /** Run by the flusher after {@link #durable} advances or the journal fails. */
+    private final List<Runnable> durableListeners = new CopyOnWriteArrayList<>();
+    private boolean rotateRequested;
+    private boolean closed;
+
+    /** Number of the segment being written; guarded by {@link #lock}. */
+    private long segment;
+    /** Value of {@link #appended} when the current segment was started; guarded by {@link #lock}. */
+    private long segmentStart;
+    /** Number of the last segment folded into the snapshot; only used by compaction. */
+    private long compactedThrough;
+    private FileChannel channel;
+    private final Thread flusher;
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Opens the journal in a directory: maps the snapshot under the registry, replays the
+     * newer log segments on top of it, then starts a fresh segment and the flusher and compaction threads.
+     * @param dir                Directory holding the snapshot and log segments; created if missing.
+     * @param registry           The empty registry to rebuild.
+     * @param compactIntervalSec Seconds between compactions.
+     * @return                   The open journal.
+     * @throws IOException       If the directory cannot be read or the log cannot be opened.
+     */
+    public static OrderJournal open(Path dir, ClientRegistry registry, int compactIntervalSec) throws IOException {
+        Files.createDirectories(dir);
+        Path snapshotFile = latestSnapshot(dir);
+        MappedSnapshot snapshot = snapshotFile == null ? null : MappedSnapshot.open(snapshotFile);
+        Map<Integer, Entry> changes = new HashMap<>();
+        long covered = snapshot != null ? snapshot.coveredSegment()
+                : loadLegacySnapshot(dir.resolve(LEGACY_SNAPSHOT), changes);
+        long last = covered;
+        for (long number : listSegments(dir)) {
+            last = Math.max(last, number);
+        }
+        for (long number : listSegments(dir)) {
+            if (number > covered) {
+                replaySegment(segmentPath(dir, number), snapshot, changes, number == last);
+            }
+        }
+        // businesses untouched since the snapshot stay on disk until they are first used
+        registry.setSnapshot(snapshot);
+        for (Map.Entry<Integer, Entry> e : changes.entrySet()) {
+            registry.restore(e.getValue().name, e.getKey(), e.getValue().counts);
+        }
+        OrderJournal journal = new OrderJournal(dir, snapshotFile, covered, last + 1, compactIntervalSec);
+        registry.setJournal(journal);
+        return journal;
+    }
+
+    private OrderJournal(Path dir, Path mappedSnapshot, long covered, long firstSegment, int compactIntervalSec)
+            throws IOException {
+        this.dir = dir;
+        this.mappedSnapshot = mappedSnapshot;
+        this.compactedThrough = covered;
+        this.segment = firstSegment;
+        this.channel = openSegment(firstSegment);
+        this.flusher = new Thread(this::flushLoop, "journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Journal compaction failed: " + e.getMessage());
+            }
+        }, compactIntervalSec, compactIntervalSec, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a new business if its ID is still free, logging the creation in the same step.
+     * Holding the journal lock while publishing the client guarantees that its creation record
+     * precedes every order record for it, whichever thread writes those.
+     * @param clients The registry map.
+     * @param created The client to register.
+     * @return        The client that already owned the ID, or {@code null} if {@code created} was registered.
+     */
+    BusinessClient putIfAbsent(ConcurrentMap<Integer, BusinessClient> clients, BusinessClient created) {
+        byte[] name = created.getName().getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            ensureOpen();
+            BusinessClient existing = clients.putIfAbsent(created.getBusinessId(), created);
+            if (existing == null) {
+                ByteBuffer buf = reserve(1 + 4 + 4 + name.length);
+                buf.put(CREATE).putInt(created.getBusinessId()).putInt(name.length).put(name);
+                appendDone(1 + 4 + 4 + name.length);
+            }
+            return existing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends an order record.
+     * @param id       The business ID.
+     * @param itemType The item type, 1..{@link BusinessClient#ITEM_TYPES}.
+     * @param quantity The quantity added.
+     * @return         The log position to pass to {@link #awaitDurable(long)}.
+     */
+    public long appendOrder(int id, int itemType, long quantity) {
+        lock.lock();
+        try {
+            ensureOpen();
+            reserve(ORDER_RECORD_SIZE).put(ORDER).putInt(id).put((byte) itemType).putLong(quantity);
+            return appendDone(ORDER_RECORD_SIZE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until everything up to the given log position is on disk.
+     * @param position A position returned by an append.
+     * @throws UncheckedIOException If the journal can no longer write; the order must not be acknowledged.
+     */
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durable < position) {
+                ensureOpen();
+                progress.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns whether everything up to the given log position is on disk, without blocking.
+     * @param position A position returned by an append or by {@link #position()}.
+     * @return         {@code true} once it is durable.
+     * @throws UncheckedIOException If the journal can no longer write; the position never will be durable.
+     */
+    public boolean isDurable(long position) {
+        if (durable >= position) {
+            return true;
+        }
+        IOException failed = failure;
+        if (failed != null) {
+            throw new UncheckedIOException("Order journal is unavailable", failed);
+        }
+        return false;
+    }
+
+    /**
+     * Adds a task that the flusher runs each time the durable position advances, and once if the
+     * journal fails, so that callers polling {@link #isDurable} need not block in {@link #awaitDurable}.
+     * @param listener A quick, non-blocking task.
+     */
+    public void addDurableListener(Runnable listener) {
+        durableListeners.add(listener);
+    }
+
+    /**
+     * Returns the current log position, that is the end of the last appended record.
+     * @return The position.
+     */
+    public long position() {
+        lock.lock();
+        try {
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        if (active.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(active.capacity() * 2, active.position() + bytes));
+            active.flip();
+            grown.put(active);
+            active = grown;
+        }
+        return active;
+    }
+
+    private long appendDone(int bytes) {
+        appended += bytes;
+        workAvailable.signal();
+        return appended;
+    }
+
+    /**
+     * Fails an append or a wait that can never complete.
+     * A closed journal fails like a broken one, so that callers handle both as an I/O error.
+     */
+    private void ensureOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Order journal is unavailable", failure);
+        }
+        if (closed) {
+            IOException e = new IOException("Order journal is closed");
+            throw new UncheckedIOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The flusher thread: swaps buffers, writes and forces them, then wakes the waiting orders.
+     */
+    private void flushLoop() {
+        while (true) {
+            long target;
+            boolean rotate;
+            lock.lock();
+            try {
+                while (active.position() == 0 && !rotateRequested && !closed) {
+                    workAvailable.awaitUninterruptibly();
+                }
+                if (active.position() == 0 && closed) {
+                    return;
+                }
+                ByteBuffer swap = active;
+                active = flushing;
+                flushing = swap;
+                target = appended;
+                rotate = rotateRequested;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                flushing.flip();
+                while (flushing.hasRemaining()) {
+                    channel.write(flushing);
+                }
+                flushing.clear();
+                channel.force(false);
+                if (rotate) {
+                    channel.close();
+                    channel = openSegment(segment + 1);
+                }
+            } catch (IOException e) {
+                System.err.println("Journal write failed: " + e.getMessage());
+                lock.lock();
+                try {
+                    failure = e;
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                notifyDurable();
+                return;
+            }
+            lock.lock();
+            try {
+                durable = target;
+                if (rotate) {
+                    segment++;
+                    segmentStart = target;
+                    rotateRequested = false;
+                }
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            notifyDurable();
+        }
+    }
+
+    private void notifyDurable() {
+        for (Runnable listener : durableListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Closes the current segment and starts a new one.
+     * @return The number of the new segment; all older segments are complete.
+     * @throws IOException If the journal failed.
+     */
+    private long rotate() throws IOException {
+        lock.lock();
+        try {
+            long target = segment + 1;
+            rotateRequested = true;
+            workAvailable.signal();
+            while (segment < target) {
+                if (failure != null) {
+                    throw failure;
+                }
+                if (closed) {
+                    throw new IOException("Order journal is closed");
+                }
+                progress.awaitUninterruptibly();
+            }
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Folds the snapshot and all closed segments into a new snapshot, then deletes those segments
+     * and the older snapshots. Does nothing if nothing was logged since the last snapshot.
+     * The new snapshot and the directory are forced before any file is deleted, so a crash
+     * at any point leaves either the old snapshot and its segments or the new snapshot.
+     * The registry may keep using the mapping of the snapshot it started from: its businesses either
+     * have not changed since, or were already materialized on the heap.
+     * @throws IOException If reading the old state or writing the new snapshot fails, or the journal is closed.
+     */
+    public void compact() throws IOException {
+        if (!hasUncompacted()) {
+            return;
+        }
+        long current = rotate();
+        Path previous = latestSnapshot(dir);
+        MappedSnapshot old = previous == null ? null : MappedSnapshot.read(previous);
+        Map<Integer, Entry> changes = new HashMap<>();
+        long covered = old != null ? old.coveredSegment()
+                : loadLegacySnapshot(dir.resolve(LEGACY_SNAPSHOT), changes);
+        List<Long> folded = new ArrayList<>();
+        for (long number : listSegments(dir)) {
+            if (number < current) {
+                if (number > covered) {
+                    replaySegment(segmentPath(dir, number), old, changes, false);
+                }
+                folded.add(number);
+            }
+        }
+
+        // merge the sorted old records with the sorted IDs that are new since then
+        int oldSize = old == null ? 0 : old.size();
+        List<Integer> added = new ArrayList<>();
+        for (int id : changes.keySet()) {
+            if (old == null || old.find(id) < 0) {
+                added.add(id);
+            }
+        }
+        Collections.sort(added);
+        int size = oldSize + added.size();
+        int[] ids = new int[size];
+        String[] names = new String[size];
+        long[][] counts = new long[size][];
+        int o = 0;
+        int a = 0;
+        for (int i = 0; i < size; i++) {
+            if (a == added.size() || (o < oldSize && old.id(o) < added.get(a))) {
+                ids[i] = old.id(o);
+                Entry changed = changes.get(ids[i]);
+                names[i] = changed != null ? changed.name : old.name(o);
+                counts[i] = changed != null ? changed.counts : old.counts(o);
+                o++;
+            } else {
+                ids[i] = added.get(a++);
+                Entry entry = changes.get(ids[i]);
+                names[i] = entry.name;
+                counts[i] = entry.counts;
+            }
+        }
+        Path file = snapshotPath(dir, current - 1);
+        MappedSnapshot.write(file, ids, names, counts, size, current - 1);
+        forceDirectory(dir);
+        for (long number : folded) {
+            Files.deleteIfExists(segmentPath(dir, number));
+        }
+        for (long number : listNumbered(dir, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX)) {
+            Path older = snapshotPath(dir, number);
+            if (number < current - 1 && !older.equals(mappedSnapshot)) {
+                Files.deleteIfExists(older);
+            }
+        }
+        Files.deleteIfExists(dir.resolve(LEGACY_SNAPSHOT));
+        compactedThrough = current - 1;
+    }
+
+    /**
+     * Returns whether anything was logged since the last snapshot: records in the current
+     * segment, or closed segments that the snapshot does not cover yet.
+     */
+    private boolean hasUncompacted() throws IOException {
+        long current;
+        lock.lock();
+        try {
+            if (appended > segmentStart) {
+                return true;
+            }
+            current = segment;
+        } finally {
+            lock.unlock();
+        }
+        for (long number : listSegments(dir)) {
+            if (number > compactedThrough && number < current) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes everything still buffered, stops the background threads and closes the log.
+     * @throws IOException If the final write failed.
+     */
+    public void close() throws IOException {
+        compactor.shutdownNow();
+        lock.lock();
+        try {
+            closed = true;
+            workAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens a segment for appending, creating it if needed. The directory is forced before
+     * anything is written, so the orders acknowledged from the new file cannot lose their file in a crash.
+     */
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel opened = FileChannel.open(segmentPath(dir, number),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            forceDirectory(dir);
+        } catch (IOException e) {
+            opened.close();
+            throw e;
+        }
+        return opened;
+    }
+
+    /**
+     * Forces a directory, so that the files created, renamed or deleted in it survive a crash.
+     */
+    private static void forceDirectory(Path dir) throws IOException {
+        try (FileChannel directory = FileChannel.open(dir, StandardOpenOption.READ)) {
+            directory.force(true);
+        } catch (AccessDeniedException e) {
+            // Windows cannot open a directory; NTFS makes the entries durable with the files themselves
+        }
+    }
+
+    private static Path segmentPath(Path dir, long number) {
+        return dir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private static Path snapshotPath(Path dir, long coveredSegment) {
+        return dir.resolve(String.format("%s%012d%s", SNAPSHOT_PREFIX, coveredSegment, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * Returns the newest numbered snapshot file in the directory.
+     * @return The snapshot covering the most segments, or {@code null} if there is none.
+     */
+    private static Path latestSnapshot(Path dir) throws IOException {
+        List<Long> numbers = listNumbered(dir, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+        return numbers.isEmpty() ? null : snapshotPath(dir, numbers.get(numbers.size() - 1));
+    }
+
+    /**
+     * Loads a snapshot of the earlier format onto the heap, so that a journal written by an
+     * earlier version still starts. The next compaction replaces it with a numbered snapshot.
+     * @return The number of the last segment folded into the snapshot, or 0 if there is no such file.
+     */
+    private static long loadLegacySnapshot(Path file, Map<Integer, Entry> state) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        try {
+            if (buf.getInt() != LEGACY_SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot file: " + file);
+            }
+            long covered = buf.getLong();
+            int count = buf.getInt();
+            for (int i = 0; i < count; i++) {
+                int id = buf.getInt();
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                byte[] name = new byte[length];
+                buf.get(name);
+                Entry entry = new Entry(new String(name, StandardCharsets.UTF_8));
+                for (int t = 0; t < BusinessClient.ITEM_TYPES; t++) {
+                    entry.counts[t] = buf.getLong();
+                }
+                state.put(id, entry);
+            }
+            return covered;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot file is truncated: " + file);
+        }
+    }
+
+    /**
+     * Returns the numbers of all log segments in the directory, in ascending order.
+     */
+    private static List<Long> listSegments(Path dir) throws IOException {
+        return listNumbered(dir, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the numbers of all files named {@code prefix + number + suffix} in the directory, in ascending order.
+     */
+    private static List<Long> listNumbered(Path dir, String prefix, String suffix) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException ignored) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Applies the records of one segment to the changed businesses. A business first seen in the
+     * snapshot starts from its snapshot totals. In the newest segment, a record cut short by a crash
+     * ends the segment; the partial bytes are truncated so that they are never read again.
+     * @param last Whether this is the newest segment, the only one a crash can leave incomplete.
+     * @throws IOException If a record is corrupt, or an older segment ends in an incomplete record.
+     */
+    private static void replaySegment(Path file, MappedSnapshot snapshot, Map<Integer, Entry> state,
+            boolean last) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        int good = 0;
+        try {
+            while (buf.hasRemaining()) {
+                byte type = buf.get();
+                int id = buf.getInt();
+                if (type == CREATE) {
+                    int length = buf.getInt();
+                    // a length torn by a crash must not make us allocate up to 2 GB
+                    if (length < 0 || length > buf.remaining()) {
+                        throw new BufferUnderflowException();
+                    }
+                    byte[] name = new byte[length];
+                    buf.get(name);
+                    state.putIfAbsent(id, new Entry(new String(name, StandardCharsets.UTF_8)));
+                } else if (type == ORDER) {
+                    int itemType = buf.get();
+                    long quantity = buf.getLong();
+                    Entry entry = state.get(id);
+                    if (entry == null && snapshot != null) {
+                        int index = snapshot.find(id);
+                        if (index >= 0) {
+                            entry = new Entry(snapshot.name(index));
+                            entry.counts = snapshot.counts(index);
+                            state.put(id, entry);
+                        }
+                    }
+                    if (entry == null || itemType < 1 || itemType > BusinessClient.ITEM_TYPES) {
+                        throw new IOException("Corrupt order record at offset " + good + " in " + file);
+                    }
+                    entry.counts[itemType - 1] += quantity;
+                } else {
+                    throw new IOException("Corrupt record at offset " + good + " in " + file);
+                }
+                good = buf.position();
+            }
+        } catch (BufferUnderflowException e) {
+            if (!last) {
+                throw new IOException("Incomplete record at offset " + good + " in " + file);
+            }
+            System.err.println("Truncating incomplete record at offset " + good + " in " + file);
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                out.truncate(good);
+            }
+        }
+    }
+
+    /**
+     * One business while recovering or compacting.
+     */
+    private static final class Entry {
+        final String name;
+        long[] counts = new long[BusinessClient.ITEM_TYPES];
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+}
\ No newline at end of file
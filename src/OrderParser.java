@@ -0,0 +1,186 @@
+/**
+ * The OrderParser class reads an order line straight from a character buffer,
+ * without splitting it into substrings.
+ * It gives exactly the same answers as splitting on commas, trimming each field
+ * and calling {@link Integer#parseInt}: 200 for missing fields, bad numbers or an ID
+ * outside 10000..99999, and 202 for a quantity that is not positive.
+ * An optional fifth field carries a request ID (a decimal number from 1 to 2^63-1).
+ * A fifth field that is not such a number is ignored like any further field, as it
+ * always was, so the order is accepted without a request ID.
+ * * <p>The business name is the only String a valid line needs. When the ID is already
+ * known and the name matches, the registered name instance is reused instead of
+ * allocating a new one. Recently seen IDs are served from a small per-parser cache,
+ * so a connection that keeps ordering for the same businesses does not allocate at all.</p>
+ */
+class OrderParser {
+    /** Marker for a numeric field that does not parse. */
+    private static final long NOT_A_NUMBER = Long.MIN_VALUE;
+    /** Size of the direct-mapped cache of known names; a power of two. */
+    private static final int NAME_CACHE_SIZE = 256;
+
+    private final ClientRegistry registry;
+    /** IDs of the cached names, by slot. A registered name never changes, so entries never go stale. */
+    private final int[] cachedIds = new int[NAME_CACHE_SIZE];
+    /** Registered names, by slot. */
+    private final String[] cachedNames = new String[NAME_CACHE_SIZE];
+
+    /**
+     * Constructs a new OrderParser.
+     * @param registry The registry used to look up names of known IDs, or {@code null} to always allocate names.
+     */
+    public OrderParser(ClientRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Parses and validates a single order line.
+     * @param buf   Buffer holding the line.
+     * @param off   Index of the first character of the line.
+     * @param len   Length of the line, without its terminator.
+     * @param order Receives the parsed fields when the line is valid.
+     * @return      0 if the order is valid, otherwise the response code: 200 or 202.
+     */
+    public int parse(char[] buf, int off, int len, Order order) {
+        int end = off + len;
+        int nameEnd = indexOfComma(buf, off, end);
+        int idEnd = indexOfComma(buf, nameEnd + 1, end);
+        int typeEnd = indexOfComma(buf, idEnd + 1, end);
+        if (typeEnd >= end) {
+            // fewer than four fields
+            return OrderSession.INVALID;
+        }
+        int qtyEnd = indexOfComma(buf, typeEnd + 1, end);
+
+        long id = parseInt(buf, nameEnd + 1, idEnd);
+        long itemType = parseInt(buf, idEnd + 1, typeEnd);
+        long quantity = parseInt(buf, typeEnd + 1, qtyEnd);
+        if (id == NOT_A_NUMBER || itemType == NOT_A_NUMBER || quantity == NOT_A_NUMBER) {
+            return OrderSession.INVALID;
+        }
+        if (id < 10000 || id > 99999) {
+            return OrderSession.INVALID;
+        }
+        long requestId = 0;
+        if (qtyEnd < end) {
+            requestId = parseRequestId(buf, qtyEnd + 1, indexOfComma(buf, qtyEnd + 1, end));
+        }
+        if (quantity <= 0) {
+            return OrderSession.BAD_QUANTITY;
+        }
+        order.set(name(buf, off, nameEnd, (int) id), (int) id, (int) itemType, (int) quantity);
+        order.requestId = requestId;
+        return 0;
+    }
+
+    /**
+     * Parses the optional request ID field.
+     * @return The ID, or 0 if the field is blank or not a positive long of plain digits.
+     */
+    private static long parseRequestId(char[] buf, int from, int to) {
+        while (from < to && buf[from] <= ' ') {
+            from++;
+        }
+        while (to > from && buf[to - 1] <= ' ') {
+            to--;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                return 0;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the index of the next comma, or {@code end} if there is none.
+     */
+    private static int indexOfComma(char[] buf, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buf[i] == ',') {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Parses a trimmed decimal int the way {@link Integer#parseInt} does,
+     * including an optional sign and overflow detection.
+     * @return The value, or {@link #NOT_A_NUMBER} if the field is not a valid int.
+     */
+    private static long parseInt(char[] buf, int from, int to) {
+        while (from < to && buf[from] <= ' ') {
+            from++;
+        }
+        while (to > from && buf[to - 1] <= ' ') {
+            to--;
+        }
+        if (from >= to) {
+            return NOT_A_NUMBER;
+        }
+        boolean negative = false;
+        char first = buf[from];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) {
+                return NOT_A_NUMBER;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = Character.digit(buf[i], 10);
+            if (digit < 0) {
+                return NOT_A_NUMBER;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return NOT_A_NUMBER;
+            }
+        }
+        if (negative) {
+            return -value;
+        }
+        return value > Integer.MAX_VALUE ? NOT_A_NUMBER : value;
+    }
+
+    /**
+     * Returns the trimmed name field, reusing the registered name of the ID when it matches.
+     */
+    private String name(char[] buf, int from, int to, int id) {
+        while (from < to && buf[from] <= ' ') {
+            from++;
+        }
+        while (to > from && buf[to - 1] <= ' ') {
+            to--;
+        }
+        int slot = id & (NAME_CACHE_SIZE - 1);
+        String known = cachedIds[slot] == id ? cachedNames[slot] : null;
+        if (known == null && registry != null) {
+            // a business still only in the snapshot stays there: parsing is not using it
+            known = registry.nameOf(id);
+            if (known != null) {
+                cachedIds[slot] = id;
+                cachedNames[slot] = known;
+            }
+        }
+        if (known != null && sameChars(known, buf, from, to)) {
+            return known;
+        }
+        return new String(buf, from, to - from);
+    }
+
+    private static boolean sameChars(String name, char[] buf, int from, int to) {
+        if (name.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != buf[from + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,598 @@
+import java.nio.ByteBuffer;
+
+/**
+ * The OrderSession class implements the order protocol for one connection,
+ * independently of how bytes reach the server.
+ * Both the thread-per-connection {@link ClientHandler} and the selector-based
+ * {@link NioServer} feed it complete lines and send back whatever it appends.
+ * * <p>Protocol format: Name,ID,ItemType,Quantity</p>
+ * <p>Special command: "DISCONNECT" to close the session.</p>
+ * <p>Batch command: "BATCH n" followed by n order lines. The n response codes are
+ * sent together, in order, once the last line arrives.</p>
+ * <p>Clients may also pipeline plain order lines without waiting for each response;
+ * responses always come back in request order.</p>
+ * <p>With a journal, orders are applied without waiting for the disk, so that the transport
+ * can answer many orders, from one connection or many, after a single fsync. The transport
+ * must not send any response before the journal is durable up to {@link #durableMark()}.</p>
+ * <p>Admin command: "SHUTDOWN", answered with 100, starts a graceful shutdown, see
+ * {@link ShutdownCoordinator}. It is only accepted from the server's own host; elsewhere it is answered with 200.</p>
+ * <p>Special command: "STATS" returns one line of server metrics, see {@link ServerMetrics}.</p>
+ * <p>An order that exceeds the connection's rate limit, or arrives while too many orders
+ * are being applied, is answered with 204 and not applied, see {@link AdmissionControl}.</p>
+ * <p>Read commands, answered with one line each and never blocking orders:</p>
+ * <ul>
+ *   <li>"GET id" - one business: {@code BUSINESS id=.. sunglasses=.. belts=.. scarves=.. name=..},
+ *       or 203 if the ID is unknown.</li>
+ *   <li>"TOP itemType n" - the n businesses with the highest totals of an item type, best first:
+ *       {@code TOP item=.. version=.. id=total ...}; n is at most {@link TotalsIndex#MAX_TOP}.</li>
+ *   <li>"TOTALS" - the total of each item type: {@code TOTALS version=.. sunglasses=.. belts=.. scarves=..}.</li>
+ * </ul>
+ * <p>TOP and TOTALS come from the latest {@link TotalsIndex} view, a fraction of a second behind;
+ * on a sharded server they cover this shard only.</p>
+ * <p>Feed command: "SUBSCRIBE", answered with 100, turns the connection into a stream of
+ * {@code UPDATE} lines with the totals of changed businesses, see {@link ChangeFeed}.
+ * Anything the client sends afterwards is ignored except DISCONNECT.</p>
+ * <p>On a sharded server, orders for another shard are forwarded to it, or answered with
+ * "205 host:port" naming the owner. The "PEER" command, answered with 100, marks a
+ * connection from another shard; orders on it are never forwarded again.</p>
+ * <p>An order line may carry a fifth field, a positive request ID chosen by the client:
+ * "Name,ID,ItemType,Quantity,RequestId". A resend with the same request ID, for example after
+ * a reconnect, is answered with the original code and not applied again, see {@link DedupCache}.
+ * A fifth field that is not a valid request ID is ignored, as it always was.
+ * A resend that arrives while the first copy is still being applied waits for its code, or,
+ * on a transport that does not allow waiting, is answered with 204.</p>
+ * <p>Binary clients send frames instead of lines, see {@link BinaryOrderCodec};
+ * they can place orders and disconnect, and get the same response codes.</p>
+ */
+class OrderSession {
+    /** Response code: the order was applied. */
+    public static final int OK = ClientRegistry.OK;
+    /** Response code: missing or invalid data. */
+    public static final int INVALID = 200;
+    /** Response code: the ID already belongs to a business with another name. */
+    public static final int NAME_MISMATCH = ClientRegistry.NAME_MISMATCH;
+    /** Response code: zero or negative quantity. */
+    public static final int BAD_QUANTITY = 202;
+    /** Response code: GET for an ID that no business has. */
+    public static final int UNKNOWN_BUSINESS = 203;
+    /**
+     * Response code: the server is overloaded, the connection exceeded its rate, or another copy
+     * of the request is still being applied; the order was not applied.
+     */
+    public static final int BUSY = 204;
+    /** Response code: the ID belongs to another shard; text responses add its {@code host:port}. */
+    public static final int REDIRECT = 205;
+    /** Response code: the shard owning the ID could not be reached; the order may not have been applied. */
+    public static final int SHARD_UNAVAILABLE = 206;
+    /** Line terminator used for responses, matching {@code PrintWriter.println}. */
+    public static final String NEWLINE = System.lineSeparator();
+    /** Largest number of lines accepted in one batch. */
+    public static final int MAX_BATCH = 10000;
+    /** Report keys of the item types, indexed by {@code itemType - 1}. */
+    private static final String[] ITEM_KEYS = {"sunglasses", "belts", "scarves"};
+
+    /** Orders of the batch being collected; entries are reused between batches. */
+    private Order[] batch = new Order[0];
+    /** Response code of each batch line; 0 means the order is valid and still pending. */
+    private int[] batchCodes = new int[0];
+    /** The valid orders of the batch, compacted to the front before they are applied. */
+    private Order[] validOrders = new Order[0];
+    /** Response codes of {@link #validOrders}, by index. */
+    private int[] validCodes = new int[0];
+    /** Number of lines announced by the current BATCH header, 0 outside a batch. */
+    private int batchSize;
+    /** Number of lines received so far in the current batch. */
+    private int batchReceived;
+    /** Scratch order for single lines. */
+    private final Order order = new Order();
+    /** Parser for order lines, sharing name instances with the client database. */
+    private final OrderParser parser = new OrderParser(CentralServer.getClientDatabase());
+    /** Whether a resent order may wait for its first copy, see {@link #allowWaiting}. */
+    private boolean waiting = true;
+    /** The client database orders are applied to. */
+    private final ClientRegistry database = CentralServer.getClientDatabase();
+    /** Journal position that must be on disk before the responses produced so far are sent. */
+    private long durableMark;
+
+    /**
+     * Allows or forbids waiting for another connection that is applying the same request ID;
+     * it is allowed by default. A transport that serves many connections on one thread forbids
+     * it, and such a resend is then answered with {@link #BUSY} for the client to try again.
+     * @param allowed {@code false} if the calling thread must never wait for other connections.
+     */
+    public void allowWaiting(boolean allowed) {
+        waiting = allowed;
+    }
+
+    /**
+     * Returns the journal position that must be durable before the responses produced so far
+     * may be sent, see {@link ClientRegistry#isDurable}. It only grows, and stays 0 without a journal.
+     * @return The position.
+     */
+    public long durableMark() {
+        return durableMark;
+    }
+    /** Decoder for binary frames, holding the names this connection has sent. */
+    private final BinaryOrderCodec codec = new BinaryOrderCodec();
+    /** Arrival time of each batch line, for end-to-end latency. */
+    private long[] batchArrival = new long[0];
+    private final ServerMetrics metrics = CentralServer.getMetrics();
+    /** Routing between shards, or {@code null} on an unsharded server. */
+    private final ShardRouter router = CentralServer.getRouter();
+    /** Response codes of recent orders by request ID, shared by all connections. */
+    private final DedupCache dedup = CentralServer.getDedupCache();
+    /** Limits shared by all connections. */
+    private final AdmissionControl admission = CentralServer.getAdmissionControl();
+    /** Rate limiter of this connection. */
+    private final AdmissionControl.TokenBucket bucket = admission.newBucket();
+    /** Whether the connection comes from another shard, see {@link ShardRouter}. */
+    private boolean peer;
+    /** Whether the connection may use admin commands. */
+    private boolean admin;
+    /** The change feed subscription after SUBSCRIBE, or {@code null}. */
+    private ChangeFeed.Subscription subscription;
+
+    /**
+     * Allows or forbids admin commands on this connection; they are forbidden by default.
+     * @param allowed {@code true} to allow them, normally only for connections from the same host.
+     */
+    public void allowAdmin(boolean allowed) {
+        admin = allowed;
+    }
+
+    /**
+     * Returns the change feed subscription of this connection.
+     * Once it is set, the transport should write the subscription's frames to the client.
+     * @return The subscription, or {@code null} if the client has not subscribed.
+     */
+    public ChangeFeed.Subscription subscription() {
+        return subscription;
+    }
+
+    /**
+     * Releases what the session holds beyond the connection. Called once the connection is closed.
+     */
+    public void close() {
+        if (subscription != null) {
+            CentralServer.getChangeFeed().unsubscribe(subscription);
+        }
+    }
+
+    /**
+     * Handles one complete request line (without its terminator).
+     * Order lines are parsed in place; only command lines, which never contain
+     * a comma, are turned into a String.
+     * @param buf Buffer holding the line received from the client.
+     * @param off Index of the first character of the line.
+     * @param len Length of the line.
+     * @param out Buffer that response lines are appended to.
+     * @return    {@code false} if the client asked to disconnect, {@code true} otherwise.
+     */
+    public boolean handleLine(char[] buf, int off, int len, StringBuilder out) {
+        long arrival = System.nanoTime();
+        if (subscription != null) {
+            return len != 10 || !new String(buf, off, len).equalsIgnoreCase("DISCONNECT");
+        }
+        if (batchSize > 0) {
+            addToBatch(buf, off, len, out, arrival);
+            return true;
+        }
+        if (!containsComma(buf, off, len)) {
+            return handleCommand(new String(buf, off, len), out, arrival);
+        }
+        int code = parser.parse(buf, off, len, order);
+        long parsed = System.nanoTime();
+        metrics.recordParse(parsed - arrival);
+        if (code == 0) {
+            // שליחה לעיבוד במחלקה המרכזית
+            code = admit(order, parsed);
+            metrics.recordStore(System.nanoTime() - parsed);
+        }
+        respond(code, order.id, out, arrival);
+        return true;
+    }
+
+    /**
+     * Handles one binary frame (without its length prefix).
+     * @param buf Buffer holding the frame; it is only read with absolute gets.
+     * @param off Index of the first byte of the frame body.
+     * @param len Length of the frame body.
+     * @return    The response code to send back as a single byte,
+     *            or {@link BinaryOrderCodec#DISCONNECT} if the client asked to disconnect.
+     */
+    public int handleFrame(ByteBuffer buf, int off, int len) {
+        long arrival = System.nanoTime();
+        int code = codec.decode(buf, off, len, order);
+        if (code == BinaryOrderCodec.DISCONNECT) {
+            System.out.println("Client requested disconnect.");
+            return code;
+        }
+        long parsed = System.nanoTime();
+        metrics.recordParse(parsed - arrival);
+        if (code == 0) {
+            code = admit(order, parsed);
+            metrics.recordStore(System.nanoTime() - parsed);
+        }
+        record(code, arrival);
+        return code;
+    }
+
+    /**
+     * Applies a valid order if the connection's rate and the in-flight limit allow it.
+     * @return The response code, {@link #BUSY} if it was refused.
+     */
+    private int admit(Order order, long now) {
+        if (!bucket.tryTake(now) || !admission.enter(1)) {
+            admission.refused(1);
+            return BUSY;
+        }
+        try {
+            return process(order);
+        } finally {
+            admission.exit(1);
+        }
+    }
+
+    /**
+     * Applies a valid order once: an order carrying a request ID that was already handled
+     * is answered with its original code instead.
+     * @return The response code.
+     */
+    private int process(Order order) {
+        if (order.requestId == 0) {
+            return route(order);
+        }
+        int replayed = waiting ? dedup.begin(order.id, order.requestId) : dedup.tryBegin(order.id, order.requestId);
+        if (replayed == DedupCache.IN_PROGRESS) {
+            return BUSY;
+        }
+        if (replayed != 0) {
+            metrics.orderReplayed();
+            // the original may have come on another connection and not be durable yet
+            durableMark = database.logPosition();
+            return replayed;
+        }
+        return routeClaimed(order);
+    }
+
+    /**
+     * Routes an order whose request ID the caller has claimed, then records its code.
+     */
+    private int routeClaimed(Order order) {
+        int code;
+        try {
+            code = route(order);
+        } catch (RuntimeException | Error e) {
+            dedup.abandon(order.id, order.requestId);
+            throw e;
+        }
+        finish(order, code);
+        return code;
+    }
+
+    /**
+     * Records the code of a claimed request. Redirected and unreachable orders were not
+     * applied here, so they are not remembered and a resend is routed again.
+     */
+    private void finish(Order order, int code) {
+        if (code == REDIRECT || code == SHARD_UNAVAILABLE) {
+            dedup.abandon(order.id, order.requestId);
+        } else {
+            dedup.complete(order.id, order.requestId, code);
+        }
+    }
+
+    /**
+     * Applies a valid order here, or routes it to the shard that owns its ID.
+     * @return The response code.
+     */
+    private int route(Order order) {
+        if (router == null || router.isLocal(order.id)) {
+            int code = database.applyOrder(order.name, order.id, order.itemType, order.quantity);
+            durableMark = database.logPosition();
+            return code;
+        }
+        if (peer || !router.isForwarding()) {
+            return REDIRECT;
+        }
+        return router.forward(order.name, order.id, order.itemType, order.quantity, order.requestId);
+    }
+
+    /**
+     * Appends the response code of one order line and records it.
+     */
+    private void respond(int code, StringBuilder out, long arrival) {
+        out.append(code).append(NEWLINE);
+        record(code, arrival);
+    }
+
+    /**
+     * Like {@link #respond(int, StringBuilder, long)}, naming the owning shard in a redirect.
+     */
+    private void respond(int code, int id, StringBuilder out, long arrival) {
+        if (code == REDIRECT) {
+            out.append(code).append(' ').append(router.ownerAddress(id)).append(NEWLINE);
+            record(code, arrival);
+        } else {
+            respond(code, out, arrival);
+        }
+    }
+
+    private void record(int code, long arrival) {
+        metrics.orderHandled(code);
+        metrics.recordEndToEnd(System.nanoTime() - arrival);
+    }
+
+    /**
+     * Handles a line without commas: a command, or otherwise an order with missing fields.
+     */
+    private boolean handleCommand(String line, StringBuilder out, long arrival) {
+        // בדיקה אם הלקוח ביקש להתנתק
+        if (line.equalsIgnoreCase("DISCONNECT")) {
+            System.out.println("Client requested disconnect.");
+            return false;
+        }
+        if (line.equalsIgnoreCase("PEER")) {
+            peer = true;
+            out.append(OK).append(NEWLINE);
+            return true;
+        }
+        if (line.equalsIgnoreCase("SHUTDOWN") && admin) {
+            out.append(OK).append(NEWLINE);
+            CentralServer.getShutdownCoordinator().requestShutdown();
+            return true;
+        }
+        if (line.equalsIgnoreCase("STATS")) {
+            out.append("STATS ").append(metrics.format()).append(' ').append(admission.format());
+            ChangeFeed feed = CentralServer.getChangeFeed();
+            if (feed != null) {
+                out.append(' ').append(feed.format());
+            }
+            out.append(NEWLINE);
+            return true;
+        }
+        if (line.equalsIgnoreCase("SUBSCRIBE") && CentralServer.getChangeFeed() != null) {
+            out.append(OK).append(NEWLINE);
+            subscription = CentralServer.getChangeFeed().subscribe();
+            return true;
+        }
+        if (line.regionMatches(true, 0, "BATCH ", 0, 6)) {
+            startBatch(line.substring(6), out, arrival);
+            return true;
+        }
+        String[] words = line.trim().split("\\s+");
+        if (words.length == 2 && words[0].equalsIgnoreCase("GET")) {
+            get(words[1], out, arrival);
+            return true;
+        }
+        if (words.length == 3 && words[0].equalsIgnoreCase("TOP")) {
+            top(words[1], words[2], out, arrival);
+            return true;
+        }
+        if (words.length == 1 && words[0].equalsIgnoreCase("TOTALS")) {
+            TotalsIndex.View view = CentralServer.getTotalsIndex().view();
+            out.append("TOTALS version=").append(view.version());
+            for (int type = 1; type <= BusinessClient.ITEM_TYPES; type++) {
+                out.append(' ').append(ITEM_KEYS[type - 1]).append('=').append(view.total(type));
+            }
+            out.append(NEWLINE);
+            return true;
+        }
+        respond(INVALID, out, arrival); // שגיאה: נתונים חסרים
+        return true;
+    }
+
+    /**
+     * Answers GET with the live totals of one business, read without locking.
+     */
+    private void get(String idText, StringBuilder out, long arrival) {
+        int id = parseNumber(idText);
+        if (id < 10000 || id > 99999) {
+            respond(INVALID, out, arrival);
+            return;
+        }
+        // lookups are not orders, so these answers are not counted in the order metrics
+        if (router != null && !router.isLocal(id)) {
+            out.append(REDIRECT).append(' ').append(router.ownerAddress(id)).append(NEWLINE);
+            return;
+        }
+        BusinessClient client = CentralServer.getClientDatabase().get(id);
+        if (client == null) {
+            out.append(UNKNOWN_BUSINESS).append(NEWLINE);
+            return;
+        }
+        long[] counts = client.snapshot();
+        out.append("BUSINESS id=").append(id);
+        for (int i = 0; i < counts.length; i++) {
+            out.append(' ').append(ITEM_KEYS[i]).append('=').append(counts[i]);
+        }
+        out.append(" name=").append(client.getName()).append(NEWLINE);
+    }
+
+    /**
+     * Answers TOP from the latest published rankings.
+     */
+    private void top(String typeText, String countText, StringBuilder out, long arrival) {
+        int itemType = parseNumber(typeText);
+        int n = parseNumber(countText);
+        if (itemType < 1 || itemType > BusinessClient.ITEM_TYPES || n < 1 || n > TotalsIndex.MAX_TOP) {
+            respond(INVALID, out, arrival);
+            return;
+        }
+        TotalsIndex.View view = CentralServer.getTotalsIndex().view();
+        out.append("TOP item=").append(itemType).append(" version=").append(view.version());
+        for (int rank = 0; rank < Math.min(n, view.ranked(itemType)); rank++) {
+            out.append(' ').append(view.topId(itemType, rank)).append('=').append(view.topCount(itemType, rank));
+        }
+        out.append(NEWLINE);
+    }
+
+    /**
+     * Returns the report key of an item type.
+     * @param itemType The item type, 1..{@link BusinessClient#ITEM_TYPES}.
+     * @return         The key, such as "sunglasses".
+     */
+    static String itemKey(int itemType) {
+        return ITEM_KEYS[itemType - 1];
+    }
+
+    /**
+     * Parses a command argument.
+     * @return The number, or -1 if it is not one.
+     */
+    private static int parseNumber(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean containsComma(char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (buf[i] == ',') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Starts collecting a batch, or answers 200 if the announced size is not valid.
+     * @param count The text after "BATCH ".
+     */
+    private void startBatch(String count, StringBuilder out, long arrival) {
+        int size;
+        try {
+            size = Integer.parseInt(count.trim());
+        } catch (NumberFormatException e) {
+            size = 0;
+        }
+        if (size < 1 || size > MAX_BATCH) {
+            respond(INVALID, out, arrival);
+            return;
+        }
+        if (batch.length < size) {
+            Order[] grown = new Order[size];
+            System.arraycopy(batch, 0, grown, 0, batch.length);
+            for (int i = batch.length; i < size; i++) {
+                grown[i] = new Order();
+            }
+            batch = grown;
+            batchCodes = new int[size];
+            validOrders = new Order[size];
+            validCodes = new int[size];
+            batchArrival = new long[size];
+        }
+        batchSize = size;
+        batchReceived = 0;
+    }
+
+    /**
+     * Validates one batch line and, after the last one, applies the batch and writes all codes.
+     */
+    private void addToBatch(char[] buf, int off, int len, StringBuilder out, long arrival) {
+        batchArrival[batchReceived] = arrival;
+        batchCodes[batchReceived] = parser.parse(buf, off, len, batch[batchReceived]);
+        metrics.recordParse(System.nanoTime() - arrival);
+        batchReceived++;
+        if (batchReceived < batchSize) {
+            return;
+        }
+        // the rate limit takes its share line by line, then the rest is admitted or refused at once
+        long now = System.nanoTime();
+        int admitted = 0;
+        for (int i = 0; i < batchSize; i++) {
+            if (batchCodes[i] == 0) {
+                if (bucket.tryTake(now)) {
+                    admitted++;
+                } else {
+                    batchCodes[i] = BUSY;
+                    admission.refused(1);
+                }
+            }
+        }
+        if (admitted > 0 && !admission.enter(admitted)) {
+            for (int i = 0; i < batchSize; i++) {
+                if (batchCodes[i] == 0) {
+                    batchCodes[i] = BUSY;
+                }
+            }
+            admission.refused(admitted);
+            admitted = 0;
+        }
+        try {
+            applyBatch();
+        } finally {
+            admission.exit(admitted);
+        }
+        int next = 0;
+        for (int i = 0; i < batchSize; i++) {
+            int code = batchCodes[i] == 0 ? validCodes[next++] : batchCodes[i];
+            respond(code, batch[i].id, out, batchArrival[i]);
+        }
+        batchSize = 0;
+        batchReceived = 0;
+    }
+
+    /**
+     * Applies the admitted lines of a complete batch: lines with a code of 0 when called.
+     * Afterwards only the local valid orders, compacted into {@link #validOrders}, still have
+     * a code of 0 and their codes are in {@link #validCodes}.
+     */
+    private void applyBatch() {
+        // compact the valid local orders to the front, apply them in one pass, then scatter the codes back
+        int validCount = 0;
+        boolean deferred = false;
+        for (int i = 0; i < batchSize; i++) {
+            if (batchCodes[i] != 0) {
+                continue;
+            }
+            Order order = batch[i];
+            if (order.requestId != 0) {
+                // waiting here could wait for a duplicate earlier in this very batch, so only try
+                int replayed = dedup.tryBegin(order.id, order.requestId);
+                if (replayed != 0) {
+                    batchCodes[i] = replayed;
+                    if (replayed == DedupCache.IN_PROGRESS) {
+                        deferred = true;
+                    } else {
+                        metrics.orderReplayed();
+                    }
+                    continue;
+                }
+            }
+            if (router != null && !router.isLocal(order.id)) {
+                batchCodes[i] = order.requestId != 0 ? routeClaimed(order) : route(order);
+            } else {
+                validOrders[validCount++] = order;
+            }
+        }
+        long storeStart = System.nanoTime();
+        try {
+            database.applyBatch(validOrders, validCount, validCodes);
+        } catch (RuntimeException | Error e) {
+            for (int v = 0; v < validCount; v++) {
+                if (validOrders[v].requestId != 0) {
+                    dedup.abandon(validOrders[v].id, validOrders[v].requestId);
+                }
+            }
+            throw e;
+        }
+        durableMark = database.logPosition();
+        metrics.recordStore(System.nanoTime() - storeStart);
+        for (int v = 0; v < validCount; v++) {
+            if (validOrders[v].requestId != 0) {
+                finish(validOrders[v], validCodes[v]);
+            }
+        }
+        if (deferred) {
+            // the claims of this batch are finished, so waiting for the other copies is safe now
+            for (int i = 0; i < batchSize; i++) {
+                if (batchCodes[i] == DedupCache.IN_PROGRESS) {
+                    batchCodes[i] = process(batch[i]);
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,113 @@
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Benchmark of {@link OrderParser} against the original split-based parsing path.
+ * Before timing, it checks that both paths agree on a set of valid and malformed lines.
+ * Then it reports nanoseconds and bytes allocated per parsed line.
+ * <p>Usage: {@code java ParserBenchmark [iterations]}</p>
+ */
+public class ParserBenchmark {
+    private static final String[] LINES = {
+            "Acme Ltd,12345,1,5",
+            "  Acme Ltd , 12345 , 2 , 17 ",
+            "Shades,54321,3,1000",
+            "Bad,123,1,1",
+            "Bad,12345,1,0",
+            "Bad,12345,1,-4",
+            "Bad,12x45,1,1",
+            "Missing,12345,1",
+            "Extra,12345,1,1, ,ignored",
+            "Retry,12345,1,1,9876543210",
+            ",12345,1,1",
+            "Big,12345,1,99999999999",
+            "Sign,+12345,+1,+1",
+            "Empty,12345,,1",
+    };
+
+    /**
+     * The original parsing path from ClientHandler.
+     */
+    private static int splitParse(String line, Order order) {
+        String[] data = line.split(",");
+        if (data.length < 4) {
+            return 200;
+        }
+        try {
+            String name = data[0].trim();
+            int id = Integer.parseInt(data[1].trim());
+            int itemType = Integer.parseInt(data[2].trim());
+            int quantity = Integer.parseInt(data[3].trim());
+            if (id < 10000 || id > 99999) {
+                return 200;
+            }
+            if (quantity <= 0) {
+                return 202;
+            }
+            order.set(name, id, itemType, quantity);
+            return 0;
+        } catch (NumberFormatException e) {
+            return 200;
+        }
+    }
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        ClientRegistry registry = new ClientRegistry(16);
+        registry.processOrder("Acme Ltd", 12345, 1, 1);
+        registry.processOrder("Shades", 54321, 1, 1);
+        OrderParser parser = new OrderParser(registry);
+
+        char[][] chars = new char[LINES.length][];
+        Order expected = new Order();
+        Order actual = new Order();
+        for (int i = 0; i < LINES.length; i++) {
+            chars[i] = LINES[i].toCharArray();
+            int a = splitParse(LINES[i], expected);
+            int b = parser.parse(chars[i], 0, chars[i].length, actual);
+            boolean same = a == b && (a != 0 || (expected.name.equals(actual.name) && expected.id == actual.id
+                    && expected.itemType == actual.itemType && expected.quantity == actual.quantity));
+            if (!same) {
+                throw new IllegalStateException("Parsers disagree on: " + LINES[i] + " (" + a + " vs " + b + ")");
+            }
+        }
+
+        // hot paths only see valid lines with known names
+        String[] hot = {LINES[0], LINES[1], LINES[2]};
+        char[][] hotChars = {chars[0], chars[1], chars[2]};
+        Random random = new Random(42);
+        int[] picks = new int[1024];
+        for (int i = 0; i < picks.length; i++) {
+            picks[i] = random.nextInt(hot.length);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+            long bytes = allocatedBytes();
+            long begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                sink += splitParse(hot[picks[i & 1023]], actual) + actual.quantity;
+            }
+            report("split ", iterations, System.nanoTime() - begin, allocatedBytes() - bytes, sink);
+
+            sink = 0;
+            bytes = allocatedBytes();
+            begin = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                char[] line = hotChars[picks[i & 1023]];
+                sink += parser.parse(line, 0, line.length, actual) + actual.quantity;
+            }
+            report("parser", iterations, System.nanoTime() - begin, allocatedBytes() - bytes, sink);
+        }
+    }
+
+    private static void report(String label, int iterations, long nanos, long bytes, long sink) {
+        System.out.printf("%s %6.1f ns/line %7.1f bytes/line (checksum %d)%n",
+                label, (double) nanos / iterations, (double) bytes / iterations, sink);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,89 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Contention benchmark comparing the original {@code static synchronized}
+ * linear-scan order path against {@link ClientRegistry}.
+ * Every thread hammers random IDs from a pre-populated set of businesses.
+ * <p>Usage: {@code java RegistryBenchmark [businesses] [threads] [ordersPerThread]}</p>
+ */
+public class RegistryBenchmark {
+    /** The original list-backed database, kept here only as a baseline. */
+    private static final List<BusinessClient> legacyDatabase = new ArrayList<>();
+
+    /**
+     * The original order path: one class-wide lock and a scan over every client.
+     */
+    private static synchronized int legacyProcessOrder(String name, int id, int itemType, int quantity) {
+        for (int i = 0; i < legacyDatabase.size(); i++) {
+            BusinessClient client = legacyDatabase.get(i);
+            if (client.getBusinessId() == id) {
+                if (!client.getName().equals(name)) {
+                    return 201;
+                }
+                client.updateItems(itemType, quantity);
+                return 100;
+            }
+        }
+        BusinessClient newClient = new BusinessClient(name, id);
+        newClient.updateItems(itemType, quantity);
+        legacyDatabase.add(newClient);
+        return 100;
+    }
+
+    /** A single order operation under test. */
+    private interface OrderPath {
+        int process(String name, int id, int itemType, int quantity);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int businesses = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int ordersPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        String[] names = new String[businesses];
+        for (int i = 0; i < businesses; i++) {
+            names[i] = "Business" + i;
+        }
+        ClientRegistry registry = new ClientRegistry(businesses);
+        for (int i = 0; i < businesses; i++) {
+            legacyProcessOrder(names[i], i, 1, 1);
+            registry.processOrder(names[i], i, 1, 1);
+        }
+
+        System.out.println("businesses=" + businesses + " threads=" + threads + " ordersPerThread=" + ordersPerThread);
+        for (int round = 0; round < 3; round++) {
+            run("legacy  ", RegistryBenchmark::legacyProcessOrder, names, threads, ordersPerThread);
+            run("registry", registry::processOrder, names, threads, ordersPerThread);
+        }
+    }
+
+    private static void run(String label, OrderPath path, String[] names, int threads, int ordersPerThread)
+            throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < ordersPerThread; i++) {
+                    int id = random.nextInt(names.length);
+                    path.process(names[id], id, 1 + random.nextInt(3), 1);
+                }
+                done.countDown();
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = System.nanoTime() - begin;
+        long orders = (long) threads * ordersPerThread;
+        System.out.printf("%s %10.0f orders/s (%d ms)%n", label, orders * 1e9 / elapsed, elapsed / 1_000_000);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,215 @@
+import java.awt.AWTException;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Graphics2D;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JFrame;
+
+/**
+ * The RenderLoop class drives a {@link MyAnim} from a dedicated thread with active rendering,
+ * instead of a Swing Timer and repaint requests on the event thread.
+ * * <p>The simulation and the drawing are decoupled: every frame, the loop runs as many
+ * {@link MyAnim#step()} calls as the time since the last frame covers, in fixed steps of
+ * {@link MyAnim#STEP_MILLIS}, so the animation moves at the same speed whatever the frame rate
+ * and however late a frame is. If a frame is so late that more than {@link #MAX_STEPS_PER_FRAME}
+ * steps are due, the rest are skipped rather than letting the loop fall further behind.</p>
+ * * <p>In a window, frames are drawn into the back buffer of a two-buffer BufferStrategy on a
+ * heavyweight canvas, accelerated VolatileImages with page flipping where the platform offers
+ * them, and shown in one operation; nothing is painted by Swing. Headless, the same loop draws
+ * into an offscreen image as fast as it can, for benchmarking.</p>
+ */
+class RenderLoop {
+    /** Frame rate the window mode aims for. */
+    static final int DEFAULT_FPS = 60;
+    /** Most simulation steps run for one frame; further due steps are skipped. */
+    private static final int MAX_STEPS_PER_FRAME = 8;
+    private static final long STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(MyAnim.STEP_MILLIS);
+    /** Time between frame statistics printed while the window is open. */
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final MyAnim animation;
+    private final long frameNanos;
+    private final FrameStats stats;
+    private volatile boolean running = true;
+
+    // only used by the render thread
+    /** Simulated time due but not stepped yet. */
+    private long lag;
+    private long steps;
+    private long skippedSteps;
+
+    /**
+     * Constructs a render loop.
+     * @param animation The animation to step and draw; its own timer must not be running.
+     * @param fps       Target frame rate.
+     */
+    RenderLoop(MyAnim animation, int fps) {
+        if (fps < 1) {
+            throw new IllegalArgumentException("fps must be at least 1");
+        }
+        this.animation = animation;
+        this.frameNanos = FrameStats.budget(fps);
+        this.stats = new FrameStats(frameNanos);
+    }
+
+    /**
+     * Opens a window and starts the render thread. The thread prints the frame statistics
+     * every few seconds, and once more before the process exits when the window is closed.
+     * @param title  Window title.
+     * @param width  Window width.
+     * @param height Window height.
+     */
+    void showWindow(String title, int width, int height) {
+        JFrame frame = new JFrame(title);
+        Canvas canvas = new Canvas();
+        canvas.setIgnoreRepaint(true);
+        frame.setIgnoreRepaint(true);
+        frame.add(canvas);
+        frame.setSize(width, height);
+        frame.setResizable(false);
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                running = false;
+            }
+        });
+        frame.setVisible(true);
+        try {
+            canvas.createBufferStrategy(2, new BufferCapabilities(new ImageCapabilities(true),
+                    new ImageCapabilities(true), BufferCapabilities.FlipContents.UNDEFINED));
+        } catch (AWTException e) {
+            // no accelerated page flipping here; AWT picks the best strategy it has
+            canvas.createBufferStrategy(2);
+        }
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        System.out.println("Rendering with " + (strategy.getCapabilities().isPageFlipping() ? "page flipping" : "blitting")
+                + " at " + (TimeUnit.SECONDS.toNanos(1) / frameNanos) + " fps, stepping every " + MyAnim.STEP_MILLIS + " ms");
+        Thread thread = new Thread(() -> {
+            runWindowed(canvas, strategy);
+            System.out.println(report());
+            frame.dispose();
+            System.exit(0);
+        }, "render");
+        thread.start();
+    }
+
+    /**
+     * Runs the loop until the window is closed.
+     */
+    private void runWindowed(Canvas canvas, BufferStrategy strategy) {
+        long previous = System.nanoTime();
+        long deadline = previous;
+        long nextReport = previous + REPORT_INTERVAL_NANOS;
+        boolean first = true;
+        while (running) {
+            long now = System.nanoTime();
+            if (!first) {
+                stats.record(now - previous);
+                advance(now - previous);
+            }
+            first = false;
+            previous = now;
+            do {
+                do {
+                    Graphics2D g = (Graphics2D) strategy.getDrawGraphics();
+                    try {
+                        animation.render(g, canvas.getWidth(), canvas.getHeight());
+                    } finally {
+                        g.dispose();
+                    }
+                } while (strategy.contentsRestored());
+                strategy.show();
+            } while (strategy.contentsLost());
+            Toolkit.getDefaultToolkit().sync();
+
+            if (now - nextReport >= 0) {
+                System.out.println(report());
+                nextReport = now + REPORT_INTERVAL_NANOS;
+            }
+            deadline += frameNanos;
+            long wait = deadline - System.nanoTime();
+            if (wait < -frameNanos) {
+                // more than a frame late: start a new schedule instead of rushing frames out to catch up
+                deadline = System.nanoTime();
+            } else if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+    }
+
+    /**
+     * Steps and draws {@code frames} frames into an offscreen image, as if each frame came
+     * exactly one frame interval after the previous one, and prints the statistics.
+     * The recorded frame times are the time spent stepping and drawing, so the reported
+     * frame rate is the highest this machine could sustain.
+     * @param width  Image width.
+     * @param height Image height.
+     * @param frames Number of frames to draw.
+     */
+    void runHeadless(int width, int height, int frames) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        long checksum = 0;
+        try {
+            for (int i = 0; i < frames; i++) {
+                long start = System.nanoTime();
+                advance(frameNanos);
+                animation.render(g, width, height);
+                stats.record(System.nanoTime() - start);
+                checksum += image.getRGB(width / 2, height / 2);
+            }
+        } finally {
+            g.dispose();
+        }
+        System.out.println(report() + " (checksum " + checksum + ")");
+    }
+
+    /**
+     * Runs the simulation steps that {@code elapsed} more nanoseconds make due.
+     * Called by the render thread only.
+     * @param elapsed Time since the previous frame.
+     */
+    void advance(long elapsed) {
+        lag += elapsed;
+        int run = 0;
+        while (lag >= STEP_NANOS) {
+            if (run == MAX_STEPS_PER_FRAME) {
+                skippedSteps += lag / STEP_NANOS;
+                lag %= STEP_NANOS;
+                break;
+            }
+            animation.step();
+            lag -= STEP_NANOS;
+            run++;
+        }
+        steps += run;
+    }
+
+    /**
+     * Returns the number of simulation steps run so far.
+     * @return The steps run.
+     */
+    long getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns the number of simulation steps skipped because frames were too late.
+     * @return The steps skipped.
+     */
+    long getSkippedSteps() {
+        return skippedSteps;
+    }
+
+    private String report() {
+        return stats.format() + " steps=" + steps + " skipped_steps=" + skippedSteps;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,205 @@
+/**
+ * The ServerConfig class holds the startup options of the {@link CentralServer}.
+ * Options are given on the command line as {@code --name=value}.
+ * * <p>Supported options:</p>
+ * <ul>
+ *   <li>{@code --mode=thread|nio|virtual} - server engine (default: thread).</li>
+ *   <li>{@code --port=N} - listening port (default: 9999).</li>
+ *   <li>{@code --backlog=N} - accept queue length of the server socket (default: 50).</li>
+ *   <li>{@code --io-threads=N} - selector threads in nio mode.</li>
+ *   <li>{@code --max-connections=N} - open connections before new ones are shed (default: 10000).</li>
+ *   <li>{@code --max-concurrency=N} - handlers running at once, in virtual mode.</li>
+ *   <li>{@code --max-in-flight=N} - orders applied at once before new ones are answered as busy (default: 10000).</li>
+ *   <li>{@code --rate-limit=N} - orders per second allowed per connection, 0 for no limit (default: 20000).</li>
+ *   <li>{@code --rate-burst=N} - orders a connection may send at once above its rate (default: 20000).</li>
+ *   <li>{@code --idle-timeout=SECONDS} - close connections without input for that long, 0 for never (default: 300).</li>
+ *   <li>{@code --feed-window=MS} - time over which changes are coalesced for SUBSCRIBE, at least 100 (default: 250).</li>
+ *   <li>{@code --feed-queue=N} - frames a subscriber may fall behind before it gets a fresh snapshot (default: 16).</li>
+ *   <li>{@code --shutdown-timeout=SECONDS} - time connections get to drain on shutdown before they are closed (default: 10).</li>
+ *   <li>{@code --journal-dir=PATH} - keep an order journal there and recover from it on startup (default: off).</li>
+ *   <li>{@code --compact-interval=SECONDS} - time between journal compactions (default: 300).</li>
+ *   <li>{@code --shard-map=PATH} - run as one shard of the deployment described there, see {@link ShardMap} (default: off).</li>
+ *   <li>{@code --shard-id=ID} - which shard of the map this process is; required with {@code --shard-map}.</li>
+ *   <li>{@code --shard-routing=forward|redirect} - what to do with orders for other shards (default: forward).</li>
+ *   <li>{@code --dedup-capacity=N} - request IDs remembered to recognize resent orders (default: 100000).</li>
+ *   <li>{@code --dedup-ttl=SECONDS} - how long a request ID is remembered (default: 300).</li>
+ * </ul>
+ * <p>The limits of {@link AdmissionControl} can also be changed at runtime through JMX.</p>
+ */
+class ServerConfig {
+    /** The available server engines. */
+    enum Mode {
+        /** One platform thread per connection running a {@link ClientHandler}. */
+        THREAD,
+        /** A few selector threads multiplexing non-blocking channels, see {@link NioServer}. */
+        NIO,
+        /** One virtual thread per connection, bounded by a {@link HandlerExecutor}. */
+        VIRTUAL
+    }
+
+    /** Default of {@link #dedupCapacity}. */
+    static final int DEFAULT_DEDUP_CAPACITY = 100000;
+    /** Default of {@link #dedupTtl}. */
+    static final int DEFAULT_DEDUP_TTL = 300;
+
+    /** The server engine. */
+    Mode mode = Mode.THREAD;
+    /** The port number on which the server listens for connections. */
+    int port = 9999;
+    /** Accept queue length of the server socket. */
+    int backlog = 50;
+    /** Number of selector threads used in {@link Mode#NIO}. */
+    int ioThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    /** Open connections allowed before new ones are shed. */
+    int maxConnections = 10000;
+    /** Handlers allowed to run at the same time in {@link Mode#VIRTUAL}. */
+    int maxConcurrency = 1000;
+    /** Orders applied at the same time before new ones are answered with {@link OrderSession#BUSY}. */
+    int maxInFlight = 10000;
+    /** Orders per second allowed on one connection, or 0 for no limit. */
+    int rateLimit = 20000;
+    /** Orders a connection may send at once above its rate. */
+    int rateBurst = 20000;
+    /** Seconds without input after which a connection is closed, or 0 to keep it forever. */
+    int idleTimeout = 300;
+    /** Milliseconds over which the {@link ChangeFeed} coalesces changes. */
+    int feedWindow = 250;
+    /** Frames a {@link ChangeFeed} subscriber may fall behind. */
+    int feedQueue = 16;
+    /** Seconds connections get to drain on shutdown, see {@link ShutdownCoordinator}. */
+    int shutdownTimeout = 10;
+    /** Directory of the order journal, or {@code null} to keep the database only in memory. */
+    String journalDir;
+    /** Seconds between journal compactions. */
+    int compactInterval = 300;
+    /** Shard map file, or {@code null} to own every business ID. */
+    String shardMap;
+    /** ID of this process's shard in {@link #shardMap}. */
+    String shardId;
+    /** Whether orders for other shards are forwarded rather than redirected. */
+    boolean shardForwarding = true;
+    /** Largest number of request IDs kept by the {@link DedupCache}. */
+    int dedupCapacity = DEFAULT_DEDUP_CAPACITY;
+    /** Seconds a request ID is kept by the {@link DedupCache}. */
+    int dedupTtl = DEFAULT_DEDUP_TTL;
+
+    /**
+     * Parses the command line into a configuration.
+     * @param args Command line arguments in the form {@code --name=value}.
+     * @return     The parsed configuration.
+     * @throws IllegalArgumentException If an option is unknown or has an invalid value.
+     */
+    static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            config.set(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        if ((config.shardMap == null) != (config.shardId == null)) {
+            throw new IllegalArgumentException("--shard-map and --shard-id must be given together");
+        }
+        return config;
+    }
+
+    /**
+     * Applies one option.
+     * @param name  The option name without the leading dashes.
+     * @param value The option value.
+     */
+    private void set(String name, String value) {
+        switch (name) {
+            case "mode":
+                try {
+                    mode = Mode.valueOf(value.toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown mode: " + value);
+                }
+                break;
+            case "port":
+                port = parseInt(name, value, 0);
+                break;
+            case "backlog":
+                backlog = parseInt(name, value, 1);
+                break;
+            case "io-threads":
+                ioThreads = parseInt(name, value, 1);
+                break;
+            case "max-connections":
+                maxConnections = parseInt(name, value, 1);
+                break;
+            case "max-concurrency":
+                maxConcurrency = parseInt(name, value, 1);
+                break;
+            case "max-in-flight":
+                maxInFlight = parseInt(name, value, 1);
+                break;
+            case "rate-limit":
+                rateLimit = parseInt(name, value, 0);
+                break;
+            case "rate-burst":
+                rateBurst = parseInt(name, value, 1);
+                break;
+            case "idle-timeout":
+                idleTimeout = parseInt(name, value, 0);
+                break;
+            case "feed-window":
+                feedWindow = parseInt(name, value, 100);
+                break;
+            case "feed-queue":
+                feedQueue = parseInt(name, value, 2);
+                break;
+            case "shutdown-timeout":
+                shutdownTimeout = parseInt(name, value, 0);
+                break;
+            case "journal-dir":
+                journalDir = value;
+                break;
+            case "compact-interval":
+                compactInterval = parseInt(name, value, 1);
+                break;
+            case "shard-map":
+                shardMap = value;
+                break;
+            case "shard-id":
+                shardId = value;
+                break;
+            case "shard-routing":
+                if (!value.equals("forward") && !value.equals("redirect")) {
+                    throw new IllegalArgumentException("Unknown shard routing: " + value);
+                }
+                shardForwarding = value.equals("forward");
+                break;
+            case "dedup-capacity":
+                dedupCapacity = parseInt(name, value, 1);
+                break;
+            case "dedup-ttl":
+                dedupTtl = parseInt(name, value, 1);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    /**
+     * Parses an integer option.
+     * @param name  The option name, for error messages.
+     * @param value The option value.
+     * @param min   The smallest accepted value.
+     * @return      The parsed value.
+     */
+    private static int parseInt(String name, String value, int min) {
+        int parsed;
+        try {
+            parsed = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("--" + name + " must be a number: " + value);
+        }
+        if (parsed < min) {
+            throw new IllegalArgumentException("--" + name + " must be at least " + min);
+        }
+        return parsed;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,225 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * The ServerMetrics class collects the server's counters and latency histograms.
+ * The order path only performs {@link LongAdder} and striped histogram increments,
+ * never a shared lock. The values are exposed through the {@code STATS} protocol
+ * command and over JMX as {@code OrderServer:type=ServerMetrics}.
+ */
+public class ServerMetrics implements ServerMetricsMBean {
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder orders = new LongAdder();
+    private final LongAdder responses100 = new LongAdder();
+    private final LongAdder responses200 = new LongAdder();
+    private final LongAdder responses201 = new LongAdder();
+    private final LongAdder responses202 = new LongAdder();
+    private final LongAdder responsesOther = new LongAdder();
+    private final LongAdder replays = new LongAdder();
+    private final LatencyHistogram parseTime = new LatencyHistogram();
+    private final LatencyHistogram storeTime = new LatencyHistogram();
+    private final LatencyHistogram endToEnd = new LatencyHistogram();
+
+    /** Orders counted at the start of the current second, updated by the sampler thread. */
+    private volatile long lastSampleOrders;
+    /** Orders handled during the last full second. */
+    private volatile long ordersPerSecond;
+
+    /**
+     * Starts the once-a-second sampler that computes the order rate,
+     * and registers the metrics with the platform MBean server.
+     */
+    public void start() {
+        Thread sampler = new Thread(() -> {
+            while (true) {
+                try {
+                    TimeUnit.SECONDS.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long now = orders.sum();
+                ordersPerSecond = now - lastSampleOrders;
+                lastSampleOrders = now;
+            }
+        }, "metrics-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(this, new ObjectName("OrderServer:type=ServerMetrics"));
+        } catch (JMException e) {
+            System.err.println("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    /** Counts a newly opened connection. */
+    public void connectionOpened() {
+        activeConnections.increment();
+    }
+
+    /** Counts a closed connection. */
+    public void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Records one handled order line and its response code.
+     * @param code The response code sent for it.
+     */
+    public void orderHandled(int code) {
+        orders.increment();
+        switch (code) {
+            case 100:
+                responses100.increment();
+                break;
+            case 200:
+                responses200.increment();
+                break;
+            case 201:
+                responses201.increment();
+                break;
+            case 202:
+                responses202.increment();
+                break;
+            default:
+                responsesOther.increment();
+        }
+    }
+
+    /** Counts a resent order answered from the {@link DedupCache} instead of being applied again. */
+    public void orderReplayed() {
+        replays.increment();
+    }
+
+    /**
+     * Records the time spent parsing one line.
+     * @param nanos Duration in nanoseconds.
+     */
+    public void recordParse(long nanos) {
+        parseTime.record(nanos);
+    }
+
+    /**
+     * Records the time spent in the client database for one order or batch.
+     * @param nanos Duration in nanoseconds.
+     */
+    public void recordStore(long nanos) {
+        storeTime.record(nanos);
+    }
+
+    /**
+     * Records the time from receiving a line to having its response ready.
+     * @param nanos Duration in nanoseconds.
+     */
+    public void recordEndToEnd(long nanos) {
+        endToEnd.record(nanos);
+    }
+
+    /**
+     * Formats all metrics as a single line of {@code key=value} pairs, for the STATS command.
+     * @return The formatted metrics.
+     */
+    public String format() {
+        LatencyHistogram.Snapshot parse = parseTime.snapshot();
+        LatencyHistogram.Snapshot store = storeTime.snapshot();
+        LatencyHistogram.Snapshot total = endToEnd.snapshot();
+        return "connections=" + getActiveConnections()
+                + " orders=" + getOrdersTotal()
+                + " orders_per_sec=" + getOrdersPerSecond()
+                + " r100=" + getResponses100()
+                + " r200=" + getResponses200()
+                + " r201=" + getResponses201()
+                + " r202=" + getResponses202()
+                + " r_other=" + responsesOther.sum()
+                + " replays=" + getReplays()
+                + " parse_p50_us=" + micros(parse.percentile(50))
+                + " parse_p99_us=" + micros(parse.percentile(99))
+                + " store_p50_us=" + micros(store.percentile(50))
+                + " store_p99_us=" + micros(store.percentile(99))
+                + " e2e_p50_us=" + micros(total.percentile(50))
+                + " e2e_p99_us=" + micros(total.percentile(99))
+                + " e2e_p999_us=" + micros(total.percentile(99.9));
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    @Override
+    public long getOrdersTotal() {
+        return orders.sum();
+    }
+
+    @Override
+    public long getOrdersPerSecond() {
+        return ordersPerSecond;
+    }
+
+    @Override
+    public long getResponses100() {
+        return responses100.sum();
+    }
+
+    @Override
+    public long getResponses200() {
+        return responses200.sum();
+    }
+
+    @Override
+    public long getResponses201() {
+        return responses201.sum();
+    }
+
+    @Override
+    public long getResponses202() {
+        return responses202.sum();
+    }
+
+    @Override
+    public long getReplays() {
+        return replays.sum();
+    }
+
+    @Override
+    public long getParseP50Micros() {
+        return micros(parseTime.snapshot().percentile(50));
+    }
+
+    @Override
+    public long getParseP99Micros() {
+        return micros(parseTime.snapshot().percentile(99));
+    }
+
+    @Override
+    public long getStoreP50Micros() {
+        return micros(storeTime.snapshot().percentile(50));
+    }
+
+    @Override
+    public long getStoreP99Micros() {
+        return micros(storeTime.snapshot().percentile(99));
+    }
+
+    @Override
+    public long getEndToEndP50Micros() {
+        return micros(endToEnd.snapshot().percentile(50));
+    }
+
+    @Override
+    public long getEndToEndP99Micros() {
+        return micros(endToEnd.snapshot().percentile(99));
+    }
+
+    @Override
+    public long getEndToEndP999Micros() {
+        return micros(endToEnd.snapshot().percentile(99.9));
+    }
+}
\ No newline at end of file
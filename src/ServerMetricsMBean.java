@@ -0,0 +1,50 @@
+/**
+ * JMX view of {@link ServerMetrics}.
+ * Latencies are reported in microseconds.
+ */
+public interface ServerMetricsMBean {
+    /** @return Connections currently open. */
+    long getActiveConnections();
+
+    /** @return Order lines handled since startup, valid or not. */
+    long getOrdersTotal();
+
+    /** @return Order lines handled during the last full second. */
+    long getOrdersPerSecond();
+
+    /** @return Responses with code 100. */
+    long getResponses100();
+
+    /** @return Responses with code 200. */
+    long getResponses200();
+
+    /** @return Responses with code 201. */
+    long getResponses201();
+
+    /** @return Responses with code 202. */
+    long getResponses202();
+
+    /** @return Resent orders answered with their original code instead of being applied again. */
+    long getReplays();
+
+    /** @return Median time to parse an order line. */
+    long getParseP50Micros();
+
+    /** @return 99th percentile time to parse an order line. */
+    long getParseP99Micros();
+
+    /** @return Median time spent in the client database, including any journal wait. */
+    long getStoreP50Micros();
+
+    /** @return 99th percentile time spent in the client database. */
+    long getStoreP99Micros();
+
+    /** @return Median time from receiving a line to having its response ready. */
+    long getEndToEndP50Micros();
+
+    /** @return 99th percentile end-to-end time. */
+    long getEndToEndP99Micros();
+
+    /** @return 99.9th percentile end-to-end time. */
+    long getEndToEndP999Micros();
+}
\ No newline at end of file
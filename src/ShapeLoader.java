@@ -0,0 +1,385 @@
+import java.awt.Polygon;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ShapeLoader class loads letter outlines from text files with one {@code x,y} point per line.
+ * * <p>The text is read through a {@link FileChannel} in blocks and parsed byte by byte straight
+ * into int arrays, without a Scanner, Strings or {@link Integer#parseInt}. Spaces and tabs
+ * around the numbers and blank lines are allowed; anything else that is not a valid point,
+ * including a number outside the int range, fails the load with an {@link IOException} that
+ * names the file, line and column.</p>
+ * * <p>After parsing, the points are also written to a binary cache file, which later loads map
+ * instead of parsing the text again. A cache file is only used while the text file keeps the
+ * size and modification time recorded in it; its header is read and checked first, and only
+ * the points of a matching file are mapped. Outlines already loaded are kept in memory and
+ * shared by all callers, so loading the same file again costs one file status check.</p>
+ * * <p>A mapping stays open until it is garbage collected. If the text changes within the same
+ * process, some platforms refuse to replace a cache file that is still mapped; the load then
+ * succeeds anyway and the cache is rewritten by a later run.</p>
+ * * <p>Cache file layout (big-endian):</p>
+ * <ul>
+ *   <li>header: {@code int magic, int version, long sourceSize, long sourceModified, int points, int pathLength}</li>
+ *   <li>the absolute path of the text file, UTF-8</li>
+ *   <li>{@code int[points]} X coordinates, then {@code int[points]} Y coordinates</li>
+ * </ul>
+ */
+class ShapeLoader {
+    private static final int MAGIC = 0x4F534850; // "OSHP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    /** Largest number of points allocated up front from the file size; larger outlines grow. */
+    private static final int MAX_INITIAL_POINTS = 1 << 20;
+
+    // parser states
+    private static final int LINE = 0, X_SIGN = 1, X = 2, AFTER_X = 3, BEFORE_Y = 4, Y_SIGN = 5, Y = 6, AFTER_Y = 7;
+
+    private static final ShapeLoader SHARED =
+            new ShapeLoader(Paths.get(System.getProperty("user.home"), ".cache", "shape-cache"));
+
+    private final Path cacheDir;
+    private final ConcurrentHashMap<Path, Outline> loaded = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a loader with an empty memory cache.
+     * @param cacheDir Directory for binary cache files, created when first needed,
+     *                 or {@code null} to always parse the text.
+     */
+    ShapeLoader(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Returns the loader shared by the whole process, which keeps its cache files in
+     * {@code .cache/shape-cache} under the user's home directory. Unlike the shared temporary
+     * directory, no other user can plant cache files there.
+     * @return The shared loader.
+     */
+    static ShapeLoader shared() {
+        return SHARED;
+    }
+
+    /**
+     * Loads an outline: from memory if it was loaded before and the file has not changed since,
+     * otherwise from the binary cache if it is up to date, otherwise by parsing the text.
+     * Safe to call from several threads.
+     * @param file The text file.
+     * @return     The outline; shared with other callers, so it must not be modified.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    public Outline load(Path file) throws IOException {
+        Path source = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new NoSuchFileException(source.toString(), null, "no such file");
+        }
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Outline outline = loaded.get(source);
+        if (outline != null && outline.size == size && outline.modified == modified) {
+            return outline;
+        }
+        Path cache = cacheDir == null ? null : cacheDir.resolve(
+                Integer.toHexString(source.toString().hashCode()) + "-" + source.getFileName() + ".shape");
+        outline = cache == null ? null : readCache(cache, source, size, modified);
+        if (outline == null) {
+            outline = parse(source, size, modified);
+            if (cache != null) {
+                try {
+                    writeCache(cache, source, outline);
+                } catch (IOException e) {
+                    System.err.println("Could not cache " + source + ": " + e.getMessage());
+                }
+            }
+        }
+        loaded.put(source, outline);
+        return outline;
+    }
+
+    /**
+     * Parses a text file, bypassing both caches.
+     * @param file The text file.
+     * @return     The outline.
+     * @throws IOException If the file cannot be read or is malformed.
+     */
+    static Outline parse(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return parse(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    private static Outline parse(Path file, long size, long modified) throws IOException {
+        int capacity = (int) Math.min(MAX_INITIAL_POINTS, size / 6 + 16);
+        int[] xs = new int[capacity];
+        int[] ys = new int[capacity];
+        int points = 0;
+        int state = LINE;
+        boolean negative = false;
+        long value = 0;
+        int x = 0;
+        int line = 1;
+        int column = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            byte[] bytes = buf.array();
+            while (channel.read(buf) >= 0) {
+                int end = buf.position();
+                for (int i = 0; i < end; i++) {
+                    int b = bytes[i];
+                    column++;
+                    boolean blank = b == ' ' || b == '\t' || b == '\r';
+                    int digit = b - '0';
+                    boolean isDigit = digit >= 0 && digit <= 9;
+                    switch (state) {
+                        case LINE:
+                        case BEFORE_Y:
+                            if (isDigit) {
+                                negative = false;
+                                value = digit;
+                                state = state == LINE ? X : Y;
+                            } else if (b == '-' || b == '+') {
+                                negative = b == '-';
+                                value = 0;
+                                state = state == LINE ? X_SIGN : Y_SIGN;
+                            } else if (!blank && !(b == '\n' && state == LINE)) {
+                                throw malformed(file, line, column, "a number", b);
+                            }
+                            break;
+                        case X_SIGN:
+                        case Y_SIGN:
+                            if (!isDigit) {
+                                throw malformed(file, line, column, "a digit", b);
+                            }
+                            value = digit;
+                            state = state == X_SIGN ? X : Y;
+                            break;
+                        case X:
+                        case Y:
+                            if (isDigit) {
+                                value = value * 10 + digit;
+                                if (value > 1L << 31) {
+                                    throw new IOException(file + ":" + line + ":" + column + ": number out of range");
+                                }
+                                break;
+                            }
+                            int number = toInt(file, line, column, negative, value);
+                            if (state == X) {
+                                x = number;
+                                state = b == ',' ? BEFORE_Y : AFTER_X;
+                                if (!blank && b != ',') {
+                                    throw malformed(file, line, column, "','", b);
+                                }
+                                break;
+                            }
+                            if (points == xs.length) {
+                                xs = Arrays.copyOf(xs, points * 2);
+                                ys = Arrays.copyOf(ys, points * 2);
+                            }
+                            xs[points] = x;
+                            ys[points++] = number;
+                            if (b == '\n') {
+                                state = LINE;
+                            } else if (blank) {
+                                state = AFTER_Y;
+                            } else {
+                                throw malformed(file, line, column, "the end of the line", b);
+                            }
+                            break;
+                        case AFTER_X:
+                            if (b == ',') {
+                                state = BEFORE_Y;
+                            } else if (!blank) {
+                                throw malformed(file, line, column, "','", b);
+                            }
+                            break;
+                        default: // AFTER_Y
+                            if (b == '\n') {
+                                state = LINE;
+                            } else if (!blank) {
+                                throw malformed(file, line, column, "the end of the line", b);
+                            }
+                            break;
+                    }
+                    if (b == '\n') {
+                        line++;
+                        column = 0;
+                    }
+                }
+                buf.clear();
+            }
+        }
+        if (state == Y) {
+            // last line without a line break
+            if (points == xs.length) {
+                xs = Arrays.copyOf(xs, points + 1);
+                ys = Arrays.copyOf(ys, points + 1);
+            }
+            xs[points] = x;
+            ys[points++] = toInt(file, line, column, negative, value);
+        } else if (state != LINE && state != AFTER_Y) {
+            throw new IOException(file + ":" + line + ":" + column + ": unexpected end of file");
+        }
+        return new Outline(xs, ys, points, size, modified);
+    }
+
+    private static int toInt(Path file, int line, int column, boolean negative, long value) throws IOException {
+        long number = negative ? -value : value;
+        if (number > Integer.MAX_VALUE) {
+            throw new IOException(file + ":" + line + ":" + column + ": number out of range");
+        }
+        return (int) number;
+    }
+
+    private static IOException malformed(Path file, int line, int column, String expected, int found) {
+        String actual = found == '\n' ? "the end of the line"
+                : found >= 0x20 && found < 0x7F ? "'" + (char) found + "'"
+                : String.format("byte 0x%02X", found & 0xFF);
+        return new IOException(file + ":" + line + ":" + column + ": expected " + expected + " but found " + actual);
+    }
+
+    /**
+     * Reads and checks the header of a cache file, then maps its points and copies them out.
+     * @return The outline, or {@code null} if there is no usable cache file for this version of the text.
+     */
+    private static Outline readCache(Path cache, Path source, long size, long modified) throws IOException {
+        if (!Files.exists(cache)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE || !readFully(channel, header, 0)) {
+                return null;
+            }
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(8) != size || header.getLong(16) != modified) {
+                return null;
+            }
+            int points = header.getInt(24);
+            int pathLength = header.getInt(28);
+            if (points < 0 || pathLength < 0 || length != (long) HEADER_SIZE + pathLength + 8L * points) {
+                return null;
+            }
+            ByteBuffer path = ByteBuffer.allocate(pathLength);
+            if (!readFully(channel, path, HEADER_SIZE)
+                    || !source.toString().equals(new String(path.array(), StandardCharsets.UTF_8))) {
+                // another file whose path has the same hash
+                return null;
+            }
+            int[] xs = new int[points];
+            int[] ys = new int[points];
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + pathLength, 8L * points);
+            IntBuffer ints = buf.asIntBuffer();
+            ints.get(xs).get(ys);
+            return new Outline(xs, ys, points, size, modified);
+        }
+    }
+
+    /**
+     * Reads from a position until the buffer is full.
+     * @return {@code false} if the file ended first.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a cache file to a temporary file and moves it into place, so readers never see
+     * a partial file.
+     */
+    private void writeCache(Path cache, Path source, Outline outline) throws IOException {
+        byte[] path = source.toString().getBytes(StandardCharsets.UTF_8);
+        long length = HEADER_SIZE + path.length + 8L * outline.points;
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Outline too large to cache");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) length);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(outline.size).putLong(outline.modified)
+                .putInt(outline.points).putInt(path.length).put(path);
+        buf.asIntBuffer().put(outline.xs, 0, outline.points).put(outline.ys, 0, outline.points);
+        buf.clear();
+
+        Files.createDirectories(cacheDir);
+        Path tmp = Files.createTempFile(cacheDir, cache.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) {
+                    out.write(buf);
+                }
+            }
+            Files.move(tmp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * The points of a loaded outline, with the size and modification time of the file they came from.
+     */
+    static final class Outline {
+        private final int[] xs, ys;
+        private final int points;
+        private final long size, modified;
+
+        private Outline(int[] xs, int[] ys, int points, long size, long modified) {
+            this.xs = xs;
+            this.ys = ys;
+            this.points = points;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        /**
+         * Returns the number of points.
+         * @return The count.
+         */
+        int points() {
+            return points;
+        }
+
+        /**
+         * Returns the X coordinate of a point.
+         * @param index The point, from 0.
+         * @return      The coordinate.
+         */
+        int x(int index) {
+            return xs[index];
+        }
+
+        /**
+         * Returns the Y coordinate of a point.
+         * @param index The point, from 0.
+         * @return      The coordinate.
+         */
+        int y(int index) {
+            return ys[index];
+        }
+
+        /**
+         * Builds a polygon from the points.
+         * @return A new polygon with its own copy of the points.
+         */
+        Polygon toPolygon() {
+            return new Polygon(xs, ys, points);
+        }
+    }
+}
\ No newline at end of file
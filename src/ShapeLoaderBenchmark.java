@@ -0,0 +1,112 @@
+import java.awt.Polygon;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Scanner;
+
+/**
+ * Load-time benchmark for {@link ShapeLoader}.
+ * For each size it writes an outline of random points as text, then times, best of several rounds:
+ * the old {@code Scanner} and {@code String.split} loader, the streaming parser alone, a first load
+ * (parse plus writing the binary cache), a load from the mapped cache, and a load served from memory.
+ * The OS page cache is warm after writing, so the numbers exclude disk reads.
+ * <p>Usage: {@code java ShapeLoaderBenchmark [points...]} (default: 1000 100000 1000000)</p>
+ */
+public class ShapeLoaderBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Path dir = Files.createTempDirectory("shape-bench");
+        Path cacheDir = dir.resolve("cache");
+        try {
+            for (int size : sizes) {
+                run(dir.resolve("shape-" + size + ".txt"), cacheDir, size);
+            }
+        } finally {
+            delete(cacheDir);
+            delete(dir);
+        }
+    }
+
+    private static void run(Path file, Path cacheDir, int size) throws IOException {
+        Random random = new Random(size);
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < size; i++) {
+                out.write(random.nextInt(20000) - 10000 + "," + (random.nextInt(20000) - 10000));
+                out.newLine();
+            }
+        }
+
+        long legacy = Long.MAX_VALUE, parse = Long.MAX_VALUE, first = Long.MAX_VALUE;
+        long mapped = Long.MAX_VALUE, memory = Long.MAX_VALUE;
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            checksum += legacyLoad(file).npoints;
+            legacy = Math.min(legacy, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            checksum += ShapeLoader.parse(file).points();
+            parse = Math.min(parse, System.nanoTime() - begin);
+
+            delete(cacheDir);
+            begin = System.nanoTime();
+            checksum += new ShapeLoader(cacheDir).load(file).points();
+            first = Math.min(first, System.nanoTime() - begin);
+
+            ShapeLoader loader = new ShapeLoader(cacheDir);
+            begin = System.nanoTime();
+            checksum += loader.load(file).points();
+            mapped = Math.min(mapped, System.nanoTime() - begin);
+
+            begin = System.nanoTime();
+            checksum += loader.load(file).points();
+            memory = Math.min(memory, System.nanoTime() - begin);
+        }
+
+        System.out.printf("%,9d points: text %,6d KB | Scanner %8.2f ms | parse %7.2f ms (%4.0f MB/s)"
+                        + " | first load %7.2f ms | mapped %7.2f ms | memory %6.3f ms (checksum %d)%n",
+                size, Files.size(file) / 1024, legacy / 1e6, parse / 1e6, Files.size(file) * 1e3 / parse,
+                first / 1e6, mapped / 1e6, memory / 1e6, checksum);
+    }
+
+    /**
+     * The loader {@code MyAnim} used before, for comparison.
+     */
+    private static Polygon legacyLoad(Path file) throws IOException {
+        Polygon p = new Polygon();
+        try (Scanner s = new Scanner(new File(file.toString()))) {
+            while (s.hasNextLine()) {
+                String[] parts = s.nextLine().split(",");
+                p.addPoint(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+            }
+        }
+        return p;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                if (!Files.isDirectory(file)) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.delete(dir);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,186 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The ShardMap class describes which server process owns which business IDs.
+ * It is read from a text file that every process of the deployment shares, one shard per line:
+ * <pre>
+ *   # shard-id  host:port
+ *   east        localhost:9001
+ *   west        localhost:9002
+ * </pre>
+ * IDs are placed on a consistent-hash ring with many points per shard, so shards own
+ * roughly equal parts of the ID space, and adding or removing a shard only moves
+ * the IDs next to its points instead of reshuffling everything.
+ */
+class ShardMap {
+    /** Points each shard gets on the ring. */
+    private static final int POINTS_PER_SHARD = 128;
+
+    private final String[] ids;
+    private final String[] hosts;
+    private final int[] ports;
+    /** Ring positions, ascending. */
+    private final long[] ring;
+    /** Index of the shard owning each ring position. */
+    private final int[] owners;
+
+    private ShardMap(List<String[]> entries) {
+        int count = entries.size();
+        ids = new String[count];
+        hosts = new String[count];
+        ports = new int[count];
+        long[][] points = new long[count * POINTS_PER_SHARD][];
+        for (int s = 0; s < count; s++) {
+            String[] entry = entries.get(s);
+            ids[s] = entry[0];
+            hosts[s] = entry[1];
+            ports[s] = Integer.parseInt(entry[2]);
+            for (int p = 0; p < POINTS_PER_SHARD; p++) {
+                points[s * POINTS_PER_SHARD + p] = new long[] {hash(ids[s] + "#" + p), s};
+            }
+        }
+        Arrays.sort(points, (a, b) -> Long.compare(a[0], b[0]));
+        ring = new long[points.length];
+        owners = new int[points.length];
+        for (int i = 0; i < points.length; i++) {
+            ring[i] = points[i][0];
+            owners[i] = (int) points[i][1];
+        }
+    }
+
+    /**
+     * Reads a shard map file.
+     * @param file The file; blank lines and lines starting with '#' are ignored.
+     * @return     The shard map.
+     * @throws IOException If the file cannot be read.
+     * @throws IllegalArgumentException If a line is malformed, a shard is listed twice, or there are no shards.
+     */
+    static ShardMap load(Path file) throws IOException {
+        List<String[]> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                int colon = fields.length == 2 ? fields[1].lastIndexOf(':') : -1;
+                if (colon <= 0) {
+                    throw new IllegalArgumentException(file + ":" + number + ": expected 'shard-id host:port'");
+                }
+                String port = fields[1].substring(colon + 1);
+                try {
+                    Integer.parseInt(port);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(file + ":" + number + ": bad port: " + port);
+                }
+                for (String[] entry : entries) {
+                    if (entry[0].equals(fields[0])) {
+                        throw new IllegalArgumentException(file + ":" + number + ": duplicate shard " + fields[0]);
+                    }
+                }
+                entries.add(new String[] {fields[0], fields[1].substring(0, colon), port});
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException(file + ": no shards");
+        }
+        return new ShardMap(entries);
+    }
+
+    /**
+     * Returns the shard that owns a business ID.
+     * @param businessId The business ID.
+     * @return           The owning shard's index.
+     */
+    int ownerOf(int businessId) {
+        long point = mix(businessId);
+        int i = Arrays.binarySearch(ring, point);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        // past the last point the ring wraps around to the first
+        return owners[i == ring.length ? 0 : i];
+    }
+
+    /**
+     * Returns the index of a shard.
+     * @param id The shard ID from the file.
+     * @return   Its index, or -1 if the map has no such shard.
+     */
+    int indexOf(String id) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i].equals(id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of shards.
+     * @return The shard count.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Returns a shard's ID as written in the file.
+     */
+    String id(int shard) {
+        return ids[shard];
+    }
+
+    /**
+     * Returns the host a shard listens on.
+     */
+    String host(int shard) {
+        return hosts[shard];
+    }
+
+    /**
+     * Returns the port a shard listens on.
+     */
+    int port(int shard) {
+        return ports[shard];
+    }
+
+    /**
+     * Returns a shard's address as {@code host:port}, as sent in redirects.
+     */
+    String address(int shard) {
+        return hosts[shard] + ":" + ports[shard];
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with {@link #mix}.
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xFF;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * The SplitMix64 finalizer: spreads nearby values across the whole ring.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
\ No newline at end of file
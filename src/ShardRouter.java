@@ -0,0 +1,228 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The ShardRouter class decides, for a server that is one shard of a {@link ShardMap},
+ * whether an order is handled locally or belongs to another shard.
+ * Orders for another shard are either forwarded to its owner, or answered with
+ * {@link OrderSession#REDIRECT} so that the client resends them there itself.
+ * * <p>Forwarding uses a small pool of connections per peer. Each one starts with the
+ * {@code PEER} command, which tells the receiving shard not to forward again: if two
+ * processes disagree about ownership, the order is redirected instead of bouncing
+ * between them.</p>
+ * * <p>A pooled connection may have been closed by the peer since it was last used, by its idle
+ * timeout or a restart, so it is checked for a close before anything is written to it. Once the
+ * order has been written, a failure may come after the peer applied it: the order is then only
+ * sent again on a fresh connection if it has a request ID, whose resend the owner's
+ * {@link DedupCache} answers with the first code. Otherwise, and after a timeout or a garbled
+ * answer, it is reported as unavailable.</p>
+ * * <p>{@link #forward} blocks until the peer answers, so callers must not be I/O threads that serve
+ * other connections; {@link NioServer} hands the input of connections to worker threads when
+ * forwarding is on.</p>
+ */
+class ShardRouter {
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    /** Longest wait for a peer's answer; a forwarded order that times out is reported as unavailable. */
+    private static final int READ_TIMEOUT_MS = 5000;
+    /** Idle connections kept per peer; more are opened under load and closed afterwards. */
+    private static final int MAX_IDLE_PER_PEER = 32;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final ShardMap map;
+    private final int self;
+    private final boolean forwarding;
+    /** Idle connections to each shard, by shard index; the own slot stays empty. */
+    private final ConcurrentLinkedQueue<PeerConnection>[] idle;
+
+    /**
+     * Constructs a new ShardRouter.
+     * @param map        The shard map shared by all processes.
+     * @param self       Index of this process's shard in the map.
+     * @param forwarding {@code true} to forward foreign orders, {@code false} to redirect the client.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ShardRouter(ShardMap map, int self, boolean forwarding) {
+        this.map = map;
+        this.self = self;
+        this.forwarding = forwarding;
+        this.idle = new ConcurrentLinkedQueue[map.size()];
+        for (int i = 0; i < idle.length; i++) {
+            idle[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Returns whether this shard owns a business ID.
+     * @param businessId The business ID.
+     * @return           {@code true} if orders for it are handled here.
+     */
+    public boolean isLocal(int businessId) {
+        return map.ownerOf(businessId) == self;
+    }
+
+    /**
+     * Returns whether foreign orders are forwarded rather than redirected.
+     * @return {@code true} in forwarding mode.
+     */
+    public boolean isForwarding() {
+        return forwarding;
+    }
+
+    /**
+     * Returns the address of the shard owning a business ID, for redirects.
+     * @param businessId The business ID.
+     * @return           The owner's {@code host:port}.
+     */
+    public String ownerAddress(int businessId) {
+        return map.address(map.ownerOf(businessId));
+    }
+
+    /**
+     * Forwards an order to the shard owning its ID and waits for the answer.
+     * The request ID goes along, so the owner also recognizes a resend that reaches it through another shard.
+     * @return The owner's response code, or {@link OrderSession#SHARD_UNAVAILABLE} if it could not be reached.
+     *         In that case the order may or may not have been applied there.
+     */
+    public int forward(String name, int id, int itemType, int quantity, long requestId) {
+        int owner = map.ownerOf(id);
+        String line = name + "," + id + "," + itemType + "," + quantity;
+        if (requestId != 0) {
+            line += "," + requestId;
+        }
+        PeerConnection pooled = idle[owner].poll();
+        while (pooled != null && pooled.closedByPeer()) {
+            pooled.close();
+            pooled = idle[owner].poll();
+        }
+        if (pooled != null) {
+            try {
+                return release(owner, pooled, pooled.send(line));
+            } catch (SocketTimeoutException | ProtocolException e) {
+                // the peer got the order and may have applied it
+                return unavailable(owner, pooled, e);
+            } catch (IOException e) {
+                if (requestId == 0) {
+                    // the order may have reached the peer, and nothing would recognize a second copy
+                    return unavailable(owner, pooled, e);
+                }
+                pooled.close();
+            }
+        }
+        PeerConnection connection = null;
+        try {
+            connection = new PeerConnection(map.host(owner), map.port(owner));
+            return release(owner, connection, connection.send(line));
+        } catch (IOException e) {
+            return unavailable(owner, connection, e);
+        }
+    }
+
+    /**
+     * Puts a connection that just answered back in the pool, or closes it if the pool is full.
+     * @return The answer's code.
+     */
+    private int release(int owner, PeerConnection connection, int code) {
+        if (idle[owner].size() < MAX_IDLE_PER_PEER) {
+            idle[owner].add(connection);
+        } else {
+            connection.close();
+        }
+        return code;
+    }
+
+    /**
+     * Reports a failed forward and closes its connection.
+     * @return {@link OrderSession#SHARD_UNAVAILABLE}.
+     */
+    private int unavailable(int owner, PeerConnection connection, IOException e) {
+        System.err.println("Forwarding to shard " + map.id(owner) + " failed: " + e.getMessage());
+        if (connection != null) {
+            connection.close();
+        }
+        return OrderSession.SHARD_UNAVAILABLE;
+    }
+
+    /**
+     * A blocking text connection to another shard, used by one forwarding thread at a time.
+     */
+    private static final class PeerConnection {
+        private final SocketChannel channel;
+        private final Socket socket;
+        private final OutputStream out;
+        private final BufferedReader in;
+
+        PeerConnection(String host, int port) throws IOException {
+            channel = SocketChannel.open();
+            socket = channel.socket();
+            try {
+                socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(READ_TIMEOUT_MS);
+                out = socket.getOutputStream();
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream(), CHARSET));
+                if (send("PEER") != OrderSession.OK) {
+                    throw new IOException("Peer handshake refused");
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Sends one line and returns the numeric code of the answer.
+         */
+        int send(String line) throws IOException {
+            out.write((line + "\n").getBytes(CHARSET));
+            out.flush();
+            String response = in.readLine();
+            if (response == null) {
+                throw new IOException("Peer closed the connection");
+            }
+            int space = response.indexOf(' ');
+            try {
+                return Integer.parseInt(space < 0 ? response : response.substring(0, space));
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Unexpected answer from peer: " + response);
+            }
+        }
+
+        /**
+         * Returns whether the peer closed the connection or sent something unasked while it was idle,
+         * without waiting. Either way it must not be used.
+         */
+        boolean closedByPeer() {
+            try {
+                if (in.ready()) {
+                    return true;
+                }
+                channel.configureBlocking(false);
+                try {
+                    return channel.read(ByteBuffer.allocate(1)) != 0;
+                } finally {
+                    channel.configureBlocking(true);
+                }
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // nothing left to do
+            }
+        }
+    }
+}
\ No newline at end of file
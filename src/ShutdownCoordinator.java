@@ -0,0 +1,149 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The ShutdownCoordinator class stops the server in a controlled way, so that it can be
+ * restarted or replaced under live load. It runs as a JVM shutdown hook, so SIGTERM, Ctrl-C
+ * and the SHUTDOWN admin command all take the same path:
+ * <ol>
+ *   <li>The listening sockets are closed, so no new connections are accepted.</li>
+ *   <li>Every connection is asked to drain: it finishes the order it is applying, sends the
+ *       responses it owes and closes. Input it has not started on is never applied, so the
+ *       client can safely resend it, ideally with the same request ID, see {@link DedupCache}.</li>
+ *   <li>Connections still open at the deadline are closed forcibly.</li>
+ *   <li>The journal writes everything still buffered and is closed.</li>
+ * </ol>
+ */
+class ShutdownCoordinator {
+    /** Time between checks for connections that have not finished draining. */
+    private static final long POLL_INTERVAL_MS = 20;
+
+    /**
+     * A connection, or a group of connections served by one thread, that can be drained.
+     */
+    interface Drainable {
+        /** Finishes the current order, flushes the responses and closes. Must not block; may be called more than once. */
+        void drain();
+
+        /** Closes at once, whatever is still pending. */
+        void forceClose();
+    }
+
+    private final Set<Closeable> listeners = ConcurrentHashMap.newKeySet();
+    private final Set<Drainable> active = ConcurrentHashMap.newKeySet();
+    private volatile boolean shuttingDown;
+    private volatile int timeoutSeconds = 10;
+    private volatile OrderJournal journal;
+
+    /**
+     * Installs the shutdown hook.
+     * @param timeoutSeconds Time connections get to drain before they are closed forcibly.
+     */
+    public void start(int timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "shutdown"));
+    }
+
+    /**
+     * Returns whether the server is shutting down.
+     * @return {@code true} once a shutdown has started.
+     */
+    public boolean isShuttingDown() {
+        return shuttingDown;
+    }
+
+    /**
+     * Sets the journal to close once the connections are drained.
+     * @param journal The open journal.
+     */
+    public void setJournal(OrderJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Registers a listening socket, which is closed when the shutdown starts.
+     * @param listener The server socket or channel.
+     */
+    public void addListener(Closeable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Registers a connection to drain on shutdown.
+     * If the shutdown has already started, the connection is drained right away.
+     * @param connection The connection.
+     */
+    public void register(Drainable connection) {
+        active.add(connection);
+        if (shuttingDown) {
+            connection.drain();
+        }
+    }
+
+    /**
+     * Forgets a connection that closed.
+     * @param connection The connection passed to {@link #register}.
+     */
+    public void unregister(Drainable connection) {
+        active.remove(connection);
+    }
+
+    /**
+     * Starts a shutdown from a thread of its own and returns at once, for the SHUTDOWN command.
+     * The connection that asked is drained like the others.
+     */
+    public void requestShutdown() {
+        Thread exit = new Thread(() -> System.exit(0), "shutdown-request");
+        exit.setDaemon(true);
+        exit.start();
+    }
+
+    /**
+     * Runs the shutdown. Called by the shutdown hook, and by tests that must not exit the JVM.
+     */
+    void shutdown() {
+        long start = System.nanoTime();
+        shuttingDown = true;
+        for (Closeable listener : listeners) {
+            try {
+                listener.close();
+            } catch (IOException e) {
+                System.err.println("Could not close listener: " + e.getMessage());
+            }
+        }
+        AdmissionControl admission = CentralServer.getAdmissionControl();
+        int open = admission.getConnections();
+        System.out.println("Shutting down, draining " + open + " connections");
+        for (Drainable connection : active) {
+            connection.drain();
+        }
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (admission.getConnections() > 0 && System.nanoTime() < deadline) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(POLL_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        int forced = admission.getConnections();
+        if (forced > 0) {
+            for (Drainable connection : active) {
+                connection.forceClose();
+            }
+        }
+        OrderJournal log = journal;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Journal could not be flushed: " + e.getMessage());
+            }
+        }
+        System.out.println("Shutdown complete: " + Math.max(0, open - forced) + " connections drained, "
+                + forced + " closed at the deadline, in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,78 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Cold-start benchmark for {@link MappedSnapshot}.
+ * For each size it writes a snapshot, then compares two ways of being ready to serve:
+ * mapping the file and answering the first lookups lazily, against building every
+ * {@link BusinessClient} on the heap up front.
+ * The OS page cache is warm after writing, so the mapped numbers exclude disk reads.
+ * <p>Usage: {@code java SnapshotBenchmark [size...]} (default: 10000 100000 1000000)</p>
+ */
+public class SnapshotBenchmark {
+    private static final int LOOKUPS = 1000;
+
+    public static void main(String[] args) throws IOException {
+        int[] sizes = {10_000, 100_000, 1_000_000};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+        Path dir = Files.createTempDirectory("snapshot-bench");
+        try {
+            for (int size : sizes) {
+                run(dir.resolve("snapshot-" + size + ".bin"), size);
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static void run(Path file, int size) throws IOException {
+        int[] ids = new int[size];
+        String[] names = new String[size];
+        long[][] counts = new long[size][];
+        for (int i = 0; i < size; i++) {
+            ids[i] = 10000 + i;
+            names[i] = "Business " + i;
+            counts[i] = new long[] {i, 2L * i, 3L * i};
+        }
+        long begin = System.nanoTime();
+        MappedSnapshot.write(file, ids, names, counts, size, 0);
+        long writeNanos = System.nanoTime() - begin;
+
+        Random random = new Random(size);
+        begin = System.nanoTime();
+        ClientRegistry lazy = new ClientRegistry(16);
+        lazy.setSnapshot(MappedSnapshot.open(file));
+        long openNanos = System.nanoTime() - begin;
+        long checksum = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            checksum += lazy.get(10000 + random.nextInt(size)).getCount(1);
+        }
+        long lazyNanos = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        ClientRegistry eager = new ClientRegistry(size);
+        for (int i = 0; i < snapshot.size(); i++) {
+            eager.restore(snapshot.name(i), snapshot.id(i), snapshot.counts(i));
+        }
+        long eagerNanos = System.nanoTime() - begin;
+
+        System.out.printf("%,9d businesses: file %,6d KB, write %6.1f ms | mapped open %6.3f ms,"
+                        + " +%d lookups %6.2f ms | full load %8.1f ms (checksum %d)%n",
+                size, Files.size(file) / 1024, writeNanos / 1e6, openNanos / 1e6, LOOKUPS,
+                lazyNanos / 1e6, eagerNanos / 1e6, checksum);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,287 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The TotalsIndex class maintains the aggregate reports of the client database:
+ * the total ordered per item type and the top businesses per item type.
+ * Nothing is ever recomputed by scanning the database.
+ * * <p>Writers only add to a {@link LongAdder} per item type and, the first time a business
+ * changes since the last refresh, put it on a lock-free queue. A background thread drains
+ * the queue a few times a second, updates the rankings and publishes an immutable,
+ * versioned {@link View}. Readers just take the current view, so a report never blocks
+ * an order, and repeated reads of one view always agree.</p>
+ * * <p>Totals only grow, because every order adds a positive quantity. A business outside
+ * the top {@link #MAX_TOP} can therefore only get in by growing, which the refresh sees,
+ * so keeping just {@link #MAX_TOP} entries per item type is enough for exact rankings.</p>
+ */
+class TotalsIndex {
+    /** Number of businesses ranked per item type; the largest N a top-N report can show. */
+    public static final int MAX_TOP = 100;
+    /** Time between refreshes; views are at most about this much behind the orders. */
+    private static final long REFRESH_INTERVAL_MS = 100;
+
+    private final LongAdder[] totals = new LongAdder[BusinessClient.ITEM_TYPES];
+    /** Businesses changed since the last refresh, each queued once. */
+    private final ConcurrentLinkedQueue<BusinessClient> changed = new ConcurrentLinkedQueue<>();
+    /** The current top entries per item type, best first. Only used by the refresh thread. */
+    private final TreeSet<Ranked>[] rankings;
+    /** The ranked entry of each business in {@link #rankings}, per item type. */
+    private final Map<Integer, Ranked>[] ranked;
+    private volatile View view;
+    /** Receives every refreshed business, or {@code null}. */
+    private volatile ChangeFeed feed;
+
+    /**
+     * Constructs an empty index.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TotalsIndex() {
+        rankings = new TreeSet[BusinessClient.ITEM_TYPES];
+        ranked = new Map[BusinessClient.ITEM_TYPES];
+        for (int i = 0; i < BusinessClient.ITEM_TYPES; i++) {
+            totals[i] = new LongAdder();
+            rankings[i] = new TreeSet<>();
+            ranked[i] = new HashMap<>();
+        }
+        view = publish(0);
+    }
+
+    /**
+     * Adds a business that already has totals, such as one recovered from disk.
+     * Must be called before {@link #start}.
+     * @param id     The business ID.
+     * @param counts Its totals, indexed by {@code itemType - 1}.
+     */
+    void seed(int id, long[] counts) {
+        for (int i = 0; i < BusinessClient.ITEM_TYPES; i++) {
+            totals[i].add(counts[i]);
+            rank(i, id, counts[i]);
+        }
+    }
+
+    /**
+     * Attaches a change feed, which then runs on the refresh thread. Must be called before {@link #start}.
+     * @param feed The feed.
+     */
+    void setFeed(ChangeFeed feed) {
+        this.feed = feed;
+    }
+
+    /**
+     * Starts the refresh thread and publishes the seeded state.
+     */
+    void start() {
+        view = publish(1);
+        Thread refresher = new Thread(() -> {
+            while (true) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(REFRESH_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                refresh();
+                ChangeFeed changes = feed;
+                if (changes != null) {
+                    changes.tick();
+                }
+            }
+        }, "totals-index");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    /**
+     * Records an order applied to a business. Called by the order path; never blocks.
+     * @param client   The business.
+     * @param itemType The item type; unknown types are ignored, as by {@link BusinessClient}.
+     * @param quantity The quantity added.
+     */
+    void ordered(BusinessClient client, int itemType, long quantity) {
+        if (itemType >= 1 && itemType <= BusinessClient.ITEM_TYPES) {
+            totals[itemType - 1].add(quantity);
+            queue(client);
+        }
+    }
+
+    /**
+     * Records a set of quantities applied to a business at once, as by a batch.
+     * @param client  The business.
+     * @param amounts Quantities added, indexed by {@code itemType - 1}.
+     */
+    void ordered(BusinessClient client, long[] amounts) {
+        for (int i = 0; i < BusinessClient.ITEM_TYPES; i++) {
+            if (amounts[i] != 0) {
+                totals[i].add(amounts[i]);
+            }
+        }
+        queue(client);
+    }
+
+    private void queue(BusinessClient client) {
+        if (client.markQueued()) {
+            changed.add(client);
+        }
+    }
+
+    /**
+     * Returns the latest published view.
+     * @return An immutable view; a newer one is published after later orders.
+     */
+    public View view() {
+        return view;
+    }
+
+    /**
+     * Re-ranks every business changed since the last refresh and publishes a new view if anything changed.
+     */
+    private void refresh() {
+        BusinessClient client = changed.poll();
+        if (client == null) {
+            return;
+        }
+        ChangeFeed changes = feed;
+        do {
+            // unmark before reading, so an order racing with the read queues the client again
+            client.clearQueued();
+            long[] counts = client.snapshot();
+            for (int i = 0; i < BusinessClient.ITEM_TYPES; i++) {
+                rank(i, client.getBusinessId(), counts[i]);
+            }
+            if (changes != null) {
+                changes.changed(client.getBusinessId(), counts);
+            }
+        } while ((client = changed.poll()) != null);
+        view = publish(view.version + 1);
+    }
+
+    /**
+     * Updates the ranking of one business for one item type.
+     */
+    private void rank(int item, int id, long count) {
+        TreeSet<Ranked> ranking = rankings[item];
+        Map<Integer, Ranked> members = ranked[item];
+        Ranked current = members.get(id);
+        if (current != null) {
+            if (current.count == count) {
+                return;
+            }
+            ranking.remove(current);
+        } else if (count == 0) {
+            return;
+        }
+        Ranked entry = new Ranked(id, count);
+        if (current == null && ranking.size() == MAX_TOP && entry.compareTo(ranking.last()) > 0) {
+            return;
+        }
+        ranking.add(entry);
+        members.put(id, entry);
+        if (ranking.size() > MAX_TOP) {
+            members.remove(ranking.pollLast().id);
+        }
+    }
+
+    private View publish(long version) {
+        long[] sums = new long[BusinessClient.ITEM_TYPES];
+        int[][] topIds = new int[BusinessClient.ITEM_TYPES][];
+        long[][] topCounts = new long[BusinessClient.ITEM_TYPES][];
+        for (int i = 0; i < BusinessClient.ITEM_TYPES; i++) {
+            sums[i] = totals[i].sum();
+            topIds[i] = new int[rankings[i].size()];
+            topCounts[i] = new long[rankings[i].size()];
+            int n = 0;
+            for (Ranked entry : rankings[i]) {
+                topIds[i][n] = entry.id;
+                topCounts[i][n] = entry.count;
+                n++;
+            }
+        }
+        return new View(version, sums, topIds, topCounts);
+    }
+
+    /**
+     * A business's total for one item type, ordered best first: by count descending, then by ID.
+     */
+    private static final class Ranked implements Comparable<Ranked> {
+        final int id;
+        final long count;
+
+        Ranked(int id, long count) {
+            this.id = id;
+            this.count = count;
+        }
+
+        @Override
+        public int compareTo(Ranked other) {
+            int byCount = Long.compare(other.count, count);
+            return byCount != 0 ? byCount : Integer.compare(id, other.id);
+        }
+    }
+
+    /**
+     * An immutable, versioned copy of the totals and rankings.
+     */
+    static final class View {
+        private final long version;
+        private final long[] totals;
+        private final int[][] topIds;
+        private final long[][] topCounts;
+
+        private View(long version, long[] totals, int[][] topIds, long[][] topCounts) {
+            this.version = version;
+            this.totals = totals;
+            this.topIds = topIds;
+            this.topCounts = topCounts;
+        }
+
+        /**
+         * Returns the version, which grows by one with each published change.
+         * @return The version number.
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * Returns the total ordered of one item type over all businesses.
+         * @param itemType The item type, 1..{@link BusinessClient#ITEM_TYPES}.
+         * @return         The total.
+         */
+        public long total(int itemType) {
+            return totals[itemType - 1];
+        }
+
+        /**
+         * Returns how many businesses are ranked for an item type: at most {@link #MAX_TOP},
+         * and only businesses that ordered it.
+         * @param itemType The item type.
+         * @return         The number of ranked businesses.
+         */
+        public int ranked(int itemType) {
+            return topIds[itemType - 1].length;
+        }
+
+        /**
+         * Returns the ID of the business at a rank.
+         * @param itemType The item type.
+         * @param rank     0 for the business with the highest total.
+         * @return         The business ID.
+         */
+        public int topId(int itemType, int rank) {
+            return topIds[itemType - 1][rank];
+        }
+
+        /**
+         * Returns the total of the business at a rank.
+         * @param itemType The item type.
+         * @param rank     0 for the business with the highest total.
+         * @return         Its total for the item type.
+         */
+        public long topCount(int itemType, int rank) {
+            return topCounts[itemType - 1][rank];
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,157 @@
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of {@link AdmissionControl}: the connection cap, the in-flight limit and the per-connection
+ * rate limit, and the 204 answers an {@link OrderSession} gives for orders they refuse.
+ * <p>Usage: {@code java AdmissionControlTest}</p>
+ */
+public class AdmissionControlTest {
+    public static void main(String[] args) {
+        connections();
+        inFlight();
+        rate();
+        limitsAreChecked();
+        busyOrders();
+        busyBatches();
+        Check.done("AdmissionControlTest");
+    }
+
+    private static void connections() {
+        AdmissionControl control = new AdmissionControl();
+        control.setMaxConnections(2);
+        Check.isTrue("first", control.connectionOpened());
+        Check.isTrue("second", control.connectionOpened());
+        Check.isTrue("third is shed", !control.connectionOpened());
+        Check.equal("shed counted", 1, control.getShedConnections());
+        Check.equal("shed not counted as open", 2, control.getConnections());
+        control.connectionClosed();
+        Check.isTrue("room again after a close", control.connectionOpened());
+    }
+
+    private static void inFlight() {
+        AdmissionControl control = new AdmissionControl();
+        control.setMaxInFlight(3);
+        Check.isTrue("two", control.enter(2));
+        Check.isTrue("two more would exceed", !control.enter(2));
+        Check.isTrue("one more fits", control.enter(1));
+        Check.equal("in flight", 3, control.getInFlight());
+        control.exit(3);
+        Check.isTrue("a big group when nothing else is in flight", control.enter(10));
+        Check.isTrue("nothing beside it", !control.enter(1));
+        control.exit(10);
+        Check.equal("all ended", 0, control.getInFlight());
+    }
+
+    private static void rate() {
+        AdmissionControl control = new AdmissionControl();
+        AdmissionControl.TokenBucket unlimited = control.newBucket();
+        long now = System.nanoTime();
+        boolean all = true;
+        for (int i = 0; i < 1000; i++) {
+            all &= unlimited.tryTake(now);
+        }
+        Check.isTrue("no rate limit by default", all);
+
+        control.setRateLimit(10);
+        control.setRateBurst(2);
+        AdmissionControl.TokenBucket bucket = control.newBucket();
+        long start = System.nanoTime();
+        Check.isTrue("burst 1", bucket.tryTake(start));
+        Check.isTrue("burst 2", bucket.tryTake(start));
+        Check.isTrue("burst used up", !bucket.tryTake(start));
+        Check.isTrue("not refilled after 50 ms", !bucket.tryTake(start + TimeUnit.MILLISECONDS.toNanos(50)));
+        Check.isTrue("refilled after 100 ms", bucket.tryTake(start + TimeUnit.MILLISECONDS.toNanos(110)));
+        Check.isTrue("refill capped at the burst", bucket.tryTake(start + TimeUnit.SECONDS.toNanos(10))
+                && bucket.tryTake(start + TimeUnit.SECONDS.toNanos(10))
+                && !bucket.tryTake(start + TimeUnit.SECONDS.toNanos(10)));
+    }
+
+    private static void limitsAreChecked() {
+        AdmissionControl control = new AdmissionControl();
+        Check.fails("no connections", IllegalArgumentException.class, () -> control.setMaxConnections(0));
+        Check.fails("no orders in flight", IllegalArgumentException.class, () -> control.setMaxInFlight(0));
+        Check.fails("negative rate", IllegalArgumentException.class, () -> control.setRateLimit(-1));
+        Check.fails("empty burst", IllegalArgumentException.class, () -> control.setRateBurst(0));
+        Check.fails("negative idle timeout", IllegalArgumentException.class, () -> control.setIdleTimeout(-1));
+    }
+
+    /**
+     * Orders refused by the rate or the in-flight limit get 204 and are not applied.
+     */
+    private static void busyOrders() {
+        AdmissionControl control = CentralServer.getAdmissionControl();
+        ClientRegistry database = CentralServer.getClientDatabase();
+        control.setRateLimit(1);
+        control.setRateBurst(1);
+        try {
+            OrderSession session = new OrderSession();
+            Check.equal("within the burst", "100", send(session, "Acme,10001,1,5"));
+            Check.equal("over the rate", "204", send(session, "Acme,10001,1,5"));
+            Check.equal("other connections have their own rate", "100", send(new OrderSession(), "Acme,10001,1,1"));
+            Check.equal("invalid lines are not limited", "202", send(session, "Acme,10001,1,0"));
+            Check.equal("refused order not applied", new long[] {6, 0, 0}, database.get(10001).snapshot());
+        } finally {
+            control.setRateLimit(0);
+        }
+
+        long busy = control.getBusyResponses();
+        control.setMaxInFlight(1);
+        try {
+            OrderSession session = new OrderSession();
+            // another connection holds the only slot
+            Check.isTrue("slot taken", control.enter(1));
+            Check.equal("too many in flight", "204", send(session, "Acme,10001,2,1"));
+            control.exit(1);
+            Check.equal("admitted once the slot is free", "100", send(session, "Acme,10001,2,1"));
+            Check.equal("slot given back", 0, control.getInFlight());
+            Check.equal("busy counted", busy + 1, control.getBusyResponses());
+            Check.isTrue("busy in STATS", send(session, "STATS").contains(" busy=" + (busy + 1)));
+        } finally {
+            control.setMaxInFlight(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * A batch takes its share of the rate line by line, and is refused whole when too many
+     * orders are in flight.
+     */
+    private static void busyBatches() {
+        AdmissionControl control = CentralServer.getAdmissionControl();
+        ClientRegistry database = CentralServer.getClientDatabase();
+        control.setRateLimit(1);
+        control.setRateBurst(2);
+        try {
+            OrderSession session = new OrderSession();
+            send(session, "BATCH 4");
+            send(session, "Beta,10002,1,1");
+            send(session, "Beta,10002,1,-1");
+            send(session, "Beta,10002,1,1");
+            Check.equal("rate used up inside the batch", "100\n202\n100\n204\n", send(session, "Beta,10002,1,1"));
+            Check.equal("two applied", new long[] {2, 0, 0}, database.get(10002).snapshot());
+        } finally {
+            control.setRateLimit(0);
+        }
+
+        control.setMaxInFlight(1);
+        try {
+            OrderSession session = new OrderSession();
+            Check.isTrue("slot taken", control.enter(1));
+            send(session, "BATCH 2");
+            send(session, "Beta,10002,2,1");
+            Check.equal("whole batch refused", "204\n204\n", send(session, "Beta,10002,2,1"));
+            control.exit(1);
+            Check.equal("nothing applied", new long[] {2, 0, 0}, database.get(10002).snapshot());
+            Check.equal("no slot kept", 0, control.getInFlight());
+        } finally {
+            control.setMaxInFlight(Integer.MAX_VALUE);
+        }
+    }
+
+    private static String send(OrderSession session, String line) {
+        StringBuilder out = new StringBuilder();
+        session.handleLine(line.toCharArray(), 0, line.length(), out);
+        String text = out.toString().replace(OrderSession.NEWLINE, "\n");
+        // a single code is compared without its line end
+        return !text.isEmpty() && text.indexOf('\n') == text.length() - 1 ? text.substring(0, text.length() - 1) : text;
+    }
+}
\ No newline at end of file
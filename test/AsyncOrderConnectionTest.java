@@ -0,0 +1,181 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the {@link AsyncOrderConnection} against scripted servers: responses are matched
+ * to lines in order, plain lines on a dropped connection fail, orders on it are resent with
+ * their request ID, and the next line reconnects.
+ * <p>Usage: {@code java AsyncOrderConnectionTest}</p>
+ */
+public class AsyncOrderConnectionTest {
+    /**
+     * What a scripted server does with one accepted connection.
+     */
+    private interface Script {
+        void serve(BufferedReader in, PrintWriter out) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        pipelined();
+        dropFailsSentLines();
+        ordersAreResent();
+        close();
+        refused();
+        Check.done("AsyncOrderConnectionTest");
+    }
+
+    /**
+     * Many lines queued at once each get their own answer.
+     */
+    private static void pipelined() throws Exception {
+        try (ServerSocket server = serve(AsyncOrderConnectionTest::echo)) {
+            AsyncOrderConnection connection = new AsyncOrderConnection("localhost", server.getLocalPort());
+            List<CompletableFuture<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                responses.add(connection.send("line " + i));
+            }
+            boolean matched = true;
+            for (int i = 0; i < responses.size(); i++) {
+                matched &= responses.get(i).get(10, TimeUnit.SECONDS).equals("echo line " + i);
+            }
+            Check.isTrue("every response matches its line", matched);
+            Check.equal("nothing pending", 0, connection.pending());
+            connection.close();
+        }
+    }
+
+    /**
+     * The server reads a line and hangs up without answering: that line fails,
+     * and the next line is sent on a new connection.
+     */
+    private static void dropFailsSentLines() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket server = serve((in, out) -> {
+            if (connections.getAndIncrement() == 0) {
+                in.readLine();
+                return;
+            }
+            echo(in, out);
+        })) {
+            AsyncOrderConnection connection = new AsyncOrderConnection("localhost", server.getLocalPort());
+            CompletableFuture<String> lost = connection.send("Acme,10001,1,1");
+            ExecutionException e = Check.fails("unanswered line fails", ExecutionException.class,
+                    () -> lost.get(10, TimeUnit.SECONDS));
+            Check.isTrue("with an I/O error", e.getCause() instanceof IOException);
+            Check.equal("reconnects", "echo Acme,10001,1,2", connection.send("Acme,10001,1,2").get(10, TimeUnit.SECONDS));
+            Check.equal("second connection", 2, connections.get());
+            connection.close();
+        }
+    }
+
+    /**
+     * Orders carry a request ID, so an order unanswered on a dropped connection is sent again
+     * with the same ID; one that keeps getting dropped fails after the resend limit.
+     */
+    private static void ordersAreResent() throws Exception {
+        List<String> lines = new CopyOnWriteArrayList<>();
+        AtomicInteger connections = new AtomicInteger();
+        try (ServerSocket server = serve((in, out) -> {
+            boolean first = connections.getAndIncrement() == 0;
+            String line;
+            while ((line = in.readLine()) != null && !line.equals("DISCONNECT")) {
+                lines.add(line);
+                if (first || line.startsWith("Never")) {
+                    return;
+                }
+                out.println("100");
+                out.flush();
+            }
+        })) {
+            AsyncOrderConnection connection = new AsyncOrderConnection("localhost", server.getLocalPort());
+            Check.equal("answered after the resend", "100",
+                    connection.sendOrder("Acme", 10001, 1, 1).get(10, TimeUnit.SECONDS));
+            Check.equal("sent twice", 2, lines.size());
+            Check.isTrue("with a request ID " + lines.get(0), lines.get(0).matches("Acme,10001,1,1,[1-9][0-9]*"));
+            Check.equal("the same request ID", lines.get(0), lines.get(1));
+
+            ExecutionException e = Check.fails("dropped every time", ExecutionException.class,
+                    () -> connection.sendOrder("Never", 10002, 1, 1).get(10, TimeUnit.SECONDS));
+            Check.isTrue("with an I/O error", e.getCause() instanceof IOException);
+            Check.equal("first send and three resends", 4, lines.stream().filter(l -> l.startsWith("Never")).count());
+            connection.close();
+        }
+    }
+
+    /**
+     * Closing fails lines still waiting, and later lines fail at once.
+     */
+    private static void close() throws Exception {
+        try (ServerSocket server = serve((in, out) -> {
+            while (in.readLine() != null) {
+                // never answers
+            }
+        })) {
+            AsyncOrderConnection connection = new AsyncOrderConnection("localhost", server.getLocalPort());
+            CompletableFuture<String> waiting = connection.send("Acme,10001,1,1");
+            Thread.sleep(100);
+            connection.close();
+            Check.fails("waiting line fails", ExecutionException.class, () -> waiting.get(10, TimeUnit.SECONDS));
+            CompletableFuture<String> late = connection.send("Acme,10001,1,1");
+            Check.isTrue("late line fails at once", late.isCompletedExceptionally());
+            Check.equal("nothing pending after close", 0, connection.pending());
+        }
+    }
+
+    /**
+     * Nobody listens: the line fails once the connect attempts are used up.
+     */
+    private static void refused() throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        AsyncOrderConnection connection = new AsyncOrderConnection("localhost", port);
+        ExecutionException e = Check.fails("no server", ExecutionException.class,
+                () -> connection.send("Acme,10001,1,1").get(10, TimeUnit.SECONDS));
+        Check.isTrue("with an I/O error", e.getCause() instanceof IOException);
+        connection.close();
+    }
+
+    /**
+     * Answers every line with "echo " and the line, until the client hangs up.
+     */
+    private static void echo(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.equals("DISCONNECT")) {
+            out.println("echo " + line);
+            out.flush();
+        }
+    }
+
+    /**
+     * Starts a server that runs the script on each connection it accepts, one at a time.
+     */
+    private static ServerSocket serve(Script script) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread accept = new Thread(() -> {
+            while (!server.isClosed()) {
+                try (Socket socket = server.accept()) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    script.serve(in, new PrintWriter(socket.getOutputStream(), false));
+                } catch (IOException e) {
+                    // the test closed the server, or the client hung up
+                }
+            }
+        }, "scripted-server");
+        accept.setDaemon(true);
+        accept.start();
+        return server;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,178 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Tests of {@link BinaryOrderCodec}: frames written by a client codec decode to the same order
+ * on a server codec, names are sent once per ID, and malformed frames get the codes the text
+ * protocol would send.
+ * <p>Usage: {@code java BinaryOrderCodecTest}</p>
+ */
+public class BinaryOrderCodecTest {
+    private static final int ORDER = 1, ORDER_WITH_NAME = 2, DISCONNECT = 3;
+    private static final int ORDER_WITH_ID = 4, ORDER_WITH_NAME_AND_ID = 5;
+
+    public static void main(String[] args) throws IOException {
+        namesAreSentOnce();
+        quantities();
+        requestIds();
+        disconnect();
+        malformedFrames();
+        namesTextCannotCarry();
+        writerLimits();
+        Check.done("BinaryOrderCodecTest");
+    }
+
+    private static void namesAreSentOnce() throws IOException {
+        BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+        Order order = new Order();
+        byte[] first = write(client, "Acme", 12345, 2, 7, 0);
+        Check.equal("first frame carries the name", ORDER_WITH_NAME, first[2]);
+        Check.equal("first order", 0, read(server, first, order));
+        Check.equal("name", "Acme", order.name);
+        Check.equal("id", 12345, order.id);
+        Check.equal("item type", 2, order.itemType);
+        Check.equal("quantity", 7, order.quantity);
+
+        byte[] second = write(client, "Acme", 12345, 3, 1, 0);
+        Check.equal("second frame without the name", ORDER, second[2]);
+        Check.equal("second frame length", first.length - 4, second.length);
+        Check.equal("second order", 0, read(server, second, order));
+        Check.equal("remembered name", "Acme", order.name);
+        Check.equal("second item type", 3, order.itemType);
+
+        byte[] renamed = write(client, "Acme Ltd", 12345, 3, 1, 0);
+        Check.equal("changed name sent again", ORDER_WITH_NAME, renamed[2]);
+        Check.equal("renamed order", 0, read(server, renamed, order));
+        Check.equal("new name", "Acme Ltd", order.name);
+
+        Check.equal("other ID carries its name", ORDER_WITH_NAME, write(client, "Acme", 12346, 1, 1, 0)[2]);
+        Check.equal("item type 255", 0, read(server, write(client, "Acme", 12345, 255, 1, 0), order));
+        Check.equal("item type 255 decoded", 255, order.itemType);
+    }
+
+    private static void quantities() throws IOException {
+        BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+        Order order = new Order();
+        for (int quantity : new int[] {1, 63, 64, 127, 128, 8191, 8192, 1 << 20, Integer.MAX_VALUE}) {
+            Check.equal("quantity " + quantity, 0, read(server, write(client, "Acme", 12345, 1, quantity, 0), order));
+            Check.equal("quantity " + quantity + " decoded", quantity, order.quantity);
+        }
+        for (int quantity : new int[] {0, -1, -64, Integer.MIN_VALUE}) {
+            Check.equal("quantity " + quantity, OrderSession.BAD_QUANTITY,
+                    read(server, write(client, "Acme", 12345, 1, quantity, 0), order));
+        }
+    }
+
+    private static void requestIds() throws IOException {
+        BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+        Order order = new Order();
+        byte[] first = write(client, "Acme", 12345, 1, 5, 1234567890123L);
+        Check.equal("name and request ID", ORDER_WITH_NAME_AND_ID, first[2]);
+        Check.equal("with request ID", 0, read(server, first, order));
+        Check.equal("request ID", 1234567890123L, order.requestId);
+        Check.equal("name with request ID", "Acme", order.name);
+
+        byte[] second = write(client, "Acme", 12345, 1, 5, Long.MAX_VALUE);
+        Check.equal("request ID without name", ORDER_WITH_ID, second[2]);
+        Check.equal("largest request ID", 0, read(server, second, order));
+        Check.equal("largest request ID decoded", Long.MAX_VALUE, order.requestId);
+
+        Check.equal("without request ID", 0, read(server, write(client, "Acme", 12345, 1, 5, 0), order));
+        Check.equal("request ID reset", 0, order.requestId);
+
+        byte[] negative = ByteBuffer.allocate(16).put((byte) ORDER_WITH_ID).putInt(12345).put((byte) 1).put((byte) 2)
+                .putLong(-1).array();
+        Check.equal("negative request ID", OrderSession.INVALID, readBody(server, negative, order));
+        byte[] cut = {ORDER_WITH_ID, 0, 0, 0x30, 0x39, 1, 2, 0, 0, 0};
+        Check.equal("request ID cut short", OrderSession.INVALID, readBody(server, cut, order));
+    }
+
+    private static void disconnect() throws IOException {
+        BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        client.writeDisconnect(new DataOutputStream(bytes));
+        Check.equal("disconnect frame", new byte[] {0, 1, DISCONNECT}, bytes.toByteArray());
+        Check.equal("disconnect", BinaryOrderCodec.DISCONNECT, read(server, bytes.toByteArray(), new Order()));
+        Check.equal("disconnect with a body", OrderSession.INVALID, readBody(server, new byte[] {DISCONNECT, 0}, new Order()));
+    }
+
+    private static void malformedFrames() throws IOException {
+        BinaryOrderCodec server = new BinaryOrderCodec();
+        Order order = new Order();
+        Check.equal("empty frame", OrderSession.INVALID, readBody(server, new byte[0], order));
+        Check.equal("unknown type", OrderSession.INVALID, readBody(server, new byte[] {9, 0, 0, 0x30, 0x39, 1, 2}, order));
+        Check.equal("header cut short", OrderSession.INVALID, readBody(server, new byte[] {ORDER, 0, 0, 0x30, 0x39, 1}, order));
+        Check.equal("unknown name", OrderSession.INVALID, readBody(server, new byte[] {ORDER, 0, 0, 0x30, 0x39, 1, 2}, order));
+        Check.equal("quantity cut short", OrderSession.INVALID,
+                readBody(server, new byte[] {ORDER_WITH_NAME, 0, 0, 0x30, 0x39, 1, (byte) 0x80}, order));
+        Check.equal("quantity too long", OrderSession.INVALID, readBody(server,
+                new byte[] {ORDER_WITH_NAME, 0, 0, 0x30, 0x39, 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1}, order));
+
+        byte[] named = {ORDER_WITH_NAME, 0, 0, 0x30, 0x39, 1, 2, 'A'};
+        Check.equal("valid with name", 0, readBody(server, named, order));
+        Check.equal("trailing bytes", OrderSession.INVALID, readBody(server, new byte[] {ORDER, 0, 0, 0x30, 0x39, 1, 2, 0}, order));
+        Check.equal("ID too small", OrderSession.INVALID,
+                readBody(server, new byte[] {ORDER_WITH_NAME, 0, 0, 0x27, 0x0F, 1, 2, 'A'}, order));
+        Check.equal("ID too large", OrderSession.INVALID,
+                readBody(server, new byte[] {ORDER_WITH_NAME, 0, 1, (byte) 0x86, (byte) 0xA0, 1, 2, 'A'}, order));
+    }
+
+    /**
+     * Names a text line could not carry are refused, and so are later orders for their IDs,
+     * for which the client no longer sends the name.
+     */
+    private static void namesTextCannotCarry() throws IOException {
+        for (String name : new String[] {" Acme", "Acme\t", "Ac,me", "Ac\nme", "Ac\rme"}) {
+            BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+            Order order = new Order();
+            String what = "name \"" + name.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t") + "\"";
+            Check.equal(what, OrderSession.INVALID, read(server, write(client, name, 12345, 1, 1, 0), order));
+            Check.equal(what + " later", OrderSession.INVALID, read(server, write(client, name, 12345, 1, 1, 0), order));
+        }
+        BinaryOrderCodec client = new BinaryOrderCodec(), server = new BinaryOrderCodec();
+        Order order = new Order();
+        Check.equal("empty name", 0, read(server, write(client, "", 12345, 1, 1, 0), order));
+        Check.equal("UTF-8 name", 0, read(server, write(client, "Zoë & Çelik", 12346, 1, 1, 0), order));
+        Check.equal("UTF-8 name decoded", "Zoë & Çelik", order.name);
+    }
+
+    private static void writerLimits() {
+        BinaryOrderCodec client = new BinaryOrderCodec();
+        Check.fails("item type 256", IllegalArgumentException.class, () -> write(client, "Acme", 12345, 256, 1, 0));
+        Check.fails("negative item type", IllegalArgumentException.class, () -> write(client, "Acme", 12345, -1, 1, 0));
+        Check.fails("name too long", IllegalArgumentException.class,
+                () -> write(client, "x".repeat(BinaryOrderCodec.MAX_FRAME_LENGTH), 12345, 1, 1, 0));
+    }
+
+    /**
+     * Encodes one order and returns the frame, length prefix included.
+     */
+    private static byte[] write(BinaryOrderCodec codec, String name, int id, int itemType, int quantity, long requestId)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        codec.writeOrder(new DataOutputStream(bytes), name, id, itemType, quantity, requestId);
+        return bytes.toByteArray();
+    }
+
+    private static int readBody(BinaryOrderCodec codec, byte[] body, Order order) {
+        return read(codec, ByteBuffer.allocate(body.length + 2).putShort((short) body.length).put(body).array(), order);
+    }
+
+    /**
+     * Decodes a frame placed in the middle of a direct buffer, as the NIO server reads it,
+     * and checks that the buffer's position and limit are left alone.
+     */
+    private static int read(BinaryOrderCodec codec, byte[] frame, Order order) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(frame.length + 10);
+        buf.position(3);
+        buf.put(frame);
+        buf.position(1).limit(frame.length + 7);
+        int length = buf.getShort(3) & 0xFFFF;
+        Check.equal("length prefix", frame.length - 2, length);
+        int code = codec.decode(buf, 5, length, order);
+        Check.isTrue("position and limit untouched", buf.position() == 1 && buf.limit() == frame.length + 7);
+        return code;
+    }
+}
\ No newline at end of file
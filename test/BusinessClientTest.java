@@ -0,0 +1,91 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests of the {@link BusinessClient} counters: totals are exact under concurrent orders,
+ * do not overflow an int, ignore unknown item types, and a batch is seen whole or not at all.
+ * <p>Usage: {@code java BusinessClientTest}</p>
+ */
+public class BusinessClientTest {
+    public static void main(String[] args) throws InterruptedException {
+        counts();
+        concurrentOrders();
+        batchesAreAtomic();
+        Check.done("BusinessClientTest");
+    }
+
+    private static void counts() {
+        BusinessClient client = new BusinessClient("Acme", 10001);
+        Check.equal("new", new long[] {0, 0, 0}, client.snapshot());
+        client.updateItems(BusinessClient.SCARVES, 4);
+        client.updateItems(BusinessClient.SCARVES, Integer.MAX_VALUE);
+        client.updateItems(0, 5);
+        client.updateItems(BusinessClient.ITEM_TYPES + 1, 5);
+        Check.equal("beyond the int range", 4L + Integer.MAX_VALUE, client.getCount(BusinessClient.SCARVES));
+        Check.equal("unknown types ignored", new long[] {0, 0, 4L + Integer.MAX_VALUE}, client.snapshot());
+        Check.equal("unknown type reads 0", 0, client.getCount(0));
+        long[] copy = client.snapshot();
+        copy[0] = 99;
+        Check.equal("snapshot is a copy", 0, client.getCount(BusinessClient.SUNGLASSES));
+        Check.equal("text", "Business: Acme (ID: 10001) - Items: Sunglasses: 0, Belts: 0, Scarves: "
+                + (4L + Integer.MAX_VALUE), client.toString());
+    }
+
+    /**
+     * Threads hammering one hot account: no order is lost.
+     */
+    private static void concurrentOrders() throws InterruptedException {
+        int threads = 8;
+        int orders = 20000;
+        BusinessClient client = new BusinessClient("Hot", 10001);
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int itemType = 1 + t % BusinessClient.ITEM_TYPES;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < orders; i++) {
+                    client.updateItems(itemType, 2);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long[] expected = new long[BusinessClient.ITEM_TYPES];
+        for (int t = 0; t < threads; t++) {
+            expected[t % BusinessClient.ITEM_TYPES] += 2L * orders;
+        }
+        Check.equal("no order lost", expected, client.snapshot());
+    }
+
+    /**
+     * A reader never sees half of a batch: every batch adds the same amount to two item types.
+     */
+    private static void batchesAreAtomic() throws InterruptedException {
+        BusinessClient client = new BusinessClient("Batch", 10001);
+        int batches = 50000;
+        Thread writer = new Thread(() -> {
+            long[] amounts = {1, 1, 0};
+            for (int i = 0; i < batches; i++) {
+                client.updateItems(amounts);
+            }
+        });
+        writer.start();
+        long torn = 0;
+        while (writer.isAlive()) {
+            long[] totals = client.snapshot();
+            if (totals[0] != totals[1]) {
+                torn++;
+            }
+        }
+        writer.join();
+        Check.equal("torn snapshots", 0, torn);
+        Check.equal("all batches", new long[] {batches, batches, 0}, client.snapshot());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,164 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of the {@link ChangeFeed}, driven by hand instead of by the refresh thread: the first
+ * frame is a snapshot, a subscriber that falls behind gets a shared snapshot and a catch-up
+ * frame that never shows older totals, and one still behind at the next snapshot is dropped.
+ * <p>Usage: {@code java ChangeFeedTest}</p>
+ */
+public class ChangeFeedTest {
+    /** Longest wait for the snapshot thread. */
+    private static final long SNAPSHOT_TIMEOUT_MS = 5000;
+
+    public static void main(String[] args) throws InterruptedException {
+        firstFrameIsSnapshot();
+        overflow();
+        dropped();
+        Check.done("ChangeFeedTest");
+    }
+
+    private static void firstFrameIsSnapshot() throws InterruptedException {
+        ClientRegistry registry = new ClientRegistry(16);
+        order(registry, null, 10001, 1, 5);
+        ChangeFeed feed = new ChangeFeed(registry, 0, 4);
+        ChangeFeed.Subscription subscription = feed.subscribe();
+        List<String> frames = awaitSnapshot(feed, subscription);
+        Check.equal("one snapshot", 1, frames.size());
+        String snapshot = frames.get(0);
+        Check.isTrue("starts with SNAPSHOT", snapshot.startsWith("SNAPSHOT\n"));
+        Check.isTrue("has the totals " + snapshot, snapshot.contains("UPDATE id=10001 sunglasses=5 belts=0 scarves=0\n"));
+
+        order(registry, feed, 10001, 2, 3);
+        feed.tick();
+        String frame = text(subscription.poll());
+        Check.equal("then updates", "UPDATE id=10001 sunglasses=5 belts=3 scarves=0\nSYNC seq=" + sequence(frame) + "\n", frame);
+        Check.isTrue("sequence goes up", sequence(frame) > sequence(snapshot));
+        Check.isTrue("counted", feed.format().contains(" feed_snapshots=1 "));
+        feed.unsubscribe(subscription);
+    }
+
+    /**
+     * A subscriber whose queue overflows gets no frames until the next snapshot; two such
+     * subscribers share it, and the catch-up frame after it carries the later orders.
+     */
+    private static void overflow() throws InterruptedException {
+        ClientRegistry registry = new ClientRegistry(16);
+        order(registry, null, 10001, 1, 1);
+        ChangeFeed feed = new ChangeFeed(registry, 0, 2);
+        ChangeFeed.Subscription first = feed.subscribe();
+        ChangeFeed.Subscription second = feed.subscribe();
+        awaitSnapshot(feed, first);
+        drain(second);
+
+        // nobody reads: the third frame overflows both queues
+        for (int i = 0; i < 3; i++) {
+            order(registry, feed, 10001, 1, 1);
+            feed.tick();
+        }
+        feed.tick();
+        Check.equal("queue cleared, and no frames while waiting", null, first.poll());
+        // orders go on while the snapshot is being built; they come in the catch-up frame
+        List<String> frames = new ArrayList<>();
+        long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT_MS;
+        while (frames.isEmpty() && System.currentTimeMillis() < deadline) {
+            order(registry, feed, 10001, 1, 1);
+            order(registry, feed, 10002, 3, 1);
+            feed.tick();
+            frames = drain(first);
+        }
+        Check.equal("snapshot and catch-up", 2, frames.size());
+        Check.isTrue("snapshot", frames.get(0).startsWith("SNAPSHOT\n"));
+        List<String> others = drain(second);
+        Check.equal("the same for the other subscriber", frames, others);
+        Check.isTrue("counted once per subscriber", feed.format().contains(" feed_snapshots=4 "));
+
+        long latest = registry.totals(10001)[0];
+        String catchUp = frames.get(1);
+        Check.isTrue("catch-up has the latest totals " + catchUp,
+                catchUp.contains("UPDATE id=10001 sunglasses=" + latest + " belts=0 scarves=0\n"));
+        Check.isTrue("catch-up has businesses added meanwhile", catchUp.contains("UPDATE id=10002 "));
+        Check.isTrue("never older than the snapshot", sunglasses(catchUp) >= sunglasses(frames.get(0)));
+
+        order(registry, feed, 10001, 1, 1);
+        feed.tick();
+        String next = text(first.poll());
+        Check.equal("live again", latest + 1, sunglasses(next));
+        feed.unsubscribe(first);
+        feed.unsubscribe(second);
+    }
+
+    /**
+     * A subscriber that has not read its snapshot when its queue overflows again is dropped.
+     */
+    private static void dropped() throws InterruptedException {
+        ClientRegistry registry = new ClientRegistry(16);
+        ChangeFeed feed = new ChangeFeed(registry, 0, 2);
+        ChangeFeed.Subscription subscription = feed.subscribe();
+        long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT_MS;
+        while (!feed.format().contains(" feed_snapshots=1 ") && System.currentTimeMillis() < deadline) {
+            feed.tick();
+            Thread.sleep(1);
+        }
+        // the snapshot and its catch-up fill the queue; the next frame overflows it
+        feed.tick();
+        Check.isTrue("still subscribed while behind", !subscription.isClosed());
+        feed.tick();
+        Check.isTrue("dropped", subscription.isClosed());
+        Check.isTrue("counted", feed.format().startsWith("subscribers=0 ") && feed.format().endsWith(" feed_dropped=1"));
+    }
+
+    /**
+     * Ticks until the snapshot thread is done, and returns the frames queued.
+     */
+    private static List<String> awaitSnapshot(ChangeFeed feed, ChangeFeed.Subscription subscription)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SNAPSHOT_TIMEOUT_MS;
+        List<String> frames = new ArrayList<>();
+        while (frames.isEmpty() && System.currentTimeMillis() < deadline) {
+            feed.tick();
+            frames = drain(subscription);
+            Thread.sleep(1);
+        }
+        // the catch-up frame is empty: nothing changed since the snapshot was started
+        Check.isTrue("catch-up follows", frames.size() == 2 && frames.get(1).startsWith("SYNC seq="));
+        return frames.subList(0, 1);
+    }
+
+    private static List<String> drain(ChangeFeed.Subscription subscription) {
+        List<String> frames = new ArrayList<>();
+        byte[] frame;
+        while ((frame = subscription.poll()) != null) {
+            frames.add(text(frame));
+        }
+        return frames;
+    }
+
+    /**
+     * Applies an order and hands the new totals to the feed, as the index refresh would.
+     */
+    private static void order(ClientRegistry registry, ChangeFeed feed, int id, int itemType, int quantity) {
+        Check.equal("order applied", OrderSession.OK, registry.applyOrder("Biz" + id, id, itemType, quantity));
+        if (feed != null) {
+            feed.changed(id, registry.totals(id));
+        }
+    }
+
+    private static String text(byte[] frame) {
+        return new String(frame, StandardCharsets.UTF_8).replace(OrderSession.NEWLINE, "\n");
+    }
+
+    private static long sequence(String frame) {
+        int at = frame.lastIndexOf("SYNC seq=");
+        return Long.parseLong(frame.substring(at + 9, frame.length() - 1));
+    }
+
+    /**
+     * The sunglasses total of business 10001 in a frame.
+     */
+    private static long sunglasses(String frame) {
+        int at = frame.indexOf("UPDATE id=10001 sunglasses=") + 27;
+        return Long.parseLong(frame.substring(at, frame.indexOf(' ', at)));
+    }
+}
\ No newline at end of file
@@ -0,0 +1,93 @@
+import java.util.Arrays;
+
+/**
+ * The Check class holds the assertions shared by the tests in this folder.
+ * The tests are plain programs, so they run with nothing but the JDK:
+ * a failed check throws an {@link AssertionError} that names what was checked,
+ * and the program exits with an error.
+ * <p>Usage: {@code javac -d out src/*.java test/*.java && java -cp out OrderParserTest}</p>
+ */
+final class Check {
+    private static int passed;
+
+    /**
+     * Something a test expects to fail.
+     */
+    interface Action {
+        void run() throws Exception;
+    }
+
+    private Check() {
+    }
+
+    /**
+     * Checks that two numbers are equal.
+     * @param what     What is checked, for the failure message.
+     * @param expected The expected value.
+     * @param actual   The actual value.
+     */
+    static void equal(String what, long expected, long actual) {
+        if (expected != actual) {
+            throw new AssertionError(what + ": expected " + expected + " but was " + actual);
+        }
+        passed++;
+    }
+
+    /**
+     * Checks that two objects are equal; arrays are compared by content.
+     * @param what     What is checked, for the failure message.
+     * @param expected The expected value, may be {@code null}.
+     * @param actual   The actual value, may be {@code null}.
+     */
+    static void equal(String what, Object expected, Object actual) {
+        if (!Arrays.deepEquals(new Object[] {expected}, new Object[] {actual})) {
+            throw new AssertionError(what + ": expected " + format(expected) + " but was " + format(actual));
+        }
+        passed++;
+    }
+
+    /**
+     * Checks that a condition holds.
+     * @param what      What is checked, for the failure message.
+     * @param condition The condition.
+     */
+    static void isTrue(String what, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(what);
+        }
+        passed++;
+    }
+
+    /**
+     * Checks that an action throws an exception of a given type.
+     * @param what   What is checked, for the failure message.
+     * @param type   The expected exception type, or a supertype of it.
+     * @param action The action.
+     * @return       The exception, for checking its message.
+     */
+    static <T extends Throwable> T fails(String what, Class<T> type, Action action) {
+        try {
+            action.run();
+        } catch (Throwable e) {
+            if (type.isInstance(e)) {
+                passed++;
+                return type.cast(e);
+            }
+            throw new AssertionError(what + ": expected " + type.getSimpleName() + " but got " + e, e);
+        }
+        throw new AssertionError(what + ": expected " + type.getSimpleName() + " but nothing was thrown");
+    }
+
+    /**
+     * Prints how many checks passed, at the end of a test.
+     * @param test The name of the test.
+     */
+    static void done(String test) {
+        System.out.println(test + ": " + passed + " checks passed");
+    }
+
+    private static String format(Object value) {
+        String text = Arrays.deepToString(new Object[] {value});
+        return text.substring(1, text.length() - 1);
+    }
+}
\ No newline at end of file
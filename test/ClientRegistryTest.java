@@ -0,0 +1,123 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link ClientRegistry} without a journal: businesses are created by their first
+ * order, indexed by ID, and later orders with another name are refused.
+ * <p>Usage: {@code java ClientRegistryTest}</p>
+ */
+public class ClientRegistryTest {
+    public static void main(String[] args) throws InterruptedException {
+        firstOrderCreatesBusiness();
+        otherNameIsRefused();
+        racingFirstOrders();
+        batchMatchesOrdersOneByOne();
+        Check.done("ClientRegistryTest");
+    }
+
+    private static void firstOrderCreatesBusiness() {
+        ClientRegistry registry = new ClientRegistry(16);
+        Check.equal("unknown ID", null, registry.get(10001));
+        Check.equal("first order", ClientRegistry.OK, registry.processOrder("Acme", 10001, BusinessClient.BELTS, 5));
+        Check.equal("second order", ClientRegistry.OK, registry.processOrder("Acme", 10001, BusinessClient.BELTS, 2));
+        BusinessClient acme = registry.get(10001);
+        Check.equal("name", "Acme", acme.getName());
+        Check.equal("totals", new long[] {0, 7, 0}, acme.snapshot());
+        Check.equal("text", "Business: Acme (ID: 10001) - Items: Sunglasses: 0, Belts: 7, Scarves: 0", acme.toString());
+        Check.equal("size", 1, registry.size());
+        Check.equal("same instance", acme, registry.getOrCreate("Acme", 10001));
+        Check.equal("log position without a journal", 0, registry.logPosition());
+        Check.isTrue("durable without a journal", registry.isDurable(registry.logPosition()));
+    }
+
+    private static void otherNameIsRefused() {
+        ClientRegistry registry = new ClientRegistry(16);
+        registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 3);
+        Check.equal("other name", ClientRegistry.NAME_MISMATCH, registry.processOrder("Acme Ltd", 10001, BusinessClient.SUNGLASSES, 4));
+        Check.equal("names are case-sensitive", ClientRegistry.NAME_MISMATCH, registry.processOrder("acme", 10001, BusinessClient.SUNGLASSES, 4));
+        Check.equal("refused orders are not counted", new long[] {3, 0, 0}, registry.get(10001).snapshot());
+        Check.equal("original name kept", "Acme", registry.get(10001).getName());
+    }
+
+    /**
+     * Threads that all send the first order for the same new ID under different names:
+     * exactly one name wins, and only its orders are counted.
+     */
+    private static void racingFirstOrders() throws InterruptedException {
+        int threads = 8;
+        int orders = 1000;
+        ClientRegistry registry = new ClientRegistry(16);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            String name = "Business " + t;
+            int own = 20000 + t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < orders; i++) {
+                    int code = registry.processOrder(name, 10001, BusinessClient.SUNGLASSES, 1);
+                    (code == ClientRegistry.OK ? accepted : refused).incrementAndGet();
+                    // an ID of its own, which no other thread touches
+                    registry.processOrder(name, own, BusinessClient.BELTS, 1);
+                }
+            });
+            workers[t].start();
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        BusinessClient winner = registry.get(10001);
+        Check.equal("one name wins", orders, accepted.get());
+        Check.equal("the others are refused", (threads - 1) * orders, refused.get());
+        Check.equal("winner's totals", new long[] {orders, 0, 0}, winner.snapshot());
+        for (int t = 0; t < threads; t++) {
+            Check.equal("own ID of thread " + t, new long[] {0, orders, 0}, registry.get(20000 + t).snapshot());
+        }
+        Check.equal("size", 1 + threads, registry.size());
+    }
+
+    /**
+     * A batch gives the same codes and totals as the same orders applied one by one,
+     * including a later line that disagrees with the name that created its ID.
+     */
+    private static void batchMatchesOrdersOneByOne() {
+        Object[][] lines = {
+            {"Acme", 10001, BusinessClient.SUNGLASSES, 2},
+            {"Beta", 10002, BusinessClient.BELTS, 3},
+            {"Acme", 10001, BusinessClient.SCARVES, 4},
+            {"Other", 10001, BusinessClient.SUNGLASSES, 5},
+            {"Beta", 10002, 7, 6},
+            {"Acme", 10001, BusinessClient.SUNGLASSES, 1},
+        };
+        ClientRegistry single = new ClientRegistry(16);
+        single.processOrder("Beta", 10002, BusinessClient.BELTS, 10);
+        ClientRegistry batched = new ClientRegistry(16);
+        batched.processOrder("Beta", 10002, BusinessClient.BELTS, 10);
+        Order[] orders = new Order[lines.length];
+        int[] expected = new int[lines.length];
+        for (int i = 0; i < lines.length; i++) {
+            Object[] line = lines[i];
+            orders[i] = new Order();
+            orders[i].set((String) line[0], (Integer) line[1], (Integer) line[2], (Integer) line[3]);
+            expected[i] = single.processOrder(orders[i].name, orders[i].id, orders[i].itemType, orders[i].quantity);
+        }
+        int[] codes = new int[lines.length];
+        batched.processBatch(orders, orders.length, codes);
+        Check.equal("codes", expected, codes);
+        Check.equal("later name refused", ClientRegistry.NAME_MISMATCH, codes[3]);
+        Check.equal("Acme totals", single.get(10001).snapshot(), batched.get(10001).snapshot());
+        Check.equal("Beta totals", single.get(10002).snapshot(), batched.get(10002).snapshot());
+        Check.equal("size", single.size(), batched.size());
+
+        int[] prefix = new int[lines.length];
+        batched.processBatch(orders, 2, prefix);
+        Check.equal("only count orders applied", new int[] {ClientRegistry.OK, ClientRegistry.OK, 0, 0, 0, 0}, prefix);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,160 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of {@link DedupCache}: resent requests are answered with their original code,
+ * a request ID only matches orders for the same business, given-up requests are applied
+ * again, and the entries stay bounded.
+ * <p>Usage: {@code java DedupCacheTest}</p>
+ */
+public class DedupCacheTest {
+    private static final int TTL_SECONDS = 300;
+    /** Business ID of most requests in these tests. */
+    private static final int ACME = 10001;
+
+    public static void main(String[] args) throws InterruptedException {
+        replay();
+        perBusiness();
+        abandon();
+        concurrentCopies();
+        capacity();
+        pendingEntriesAreSkipped();
+        expiry();
+        Check.done("DedupCacheTest");
+    }
+
+    private static void replay() {
+        DedupCache cache = new DedupCache(1000, TTL_SECONDS);
+        Check.equal("new request", 0, cache.begin(ACME, 7));
+        cache.complete(ACME, 7, 100);
+        Check.equal("resend", 100, cache.begin(ACME, 7));
+        Check.equal("resend without waiting", 100, cache.tryBegin(ACME, 7));
+
+        Check.equal("another request", 0, cache.tryBegin(ACME, 8));
+        cache.complete(ACME, 8, 200);
+        Check.equal("its own code", 200, cache.begin(ACME, 8));
+        Check.equal("first code kept", 100, cache.begin(ACME, 7));
+
+        cache.complete(ACME, 9, 100);
+        Check.equal("completing an unclaimed request does nothing", 0, cache.begin(ACME, 9));
+    }
+
+    /**
+     * Clients choose their request IDs, so the same ID for another business is another request.
+     */
+    private static void perBusiness() {
+        DedupCache cache = new DedupCache(1000, TTL_SECONDS);
+        Check.equal("first business", 0, cache.begin(ACME, 41));
+        cache.complete(ACME, 41, 100);
+        Check.equal("same ID, other business", 0, cache.begin(10002, 41));
+        cache.complete(10002, 41, 202);
+        Check.equal("first business keeps its code", 100, cache.tryBegin(ACME, 41));
+        Check.equal("other business keeps its code", 202, cache.tryBegin(10002, 41));
+    }
+
+    private static void abandon() {
+        DedupCache cache = new DedupCache(1000, TTL_SECONDS);
+        Check.equal("claimed", 0, cache.begin(ACME, 11));
+        cache.abandon(ACME, 11);
+        Check.equal("applied again after abandon", 0, cache.begin(ACME, 11));
+        cache.complete(ACME, 11, 100);
+        cache.abandon(ACME, 11);
+        Check.equal("abandon after complete does nothing", 100, cache.begin(ACME, 11));
+    }
+
+    /**
+     * A copy that arrives while the first is being applied gets the first one's code,
+     * or the request itself if the first one gives up.
+     */
+    private static void concurrentCopies() throws InterruptedException {
+        DedupCache cache = new DedupCache(1000, TTL_SECONDS);
+        Check.equal("first copy", 0, cache.begin(ACME, 21));
+        Check.equal("second copy without waiting", DedupCache.IN_PROGRESS, cache.tryBegin(ACME, 21));
+
+        AtomicInteger result = new AtomicInteger(Integer.MIN_VALUE);
+        Thread waiter = new Thread(() -> result.set(cache.begin(ACME, 21)));
+        waiter.start();
+        waiter.join(200);
+        Check.isTrue("second copy waits", waiter.isAlive());
+        cache.complete(ACME, 21, 100);
+        waiter.join(5000);
+        Check.isTrue("waiter woken", !waiter.isAlive());
+        Check.equal("waiter gets the first code", 100, result.get());
+
+        Check.equal("another first copy", 0, cache.begin(ACME, 22));
+        waiter = new Thread(() -> result.set(cache.begin(ACME, 22)));
+        waiter.start();
+        waiter.join(200);
+        cache.abandon(ACME, 22);
+        waiter.join(5000);
+        Check.isTrue("waiter woken by abandon", !waiter.isAlive());
+        Check.equal("waiter now owns the request", 0, result.get());
+        Check.equal("owned by the waiter", DedupCache.IN_PROGRESS, cache.tryBegin(ACME, 22));
+    }
+
+    private static void capacity() {
+        long[] ids = sameStripe(1, 10);
+        DedupCache cache = new DedupCache(4 * stripes(), TTL_SECONDS);
+        for (long id : ids) {
+            cache.begin(ACME, id);
+            cache.complete(ACME, id, 100);
+        }
+        Check.equal("newest kept", 100, cache.tryBegin(ACME, ids[9]));
+        Check.equal("next newest kept", 100, cache.tryBegin(ACME, ids[8]));
+        Check.equal("oldest dropped", 0, cache.tryBegin(ACME, ids[0]));
+    }
+
+    /**
+     * A request still being applied is kept however old, but does not stop the
+     * completed entries behind it from being dropped.
+     */
+    private static void pendingEntriesAreSkipped() {
+        long[] ids = sameStripe(3, 20);
+        DedupCache cache = new DedupCache(4 * stripes(), TTL_SECONDS);
+        Check.equal("pending head", 0, cache.begin(ACME, 3));
+        for (long id : ids) {
+            cache.begin(ACME, id);
+            cache.complete(ACME, id, 100);
+        }
+        Check.equal("pending head kept", DedupCache.IN_PROGRESS, cache.tryBegin(ACME, 3));
+        Check.equal("newest kept behind it", 100, cache.tryBegin(ACME, ids[19]));
+        cache.complete(ACME, 3, 100);
+        Check.equal("head completes", 100, cache.tryBegin(ACME, 3));
+        Check.equal("older ones dropped behind it", 0, cache.tryBegin(ACME, ids[10]));
+    }
+
+    private static void expiry() {
+        DedupCache cache = new DedupCache(1000, 0);
+        cache.begin(ACME, 31);
+        cache.complete(ACME, 31, 100);
+        Check.equal("expired", 0, cache.begin(ACME, 31));
+        Check.equal("pending entries do not expire", DedupCache.IN_PROGRESS, cache.tryBegin(ACME, 31));
+    }
+
+    /**
+     * Number of stripes a cache has on this machine, as {@link DedupCache} chooses it.
+     */
+    private static int stripes() {
+        return Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())) * 4;
+    }
+
+    /**
+     * Finds request IDs in the same stripe as {@code id}: with two entries per stripe,
+     * remembering such an ID makes the next claim drop {@code id}, which can then be claimed again.
+     */
+    private static long[] sameStripe(long id, int count) {
+        DedupCache probe = new DedupCache(2 * stripes(), TTL_SECONDS);
+        probe.begin(ACME, id);
+        probe.complete(ACME, id, 100);
+        long[] found = new long[count];
+        int n = 0;
+        for (long other = id + 1; n < count; other++) {
+            probe.begin(ACME, other);
+            probe.complete(ACME, other, 100);
+            if (probe.tryBegin(ACME, id) == 0) {
+                found[n++] = other;
+                probe.complete(ACME, id, 100);
+            }
+        }
+        return found;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,103 @@
+import java.awt.Color;
+import java.awt.Polygon;
+
+/**
+ * Tests of the {@link EntitySystem} step: a fixed seed gives the same letters on all cores as on
+ * one thread, letters stay inside the arena and keep their speed, and two letters meeting
+ * head-on bounce back.
+ * <p>Usage: {@code java EntitySystemTest}</p>
+ */
+public class EntitySystemTest {
+    private static final int LEFT = 20, TOP = 20, WIDTH = 1180, HEIGHT = 860;
+    private static final Color[] PALETTE = {Color.PINK, Color.BLUE, Color.GREEN, Color.ORANGE};
+    /** More than one parallel chunk of letters. */
+    private static final int COUNT = 5000;
+    private static final int STEPS = 200;
+
+    public static void main(String[] args) {
+        deterministic();
+        wallsAndSpeed();
+        headOn();
+        Check.fails("no glyphs", IllegalArgumentException.class,
+                () -> new EntitySystem(new Glyph[0], PALETTE, 1, LEFT, TOP, WIDTH, HEIGHT, 1));
+        Check.done("EntitySystemTest");
+    }
+
+    /**
+     * The same seed gives the same letters after many steps, whether the steps are split
+     * across cores or not; another seed does not.
+     */
+    private static void deterministic() {
+        EntitySystem parallel = letters(42);
+        EntitySystem serial = letters(42);
+        EntitySystem other = letters(43);
+        serial.setParallel(false);
+        for (int s = 0; s < STEPS; s++) {
+            parallel.step();
+            serial.step();
+            other.step();
+        }
+        Check.isTrue("same letters on all cores as on one thread", same(parallel, serial));
+        Check.isTrue("another seed differs", !same(parallel, other));
+    }
+
+    private static void wallsAndSpeed() {
+        EntitySystem letters = letters(7);
+        double[] speed = new double[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            speed[i] = Math.hypot(letters.vx(i), letters.vy(i));
+        }
+        boolean inside = true, kept = true;
+        for (int s = 0; s < STEPS; s++) {
+            letters.step();
+            for (int i = 0; i < COUNT; i++) {
+                inside &= letters.x(i) >= LEFT && letters.x(i) <= LEFT + WIDTH
+                        && letters.y(i) >= TOP && letters.y(i) <= TOP + HEIGHT;
+                kept &= Math.abs(Math.hypot(letters.vx(i), letters.vy(i)) - speed[i]) < 1e-9;
+            }
+        }
+        Check.isTrue("every letter inside the arena", inside);
+        Check.isTrue("every letter keeps its speed", kept);
+    }
+
+    /**
+     * Two squares moving towards each other along a line swap directions, and two that
+     * already move apart are left alone.
+     */
+    private static void headOn() {
+        Polygon square = new Polygon(new int[] {0, 20, 20, 0}, new int[] {0, 0, 20, 20}, 4);
+        Glyph glyph = new Glyph(square, 1);
+        EntitySystem letters = new EntitySystem(new Glyph[] {glyph}, PALETTE, 4, LEFT, TOP, WIDTH, HEIGHT, 1);
+        // circles of radius about 14 that overlap after the next move
+        letters.place(0, 500, 300, 2, 0, 0);
+        letters.place(1, 525, 300, -2, 0, 0);
+        letters.place(2, 500, 600, -2, 0, 0);
+        letters.place(3, 525, 600, 2, 0, 0);
+        letters.step();
+        Check.equal("left one bounces back", -2.0, letters.vx(0));
+        Check.equal("right one bounces back", 2.0, letters.vx(1));
+        Check.equal("no sideways speed", 0.0, letters.vy(0) + letters.vy(1));
+        Check.equal("moving apart: unchanged", -2.0, letters.vx(2));
+        Check.equal("moving apart: unchanged too", 2.0, letters.vx(3));
+    }
+
+    private static EntitySystem letters(long seed) {
+        Polygon z = new Polygon(new int[] {0, 60, 60, 15, 60, 60, 0, 0, 45, 0},
+                new int[] {0, 0, 15, 65, 65, 80, 80, 65, 15, 15}, 10);
+        Polygon c = new Polygon(new int[] {0, 60, 60, 15, 15, 60, 60, 0},
+                new int[] {0, 0, 15, 15, 65, 65, 80, 80}, 8);
+        double scale = EntitySystem.fitScale(Math.max(Glyph.radiusOf(z), Glyph.radiusOf(c)), COUNT, WIDTH, HEIGHT);
+        Glyph[] glyphs = {new Glyph(z, scale), new Glyph(c, scale)};
+        return new EntitySystem(glyphs, PALETTE, COUNT, LEFT, TOP, WIDTH, HEIGHT, seed);
+    }
+
+    private static boolean same(EntitySystem a, EntitySystem b) {
+        for (int i = 0; i < a.count(); i++) {
+            if (a.x(i) != b.x(i) || a.y(i) != b.y(i) || a.vx(i) != b.vx(i) || a.vy(i) != b.vy(i)
+                    || a.color(i) != b.color(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
\ No newline at end of file
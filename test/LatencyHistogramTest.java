@@ -0,0 +1,77 @@
+/**
+ * Tests of the {@link LatencyHistogram}: small values are exact, large ones are reported
+ * within the bucket error, and concurrent writers lose no value.
+ * <p>Usage: {@code java LatencyHistogramTest}</p>
+ */
+public class LatencyHistogramTest {
+    public static void main(String[] args) throws InterruptedException {
+        empty();
+        exactBelowSubBuckets();
+        percentiles();
+        extremes();
+        concurrentWriters();
+        Check.done("LatencyHistogramTest");
+    }
+
+    private static void empty() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        Check.equal("empty count", 0, snapshot.count());
+        Check.equal("empty percentile", 0, snapshot.percentile(99));
+    }
+
+    private static void exactBelowSubBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 0; value < 64; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Check.equal("count", 64, snapshot.count());
+        Check.equal("minimum", 0, snapshot.percentile(0));
+        Check.equal("median", 31, snapshot.percentile(50));
+        Check.equal("maximum", 63, snapshot.percentile(100));
+    }
+
+    /**
+     * Every reported percentile is at or just above the true value.
+     */
+    private static void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 100_000; value++) {
+            histogram.record(value * 1000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        double[] percentiles = {1, 50, 90, 99, 99.9, 100};
+        for (double percentile : percentiles) {
+            long exact = (long) (percentile * 1000) * 1000;
+            long reported = snapshot.percentile(percentile);
+            Check.isTrue("p" + percentile + " " + reported + " not below " + exact, reported >= exact);
+            Check.isTrue("p" + percentile + " " + reported + " within 4% of " + exact, reported <= exact * 1.04);
+        }
+    }
+
+    private static void extremes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        Check.equal("negative recorded as 0", 0, histogram.snapshot().percentile(100));
+        histogram.record(Long.MAX_VALUE);
+        Check.equal("largest value", Long.MAX_VALUE, histogram.snapshot().percentile(100));
+        Check.equal("both counted", 2, histogram.snapshot().count());
+    }
+
+    private static void concurrentWriters() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.record(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Check.equal("no value lost", 8 * 50_000, histogram.snapshot().count());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,126 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Tests of the {@link LoadGenerator}: response codes are read leniently, the zipf picker follows
+ * its distribution, and a run ends with a failure instead of hanging when the server goes away.
+ * <p>Usage: {@code java LoadGeneratorTest}</p>
+ */
+public class LoadGeneratorTest {
+    public static void main(String[] args) throws Exception {
+        parseCode();
+        zipf();
+        fullRun();
+        serverGoesAway();
+        Check.done("LoadGeneratorTest");
+    }
+
+    private static void parseCode() {
+        Check.equal("code", 100, LoadGenerator.parseCode("100"));
+        Check.equal("padded", 202, LoadGenerator.parseCode(" 202\r"));
+        Check.equal("redirect with its address", 205, LoadGenerator.parseCode("205 localhost:9001"));
+        Check.equal("not a number", 0, LoadGenerator.parseCode("OK"));
+        Check.equal("empty", 0, LoadGenerator.parseCode(""));
+        Check.equal("negative", 0, LoadGenerator.parseCode("-1"));
+        Check.equal("end of stream", -1, LoadGenerator.parseCode(null));
+    }
+
+    private static void zipf() {
+        double[] cdf = LoadGenerator.zipfCdf(3, 1.0);
+        Check.isTrue("first rank weight", Math.abs(cdf[0] - 6.0 / 11) < 1e-9);
+        Check.isTrue("second rank weight", Math.abs(cdf[1] - 9.0 / 11) < 1e-9);
+        Check.isTrue("ends at 1", Math.abs(cdf[2] - 1) < 1e-9);
+        Check.equal("smallest u", 0, LoadGenerator.zipfRank(cdf, 0));
+        Check.equal("on a boundary", 0, LoadGenerator.zipfRank(cdf, cdf[0]));
+        Check.equal("just past a boundary", 1, LoadGenerator.zipfRank(cdf, cdf[0] + 1e-12));
+        Check.equal("largest u", 2, LoadGenerator.zipfRank(cdf, 0.9999999));
+
+        double[] uniform = LoadGenerator.zipfCdf(4, 0);
+        Check.isTrue("exponent 0 is uniform", Math.abs(uniform[1] - 0.5) < 1e-9);
+
+        int n = 1000;
+        double[] skewed = LoadGenerator.zipfCdf(n, 1.0);
+        int[] picks = new int[n];
+        Random random = new Random(42);
+        int samples = 200_000;
+        for (int i = 0; i < samples; i++) {
+            picks[LoadGenerator.zipfRank(skewed, random.nextDouble())]++;
+        }
+        // rank 0 takes 1/H(1000), about 13.4% of the picks, and twice as many as rank 1
+        Check.isTrue("hottest rank share " + picks[0], Math.abs(picks[0] / (double) samples - skewed[0]) < 0.005);
+        Check.isTrue("rank 1 half of rank 0", Math.abs(picks[1] * 2.0 / picks[0] - 1) < 0.05);
+    }
+
+    /**
+     * Against a server that answers every line, no connection fails.
+     */
+    private static void fullRun() throws Exception {
+        try (ServerSocket server = serve(Integer.MAX_VALUE)) {
+            LoadGenerator generator = generator(server);
+            Check.equal("no failed connections", 0, generator.run());
+        }
+    }
+
+    /**
+     * The server hangs up after a few lines: every connection fails, and the run still ends.
+     */
+    private static void serverGoesAway() throws Exception {
+        try (ServerSocket server = serve(5)) {
+            LoadGenerator generator = generator(server);
+            long start = System.nanoTime();
+            Check.equal("both connections failed", 2, generator.run());
+            Check.isTrue("ended without waiting for a timeout", System.nanoTime() - start < 10_000_000_000L);
+        }
+    }
+
+    private static LoadGenerator generator(ServerSocket server) {
+        LoadGenerator generator = new LoadGenerator();
+        generator.set("port", String.valueOf(server.getLocalPort()));
+        generator.set("connections", "2");
+        generator.set("rate", "2000");
+        generator.set("duration", "1");
+        generator.set("pipeline", "8");
+        generator.set("distribution", "zipf");
+        return generator;
+    }
+
+    /**
+     * Starts a server that answers "100" to each line, and hangs up after {@code answers} lines or at DISCONNECT.
+     */
+    private static ServerSocket serve(int answers) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread accept = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread connection = new Thread(() -> answer(socket, answers));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // the test closed the server
+                }
+            }
+        }, "load-test-server");
+        accept.setDaemon(true);
+        accept.start();
+        return server;
+    }
+
+    private static void answer(Socket socket, int answers) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            String line;
+            for (int i = 0; i < answers && (line = in.readLine()) != null && !line.equals("DISCONNECT"); i++) {
+                out.println("100");
+            }
+        } catch (IOException e) {
+            // the generator hung up
+        }
+    }
+}
\ No newline at end of file
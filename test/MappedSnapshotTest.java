@@ -0,0 +1,116 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests of the {@link MappedSnapshot} file: what is written is found again, mapped or read onto
+ * the heap, and a damaged file is refused when it is opened rather than when a record is used.
+ * <p>Usage: {@code java MappedSnapshotTest}</p>
+ */
+public class MappedSnapshotTest {
+    /** Offsets in the file layout documented on {@link MappedSnapshot}. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8;
+    private static final int RECORD_SIZE = 4 + 4 + 4 + 8 * BusinessClient.ITEM_TYPES;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("snapshot-test");
+        Path file = dir.resolve("snapshot.bin");
+        try {
+            roundTrip(file);
+            empty(file);
+            rejectsDamage(file);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir.resolve("snapshot.bin.tmp"));
+            Files.delete(dir);
+        }
+        Check.done("MappedSnapshotTest");
+    }
+
+    private static void roundTrip(Path file) throws IOException {
+        Check.equal("missing file", null, MappedSnapshot.open(file));
+        Check.equal("missing file read", null, MappedSnapshot.read(file));
+        write(file);
+        for (MappedSnapshot snapshot : new MappedSnapshot[] {MappedSnapshot.open(file), MappedSnapshot.read(file)}) {
+            Check.equal("covered segment", 7, snapshot.coveredSegment());
+            Check.equal("size", 3, snapshot.size());
+            Check.equal("first", 0, snapshot.find(10001));
+            Check.equal("last", 2, snapshot.find(99999));
+            Check.equal("missing below", -1, snapshot.find(10000));
+            Check.equal("missing between", -1, snapshot.find(20000));
+            Check.equal("missing above", -1, snapshot.find(100000));
+            Check.equal("id", 12345, snapshot.id(1));
+            Check.equal("name", "Acme", snapshot.name(0));
+            Check.equal("non-ASCII name", "קפה ג'ו", snapshot.name(1));
+            Check.equal("empty name", "", snapshot.name(2));
+            Check.equal("counts", new long[] {1, 2, Long.MAX_VALUE}, snapshot.counts(0));
+            Check.equal("count", 5, snapshot.count(1, BusinessClient.BELTS));
+            BusinessClient client = snapshot.materialize(1);
+            Check.equal("materialized", "Business: קפה ג'ו (ID: 12345) - Items: Sunglasses: 0, Belts: 5, Scarves: 0",
+                    client.toString());
+        }
+    }
+
+    private static void empty(Path file) throws IOException {
+        MappedSnapshot.write(file, new int[0], new String[0], new long[0][], 0, 3);
+        MappedSnapshot snapshot = MappedSnapshot.open(file);
+        Check.equal("empty size", 0, snapshot.size());
+        Check.equal("empty find", -1, snapshot.find(10001));
+        Check.equal("empty covered segment", 3, snapshot.coveredSegment());
+    }
+
+    /**
+     * Damages one field at a time; each file must fail to open.
+     */
+    private static void rejectsDamage(Path file) throws IOException {
+        int first = HEADER_SIZE;
+        int second = HEADER_SIZE + RECORD_SIZE;
+        damaged(file, "bad magic", 0, 0x12345678, "Not a snapshot file");
+        damaged(file, "negative count", 16, -1, "Snapshot file is truncated");
+        damaged(file, "count past the records", 16, 4, "Snapshot file is truncated");
+        damaged(file, "negative name offset", first + 4, -1, "Snapshot file is corrupt");
+        damaged(file, "negative name length", first + 8, -1, "Snapshot file is corrupt");
+        damaged(file, "name past the end", second + 8, 1000, "Snapshot file is corrupt");
+        damaged(file, "name offset past the end", second + 4, Integer.MAX_VALUE, "Snapshot file is corrupt");
+        damaged(file, "IDs out of order", second, 10000, "Snapshot file is corrupt");
+        damaged(file, "duplicate ID", second, 10001, "Snapshot file is corrupt");
+
+        write(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER_SIZE + 2 * RECORD_SIZE);
+        }
+        Check.fails("cut in the records", IOException.class, () -> MappedSnapshot.open(file));
+        write(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 1);
+        }
+        Check.fails("cut in the names", IOException.class, () -> MappedSnapshot.open(file));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        Check.fails("cut in the header", IOException.class, () -> MappedSnapshot.open(file));
+    }
+
+    /**
+     * Writes the test snapshot, overwrites one int, and checks that opening and reading both fail.
+     */
+    private static void damaged(Path file, String what, int offset, int value, String message) throws IOException {
+        write(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, value), offset);
+        }
+        IOException e = Check.fails(what, IOException.class, () -> MappedSnapshot.open(file));
+        Check.isTrue(what + ": " + e.getMessage(), e.getMessage().startsWith(message));
+        Check.fails(what + " read", IOException.class, () -> MappedSnapshot.read(file));
+    }
+
+    private static void write(Path file) throws IOException {
+        int[] ids = {10001, 12345, 99999};
+        String[] names = {"Acme", "קפה ג'ו", ""};
+        long[][] counts = {{1, 2, Long.MAX_VALUE}, {0, 5, 0}, {0, 0, 0}};
+        MappedSnapshot.write(file, ids, names, counts, ids.length, 7);
+    }
+}
\ No newline at end of file
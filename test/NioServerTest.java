@@ -0,0 +1,235 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests of the selector engine over real sockets: the {@link NioServer} answers
+ * the same codes as {@link ClientHandler}, however the client splits or batches its lines.
+ * The server runs with an {@link OrderJournal}, so every response is held back until its order is on disk.
+ * <p>Usage: {@code java NioServerTest}</p>
+ */
+public class NioServerTest {
+    private static int port;
+    private static Path journalDir;
+    private static OrderJournal journal;
+
+    public static void main(String[] args) throws Exception {
+        start();
+        codes();
+        pipelined();
+        splitLines();
+        longLine();
+        partialLineAtEof();
+        disconnect();
+        manyConnections();
+        journaled();
+        Check.done("NioServerTest");
+    }
+
+    /**
+     * Runs the server on a free port in a daemon thread.
+     */
+    private static void start() throws Exception {
+        journalDir = Files.createTempDirectory("nio-journal");
+        journal = OrderJournal.open(journalDir, CentralServer.getClientDatabase(), 3600);
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        ServerConfig config = ServerConfig.parse(new String[] {"--mode=nio", "--port=" + port, "--io-threads=2"});
+        Thread server = new Thread(() -> {
+            try {
+                new NioServer(config).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "nio-server");
+        server.setDaemon(true);
+        server.start();
+        for (int attempt = 0; ; attempt++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void codes() throws IOException {
+        try (Client client = new Client()) {
+            Check.equal("order", "100", client.call("Acme,10001,1,5"));
+            Check.equal("same business", "100", client.call("Acme,10001,1,2"));
+            Check.equal("name mismatch", "201", client.call("Other,10001,1,5"));
+            Check.equal("zero quantity", "202", client.call("Acme,10001,1,0"));
+            Check.equal("missing field", "200", client.call("Acme,10001,1"));
+            Check.equal("short id", "200", client.call("Acme,999,1,5"));
+            Check.equal("not a number", "200", client.call("Acme,10001,x,5"));
+            Check.equal("crlf terminator", "100", client.call("Acme,10001,2,3\r"));
+        }
+        BusinessClient acme = CentralServer.getClientDatabase().get(10001);
+        Check.equal("totals", new long[] {7, 3, 0}, acme.snapshot());
+    }
+
+    /**
+     * Many lines in one write are answered in order.
+     */
+    private static void pipelined() throws IOException {
+        try (Client client = new Client()) {
+            client.send("Beta,10002,1,1\nBeta,10002,1,0\nGamma,10002,1,1\nBeta,10002,3,4\n");
+            Check.equal("first", "100", client.read());
+            Check.equal("second", "202", client.read());
+            Check.equal("third", "201", client.read());
+            Check.equal("fourth", "100", client.read());
+        }
+        Check.equal("pipelined totals", new long[] {1, 0, 4},
+                CentralServer.getClientDatabase().get(10002).snapshot());
+    }
+
+    /**
+     * A line that arrives in pieces is handled once it is complete.
+     */
+    private static void splitLines() throws Exception {
+        try (Client client = new Client()) {
+            client.send("Del");
+            Thread.sleep(50);
+            client.send("ta,100");
+            Thread.sleep(50);
+            client.send("03,1,6\nDelta,1000");
+            Check.equal("joined line", "100", client.read());
+            Thread.sleep(50);
+            client.send("3,1,1\n");
+            Check.equal("joined tail", "100", client.read());
+        }
+        Check.equal("split totals", 7, CentralServer.getClientDatabase().get(10003).getCount(BusinessClient.SUNGLASSES));
+    }
+
+    /**
+     * A line over the limit is answered once with 200 and the connection stays usable.
+     */
+    private static void longLine() throws IOException {
+        try (Client client = new Client()) {
+            StringBuilder line = new StringBuilder("Long,10004,1,");
+            while (line.length() < 200_000) {
+                line.append('1');
+            }
+            client.send(line.append('\n').toString());
+            Check.equal("over-long line", "200", client.read());
+            Check.equal("after over-long line", "100", client.call("Long,10004,1,1"));
+        }
+    }
+
+    /**
+     * A last line without a terminator is still handled when the client closes its side.
+     */
+    private static void partialLineAtEof() throws IOException {
+        try (Client client = new Client()) {
+            client.send("Eps,10005,2,9");
+            client.socket.shutdownOutput();
+            Check.equal("unterminated line", "100", client.read());
+            Check.equal("closed after eof", null, client.read());
+        }
+    }
+
+    private static void disconnect() throws IOException {
+        try (Client client = new Client()) {
+            client.send("Zeta,10006,1,1\ndisconnect\nZeta,10006,1,1\n");
+            Check.equal("before disconnect", "100", client.read());
+            Check.equal("closed by disconnect", null, client.read());
+        }
+        Check.equal("nothing after disconnect", 1, CentralServer.getClientDatabase().get(10006).getCount(BusinessClient.SUNGLASSES));
+    }
+
+    /**
+     * More connections than I/O threads are served side by side.
+     */
+    private static void manyConnections() throws IOException {
+        Client[] clients = new Client[10];
+        try {
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new Client();
+            }
+            for (int round = 0; round < 3; round++) {
+                for (Client client : clients) {
+                    client.send("Many,10007,3,1\n");
+                }
+                for (Client client : clients) {
+                    Check.equal("round " + round, "100", client.read());
+                }
+            }
+        } finally {
+            for (Client client : clients) {
+                if (client != null) {
+                    client.close();
+                }
+            }
+        }
+        Check.equal("every order counted", 30, CentralServer.getClientDatabase().get(10007).getCount(BusinessClient.SCARVES));
+    }
+
+    /**
+     * Every acknowledged order is in the journal.
+     */
+    private static void journaled() throws IOException {
+        Check.isTrue("all acknowledged orders durable",
+                CentralServer.getClientDatabase().isDurable(CentralServer.getClientDatabase().logPosition()));
+        journal.close();
+        ClientRegistry recovered = new ClientRegistry(16);
+        OrderJournal.open(journalDir, recovered, 3600).close();
+        for (BusinessClient client : CentralServer.getClientDatabase().clients()) {
+            BusinessClient copy = recovered.get(client.getBusinessId());
+            Check.equal("recovered " + client.getBusinessId(), client.toString(), copy == null ? null : copy.toString());
+        }
+        Check.equal("recovered businesses", CentralServer.getClientDatabase().size(), recovered.size());
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(journalDir);
+    }
+
+    /**
+     * A blocking test client that writes raw bytes and reads response lines.
+     */
+    private static final class Client implements AutoCloseable {
+        final Socket socket;
+        final OutputStream out;
+        final BufferedReader in;
+
+        Client() throws IOException {
+            socket = new Socket("localhost", port);
+            socket.setSoTimeout(10_000);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String read() throws IOException {
+            return in.readLine();
+        }
+
+        String call(String line) throws IOException {
+            send(line + "\n");
+            return read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,304 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests of recovery from the {@link OrderJournal}: orders survive a restart, with and without
+ * a compacted snapshot, and a record torn by a crash is truncated instead of failing the start,
+ * unless it is in an older segment, which a crash cannot leave incomplete.
+ * <p>Usage: {@code java OrderJournalTest}</p>
+ */
+public class OrderJournalTest {
+    /** Long enough that compaction only runs when a test asks for it. */
+    private static final int NO_COMPACTION = 3600;
+
+    public static void main(String[] args) throws IOException {
+        Path root = Files.createTempDirectory("journal-test");
+        try {
+            replaysOrders(root.resolve("replay"));
+            replaysOnTopOfSnapshot(root.resolve("snapshot"));
+            truncatesTornRecord(root.resolve("torn-order"), new byte[] {'O', 0, 0, 0x27, 0x11, 1});
+            truncatesTornRecord(root.resolve("torn-length"), new byte[] {'C', 0, 0, 0x27, 0x12, 0, 0});
+            truncatesTornRecord(root.resolve("huge-length"),
+                    ByteBuffer.allocate(12).put((byte) 'C').putInt(10002).putInt(Integer.MAX_VALUE).put(new byte[3]).array());
+            truncatesTornRecord(root.resolve("negative-length"),
+                    ByteBuffer.allocate(12).put((byte) 'C').putInt(10002).putInt(-5).put(new byte[3]).array());
+            rejectsCorruptRecords(root.resolve("corrupt"));
+            rejectsIncompleteOlderSegment(root.resolve("sealed"));
+            skipsIdleCompaction(root.resolve("idle"));
+            closedJournalFailsOrders(root.resolve("closed"));
+            keepsMappedSnapshot(root.resolve("mapped"));
+            readsLegacySnapshot(root.resolve("legacy"));
+        } finally {
+            delete(root);
+        }
+        Check.done("OrderJournalTest");
+    }
+
+    private static void replaysOrders(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 3);
+        registry.processOrder("Acme", 10001, BusinessClient.SCARVES, 4);
+        registry.processOrder("Other", 10001, BusinessClient.SCARVES, 100);
+        registry.processOrder("Bolt", 10002, BusinessClient.BELTS, 5);
+        Check.isTrue("durable once processed", registry.isDurable(registry.logPosition()));
+        journal.close();
+
+        ClientRegistry recovered = reopen(dir);
+        Check.equal("businesses", 2, recovered.size());
+        Check.equal("name", "Acme", recovered.get(10001).getName());
+        Check.equal("totals", new long[] {3, 0, 4}, recovered.get(10001).snapshot());
+        Check.equal("other totals", new long[] {0, 5, 0}, recovered.get(10002).snapshot());
+    }
+
+    private static void replaysOnTopOfSnapshot(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 3);
+        registry.processOrder("Bolt", 10002, BusinessClient.BELTS, 5);
+        journal.compact();
+        registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 2);
+        registry.processOrder("Cask", 10003, BusinessClient.SCARVES, 1);
+        journal.close();
+        Check.equal("snapshots after compaction", 1, list(dir, "snapshot").size());
+
+        ClientRegistry recovered = reopen(dir);
+        Check.equal("businesses", 3, recovered.size());
+        Check.equal("snapshot plus log", new long[] {5, 0, 0}, recovered.get(10001).snapshot());
+        Check.equal("snapshot only", new long[] {0, 5, 0}, recovered.get(10002).snapshot());
+        Check.equal("log only", new long[] {0, 0, 1}, recovered.get(10003).snapshot());
+        Check.equal("snapshot name", "Bolt", recovered.get(10002).getName());
+
+        recovered = new ClientRegistry(16);
+        OrderJournal.open(dir, recovered, NO_COMPACTION).close();
+        Check.equal("size counts the snapshot", 3, recovered.size());
+        Check.equal("name from the snapshot", "Bolt", recovered.nameOf(10002));
+        Check.equal("unknown name", null, recovered.nameOf(10009));
+        Check.equal("parsed against the snapshot", 0, new OrderParser(recovered).parse(
+                "Bolt,10002,1,1".toCharArray(), 0, 14, new Order()));
+    }
+
+    /**
+     * The snapshot mapped at startup outlives later compactions; the ones in between do not.
+     */
+    private static void keepsMappedSnapshot(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 1);
+        journal.compact();
+        journal.close();
+        Path mapped = list(dir, "snapshot").get(0);
+
+        registry = new ClientRegistry(16);
+        journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        for (int i = 0; i < 3; i++) {
+            registry.processOrder("Acme", 10001, BusinessClient.SUNGLASSES, 1);
+            journal.compact();
+        }
+        List<Path> snapshots = list(dir, "snapshot");
+        Check.equal("mapped and newest snapshot", 2, snapshots.size());
+        Check.isTrue("mapped snapshot kept", snapshots.contains(mapped));
+        Check.equal("still readable", new long[] {4, 0, 0}, registry.get(10001).snapshot());
+        journal.close();
+
+        registry = reopen(dir);
+        Check.equal("totals from the newest", new long[] {4, 0, 0}, registry.get(10001).snapshot());
+    }
+
+    /**
+     * A snapshot.bin of the earlier, variable-width format is still recovered,
+     * and the first compaction replaces it.
+     */
+    private static void readsLegacySnapshot(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        byte[] name = "Acme".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer legacy = ByteBuffer.allocate(4 + 8 + 4 + 4 + 4 + name.length + 8 * 3);
+        legacy.putInt(0x4F534E50).putLong(2).putInt(1).putInt(10001).putInt(name.length).put(name);
+        legacy.putLong(1).putLong(2).putLong(3);
+        Files.write(dir.resolve("snapshot.bin"), legacy.array());
+        // a segment the legacy snapshot already covers, and one it does not
+        Files.write(dir.resolve("journal-000000000002.log"), new byte[] {'X'});
+        Files.write(dir.resolve("journal-000000000003.log"),
+                ByteBuffer.allocate(14).put((byte) 'O').putInt(10001).put((byte) 1).putLong(10).array());
+
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        Check.equal("legacy totals", new long[] {11, 2, 3}, registry.get(10001).snapshot());
+        journal.compact();
+        journal.close();
+        Check.isTrue("legacy snapshot replaced", !Files.exists(dir.resolve("snapshot.bin")));
+        Check.equal("numbered snapshot", 1, list(dir, "snapshot-").size());
+        Check.equal("after compaction", new long[] {11, 2, 3}, reopen(dir).get(10001).snapshot());
+    }
+
+    /**
+     * Appends the start of a record, as a crash in the middle of a write leaves it, and checks
+     * that the next start truncates it and keeps everything before it.
+     */
+    private static void truncatesTornRecord(Path dir, byte[] torn) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 7);
+        journal.close();
+        Path segment = lastSegment(dir);
+        long size = Files.size(segment);
+        Files.write(segment, torn, StandardOpenOption.APPEND);
+
+        registry = new ClientRegistry(16);
+        journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        String what = "torn " + dir.getFileName();
+        Check.equal(what + " truncated", size, Files.size(segment));
+        Check.equal(what + " businesses", 1, registry.size());
+        Check.equal(what + " totals", new long[] {0, 7, 0}, registry.get(10001).snapshot());
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 1);
+        journal.close();
+
+        Check.equal(what + " later orders", new long[] {0, 8, 0}, reopen(dir).get(10001).snapshot());
+    }
+
+    private static void rejectsCorruptRecords(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 7);
+        journal.close();
+        Path segment = lastSegment(dir);
+        byte[] unknownBusiness = ByteBuffer.allocate(14).put((byte) 'O').putInt(55555).put((byte) 1).putLong(1).array();
+        Files.write(segment, unknownBusiness, StandardOpenOption.APPEND);
+        IOException e = Check.fails("order for an unknown business", IOException.class, () -> reopen(dir));
+        Check.isTrue("message names the record: " + e.getMessage(), e.getMessage().startsWith("Corrupt order record"));
+
+        Files.write(segment, new byte[] {'X', 0, 0, 0, 0});
+        e = Check.fails("unknown record type", IOException.class, () -> reopen(dir));
+        Check.isTrue("message names the record: " + e.getMessage(), e.getMessage().startsWith("Corrupt record at offset 0"));
+    }
+
+    /**
+     * A torn record in a segment that was followed by another one is damage, not a crash:
+     * the start fails and leaves the file alone.
+     */
+    private static void rejectsIncompleteOlderSegment(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 7);
+        journal.close();
+        Path older = lastSegment(dir);
+        registry = new ClientRegistry(16);
+        journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 1);
+        journal.close();
+        Check.isTrue("a newer segment exists", !lastSegment(dir).equals(older));
+
+        Files.write(older, new byte[] {'O', 0, 0}, StandardOpenOption.APPEND);
+        long size = Files.size(older);
+        IOException e = Check.fails("incomplete older segment", IOException.class, () -> reopen(dir));
+        Check.isTrue("message names the record: " + e.getMessage(), e.getMessage().startsWith("Incomplete record at offset"));
+        Check.equal("older segment not truncated", size, Files.size(older));
+    }
+
+    /**
+     * Compaction that finds nothing new neither starts a segment nor rewrites the snapshot.
+     */
+    private static void skipsIdleCompaction(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 7);
+        journal.compact();
+        List<Path> segments = list(dir, "journal-");
+        List<Path> snapshots = list(dir, "snapshot");
+        Check.equal("one segment after compaction", 1, segments.size());
+        long written = Files.getLastModifiedTime(snapshots.get(0)).toMillis();
+        journal.compact();
+        journal.compact();
+        Check.equal("idle compaction keeps the segment", segments, list(dir, "journal-"));
+        Check.equal("idle compaction keeps the snapshot", snapshots, list(dir, "snapshot"));
+        Check.equal("snapshot not rewritten", written, Files.getLastModifiedTime(snapshots.get(0)).toMillis());
+
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 1);
+        journal.compact();
+        Check.isTrue("new orders are compacted", !segments.equals(list(dir, "journal-")));
+        journal.close();
+        Check.equal("totals", new long[] {0, 8, 0}, reopen(dir).get(10001).snapshot());
+
+        // segments left by the previous run are folded once, then compaction is idle again
+        registry = new ClientRegistry(16);
+        journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 1);
+        journal.close();
+        registry = new ClientRegistry(16);
+        journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        journal.compact();
+        segments = list(dir, "journal-");
+        Check.equal("leftover segments folded", 1, segments.size());
+        journal.compact();
+        Check.equal("then idle", segments, list(dir, "journal-"));
+        journal.close();
+        Check.equal("totals after folding", new long[] {0, 9, 0}, reopen(dir).get(10001).snapshot());
+    }
+
+    /**
+     * After close, orders fail with an I/O error that the connection handlers catch.
+     */
+    private static void closedJournalFailsOrders(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal journal = OrderJournal.open(dir, registry, NO_COMPACTION);
+        registry.processOrder("Acme", 10001, BusinessClient.BELTS, 7);
+        journal.close();
+        UncheckedIOException e = Check.fails("order after close", UncheckedIOException.class,
+                () -> registry.processOrder("Acme", 10001, BusinessClient.BELTS, 1));
+        Check.equal("message", "Order journal is closed", e.getMessage());
+        Check.fails("new business after close", UncheckedIOException.class,
+                () -> registry.processOrder("Bolt", 10002, BusinessClient.BELTS, 1));
+        Check.isTrue("earlier orders stay durable", registry.isDurable(registry.logPosition()));
+        Check.fails("compaction after close", IOException.class, journal::compact);
+    }
+
+    /**
+     * Recovers a journal into a new registry and closes it again.
+     */
+    private static ClientRegistry reopen(Path dir) throws IOException {
+        ClientRegistry registry = new ClientRegistry(16);
+        OrderJournal.open(dir, registry, NO_COMPACTION).close();
+        return registry;
+    }
+
+    /**
+     * Returns the newest segment that holds records.
+     */
+    private static Path lastSegment(Path dir) throws IOException {
+        List<Path> segments = list(dir, "journal-");
+        Collections.reverse(segments);
+        for (Path segment : segments) {
+            if (Files.size(segment) > 0) {
+                return segment;
+            }
+        }
+        throw new AssertionError("no records in " + dir);
+    }
+
+    private static List<Path> list(Path dir, String prefix) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (Path file : list(path, "")) {
+                delete(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,142 @@
+import java.util.Random;
+
+/**
+ * Tests of {@link OrderParser}: for the four order fields it must answer exactly like the
+ * original handler, which split the line on commas, trimmed each field and called
+ * {@link Integer#parseInt}, and ignored any fields after the fourth. The optional fifth field
+ * carries a request ID, and is still ignored when it is not one.
+ * <p>Usage: {@code java OrderParserTest}</p>
+ */
+public class OrderParserTest {
+    public static void main(String[] args) {
+        validLine();
+        knownLines();
+        randomLinesMatchOriginal();
+        requestId();
+        reusesRegisteredNames();
+        Check.done("OrderParserTest");
+    }
+
+    private static void validLine() {
+        Order order = new Order();
+        Check.equal("code", 0, parse(" Acme Ltd , 12345,\t2 , 7", order));
+        Check.equal("name", "Acme Ltd", order.name);
+        Check.equal("id", 12345, order.id);
+        Check.equal("item type", 2, order.itemType);
+        Check.equal("quantity", 7, order.quantity);
+        Check.equal("request ID", 0, order.requestId);
+    }
+
+    private static void knownLines() {
+        String[] lines = {
+                "", "Acme", "Acme,12345", "Acme,12345,1", "Acme,12345,1,", "Acme,12345,1,5",
+                "Acme,9999,1,5", "Acme,10000,1,5", "Acme,99999,1,5", "Acme,100000,1,5",
+                "Acme,12345,1,0", "Acme,12345,1,-5", "Acme,12345,1,+5", "Acme,+12345,1,5",
+                "Acme,12345,1,2147483647", "Acme,12345,1,2147483648", "Acme,12345,1,-2147483648",
+                "Acme,12345,1,-2147483649", "Acme,12 345,1,5", "Acme,12345,x,5", "Acme,12345,1,5 5",
+                "Acme,12345,-,5", "Acme,12345,,5", ",12345,1,5", "Acme,0x10,1,5", "Acme,12345,1,٥",
+                "Acme,12345,1,5,,,", "Acme,12345,1,0,", "Acme,12345,99,5", "Acme,12345,1,99999999999",
+        };
+        for (String line : lines) {
+            Check.equal("\"" + line + "\"", original(line), parse(line, new Order()));
+        }
+    }
+
+    /**
+     * Compares random lines of at most four fields with the original handler.
+     */
+    private static void randomLinesMatchOriginal() {
+        String alphabet = "0123456789012345678901234567890123456789,,,,,  \t-+aZ٥";
+        Random random = new Random(42);
+        Order order = new Order();
+        int compared = 0;
+        while (compared < 100_000) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int i = 0; i < length; i++) {
+                line.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String text = line.toString();
+            if (text.chars().filter(c -> c == ',').count() > 3) {
+                continue;
+            }
+            int expected = original(text);
+            int actual = parse(text, order);
+            if (expected != actual) {
+                Check.equal("\"" + text + "\"", expected, actual);
+            }
+            compared++;
+        }
+        Check.equal("random lines compared", 100_000, compared);
+    }
+
+    private static void requestId() {
+        Order order = new Order();
+        Check.equal("with request ID", 0, parse("Acme,12345,1,5, 987654321 ", order));
+        Check.equal("request ID", 987654321L, order.requestId);
+        Check.equal("largest request ID", 0, parse("Acme,12345,1,5," + Long.MAX_VALUE, order));
+        Check.equal("largest request ID value", Long.MAX_VALUE, order.requestId);
+        Check.equal("blank request ID", 0, parse("Acme,12345,1,5,  ", order));
+        Check.equal("blank request ID value", 0, order.requestId);
+        Check.equal("fields after the fifth ignored", 0, parse("Acme,12345,1,5,77,anything", order));
+        Check.equal("request ID before the ignored fields", 77, order.requestId);
+
+        // the original handler ignored a fifth field, so one that is no request ID still is
+        String[] notIds = {"0", "-1", "+1", "9223372036854775808", "abc", "1e5"};
+        for (String notId : notIds) {
+            order.requestId = 99;
+            Check.equal("accepted with " + notId, 0, parse("Acme,12345,1,5," + notId, order));
+            Check.equal("no request ID from " + notId, 0, order.requestId);
+        }
+        Check.equal("a bad quantity with a request ID", OrderSession.BAD_QUANTITY, parse("Acme,12345,1,0,5", order));
+        Check.equal("a bad quantity with text", OrderSession.BAD_QUANTITY, parse("Acme,12345,1,0,abc", order));
+
+        Order plain = new Order();
+        parse("Acme,12345,1,5,42", plain);
+        parse("Acme,12345,1,5", plain);
+        Check.equal("request ID reset by the next line", 0, plain.requestId);
+    }
+
+    private static void reusesRegisteredNames() {
+        ClientRegistry registry = new ClientRegistry(16);
+        registry.processOrder(new String("Acme"), 12345, 1, 1);
+        String registered = registry.get(12345).getName();
+        OrderParser parser = new OrderParser(registry);
+        Order order = new Order();
+        char[] line = " Acme ,12345,1,1".toCharArray();
+        parser.parse(line, 0, line.length, order);
+        Check.isTrue("registered name reused", order.name == registered);
+        char[] other = "Acme Ltd,12345,1,1".toCharArray();
+        parser.parse(other, 0, other.length, order);
+        Check.equal("other name kept", "Acme Ltd", order.name);
+    }
+
+    private static int parse(String line, Order order) {
+        char[] buf = ("xx" + line + "yy").toCharArray();
+        return new OrderParser(null).parse(buf, 2, line.length(), order);
+    }
+
+    /**
+     * The response code of the original handler before it applied the order, or 0 if it did.
+     */
+    private static int original(String line) {
+        String[] data = line.split(",");
+        if (data.length < 4) {
+            return OrderSession.INVALID;
+        }
+        try {
+            int id = Integer.parseInt(data[1].trim());
+            Integer.parseInt(data[2].trim());
+            int quantity = Integer.parseInt(data[3].trim());
+            if (id < 10000 || id > 99999) {
+                return OrderSession.INVALID;
+            }
+            if (quantity <= 0) {
+                return OrderSession.BAD_QUANTITY;
+            }
+            return 0;
+        } catch (NumberFormatException e) {
+            return OrderSession.INVALID;
+        }
+    }
+}
\ No newline at end of file
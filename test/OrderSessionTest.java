@@ -0,0 +1,162 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests of the line protocol in {@link OrderSession}: single orders, BATCH headers and their
+ * limits, resent orders with request IDs, and pipelined orders over a thread-mode
+ * {@link ClientHandler} connection.
+ * <p>Usage: {@code java OrderSessionTest}</p>
+ */
+public class OrderSessionTest {
+    public static void main(String[] args) throws Exception {
+        singleOrders();
+        batch();
+        batchLimits();
+        largestBatch();
+        resentOrders();
+        pipelinedOverSocket();
+        Check.done("OrderSessionTest");
+    }
+
+    private static void singleOrders() {
+        OrderSession session = new OrderSession();
+        Check.equal("order", "100", send(session, "Acme,10001,1,5"));
+        Check.equal("name mismatch", "201", send(session, "Other,10001,1,5"));
+        Check.equal("zero quantity", "202", send(session, "Acme,10001,1,0"));
+        Check.equal("missing field", "200", send(session, "Acme,10001"));
+        StringBuilder out = new StringBuilder();
+        Check.isTrue("disconnect ends the session", !handle(session, "Disconnect", out));
+        Check.equal("no answer to disconnect", "", out.toString());
+    }
+
+    /**
+     * The codes of a batch come back together, in order, after its last line.
+     */
+    private static void batch() {
+        OrderSession session = new OrderSession();
+        Check.equal("header is not answered", "", send(session, "BATCH 4"));
+        Check.equal("first line held back", "", send(session, "Beta,10002,2,3"));
+        Check.equal("disconnect inside a batch is a line", "", send(session, "DISCONNECT"));
+        Check.equal("invalid line held back", "", send(session, "Beta,10002,2,-1"));
+        Check.equal("all codes after the last line", "100\n200\n202\n201\n",
+                send(session, "Gamma,10002,2,1"));
+        Check.equal("applied", new long[] {0, 3, 0}, CentralServer.getClientDatabase().get(10002).snapshot());
+        Check.equal("back to single orders", "100", send(session, "Beta,10002,2,1"));
+        Check.equal("business named BATCH", "100", send(session, "BATCH 2,10003,1,1"));
+        Check.equal("its name", "BATCH 2", CentralServer.getClientDatabase().get(10003).getName());
+        Check.equal("lower-case header", "", send(session, "batch 1"));
+        Check.equal("one-line batch", "100", send(session, "BATCH 2,10003,1,1"));
+    }
+
+    /**
+     * A resend with the same request ID gets the first code and is not applied again,
+     * on any connection and inside a batch; the same ID for another business is another order.
+     */
+    private static void resentOrders() {
+        ClientRegistry database = CentralServer.getClientDatabase();
+        OrderSession session = new OrderSession();
+        Check.equal("first copy", "100", send(session, "Dedup,10020,1,5,7001"));
+        Check.equal("resend", "100", send(session, "Dedup,10020,1,5,7001"));
+        Check.equal("resend from another connection", "100", send(new OrderSession(), "Dedup,10020,1,5,7001"));
+        Check.equal("applied once", new long[] {5, 0, 0}, database.get(10020).snapshot());
+        Check.equal("same ID, other business", "100", send(session, "Other,10021,1,5,7001"));
+        Check.equal("other business applied", new long[] {5, 0, 0}, database.get(10021).snapshot());
+
+        Check.equal("batch header", "", send(session, "BATCH 3"));
+        send(session, "Dedup,10020,2,1,7002");
+        send(session, "Dedup,10020,2,1,7002");
+        Check.equal("copies in one batch", "100\n100\n100\n", send(session, "Dedup,10020,1,5,7001"));
+        Check.equal("batch applied each request once", new long[] {5, 1, 0}, database.get(10020).snapshot());
+
+        Check.equal("fifth field that is no request ID", "100", send(session, "Dedup,10020,3,1,abc"));
+        Check.equal("not taken for a resend", "100", send(session, "Dedup,10020,3,1,abc"));
+        Check.equal("both applied", new long[] {5, 1, 2}, database.get(10020).snapshot());
+    }
+
+    private static void batchLimits() {
+        OrderSession session = new OrderSession();
+        Check.equal("empty batch", "200", send(session, "BATCH 0"));
+        Check.equal("negative batch", "200", send(session, "BATCH -3"));
+        Check.equal("over the limit", "200", send(session, "BATCH " + (OrderSession.MAX_BATCH + 1)));
+        Check.equal("not a number", "200", send(session, "BATCH ten"));
+        Check.equal("no batch started", "100", send(session, "Delta,10004,3,1"));
+    }
+
+    private static void largestBatch() {
+        OrderSession session = new OrderSession();
+        Check.equal("header", "", send(session, "BATCH " + OrderSession.MAX_BATCH));
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < OrderSession.MAX_BATCH; i++) {
+            handle(session, "Eps,10005,1,1", out);
+        }
+        Check.equal("one code per line", "100\n".repeat(OrderSession.MAX_BATCH),
+                out.toString().replace(OrderSession.NEWLINE, "\n"));
+        Check.equal("totals", OrderSession.MAX_BATCH, CentralServer.getClientDatabase().get(10005).getCount(BusinessClient.SUNGLASSES));
+    }
+
+    /**
+     * A client that writes many lines without waiting gets every code back, in order.
+     */
+    private static void pipelinedOverSocket() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread accept = new Thread(() -> {
+                try {
+                    new ClientHandler(server.accept()).run();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+            accept.setDaemon(true);
+            accept.start();
+            try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+                socket.setSoTimeout(10_000);
+                StringBuilder lines = new StringBuilder();
+                for (int i = 0; i < 500; i++) {
+                    lines.append(i % 5 == 4 ? "Zeta,10006,1,0\n" : "Zeta,10006,1,1\n");
+                }
+                lines.append("BATCH 2\nZeta,10006,2,1\nOther,10006,2,1\n");
+                OutputStream out = socket.getOutputStream();
+                out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                boolean inOrder = true;
+                for (int i = 0; i < 500; i++) {
+                    inOrder &= in.readLine().equals(i % 5 == 4 ? "202" : "100");
+                }
+                Check.isTrue("pipelined codes in order", inOrder);
+                Check.equal("batch first", "100", in.readLine());
+                Check.equal("batch second", "201", in.readLine());
+                out.write("DISCONNECT\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Check.equal("closed", null, in.readLine());
+            }
+            accept.join(10_000);
+        }
+        Check.equal("pipelined totals", new long[] {400, 1, 0}, CentralServer.getClientDatabase().get(10006).snapshot());
+    }
+
+    /**
+     * Feeds one line to a session.
+     * @return What the session answered, with {@code \n} line ends.
+     */
+    private static String send(OrderSession session, String line) {
+        StringBuilder out = new StringBuilder();
+        handle(session, line, out);
+        String text = out.toString().replace(OrderSession.NEWLINE, "\n");
+        // a single code is compared without its line end
+        return !text.isEmpty() && text.indexOf('\n') == text.length() - 1 ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Feeds one line to a session from the middle of a larger buffer, as the servers do.
+     */
+    private static boolean handle(OrderSession session, String line, StringBuilder out) {
+        char[] buf = ("##" + line + "##").toCharArray();
+        return session.handleLine(buf, 2, line.length(), out);
+    }
+}
\ No newline at end of file
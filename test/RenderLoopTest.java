@@ -0,0 +1,77 @@
+/**
+ * Tests of the {@link RenderLoop} stepping and the {@link FrameStats} it keeps, without a display:
+ * steps follow simulated time whatever the frame rate, a very late frame skips steps instead of
+ * falling behind, and late frames are counted as dropped.
+ * <p>Usage: {@code java RenderLoopTest}</p>
+ */
+public class RenderLoopTest {
+    private static final long STEP_NANOS = MyAnim.STEP_MILLIS * 1_000_000L;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        frameStats();
+        fixedSteps();
+        lateFrame();
+        headless();
+        Check.fails("no frame rate", IllegalArgumentException.class, () -> new RenderLoop(animation(), 0));
+        Check.done("RenderLoopTest");
+    }
+
+    private static void frameStats() {
+        long budget = FrameStats.budget(60);
+        Check.equal("budget at 60 fps", 16_666_666, budget);
+        FrameStats stats = new FrameStats(budget);
+        Check.isTrue("empty " + stats.format(), stats.format().startsWith("frames=0 fps=0.0 "));
+        stats.record(budget);
+        stats.record(budget + budget / 2);
+        stats.record(budget * 2);
+        String text = stats.format();
+        Check.isTrue("frames " + text, text.startsWith("frames=3 "));
+        Check.isTrue("only the frame past one and a half budgets dropped " + text, text.contains(" dropped=1 "));
+    }
+
+    /**
+     * Frames of 10 ms or 40 ms cover the same simulated second with the same steps,
+     * and time short of a step is carried to the next frame.
+     */
+    private static void fixedSteps() {
+        RenderLoop fast = new RenderLoop(animation(), 100);
+        for (int i = 0; i < 100; i++) {
+            fast.advance(10_000_000);
+        }
+        RenderLoop slow = new RenderLoop(animation(), 25);
+        for (int i = 0; i < 25; i++) {
+            slow.advance(40_000_000);
+        }
+        Check.equal("one second at 100 fps", 1000 / MyAnim.STEP_MILLIS, fast.getSteps());
+        Check.equal("one second at 25 fps", 1000 / MyAnim.STEP_MILLIS, slow.getSteps());
+        Check.equal("nothing skipped", 0, fast.getSkippedSteps() + slow.getSkippedSteps());
+
+        RenderLoop loop = new RenderLoop(animation(), 60);
+        loop.advance(STEP_NANOS - 1);
+        Check.equal("less than a step", 0, loop.getSteps());
+        loop.advance(1);
+        Check.equal("the rest completes it", 1, loop.getSteps());
+    }
+
+    private static void lateFrame() {
+        RenderLoop loop = new RenderLoop(animation(), 60);
+        loop.advance(20 * STEP_NANOS + STEP_NANOS / 2);
+        Check.equal("steps capped", 8, loop.getSteps());
+        Check.equal("the rest skipped", 12, loop.getSkippedSteps());
+        loop.advance(STEP_NANOS / 2);
+        Check.equal("the part step is kept", 9, loop.getSteps());
+    }
+
+    private static void headless() {
+        RenderLoop loop = new RenderLoop(animation(), 60);
+        loop.runHeadless(650, 550, 60);
+        // 60 frames of 16.67 ms
+        Check.equal("steps for a second", 1000 / MyAnim.STEP_MILLIS, loop.getSteps());
+        Check.equal("nothing skipped", 0, loop.getSkippedSteps());
+    }
+
+    private static MyAnim animation() {
+        return new MyAnim(2, 650, 550, false);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests of the {@link ServerMetrics} counters and of the STATS command that reports them:
+ * every order line is counted once under its response code, batches included.
+ * <p>Usage: {@code java ServerMetricsTest}</p>
+ */
+public class ServerMetricsTest {
+    public static void main(String[] args) {
+        counters();
+        latencies();
+        statsCommand();
+        Check.done("ServerMetricsTest");
+    }
+
+    private static void counters() {
+        ServerMetrics metrics = new ServerMetrics();
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        int[] codes = {100, 100, 200, 201, 202, 202, 202, 204};
+        for (int code : codes) {
+            metrics.orderHandled(code);
+        }
+        Check.equal("connections", 1, metrics.getActiveConnections());
+        Check.equal("orders", codes.length, metrics.getOrdersTotal());
+        Check.equal("100", 2, metrics.getResponses100());
+        Check.equal("200", 1, metrics.getResponses200());
+        Check.equal("201", 1, metrics.getResponses201());
+        Check.equal("202", 3, metrics.getResponses202());
+        Map<String, String> stats = parse(metrics.format());
+        Check.equal("formatted orders", "8", stats.get("orders"));
+        Check.equal("formatted other", "1", stats.get("r_other"));
+        Check.equal("no rate before sampling", "0", stats.get("orders_per_sec"));
+    }
+
+    private static void latencies() {
+        ServerMetrics metrics = new ServerMetrics();
+        for (int i = 0; i < 100; i++) {
+            metrics.recordParse(2_000);
+            metrics.recordStore(30_000);
+            metrics.recordEndToEnd(i < 99 ? 50_000 : 5_000_000);
+        }
+        Check.equal("parse p50", 2, metrics.getParseP50Micros());
+        Check.equal("store p99", 30, metrics.getStoreP99Micros());
+        Check.equal("end-to-end p50", 50, metrics.getEndToEndP50Micros());
+        Check.equal("end-to-end p99", 50, metrics.getEndToEndP99Micros());
+        Check.isTrue("end-to-end p99.9 sees the outlier", metrics.getEndToEndP999Micros() >= 5_000);
+        Map<String, String> stats = parse(metrics.format());
+        Check.equal("formatted parse p50", "2", stats.get("parse_p50_us"));
+        Check.equal("formatted p99.9", String.valueOf(metrics.getEndToEndP999Micros()), stats.get("e2e_p999_us"));
+    }
+
+    /**
+     * STATS answers one line and counts the order lines handled since the previous STATS.
+     */
+    private static void statsCommand() {
+        OrderSession session = new OrderSession();
+        Map<String, String> before = stats(session);
+        StringBuilder out = new StringBuilder();
+        for (String line : new String[] {"Acme,10001,1,5", "Other,10001,1,5", "Acme,10001",
+                "BATCH 2", "Acme,10001,2,1", "Acme,10001,2,0"}) {
+            session.handleLine(line.toCharArray(), 0, line.length(), out);
+        }
+        Map<String, String> after = stats(session);
+        Check.equal("orders counted", 5, delta(before, after, "orders"));
+        Check.equal("100 counted", 2, delta(before, after, "r100"));
+        Check.equal("200 counted", 1, delta(before, after, "r200"));
+        Check.equal("201 counted", 1, delta(before, after, "r201"));
+        Check.equal("202 counted", 1, delta(before, after, "r202"));
+        Check.isTrue("latency reported", after.containsKey("e2e_p999_us"));
+    }
+
+    private static Map<String, String> stats(OrderSession session) {
+        StringBuilder out = new StringBuilder();
+        Check.isTrue("stats keeps the session open", session.handleLine("stats".toCharArray(), 0, 5, out));
+        String text = out.toString();
+        Check.isTrue("one line", text.endsWith(OrderSession.NEWLINE) && text.indexOf('\n') == text.length() - 1);
+        Check.isTrue("prefixed", text.startsWith("STATS "));
+        return parse(text.substring(6).trim());
+    }
+
+    private static long delta(Map<String, String> before, Map<String, String> after, String key) {
+        return Long.parseLong(after.get(key)) - Long.parseLong(before.get(key));
+    }
+
+    private static Map<String, String> parse(String line) {
+        Map<String, String> values = new HashMap<>();
+        for (String pair : line.split(" ")) {
+            int eq = pair.indexOf('=');
+            values.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return values;
+    }
+}
\ No newline at end of file
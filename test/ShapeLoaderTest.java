@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests of {@link ShapeLoader}: the outlines it accepts, the position and wording of its errors,
+ * and a binary cache that is only trusted while it matches the text.
+ * <p>Usage: {@code java ShapeLoaderTest}</p>
+ */
+public class ShapeLoaderTest {
+    public static void main(String[] args) throws IOException {
+        Path root = Files.createTempDirectory("shape-test");
+        try {
+            accepts(root);
+            rejects(root);
+            missingFile(root);
+            cache(root.resolve("cache"), root.resolve("cached.txt"));
+        } finally {
+            delete(root);
+        }
+        Check.done("ShapeLoaderTest");
+    }
+
+    private static void accepts(Path dir) throws IOException {
+        ShapeLoader loader = new ShapeLoader(null);
+        Check.equal("plain", new int[][] {{1, 2}, {-3, 40}}, points(loader.load(create(dir, "1,2\n-3,40\n"))));
+        Check.equal("blanks, blank lines, CRLF and signs", new int[][] {{1, 2}, {-3, 4}, {5, 6}, {7, 8}},
+                points(loader.load(create(dir, "1,2\n -3 , +4\r\n\n\t5,\t6 \r\n7,8"))));
+        Check.equal("int range", new int[][] {{-2147483648, 2147483647}},
+                points(loader.load(create(dir, "-2147483648,2147483647\n"))));
+        Check.equal("empty", new int[0][], points(loader.load(create(dir, ""))));
+        Check.equal("blank lines only", new int[0][], points(loader.load(create(dir, "\n \r\n\t\n"))));
+        Check.equal("polygon", 2, loader.load(create(dir, "1,2\n3,4\n")).toPolygon().npoints);
+    }
+
+    private static void rejects(Path dir) throws IOException {
+        rejects(dir, "1,2\nx,3\n", ":2:1: expected a number but found 'x'");
+        rejects(dir, "1;2\n", ":1:2: expected ',' but found ';'");
+        rejects(dir, "1 2\n", ":1:3: expected ',' but found '2'");
+        rejects(dir, "1,2,3\n", ":1:4: expected the end of the line but found ','");
+        rejects(dir, "1,2 3\n", ":1:5: expected the end of the line but found '3'");
+        rejects(dir, "1,\n", ":1:3: expected a number but found the end of the line");
+        rejects(dir, "1\n", ":1:2: expected ',' but found the end of the line");
+        rejects(dir, "-,1\n", ":1:2: expected a digit but found ','");
+        rejects(dir, "1,2\u0001\n", ":1:4: expected the end of the line but found byte 0x01");
+        rejects(dir, "1,Ã\n", ":1:3: expected a number but found byte 0xC3");
+        rejects(dir, "2147483648,0\n", ":1:11: number out of range");
+        rejects(dir, "0,-2147483649\n", ":1:13: number out of range");
+        rejects(dir, "0,99999999999999999999\n", ":1:12: number out of range");
+        rejects(dir, "1,2\n3", ":2:1: unexpected end of file");
+        rejects(dir, "1,", ":1:2: unexpected end of file");
+        rejects(dir, "1,2\n-", ":2:1: unexpected end of file");
+    }
+
+    private static void rejects(Path dir, String text, String error) throws IOException {
+        Path file = create(dir, text);
+        IOException e = Check.fails(text, IOException.class, () -> new ShapeLoader(null).load(file));
+        Check.equal("message of " + text.trim(), file.toAbsolutePath() + error, e.getMessage());
+    }
+
+    private static void missingFile(Path dir) {
+        Path file = dir.resolve("missing.txt");
+        NoSuchFileException e = Check.fails("missing", NoSuchFileException.class, () -> new ShapeLoader(null).load(file));
+        Check.equal("missing file", file.toAbsolutePath().toString(), e.getFile());
+        Check.equal("missing reason", "no such file", e.getReason());
+    }
+
+    /**
+     * A later loader reads the points from the cache file; a cache file that does not match
+     * its header, or a text that changed since, makes it parse the text again.
+     */
+    private static void cache(Path cacheDir, Path file) throws IOException {
+        write(file, "1,2\n3,4\n5,6\n");
+        ShapeLoader first = new ShapeLoader(cacheDir);
+        ShapeLoader.Outline outline = first.load(file);
+        Check.equal("parsed", new int[][] {{1, 2}, {3, 4}, {5, 6}}, points(outline));
+        Check.isTrue("kept in memory", first.load(file) == outline);
+        List<Path> caches = list(cacheDir);
+        Check.equal("one cache file", 1, caches.size());
+        Path cache = caches.get(0);
+
+        // change the last Y coordinate in the cache only, to tell where the points came from
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 60), channel.size() - 4);
+        }
+        Check.equal("from the cache file", new int[][] {{1, 2}, {3, 4}, {5, 60}}, points(new ShapeLoader(cacheDir).load(file)));
+
+        ByteBuffer wrongCount = ByteBuffer.allocate(4).putInt(0, Integer.MAX_VALUE);
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            channel.write(wrongCount, 24);
+        }
+        Check.equal("point count that does not fit the file", new int[][] {{1, 2}, {3, 4}, {5, 6}},
+                points(new ShapeLoader(cacheDir).load(file)));
+        Check.equal("cache file rewritten", new int[][] {{1, 2}, {3, 4}, {5, 6}}, points(new ShapeLoader(cacheDir).load(file)));
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4).putInt(0, 0x12345678), 0);
+        }
+        Check.equal("wrong magic", new int[][] {{1, 2}, {3, 4}, {5, 6}}, points(new ShapeLoader(cacheDir).load(file)));
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.WRITE)) {
+            channel.truncate(10);
+        }
+        Check.equal("truncated header", new int[][] {{1, 2}, {3, 4}, {5, 6}}, points(new ShapeLoader(cacheDir).load(file)));
+        Check.isTrue("truncated cache file rewritten", Files.size(cache) > 10);
+
+        FileTime modified = Files.getLastModifiedTime(file);
+        write(file, "7,8\n9,10\n11,12\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 2000));
+        Check.equal("changed text, same loader", new int[][] {{7, 8}, {9, 10}, {11, 12}}, points(first.load(file)));
+        write(file, "13,14\n");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(modified.toMillis() + 4000));
+        Check.equal("changed text, new loader", new int[][] {{13, 14}}, points(new ShapeLoader(cacheDir).load(file)));
+        Check.equal("still one cache file", 1, list(cacheDir).size());
+    }
+
+    private static int[][] points(ShapeLoader.Outline outline) {
+        int[][] points = new int[outline.points()][];
+        for (int i = 0; i < points.length; i++) {
+            points[i] = new int[] {outline.x(i), outline.y(i)};
+        }
+        return points;
+    }
+
+    /**
+     * Writes a text to a new file in a directory; characters below 256 become single bytes.
+     */
+    private static Path create(Path dir, String text) throws IOException {
+        return write(Files.createTempFile(dir, "shape", ".txt"), text);
+    }
+
+    private static Path write(Path file, String text) throws IOException {
+        return Files.write(file, text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            for (Path file : list(path)) {
+                delete(file);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,184 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Tests of sharding: the {@link ShardMap} spreads IDs evenly and moves few when a shard is added,
+ * and the {@link ShardRouter} forwards to a scripted peer, reuses its connections, replaces one the
+ * peer closed while idle, and only sends an order again after it was written when it carries a request ID.
+ * <p>Usage: {@code java ShardRouterTest}</p>
+ */
+public class ShardRouterTest {
+    /** What the scripted peer does with the next order line. */
+    private static volatile String mode = "answer";
+    /** Order lines the peer received, in order. */
+    private static final List<String> received = new CopyOnWriteArrayList<>();
+    /** Open connections to the peer, so the test can close them. */
+    private static final List<Socket> peerSockets = new CopyOnWriteArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("shard-test");
+        try (ServerSocket peer = startPeer()) {
+            map(dir);
+            forwarding(dir, peer.getLocalPort());
+        } finally {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        Check.done("ShardRouterTest");
+    }
+
+    private static void map(Path dir) throws IOException {
+        ShardMap two = ShardMap.load(write(dir, "two.map", "# shards\n\neast localhost:9001\nwest  otherhost:9002\n"));
+        Check.equal("size", 2, two.size());
+        Check.equal("index", 1, two.indexOf("west"));
+        Check.equal("unknown shard", -1, two.indexOf("north"));
+        Check.equal("address", "otherhost:9002", two.address(1));
+        int[] owned = new int[2];
+        for (int id = 10000; id < 100000; id++) {
+            owned[two.ownerOf(id)]++;
+        }
+        Check.isTrue("even split " + owned[0] + "/" + owned[1], Math.abs(owned[0] - owned[1]) < 90000 / 5);
+
+        ShardMap three = ShardMap.load(write(dir, "three.map", "east localhost:9001\nwest otherhost:9002\nnorth h:9003\n"));
+        int moved = 0;
+        boolean onlyToNew = true;
+        for (int id = 10000; id < 100000; id++) {
+            if (two.ownerOf(id) != three.ownerOf(id)) {
+                moved++;
+                onlyToNew &= three.ownerOf(id) == 2;
+            }
+        }
+        Check.isTrue("IDs only move to the new shard", onlyToNew);
+        Check.isTrue("about a third move: " + moved, moved > 90000 / 5 && moved < 90000 / 2);
+
+        Check.fails("no port", IllegalArgumentException.class, () -> ShardMap.load(write(dir, "bad.map", "east localhost\n")));
+        Check.fails("bad port", IllegalArgumentException.class, () -> ShardMap.load(write(dir, "bad.map", "east h:x\n")));
+        Check.fails("duplicate", IllegalArgumentException.class,
+                () -> ShardMap.load(write(dir, "bad.map", "east h:1\neast h:2\n")));
+        Check.fails("empty", IllegalArgumentException.class, () -> ShardMap.load(write(dir, "bad.map", "# nothing\n")));
+    }
+
+    private static void forwarding(Path dir, int peerPort) throws IOException, InterruptedException {
+        ShardMap map = ShardMap.load(write(dir, "peer.map", "self localhost:1\npeer localhost:" + peerPort + "\n"));
+        ShardRouter router = new ShardRouter(map, 0, true);
+        Check.isTrue("forwarding", router.isForwarding());
+        int foreign = 10000;
+        while (router.isLocal(foreign)) {
+            foreign++;
+        }
+        Check.equal("owner address", "localhost:" + peerPort, router.ownerAddress(foreign));
+
+        Check.equal("forwarded", OrderSession.OK, router.forward("Acme", foreign, 1, 5, 0));
+        Check.equal("forwarded again", OrderSession.OK, router.forward("Acme", foreign, 1, 6, 0));
+        Check.equal("connection reused", 1, peerSockets.size());
+        Check.equal("lines", List.of("Acme," + foreign + ",1,5", "Acme," + foreign + ",1,6"), received);
+
+        // the peer closes the idle connection, say on its idle timeout: a fresh one is used
+        closePeerSockets();
+        Thread.sleep(100);
+        received.clear();
+        Check.equal("after an idle close", OrderSession.OK, router.forward("Acme", foreign, 2, 1, 0));
+        Check.equal("sent once", List.of("Acme," + foreign + ",2,1"), received);
+
+        // the peer takes the order and hangs up: it may have applied it, so it is not sent again
+        received.clear();
+        mode = "hangup";
+        Check.equal("unanswered", OrderSession.SHARD_UNAVAILABLE, router.forward("Acme", foreign, 3, 1, 0));
+        Thread.sleep(100);
+        Check.equal("not resent", List.of("Acme," + foreign + ",3,1"), received);
+
+        received.clear();
+        mode = "garble";
+        Check.equal("garbled answer", OrderSession.SHARD_UNAVAILABLE, router.forward("Acme", foreign, 3, 2, 0));
+        mode = "answer";
+        Check.equal("recovers", OrderSession.OK, router.forward("Acme", foreign, 3, 3, 0));
+        Check.equal("each order sent once", List.of("Acme," + foreign + ",3,2", "Acme," + foreign + ",3,3"), received);
+
+        // with a request ID the owner recognizes a second copy, so a lost pooled connection is retried
+        received.clear();
+        mode = "hangup-once";
+        Check.equal("retried with a request ID", OrderSession.OK, router.forward("Acme", foreign, 4, 1, 77));
+        Check.equal("sent twice with its ID", List.of("Acme," + foreign + ",4,1,77", "Acme," + foreign + ",4,1,77"), received);
+
+        ShardMap gone = ShardMap.load(write(dir, "gone.map", "self localhost:1\npeer localhost:" + freePort() + "\n"));
+        Check.equal("peer down", OrderSession.SHARD_UNAVAILABLE, new ShardRouter(gone, 0, true).forward("Acme", foreign, 1, 1, 0));
+    }
+
+    /**
+     * Starts the scripted peer: it accepts the PEER handshake and then follows {@link #mode}.
+     */
+    private static ServerSocket startPeer() throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        Thread accept = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    peerSockets.add(socket);
+                    Thread connection = new Thread(() -> serve(socket));
+                    connection.setDaemon(true);
+                    connection.start();
+                } catch (IOException e) {
+                    // the test closed the server
+                }
+            }
+        }, "scripted-peer");
+        accept.setDaemon(true);
+        accept.start();
+        return server;
+    }
+
+    private static void serve(Socket socket) {
+        try (socket) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            String line = in.readLine();
+            if (!"PEER".equals(line)) {
+                return;
+            }
+            out.println(OrderSession.OK);
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+                if (mode.equals("hangup-once")) {
+                    mode = "answer";
+                    return;
+                }
+                if (mode.equals("hangup")) {
+                    return;
+                }
+                out.println(mode.equals("garble") ? "what?" : String.valueOf(OrderSession.OK));
+            }
+        } catch (IOException e) {
+            // closed by the test or the router
+        } finally {
+            peerSockets.remove(socket);
+        }
+    }
+
+    private static void closePeerSockets() throws IOException {
+        for (Socket socket : peerSockets) {
+            socket.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    private static Path write(Path dir, String name, String text) throws IOException {
+        return Files.writeString(dir.resolve(name), text);
+    }
+}
\ No newline at end of file
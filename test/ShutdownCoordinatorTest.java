@@ -0,0 +1,171 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests of the graceful shutdown: a {@link NioServer} connection and a thread-mode
+ * {@link ClientHandler} connection are drained, answered orders survive in the journal,
+ * a line cut short is never applied, and no new connection is accepted afterwards.
+ * <p>Usage: {@code java ShutdownCoordinatorTest}</p>
+ */
+public class ShutdownCoordinatorTest {
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("shutdown-journal");
+        try {
+            adminOnly();
+            drain(dir);
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+        Check.done("ShutdownCoordinatorTest");
+    }
+
+    /**
+     * SHUTDOWN is refused on a connection that may not use admin commands.
+     */
+    private static void adminOnly() {
+        OrderSession session = new OrderSession();
+        StringBuilder out = new StringBuilder();
+        Check.isTrue("session stays open", session.handleLine("SHUTDOWN".toCharArray(), 0, 8, out));
+        Check.equal("refused", "200" + OrderSession.NEWLINE, out.toString());
+        Check.isTrue("no shutdown started", !CentralServer.getShutdownCoordinator().isShuttingDown());
+    }
+
+    private static void drain(Path dir) throws Exception {
+        ShutdownCoordinator shutdown = CentralServer.getShutdownCoordinator();
+        shutdown.setJournal(OrderJournal.open(dir, CentralServer.getClientDatabase(), 3600));
+        int nioPort = freePort();
+        ServerConfig config = ServerConfig.parse(new String[] {"--mode=nio", "--port=" + nioPort, "--io-threads=1"});
+        Thread nio = new Thread(() -> {
+            try {
+                new NioServer(config).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }, "nio-server");
+        nio.setDaemon(true);
+        nio.start();
+        ServerSocket threaded = startThreaded(shutdown);
+
+        try (Client selector = new Client(nioPort); Client blocking = new Client(threaded.getLocalPort())) {
+            Check.equal("nio order", "100", selector.call("Acme,10001,1,5"));
+            Check.equal("thread order", "100", blocking.call("Acme,10001,2,3"));
+            // the rest of this line never comes
+            selector.send("Acme,10001,3,");
+
+            long start = System.nanoTime();
+            shutdown.shutdown();
+            Check.isTrue("drained well before the deadline", System.nanoTime() - start < 5_000_000_000L);
+            Check.isTrue("shutting down", shutdown.isShuttingDown());
+            Check.equal("nio connection closed after its answers", null, selector.read());
+            Check.equal("thread connection closed after its answers", null, blocking.read());
+        }
+        Check.equal("no connections left", 0, CentralServer.getAdmissionControl().getConnections());
+        Check.fails("nio listener closed", IOException.class, () -> new Socket("localhost", nioPort).close());
+        Check.isTrue("thread listener closed", threaded.isClosed());
+        Check.equal("cut line not applied", new long[] {5, 3, 0}, CentralServer.getClientDatabase().get(10001).snapshot());
+
+        // the journal was closed, so every answered order is on disk
+        ClientRegistry recovered = new ClientRegistry(16);
+        OrderJournal reopened = OrderJournal.open(dir, recovered, 3600);
+        try {
+            Check.equal("recovered totals", new long[] {5, 3, 0}, recovered.get(10001).snapshot());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * Accepts connections for thread-mode {@link ClientHandler}s, counted like the server does.
+     */
+    private static ServerSocket startThreaded(ShutdownCoordinator shutdown) throws IOException {
+        ServerSocket server = new ServerSocket(0);
+        shutdown.addListener(server);
+        Thread accept = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    CentralServer.getAdmissionControl().connectionOpened();
+                    Thread handler = new Thread(() -> {
+                        try {
+                            new ClientHandler(socket).run();
+                        } finally {
+                            CentralServer.getAdmissionControl().connectionClosed();
+                        }
+                    });
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // closed by the shutdown
+                }
+            }
+        }, "thread-server");
+        accept.setDaemon(true);
+        accept.start();
+        return server;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0)) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * A blocking test client that writes raw bytes and reads response lines.
+     */
+    private static final class Client implements AutoCloseable {
+        final Socket socket;
+        final OutputStream out;
+        final BufferedReader in;
+
+        Client(int port) throws Exception {
+            Socket connected = null;
+            for (int attempt = 0; connected == null; attempt++) {
+                try {
+                    connected = new Socket("localhost", port);
+                } catch (IOException e) {
+                    if (attempt == 100) {
+                        throw e;
+                    }
+                    Thread.sleep(50);
+                }
+            }
+            socket = connected;
+            socket.setSoTimeout(10_000);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        void send(String text) throws IOException {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+
+        String read() throws IOException {
+            return in.readLine();
+        }
+
+        String call(String line) throws IOException {
+            send(line + "\n");
+            return read();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,131 @@
+/**
+ * Tests of {@link TotalsIndex}: totals per item type, and rankings that stay exact when only
+ * the top {@link TotalsIndex#MAX_TOP} businesses are kept.
+ * <p>Usage: {@code java TotalsIndexTest}</p>
+ */
+public class TotalsIndexTest {
+    /** Longest wait for the refresh thread to publish a view. */
+    private static final long PUBLISH_TIMEOUT_MS = 5000;
+
+    public static void main(String[] args) throws InterruptedException {
+        seededRanking();
+        ordersUpdateRanking();
+        onlyTheTopIsKept();
+        Check.done("TotalsIndexTest");
+    }
+
+    private static void seededRanking() {
+        TotalsIndex index = new TotalsIndex();
+        Check.equal("empty version", 0, index.view().version());
+        index.seed(10003, new long[] {5, 0, 1});
+        index.seed(10001, new long[] {5, 0, 2});
+        index.seed(10002, new long[] {9, 0, 0});
+        index.start();
+
+        TotalsIndex.View view = index.view();
+        Check.equal("version after start", 1, view.version());
+        Check.equal("total sunglasses", 19, view.total(BusinessClient.SUNGLASSES));
+        Check.equal("total belts", 0, view.total(BusinessClient.BELTS));
+        Check.equal("total scarves", 3, view.total(BusinessClient.SCARVES));
+        Check.equal("ranked sunglasses", 3, view.ranked(BusinessClient.SUNGLASSES));
+        Check.equal("best first, ties by ID", new int[] {10002, 10001, 10003}, topIds(view, BusinessClient.SUNGLASSES));
+        Check.equal("counts", new long[] {9, 5, 5}, topCounts(view, BusinessClient.SUNGLASSES));
+        Check.equal("nobody ordered belts", 0, view.ranked(BusinessClient.BELTS));
+        Check.equal("zero totals not ranked", new int[] {10001, 10003}, topIds(view, BusinessClient.SCARVES));
+    }
+
+    private static void ordersUpdateRanking() throws InterruptedException {
+        TotalsIndex index = new TotalsIndex();
+        BusinessClient acme = new BusinessClient("Acme", 10001);
+        BusinessClient bolt = new BusinessClient("Bolt", 10002);
+        index.start();
+        TotalsIndex.View before = index.view();
+
+        order(index, acme, BusinessClient.BELTS, 3);
+        order(index, bolt, BusinessClient.BELTS, 2);
+        order(index, bolt, BusinessClient.SCARVES, 8);
+        TotalsIndex.View view = awaitVersion(index, before.version() + 1);
+        Check.equal("belts", new int[] {10001, 10002}, topIds(view, BusinessClient.BELTS));
+        Check.equal("belt total", 5, view.total(BusinessClient.BELTS));
+        Check.equal("scarves", new int[] {10002}, topIds(view, BusinessClient.SCARVES));
+        Check.equal("earlier view unchanged", 0, before.ranked(BusinessClient.BELTS));
+
+        order(index, bolt, BusinessClient.BELTS, 2);
+        view = awaitVersion(index, view.version() + 1);
+        Check.equal("overtaken", new int[] {10002, 10001}, topIds(view, BusinessClient.BELTS));
+        Check.equal("overtaken counts", new long[] {4, 3}, topCounts(view, BusinessClient.BELTS));
+        Check.equal("belt total after more orders", 7, view.total(BusinessClient.BELTS));
+    }
+
+    /**
+     * A business outside the top can only get in by growing, which the refresh sees,
+     * so the rankings stay exact with only the top ones kept.
+     */
+    private static void onlyTheTopIsKept() throws InterruptedException {
+        int businesses = TotalsIndex.MAX_TOP + 50;
+        TotalsIndex index = new TotalsIndex();
+        BusinessClient[] clients = new BusinessClient[businesses];
+        for (int i = 0; i < businesses; i++) {
+            clients[i] = new BusinessClient("B" + i, 10000 + i);
+            clients[i].updateItems(BusinessClient.SUNGLASSES, i + 1);
+            index.seed(10000 + i, clients[i].snapshot());
+        }
+        index.start();
+        TotalsIndex.View view = index.view();
+        Check.equal("ranked", TotalsIndex.MAX_TOP, view.ranked(BusinessClient.SUNGLASSES));
+        Check.equal("best", 10000 + businesses - 1, view.topId(BusinessClient.SUNGLASSES, 0));
+        Check.equal("last kept", 10000 + businesses - TotalsIndex.MAX_TOP,
+                view.topId(BusinessClient.SUNGLASSES, TotalsIndex.MAX_TOP - 1));
+
+        // the smallest business grows from 1 to the top
+        order(index, clients[0], BusinessClient.SUNGLASSES, 1000);
+        view = awaitVersion(index, view.version() + 1);
+        Check.equal("still capped", TotalsIndex.MAX_TOP, view.ranked(BusinessClient.SUNGLASSES));
+        Check.equal("grown into the top", 10000, view.topId(BusinessClient.SUNGLASSES, 0));
+        Check.equal("its count", 1001, view.topCount(BusinessClient.SUNGLASSES, 0));
+        Check.equal("the old last one dropped out", 10000 + businesses - TotalsIndex.MAX_TOP + 1,
+                view.topId(BusinessClient.SUNGLASSES, TotalsIndex.MAX_TOP - 1));
+
+        long[] expected = new long[TotalsIndex.MAX_TOP];
+        expected[0] = 1001;
+        for (int rank = 1; rank < TotalsIndex.MAX_TOP; rank++) {
+            expected[rank] = businesses - rank + 1;
+        }
+        Check.equal("exact ranking", expected, topCounts(view, BusinessClient.SUNGLASSES));
+    }
+
+    /**
+     * Applies an order to a business and records it, as the registry does.
+     */
+    private static void order(TotalsIndex index, BusinessClient client, int itemType, int quantity) {
+        client.updateItems(itemType, quantity);
+        index.ordered(client, itemType, quantity);
+    }
+
+    private static TotalsIndex.View awaitVersion(TotalsIndex index, long version) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + PUBLISH_TIMEOUT_MS;
+        while (index.view().version() < version) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("version " + version + " not published, still " + index.view().version());
+            }
+            Thread.sleep(10);
+        }
+        return index.view();
+    }
+
+    private static int[] topIds(TotalsIndex.View view, int itemType) {
+        int[] ids = new int[view.ranked(itemType)];
+        for (int rank = 0; rank < ids.length; rank++) {
+            ids[rank] = view.topId(itemType, rank);
+        }
+        return ids;
+    }
+
+    private static long[] topCounts(TotalsIndex.View view, int itemType) {
+        long[] counts = new long[view.ranked(itemType)];
+        for (int rank = 0; rank < counts.length; rank++) {
+            counts[rank] = view.topCount(itemType, rank);
+        }
+        return counts;
+    }
+}
\ No newline at end of file